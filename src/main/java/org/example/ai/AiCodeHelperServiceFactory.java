@@ -3,10 +3,15 @@ package org.example.ai;
 import dev.langchain4j.mcp.McpToolProvider;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.service.AiServices;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.example.ai.cache.CachingAiCodeHelperService;
+import org.example.ai.cache.SemanticAnswerCache;
 import org.example.ai.memory.PersistentChatMemoryProvider;
+import org.example.ai.rag.IngestionGeneration;
 import org.example.ai.service.ConversationStorageService;
 import org.example.ai.tool.InterviewQuestionTool;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,7 +19,10 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 
+import java.time.Duration;
+
 @Configuration
+@Slf4j
 public class AiCodeHelperServiceFactory {
 
     @Resource
@@ -33,9 +41,30 @@ public class AiCodeHelperServiceFactory {
     @Resource
     private ConversationStorageService conversationStorageService;
 
+    /**
+     * 与检索共用的查询向量模型,回答缓存未命中时已向量化的问题在检索时直接命中查询向量缓存
+     */
+    @Resource(name = "queryEmbeddingModel")
+    private EmbeddingModel queryEmbeddingModel;
+
+    @Resource
+    private IngestionGeneration ingestionGeneration;
+
     @Value("${chat.memory.max-messages:20}")
     private int maxMessages;
 
+    @Value("${chat.answer-cache.enabled:false}")
+    private boolean answerCacheEnabled;
+
+    @Value("${chat.answer-cache.similarity:0.95}")
+    private double answerCacheSimilarity;
+
+    @Value("${chat.answer-cache.max-entries:2000}")
+    private int answerCacheMaxEntries;
+
+    @Value("${chat.answer-cache.ttl-minutes:360}")
+    private long answerCacheTtlMinutes;
+
     /**
      * 持久化聊天内存提供者
      */
@@ -45,7 +74,7 @@ public class AiCodeHelperServiceFactory {
     }
 
     /**
-     * AI代码助手服务
+     * AI代码助手服务,开启回答缓存时包装为CachingAiCodeHelperService,相似的第一轮提问不再调用大模型
      */
     @Bean
     public AiCodeHelperService aiCodeHelperService() {
@@ -62,6 +91,13 @@ public class AiCodeHelperServiceFactory {
                 .tools(mcpToolProvider) // MCP工具调用
                 .build();
 
+        if (answerCacheEnabled) {
+            log.info("启用语义回答缓存: 相似度阈值 {}, 上限 {} 条, 有效期 {} 分钟",
+                    answerCacheSimilarity, answerCacheMaxEntries, answerCacheTtlMinutes);
+            SemanticAnswerCache cache = new SemanticAnswerCache(queryEmbeddingModel, ingestionGeneration,
+                    answerCacheSimilarity, answerCacheMaxEntries, Duration.ofMinutes(answerCacheTtlMinutes));
+            return new CachingAiCodeHelperService(aiCodeHelperService, cache, memoryProvider);
+        }
         return aiCodeHelperService;
     }
 }
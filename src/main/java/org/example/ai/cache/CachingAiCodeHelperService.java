@@ -0,0 +1,127 @@
+package org.example.ai.cache;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.service.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.example.ai.AiCodeHelperService;
+import org.example.ai.guardrail.SafeInputGuardrail;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 带语义回答缓存的AI代码助手服务.
+ * 只缓存与会话记忆无关的问题(会话中还没有AI回复,即第一轮提问)的回答;命中时不调用大模型,
+ * 流式接口把缓存的回答分片回放,并把问答写入会话记忆,后续追问仍有上下文.
+ * 其他方法直接转发
+ */
+@Slf4j
+public class CachingAiCodeHelperService implements AiCodeHelperService {
+
+    /**
+     * 流式回放时每个分片的字符数
+     */
+    private static final int REPLAY_CHUNK_CHARS = 16;
+
+    private final AiCodeHelperService delegate;
+    private final SemanticAnswerCache cache;
+    private final ChatMemoryProvider memoryProvider;
+    private final SafeInputGuardrail guardrail = new SafeInputGuardrail();
+
+    public CachingAiCodeHelperService(AiCodeHelperService delegate, SemanticAnswerCache cache,
+                                      ChatMemoryProvider memoryProvider) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.memoryProvider = memoryProvider;
+    }
+
+    public SemanticAnswerCache cache() {
+        return cache;
+    }
+
+    @Override
+    public String chat(String memoryId, String userMessage) {
+        if (!cacheable(memoryId, userMessage)) {
+            return delegate.chat(memoryId, userMessage);
+        }
+        SemanticAnswerCache.Lookup lookup = cache.lookup(userMessage);
+        if (lookup.hit()) {
+            remember(memoryId, userMessage, lookup.answer());
+            return lookup.answer();
+        }
+        String answer = delegate.chat(memoryId, userMessage);
+        cache.put(userMessage, lookup, answer);
+        return answer;
+    }
+
+    @Override
+    public Flux<String> chatStream(String memoryId, String userMessage) {
+        if (!cacheable(memoryId, userMessage)) {
+            return delegate.chatStream(memoryId, userMessage);
+        }
+        SemanticAnswerCache.Lookup lookup = cache.lookup(userMessage);
+        if (lookup.hit()) {
+            remember(memoryId, userMessage, lookup.answer());
+            return Flux.fromIterable(chunks(lookup.answer()));
+        }
+        StringBuilder answer = new StringBuilder();
+        return delegate.chatStream(memoryId, userMessage)
+                .doOnNext(answer::append)
+                .doOnComplete(() -> cache.put(userMessage, lookup, answer.toString()));
+    }
+
+    @Override
+    public Report chatForReport(String memoryId, String userMessage) {
+        return delegate.chatForReport(memoryId, userMessage);
+    }
+
+    @Override
+    public Result<String> chatWthRag(String userMessage) {
+        return delegate.chatWthRag(userMessage);
+    }
+
+    /**
+     * 会话中已有AI回复时回答依赖上下文,不查找也不写入缓存;未通过输入护轨的问题交给原服务处理(拒绝)
+     */
+    private boolean cacheable(String memoryId, String userMessage) {
+        if (userMessage == null || userMessage.isBlank()
+                || !guardrail.validate(UserMessage.from(userMessage)).isSuccess()) {
+            return false;
+        }
+        for (ChatMessage message : memoryProvider.get(memoryId).messages()) {
+            if (message instanceof AiMessage) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 与大模型回答时一样把问答写入会话记忆
+     */
+    private void remember(String memoryId, String userMessage, String answer) {
+        ChatMemory memory = memoryProvider.get(memoryId);
+        memory.add(UserMessage.from(userMessage));
+        memory.add(AiMessage.from(answer));
+    }
+
+    private static List<String> chunks(String answer) {
+        List<String> chunks = new ArrayList<>();
+        int i = 0;
+        while (i < answer.length()) {
+            int end = Math.min(answer.length(), i + REPLAY_CHUNK_CHARS);
+            // 不把代理对拆到两个分片
+            if (end < answer.length() && Character.isHighSurrogate(answer.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(answer.substring(i, end));
+            i = end;
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,248 @@
+package org.example.ai.cache;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import lombok.extern.slf4j.Slf4j;
+import org.example.ai.rag.CachingContentRetriever;
+import org.example.ai.rag.HnswEmbeddingStore;
+import org.example.ai.rag.IngestionGeneration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 语义回答缓存: 与已回答过的问题足够相似的新问题直接使用缓存的回答,不调用大模型.
+ * 先按规范化后的问题文本精确查找(不需要向量化),未命中时向量化问题,在进程内HNSW索引中查找余弦相似度超过阈值的问题.
+ * 每条回答有各自的过期时间;知识库版本号(IngestionGeneration)变化或调用invalidateAll时全部失效.
+ * 条目数超过上限时淘汰最久未命中的回答
+ */
+@Slf4j
+public class SemanticAnswerCache {
+
+    private static final int HNSW_M = 16;
+    private static final int HNSW_EF_CONSTRUCTION = 100;
+    private static final int HNSW_EF_SEARCH = 64;
+    private static final int CANDIDATES = 3;
+
+    private final EmbeddingModel embeddingModel;
+    private final IngestionGeneration generation;
+    private final double minScore;
+    private final int maxEntries;
+    private final Duration ttl;
+    private final LongSupplier clock;
+
+    private final HnswEmbeddingStore index = new HnswEmbeddingStore(HNSW_M, HNSW_EF_CONSTRUCTION, HNSW_EF_SEARCH);
+    /**
+     * 按访问顺序排列,最久未命中的在前
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> idsByQuestion = new HashMap<>();
+    private long cachedGeneration;
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong semanticHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * 查找结果
+     *
+     * @param answer    命中的回答,未命中时为null
+     * @param embedding  问题的向量,精确命中或向量化失败时为null,未命中时写入缓存复用
+     * @param generation 查找时的知识库版本号,生成回答期间知识库有更新时回答不写入
+     */
+    public record Lookup(String answer, Embedding embedding, long generation) {
+
+        public boolean hit() {
+            return answer != null;
+        }
+    }
+
+    private record Entry(String id, String question, String answer, long expiresAt) {
+    }
+
+    /**
+     * @param embeddingModel 问题向量化使用的模型
+     * @param generation     知识库版本号
+     * @param similarity     命中的最低余弦相似度
+     * @param maxEntries     最多缓存的回答数
+     * @param ttl            每条回答写入后的有效期
+     */
+    public SemanticAnswerCache(EmbeddingModel embeddingModel, IngestionGeneration generation, double similarity,
+                               int maxEntries, Duration ttl) {
+        this(embeddingModel, generation, similarity, maxEntries, ttl, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock 判断回答是否过期使用的毫秒时钟
+     */
+    SemanticAnswerCache(EmbeddingModel embeddingModel, IngestionGeneration generation, double similarity,
+                        int maxEntries, Duration ttl, LongSupplier clock) {
+        this.embeddingModel = embeddingModel;
+        this.generation = generation;
+        this.minScore = RelevanceScore.fromCosineSimilarity(similarity);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttl = ttl;
+        this.clock = clock;
+        this.cachedGeneration = generation.current();
+    }
+
+    /**
+     * 查找问题的缓存回答
+     */
+    public Lookup lookup(String question) {
+        String key = CachingContentRetriever.normalize(question);
+        long current;
+        synchronized (this) {
+            invalidateIfStale();
+            current = cachedGeneration;
+            Entry entry = live(idsByQuestion.get(key));
+            if (entry != null) {
+                exactHits.incrementAndGet();
+                log.debug("回答缓存精确命中: {}", key);
+                return new Lookup(entry.answer(), null, current);
+            }
+        }
+        Embedding embedding;
+        try {
+            embedding = embeddingModel.embed(question).content();
+        } catch (RuntimeException e) {
+            log.warn("回答缓存向量化问题失败,不使用缓存: {}", e.getMessage());
+            misses.incrementAndGet();
+            return new Lookup(null, null, current);
+        }
+        List<EmbeddingMatch<TextSegment>> matches = index.search(
+                EmbeddingSearchRequest.builder()
+                        .queryEmbedding(embedding)
+                        .maxResults(CANDIDATES)
+                        .minScore(minScore)
+                        .build()).matches();
+        synchronized (this) {
+            for (EmbeddingMatch<?> match : matches) {
+                Entry entry = live(match.embeddingId());
+                if (entry != null) {
+                    semanticHits.incrementAndGet();
+                    log.debug("回答缓存语义命中: {} -> {} (相似度 {})", key, entry.question(),
+                            String.format("%.3f", 2 * match.score() - 1));
+                    return new Lookup(entry.answer(), embedding, current);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return new Lookup(null, embedding, current);
+    }
+
+    /**
+     * 写入问题的回答
+     *
+     * @param question 问题
+     * @param miss     未命中的查找结果,其中的向量为null时不写入语义索引,只能精确命中
+     * @param answer   回答
+     */
+    public void put(String question, Lookup miss, String answer) {
+        if (answer == null || answer.isBlank()) {
+            return;
+        }
+        String key = CachingContentRetriever.normalize(question);
+        synchronized (this) {
+            invalidateIfStale();
+            if (miss.generation() != cachedGeneration) {
+                log.debug("生成回答期间知识库已更新,不缓存: {}", key);
+                return;
+            }
+            String previous = idsByQuestion.remove(key);
+            if (previous != null) {
+                remove(previous);
+            }
+            String id = UUID.randomUUID().toString();
+            entries.put(id, new Entry(id, key, answer, clock.getAsLong() + ttl.toMillis()));
+            idsByQuestion.put(key, id);
+            if (miss.embedding() != null) {
+                index.add(id, miss.embedding());
+            }
+            stores.incrementAndGet();
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                idsByQuestion.remove(evicted.question());
+                index.removeAll(List.of(evicted.id()));
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 清空全部回答,知识库或系统提示词变化时调用
+     *
+     * @param reason 日志中的原因
+     */
+    public synchronized void invalidateAll(String reason) {
+        if (!entries.isEmpty()) {
+            log.info("清空回答缓存 {} 条: {}", entries.size(), reason);
+        }
+        entries.clear();
+        idsByQuestion.clear();
+        index.removeAll();
+        cachedGeneration = generation.current();
+    }
+
+    /**
+     * 命中情况,用于日志和监控
+     */
+    public synchronized Map<String, Object> stats() {
+        long hits = exactHits.get() + semanticHits.get();
+        long total = hits + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("exactHits", exactHits.get());
+        stats.put("semanticHits", semanticHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits / total);
+        stats.put("stores", stores.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private void invalidateIfStale() {
+        if (generation.current() != cachedGeneration) {
+            invalidateAll("知识库已更新");
+        }
+    }
+
+    /**
+     * 未过期的条目,已过期的条目顺便删除
+     */
+    private Entry live(String id) {
+        if (id == null) {
+            return null;
+        }
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() < clock.getAsLong()) {
+            idsByQuestion.remove(entry.question());
+            remove(id);
+            return null;
+        }
+        return entry;
+    }
+
+    private void remove(String id) {
+        entries.remove(id);
+        index.removeAll(List.of(id));
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.ai.rag;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发限制器.
+ * 成功请求按梯度算法调整并发上限: 以长期平均延迟为基线, 当前延迟超出基线的容忍倍数时按比例收缩,
+ * 否则每次增加约sqrt(limit)的排队余量(经平滑); 并发未用满时不再增加, 避免空闲时上限虚高.
+ * 被限流(HTTP 429)时上限直接减半(AIMD的乘性减), 其他失败不调整上限.
+ * 上限始终保持在[minLimit, maxLimit]之间; 最小值等于最大值时即为固定并发.
+ * 调用方是摄取流水线的虚拟线程, 用ReentrantLock和Condition等待许可, 阻塞时不占用载体线程.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 长期平均延迟的平滑系数,约等于最近20次请求的平均
+     */
+    private static final double LONG_RTT_ALPHA = 0.05;
+
+    /**
+     * 新上限的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * 梯度下限,单次最多收缩一半
+     */
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+
+    private double limit;
+    private double longRtt;
+    private int inFlight;
+    private long throttled;
+
+    /**
+     * @param initialLimit 初始并发上限
+     * @param minLimit     最小并发上限
+     * @param maxLimit     最大并发上限
+     * @param tolerance    当前延迟不超过长期平均延迟的多少倍时视为未拥塞,不小于1
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = Math.max(1.0, tolerance);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * 固定并发,不随延迟和限流调整
+     */
+    public static AdaptiveConcurrencyLimiter fixed(int limit) {
+        return new AdaptiveConcurrencyLimiter(limit, limit, limit, 1.0);
+    }
+
+    /**
+     * 获取一个并发许可,当前并发达到上限时阻塞
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求成功,归还许可并按延迟调整上限
+     *
+     * @param latencyMillis 请求耗时(毫秒)
+     */
+    public void onSuccess(long latencyMillis) {
+        lock.lock();
+        try {
+            double rtt = Math.max(1, latencyMillis);
+            longRtt = longRtt == 0 ? rtt : longRtt * (1 - LONG_RTT_ALPHA) + rtt * LONG_RTT_ALPHA;
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longRtt / rtt));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            if (newLimit > limit && inFlight * 2 < limit) {
+                // 并发未用满,延迟正常也不能说明还能承受更多请求
+                newLimit = limit;
+            }
+            if (newLimit != limit) {
+                limit = clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求被限流,归还许可并将上限减半
+     */
+    public void onThrottled() {
+        lock.lock();
+        try {
+            throttled++;
+            limit = clamp(limit / 2);
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求因其他原因失败,只归还许可
+     */
+    public void onFailure() {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int currentLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 正在进行的请求数
+     */
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 累计被限流的请求数
+     */
+    public long throttledRequests() {
+        lock.lock();
+        try {
+            return throttled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还许可,调用方需持有锁.上限可能同时变化,唤醒全部等待者重新判断
+     */
+    private void release() {
+        inFlight = Math.max(0, inFlight - 1);
+        permitReleased.signalAll();
+    }
+
+    private double clamp(double value) {
+        return Math.min(maxLimit, Math.max(minLimit, value));
+    }
+}
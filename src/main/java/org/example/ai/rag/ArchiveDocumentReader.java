@@ -0,0 +1,224 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.BlankDocumentException;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * 压缩包文档读取器,支持zip/jar/war/ear.
+ * 条目列表、大小、CRC和修改时间都来自中央目录,不需要解压即可判断条目是否变化;
+ * 需要处理的条目直接以流的方式交给按扩展名选择的解析器,不会解压到磁盘.
+ * 每个条目以"压缩包绝对路径!/条目名"作为独立文档跟踪,条目的CRC作为内容哈希.
+ * 条目名默认按UTF-8解码;Windows下中文系统创建的压缩包条目名是GBK编码且不带UTF-8标志,UTF-8解码失败时改用GBK重新打开.
+ */
+public class ArchiveDocumentReader implements Closeable {
+
+    /**
+     * 压缩包路径与条目名之间的分隔符,与jar URL一致
+     */
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    private static final Set<String> ARCHIVE_EXTENSIONS = Set.of("zip", "jar", "war", "ear");
+    private static final Charset FALLBACK_ENTRY_NAME_CHARSET = Charset.forName("GBK");
+
+    private final String archivePath;
+    private final ZipFile zipFile;
+
+    private ArchiveDocumentReader(Path archive) throws IOException {
+        this.archivePath = archive.toAbsolutePath().toString();
+        this.zipFile = openZipFile(archive);
+    }
+
+    private static ZipFile openZipFile(Path archive) throws IOException {
+        try {
+            return new ZipFile(archive.toFile());
+        } catch (ZipException e) {
+            // 条目名不是合法的UTF-8时中央目录校验失败;带UTF-8标志的条目仍按UTF-8解码,不受影响
+            try {
+                return new ZipFile(archive.toFile(), FALLBACK_ENTRY_NAME_CHARSET);
+            } catch (ZipException retry) {
+                e.addSuppressed(retry);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 打开压缩包,只读取中央目录
+     *
+     * @param archive 压缩包路径
+     * @return 读取器
+     */
+    public static ArchiveDocumentReader open(Path archive) throws IOException {
+        return new ArchiveDocumentReader(archive);
+    }
+
+    /**
+     * 压缩包是否含加密条目.
+     * ZipFile不支持加密条目,读取中央目录时遇到通用标志位bit 0已置位的条目即以"encrypted entry"拒绝打开
+     *
+     * @param archive 压缩包路径
+     * @return 含加密条目返回true
+     * @throws IOException 压缩包损坏等其他原因无法打开
+     */
+    public static boolean isEncrypted(Path archive) throws IOException {
+        try {
+            openZipFile(archive).close();
+            return false;
+        } catch (ZipException e) {
+            // 按GBK重试的异常附在suppressed中
+            if (isEncryptedEntryError(e)
+                    || Arrays.stream(e.getSuppressed()).anyMatch(ArchiveDocumentReader::isEncryptedEntryError)) {
+                return true;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isEncryptedEntryError(Throwable error) {
+        return error instanceof ZipException && error.getMessage() != null
+                && error.getMessage().contains("encrypted entry");
+    }
+
+    /**
+     * 是否为支持流式读取的压缩包
+     *
+     * @param fileName 文件名
+     */
+    public static boolean isArchive(String fileName) {
+        return ARCHIVE_EXTENSIONS.contains(DocumentHandle.extensionOf(fileName));
+    }
+
+    /**
+     * 条目的跟踪键
+     */
+    public static String entryKey(String archivePath, String entryName) {
+        return archivePath + ENTRY_SEPARATOR + entryName;
+    }
+
+    /**
+     * 从条目跟踪键中取出压缩包路径
+     *
+     * @param key 跟踪键
+     * @return 压缩包绝对路径,不是条目键时返回null
+     */
+    public static String archiveOf(String key) {
+        int index = key.indexOf(ENTRY_SEPARATOR);
+        return index == -1 ? null : key.substring(0, index);
+    }
+
+    /**
+     * 列出需要处理的条目: 跳过目录、隐藏文件、META-INF、嵌套压缩包以及不满足过滤条件的条目
+     *
+     * @param fileNameFilter 按条目文件名过滤
+     * @return 条目
+     */
+    public List<ArchiveEntry> entries(Predicate<String> fileNameFilter) {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+        while (enumeration.hasMoreElements()) {
+            ZipEntry entry = enumeration.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName();
+            String fileName = name.substring(name.lastIndexOf('/') + 1);
+            if (fileName.isEmpty() || name.startsWith(".") || name.contains("/.") || name.startsWith("META-INF/")
+                    || isArchive(fileName) || !fileNameFilter.test(fileName)) {
+                continue;
+            }
+            String crc = entry.getCrc() == -1 ? null : String.format("crc32:%08x", entry.getCrc());
+            DocumentProcessingSnapshot snapshot = new DocumentProcessingSnapshot(entryKey(archivePath, name),
+                    Math.max(0, entry.getSize()), entry.getTime(), crc);
+            entries.add(new ArchiveEntry(entry, fileName, snapshot));
+        }
+        return entries;
+    }
+
+    /**
+     * 以流的方式解析条目
+     *
+     * @param entry 条目
+     * @return 文档,没有可提取的文本时返回null
+     */
+    public Document load(ArchiveEntry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry.zipEntry())) {
+            Document document = DocumentHandle.parserFor(entry.fileName()).parse(in);
+            if (document == null || document.text() == null || document.text().isBlank()) {
+                return null;
+            }
+            return Document.from(document.text(), metadata(entry));
+        } catch (BlankDocumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 打开条目的字符流,用于大文本条目的流式分割.按条目开头的字节识别编码并跳过BOM,
+     * 开头全是ASCII的GBK条目在解码中途改用GB18030
+     *
+     * @param entry 条目
+     * @return 字符流,由调用方关闭
+     */
+    public Reader openReader(ArchiveEntry entry) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(zipFile.getInputStream(entry.zipEntry()),
+                CharsetSniffer.SAMPLE_SIZE);
+        try {
+            in.mark(CharsetSniffer.SAMPLE_SIZE);
+            byte[] sample = in.readNBytes(CharsetSniffer.SAMPLE_SIZE);
+            in.reset();
+            CharsetSniffer.Detection detection = CharsetSniffer.detect(ByteBuffer.wrap(sample));
+            in.skipNBytes(detection.bomLength());
+            return TextDecoder.reader(in, detection.charset(), detection.bomLength() == 0);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 条目的文档元数据: 文件名为条目文件名,目录为"压缩包路径!/条目所在目录"
+     */
+    public Metadata metadata(ArchiveEntry entry) {
+        String name = entry.zipEntry().getName();
+        int slash = name.lastIndexOf('/');
+        Metadata metadata = new Metadata();
+        metadata.put(Document.FILE_NAME, entry.fileName());
+        metadata.put(Document.ABSOLUTE_DIRECTORY_PATH,
+                entryKey(archivePath, slash == -1 ? "" : name.substring(0, slash)));
+        return metadata;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+
+    /**
+     * 压缩包中的一个文档条目
+     *
+     * @param zipEntry 中央目录条目
+     * @param fileName 条目文件名(不含目录)
+     * @param snapshot 条目快照: 跟踪键、解压后大小、修改时间和CRC
+     */
+    public record ArchiveEntry(ZipEntry zipEntry, String fileName, DocumentProcessingSnapshot snapshot) {
+    }
+}
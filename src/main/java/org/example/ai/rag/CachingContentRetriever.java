@@ -0,0 +1,101 @@
+package org.example.ai.rag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import lombok.extern.slf4j.Slf4j;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 检索结果的内存缓存,高频重复问题不再向量化查询,也不访问向量存储.
+ * 键为规范化后的查询文本,容量和过期时间有限,按W-TinyLFU淘汰(Caffeine).
+ * 每条结果记录写入时的知识库版本号(IngestionGeneration),摄取或删除文档后版本号变化,旧结果不再使用
+ */
+@Slf4j
+public class CachingContentRetriever implements ContentRetriever {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.,;:。？！，、；：…~～]+$");
+
+    private final ContentRetriever delegate;
+    private final IngestionGeneration generation;
+    private final Cache<String, CachedContents> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    /**
+     * @param delegate    实际的检索器
+     * @param generation  知识库版本号
+     * @param maximumSize 最多缓存的查询数
+     * @param ttl         写入后的过期时间
+     */
+    public CachingContentRetriever(ContentRetriever delegate, IngestionGeneration generation, long maximumSize,
+                                   Duration ttl) {
+        this.delegate = delegate;
+        this.generation = generation;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        String key = normalize(query.text());
+        // 先读版本号再检索,检索期间有摄取结束时结果按旧版本号写入,下次查询即失效
+        long current = generation.current();
+        CachedContents cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.generation() == current) {
+                hits.incrementAndGet();
+                log.debug("检索缓存命中: {}", key);
+                return cached.contents();
+            }
+            stale.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        List<Content> contents = List.copyOf(delegate.retrieve(query));
+        cache.put(key, new CachedContents(current, contents));
+        return contents;
+    }
+
+    /**
+     * 缓存命中情况,用于日志和监控
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.estimatedSize());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("stale", stale.get());
+        stats.put("generation", generation.current());
+        return stats;
+    }
+
+    /**
+     * 规范化查询文本: NFKC(全角转半角)、转小写、合并空白、去掉末尾的句读标点("C++"的+保留),
+     * "HashMap面试题？"和"hashmap面试题"视为同一查询
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        normalized = WHITESPACE.matcher(normalized.strip()).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+    }
+
+    private record CachedContents(long generation, List<Content> contents) {
+    }
+}
@@ -0,0 +1,228 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带缓存的向量模型.
+ * 缓存键为SHA-256(模型名 + 维度 + 分段文本),依次查询本地磁盘缓存和可选的Redis二级缓存,
+ * 未命中的文本才调用远程向量模型;多个线程同时请求同一文本时共享同一个进行中的请求.
+ * 强制重新加载、内存向量存储重启或调整分段参数后,未变化的分段不再产生远程调用.
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final String REDIS_KEY_PREFIX = "rag:embedding:";
+
+    private final EmbeddingModel delegate;
+    private final String modelName;
+    private final int dimension;
+    private final DiskEmbeddingCache diskCache;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final Duration redisTtl;
+
+    private final Map<String, CompletableFuture<Embedding>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong redisHits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param delegate      实际的向量模型
+     * @param modelName     模型名,参与缓存键计算
+     * @param dimension     向量维度,参与缓存键计算
+     * @param diskCache     本地磁盘缓存
+     * @param redisTemplate Redis二级缓存,为null时不启用
+     * @param redisTtl      Redis缓存过期时间
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelName, int dimension,
+                                 DiskEmbeddingCache diskCache, RedisTemplate<String, String> redisTemplate,
+                                 Duration redisTtl) {
+        this.delegate = delegate;
+        this.modelName = modelName;
+        this.dimension = dimension;
+        this.diskCache = diskCache;
+        this.redisTemplate = redisTemplate;
+        this.redisTtl = redisTtl;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        Embedding[] result = new Embedding[textSegments.size()];
+        List<String> keys = textSegments.stream().map(segment -> cacheKey(segment.text())).toList();
+
+        // 1. 本地磁盘缓存
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            float[] vector = diskCache.get(keys.get(i));
+            if (vector != null) {
+                result[i] = Embedding.from(vector);
+                diskHits.incrementAndGet();
+            } else {
+                missing.add(i);
+            }
+        }
+
+        // 2. Redis二级缓存,命中的向量回填到本地磁盘
+        if (!missing.isEmpty() && redisTemplate != null) {
+            missing = lookupRedis(keys, missing, result);
+        }
+
+        // 3. 远程调用,同一文本只请求一次
+        if (!missing.isEmpty()) {
+            embedMissing(textSegments, keys, missing, result);
+        }
+        return Response.from(List.of(result));
+    }
+
+    /**
+     * 缓存命中情况,用于日志和监控
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("diskHits", diskHits.get());
+        stats.put("redisHits", redisHits.get());
+        stats.put("sharedHits", sharedHits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+
+    /**
+     * 缓存键: SHA-256(模型名 + 维度 + 文本)
+     */
+    String cacheKey(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((modelName + '\u0000' + dimension + '\u0000').getBytes(StandardCharsets.UTF_8));
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    private List<Integer> lookupRedis(List<String> keys, List<Integer> missing, Embedding[] result) {
+        List<String> redisKeys = missing.stream().map(i -> REDIS_KEY_PREFIX + keys.get(i)).toList();
+        List<String> values;
+        try {
+            values = redisTemplate.opsForValue().multiGet(redisKeys);
+        } catch (Exception e) {
+            log.debug("读取Redis向量缓存失败: {}", e.getMessage());
+            return missing;
+        }
+        if (values == null) {
+            return missing;
+        }
+        List<Integer> stillMissing = new ArrayList<>();
+        for (int j = 0; j < missing.size(); j++) {
+            int i = missing.get(j);
+            String value = values.get(j);
+            if (value == null) {
+                stillMissing.add(i);
+                continue;
+            }
+            float[] vector = decode(value);
+            result[i] = Embedding.from(vector);
+            diskCache.put(keys.get(i), vector);
+            redisHits.incrementAndGet();
+        }
+        return stillMissing;
+    }
+
+    /**
+     * 为未命中的文本发起远程请求.已有其他线程在请求的文本直接等待其结果,
+     * 其余文本(批内重复的只算一次)合并为一次embedAll调用
+     */
+    private void embedMissing(List<TextSegment> textSegments, List<String> keys, List<Integer> missing,
+                              Embedding[] result) {
+        Map<String, CompletableFuture<Embedding>> owned = new LinkedHashMap<>();
+        Map<String, TextSegment> toEmbed = new LinkedHashMap<>();
+        Map<Integer, CompletableFuture<Embedding>> waiting = new LinkedHashMap<>();
+        for (int i : missing) {
+            String key = keys.get(i);
+            CompletableFuture<Embedding> future = owned.get(key);
+            if (future == null) {
+                CompletableFuture<Embedding> created = new CompletableFuture<>();
+                CompletableFuture<Embedding> existing = inFlight.putIfAbsent(key, created);
+                if (existing == null) {
+                    owned.put(key, created);
+                    toEmbed.put(key, textSegments.get(i));
+                    future = created;
+                } else {
+                    sharedHits.incrementAndGet();
+                    future = existing;
+                }
+            }
+            waiting.put(i, future);
+        }
+
+        if (!toEmbed.isEmpty()) {
+            try {
+                List<Embedding> embeddings = delegate.embedAll(new ArrayList<>(toEmbed.values())).content();
+                misses.addAndGet(toEmbed.size());
+                int j = 0;
+                for (String key : toEmbed.keySet()) {
+                    Embedding embedding = embeddings.get(j++);
+                    store(key, embedding.vector());
+                    owned.get(key).complete(embedding);
+                }
+            } catch (RuntimeException e) {
+                owned.values().forEach(future -> future.completeExceptionally(e));
+                throw e;
+            } finally {
+                owned.keySet().forEach(inFlight::remove);
+            }
+        }
+
+        try {
+            waiting.forEach((i, future) -> result[i] = future.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    private void store(String key, float[] vector) {
+        diskCache.put(key, vector);
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            redisTemplate.opsForValue().set(REDIS_KEY_PREFIX + key, encode(vector), redisTtl);
+        } catch (Exception e) {
+            log.debug("写入Redis向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private static float[] decode(String value) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value));
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.ai.rag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询向量的内存缓存,键为规范化后的查询文本(CachingContentRetriever.normalize).
+ * 与摄取使用的CachingEmbeddingModel不同,只缓存在内存中,容量和过期时间有限,按W-TinyLFU淘汰(Caffeine),
+ * 偶发的长尾问题不会挤掉高频问题.同一问题并发请求时只调用一次远程接口.
+ * 查询向量只取决于文本和模型,不随知识库变化失效
+ */
+public class CachingQueryEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final Cache<String, Embedding> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param delegate    实际的向量模型
+     * @param maximumSize 最多缓存的查询数
+     * @param ttl         写入后的过期时间
+     */
+    public CachingQueryEmbeddingModel(EmbeddingModel delegate, long maximumSize, Duration ttl) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        return Response.from(lookup(text));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return Response.from(lookup(textSegment.text()));
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        Embedding[] result = new Embedding[textSegments.size()];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cache.getIfPresent(CachingContentRetriever.normalize(textSegments.get(i).text()));
+            if (result[i] == null) {
+                missing.add(i);
+            }
+        }
+        hits.addAndGet(result.length - missing.size());
+        if (!missing.isEmpty()) {
+            misses.addAndGet(missing.size());
+            List<Embedding> embedded = delegate.embedAll(missing.stream().map(textSegments::get).toList()).content();
+            for (int i = 0; i < missing.size(); i++) {
+                int index = missing.get(i);
+                result[index] = embedded.get(i);
+                cache.put(CachingContentRetriever.normalize(textSegments.get(index).text()), embedded.get(i));
+            }
+        }
+        return Response.from(List.of(result));
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * 缓存命中情况,用于日志和监控
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.estimatedSize());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+
+    private Embedding lookup(String text) {
+        boolean[] loaded = new boolean[1];
+        Embedding embedding = cache.get(CachingContentRetriever.normalize(text), key -> {
+            loaded[0] = true;
+            return delegate.embed(text).content();
+        });
+        (loaded[0] ? misses : hits).incrementAndGet();
+        return embedding;
+    }
+}
@@ -0,0 +1,178 @@
+package org.example.ai.rag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 文本文件编码探测.
+ * 依次根据BOM、UTF-16的零字节分布、UTF-8合法性和GB18030双字节/四字节序列统计判断编码;
+ * 中文资料中常见的GBK文件按GB18030(GBK的超集)解码.
+ * 只检查开头SAMPLE_SIZE字节,样本全是ASCII时判为UTF-8,由TextDecoder在第一个非ASCII字节处重新探测.
+ */
+public final class CharsetSniffer {
+
+    /**
+     * GB18030编码
+     */
+    public static final Charset GB18030 = Charset.forName("GB18030");
+
+    /**
+     * 探测时最多检查的字节数
+     */
+    static final int SAMPLE_SIZE = 64 * 1024;
+
+    private CharsetSniffer() {
+    }
+
+    /**
+     * 探测结果
+     *
+     * @param charset   编码
+     * @param bomLength 文件开头需要跳过的BOM字节数
+     */
+    public record Detection(Charset charset, int bomLength) {
+    }
+
+    /**
+     * 探测编码,不改变buffer的position
+     *
+     * @param buffer 文件开头的字节
+     * @return 探测结果,无法判断时按UTF-8处理
+     */
+    public static Detection detect(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = Math.min(buffer.remaining(), SAMPLE_SIZE);
+        if (length >= 3 && u(buffer, start) == 0xEF && u(buffer, start + 1) == 0xBB && u(buffer, start + 2) == 0xBF) {
+            return new Detection(StandardCharsets.UTF_8, 3);
+        }
+        if (length >= 2 && u(buffer, start) == 0xFF && u(buffer, start + 1) == 0xFE) {
+            return new Detection(StandardCharsets.UTF_16LE, 2);
+        }
+        if (length >= 2 && u(buffer, start) == 0xFE && u(buffer, start + 1) == 0xFF) {
+            return new Detection(StandardCharsets.UTF_16BE, 2);
+        }
+        Charset utf16 = detectUtf16WithoutBom(buffer, start, length);
+        if (utf16 != null) {
+            return new Detection(utf16, 0);
+        }
+        if (isValidUtf8(buffer, start, length)) {
+            return new Detection(StandardCharsets.UTF_8, 0);
+        }
+        if (looksLikeGb18030(buffer, start, length)) {
+            return new Detection(GB18030, 0);
+        }
+        return new Detection(StandardCharsets.UTF_8, 0);
+    }
+
+    /**
+     * 英文为主的UTF-16文本中,每个字符的高位字节几乎都是0
+     */
+    private static Charset detectUtf16WithoutBom(ByteBuffer buffer, int start, int length) {
+        if (length < 16) {
+            return null;
+        }
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            if (buffer.get(start + i) == 0) {
+                evenZeros++;
+            }
+            if (buffer.get(start + i + 1) == 0) {
+                oddZeros++;
+            }
+        }
+        int pairs = length / 2;
+        if (oddZeros > pairs * 0.3 && evenZeros < pairs * 0.05) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (evenZeros > pairs * 0.3 && oddZeros < pairs * 0.05) {
+            return StandardCharsets.UTF_16BE;
+        }
+        return null;
+    }
+
+    /**
+     * 严格校验UTF-8序列,样本末尾被截断的多字节字符视为合法
+     */
+    private static boolean isValidUtf8(ByteBuffer buffer, int start, int length) {
+        int end = start + length;
+        int i = start;
+        while (i < end) {
+            int b = u(buffer, i);
+            int continuation;
+            int min;
+            if (b < 0x80) {
+                i++;
+                continue;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                continuation = 1;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                continuation = 2;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                continuation = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            int codePoint = b & (0x3F >> continuation);
+            for (int k = 1; k <= continuation; k++) {
+                if (i + k >= end) {
+                    return true;
+                }
+                int c = u(buffer, i + k);
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (c & 0x3F);
+            }
+            if (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                return false;
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+
+    /**
+     * 统计非ASCII字节中能组成合法GB18030双字节或四字节序列的比例
+     */
+    private static boolean looksLikeGb18030(ByteBuffer buffer, int start, int length) {
+        int end = start + length;
+        int valid = 0;
+        int invalid = 0;
+        int i = start;
+        while (i < end) {
+            int b = u(buffer, i);
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            if (b == 0x80 || b == 0xFF || i + 1 >= end) {
+                invalid++;
+                i++;
+                continue;
+            }
+            int second = u(buffer, i + 1);
+            if (second >= 0x40 && second <= 0xFE && second != 0x7F) {
+                valid++;
+                i += 2;
+            } else if (second >= 0x30 && second <= 0x39 && i + 3 < end
+                    && u(buffer, i + 2) >= 0x81 && u(buffer, i + 2) <= 0xFE
+                    && u(buffer, i + 3) >= 0x30 && u(buffer, i + 3) <= 0x39) {
+                valid++;
+                i += 4;
+            } else {
+                invalid++;
+                i++;
+            }
+        }
+        return valid > 0 && invalid * 20 <= valid;
+    }
+
+    private static int u(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+}
@@ -0,0 +1,342 @@
+package org.example.ai.rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群摄取协调.
+ * 多个副本共用Redis向量存储时,每个文件的每个版本(大小+修改时间)只由一个节点处理:
+ * 节点处理文件前用SET NX PX申请该文件的租约,处理期间定时续期,节点宕机时租约过期后由其他节点接手;
+ * 处理完成后写入完成记录(版本和处理状态,包括压缩包条目)再释放租约。
+ * 其他节点遇到已完成的同版本文件时直接采用完成记录中的处理状态,不再重复向量化;
+ * 遇到正在被其他节点处理的文件时稍后重试,直到完成记录出现或租约过期。
+ * 未开启或向量存储不是Redis时不做任何协调;Redis不可用时退化为本地处理。
+ */
+@Component
+@Slf4j
+public class ClusterIngestionCoordinator {
+
+    /**
+     * 持有者一致时才删除租约
+     */
+    static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    /**
+     * 持有者一致时才续期租约
+     */
+    static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+
+    /**
+     * 申请结果
+     */
+    public enum ClaimStatus {
+        /**
+         * 本节点获得租约,需要处理该文件
+         */
+        CLAIMED,
+        /**
+         * 其他节点已处理完同一版本,采用其处理状态
+         */
+        DONE,
+        /**
+         * 其他节点正在处理,稍后重试
+         */
+        BUSY
+    }
+
+    /**
+     * @param status 申请结果
+     * @param states 已完成时持有者记录的处理状态(文件本身及压缩包条目),未开启状态跟踪时为空
+     */
+    public record Claim(ClaimStatus status, List<DocumentProcessingState> states) {
+        static final Claim LOCAL = new Claim(ClaimStatus.CLAIMED, List.of());
+        static final Claim BUSY = new Claim(ClaimStatus.BUSY, List.of());
+    }
+
+    /**
+     * 完成记录
+     *
+     * @param version 文件版本
+     * @param node    处理该版本的节点
+     * @param states  处理状态
+     */
+    record CompletionRecord(String version, String node, List<DocumentProcessingState> states) {
+    }
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final boolean active;
+    private final String nodeId;
+    private final Duration lease;
+    private final Duration pollInterval;
+    private final String keyPrefix;
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+    private final Set<String> heldLeases = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService renewScheduler;
+
+    /**
+     * @param redisTemplate    Redis连接,与向量缓存共用
+     * @param enabled          是否开启集群协调
+     * @param vectorStoreType  向量存储类型,只有共用Redis向量存储时才需要协调
+     * @param leaseSeconds     租约时长(秒),持有者每隔三分之一租约续期一次
+     * @param pollIntervalMillis 等待其他节点处理完成时的重试间隔(毫秒)
+     * @param keyPrefix        Redis键前缀
+     */
+    @Autowired
+    public ClusterIngestionCoordinator(@Lazy RedisTemplate<String, String> redisTemplate,
+                                       @Value("${rag.cluster.enabled:false}") boolean enabled,
+                                       @Value("${rag.vector.store.type:redis}") String vectorStoreType,
+                                       @Value("${rag.cluster.lease-seconds:60}") long leaseSeconds,
+                                       @Value("${rag.cluster.poll-interval-ms:2000}") long pollIntervalMillis,
+                                       @Value("${rag.cluster.key-prefix:rag:ingest:}") String keyPrefix) {
+        this(redisTemplate, enabled && "redis".equalsIgnoreCase(vectorStoreType), defaultNodeId(),
+                Duration.ofSeconds(Math.max(3, leaseSeconds)), Duration.ofMillis(Math.max(10, pollIntervalMillis)),
+                keyPrefix);
+    }
+
+    /**
+     * @param redisTemplate Redis连接
+     * @param active        是否协调
+     * @param nodeId        节点标识,同一集群内唯一
+     * @param lease         租约时长
+     * @param pollInterval  重试间隔
+     * @param keyPrefix     Redis键前缀
+     */
+    ClusterIngestionCoordinator(RedisTemplate<String, String> redisTemplate, boolean active, String nodeId,
+                                Duration lease, Duration pollInterval, String keyPrefix) {
+        this.redisTemplate = redisTemplate;
+        this.active = active && redisTemplate != null;
+        this.nodeId = nodeId;
+        this.lease = lease;
+        this.pollInterval = pollInterval;
+        this.keyPrefix = keyPrefix;
+        if (this.active) {
+            this.renewScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "rag-cluster-lease");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1, lease.toMillis() / 3);
+            renewScheduler.scheduleWithFixedDelay(this::renewLeases, period, period, TimeUnit.MILLISECONDS);
+            log.info("开启集群摄取协调: 节点 {}, 租约 {} 秒", nodeId, lease.toSeconds());
+        } else {
+            this.renewScheduler = null;
+        }
+    }
+
+    /**
+     * 是否在集群中协调摄取
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 等待其他节点处理完成时的重试间隔
+     */
+    public Duration pollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * 申请处理文件的当前版本
+     *
+     * @param snapshot 文件快照,应携带内容哈希
+     * @param force    强制处理时忽略已有的完成记录
+     * @return 申请结果
+     */
+    public Claim claim(DocumentProcessingSnapshot snapshot, boolean force) {
+        if (!active) {
+            return Claim.LOCAL;
+        }
+        String key = pathKey(snapshot.absolutePath());
+        String version = versionOf(snapshot);
+        try {
+            Claim done = force ? null : completed(key, version);
+            if (done != null) {
+                return done;
+            }
+            if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(leaseKey(key), nodeId, lease))) {
+                return Claim.BUSY;
+            }
+            // 上一个持有者可能在检查完成记录之后刚好完成并释放了租约
+            done = force ? null : completed(key, version);
+            if (done != null) {
+                releaseLease(leaseKey(key));
+                return done;
+            }
+            heldLeases.add(leaseKey(key));
+            return new Claim(ClaimStatus.CLAIMED, List.of());
+        } catch (RuntimeException e) {
+            log.warn("集群协调不可用,由本节点处理: {} ({})", snapshot.absolutePath(), e.getMessage());
+            return Claim.LOCAL;
+        }
+    }
+
+    /**
+     * 文件处理成功: 写入完成记录并释放租约
+     *
+     * @param snapshot 申请时的文件快照
+     * @param states   本节点记录的处理状态,供其他节点采用
+     */
+    public void complete(DocumentProcessingSnapshot snapshot, List<DocumentProcessingState> states) {
+        if (!active) {
+            return;
+        }
+        String key = pathKey(snapshot.absolutePath());
+        try {
+            CompletionRecord record = new CompletionRecord(versionOf(snapshot), nodeId, states);
+            redisTemplate.opsForValue().set(doneKey(key), objectMapper.writeValueAsString(record));
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("写入集群完成记录失败: {} ({})", snapshot.absolutePath(), e.getMessage());
+        }
+        releaseLease(leaseKey(key));
+    }
+
+    /**
+     * 文件处理失败或被取消: 只释放租约,其他节点可以重试
+     *
+     * @param snapshot 申请时的文件快照
+     */
+    public void abandon(DocumentProcessingSnapshot snapshot) {
+        if (active) {
+            releaseLease(leaseKey(pathKey(snapshot.absolutePath())));
+        }
+    }
+
+    /**
+     * 文件被删除: 删除完成记录,之后重新出现的同版本文件需要重新处理
+     *
+     * @param absolutePath 文件绝对路径
+     */
+    public void forget(String absolutePath) {
+        if (!active) {
+            return;
+        }
+        try {
+            redisTemplate.delete(doneKey(pathKey(absolutePath)));
+        } catch (RuntimeException e) {
+            log.warn("删除集群完成记录失败: {} ({})", absolutePath, e.getMessage());
+        }
+    }
+
+    /**
+     * 应用关闭时释放仍持有的租约,其他节点不必等待租约过期
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (renewScheduler == null) {
+            return;
+        }
+        renewScheduler.shutdownNow();
+        for (String leaseKey : List.copyOf(heldLeases)) {
+            releaseLease(leaseKey);
+        }
+    }
+
+    private Claim completed(String key, String version) {
+        String value = redisTemplate.opsForValue().get(doneKey(key));
+        if (value == null) {
+            return null;
+        }
+        try {
+            CompletionRecord record = objectMapper.readValue(value, CompletionRecord.class);
+            if (!version.equals(record.version())) {
+                return null;
+            }
+            return new Claim(ClaimStatus.DONE, record.states() == null ? List.of() : record.states());
+        } catch (JsonProcessingException e) {
+            log.warn("忽略无法解析的集群完成记录: {} ({})", doneKey(key), e.getMessage());
+            return null;
+        }
+    }
+
+    private void renewLeases() {
+        for (String leaseKey : List.copyOf(heldLeases)) {
+            try {
+                Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(leaseKey), nodeId,
+                        String.valueOf(lease.toMillis()));
+                if (renewed == null || renewed == 0) {
+                    heldLeases.remove(leaseKey);
+                    log.warn("摄取租约已丢失,文件可能被其他节点重复处理: {}", leaseKey);
+                }
+            } catch (RuntimeException e) {
+                log.warn("续期摄取租约失败: {} ({})", leaseKey, e.getMessage());
+            }
+        }
+    }
+
+    private void releaseLease(String leaseKey) {
+        heldLeases.remove(leaseKey);
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(leaseKey), nodeId);
+        } catch (RuntimeException e) {
+            log.warn("释放摄取租约失败,等待其过期: {} ({})", leaseKey, e.getMessage());
+        }
+    }
+
+    /**
+     * 以内容哈希作为文件版本: 各节点各自的副本修改时间可能不同,大小和修改时间相同时内容也可能不同.
+     * 只有哈希计算失败时才退回大小和修改时间
+     */
+    private static String versionOf(DocumentProcessingSnapshot snapshot) {
+        if (snapshot.contentHash() != null) {
+            return "sha:" + snapshot.contentHash();
+        }
+        return snapshot.fileSize() + ":" + snapshot.lastModifiedTime();
+    }
+
+    private static String pathKey(String absolutePath) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(absolutePath.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    private String leaseKey(String pathKey) {
+        return keyPrefix + "lease:" + pathKey;
+    }
+
+    private String doneKey(String pathKey) {
+        return keyPrefix + "done:" + pathKey;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,191 @@
+package org.example.ai.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 本地磁盘向量缓存.
+ * 每个向量保存为一个文件(按键的前两位分目录),内容为float32数组;内存中只保留键和文件大小的LRU索引,
+ * 总大小超过上限时淘汰最久未使用的文件.启动时按文件修改时间重建索引.
+ * 写入先写临时文件再原子替换,进程崩溃不会留下半个向量.
+ */
+@Slf4j
+public class DiskEmbeddingCache {
+
+    private static final String SUFFIX = ".emb";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public DiskEmbeddingCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = Math.max(0, maxBytes);
+        loadIndex();
+    }
+
+    /**
+     * 读取向量
+     *
+     * @param key 缓存键
+     * @return 向量,不存在时返回null
+     */
+    public float[] get(String key) {
+        synchronized (this) {
+            if (index.get(key) == null) {
+                return null;
+            }
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(fileOf(key)));
+            float[] vector = new float[buffer.remaining() / Float.BYTES];
+            buffer.asFloatBuffer().get(vector);
+            return vector;
+        } catch (NoSuchFileException e) {
+            // 读取期间被淘汰
+            forget(key);
+            return null;
+        } catch (IOException e) {
+            log.debug("读取向量缓存失败: {}", e.getMessage());
+            forget(key);
+            return null;
+        }
+    }
+
+    /**
+     * 写入向量,超过容量上限时淘汰最久未使用的向量
+     *
+     * @param key    缓存键
+     * @param vector 向量
+     */
+    public void put(String key, float[] vector) {
+        if (maxBytes == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (index.containsKey(key)) {
+                return;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        Path file = fileOf(key);
+        try {
+            Files.createDirectories(file.getParent());
+            // 同一目录下的唯一临时文件,并发写入同一个键时互不覆盖,移动时仍在同一文件系统内
+            Path temp = Files.createTempFile(file.getParent(), key + ".", TEMP_SUFFIX);
+            Files.write(temp, buffer.array());
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.debug("写入向量缓存失败: {}", e.getMessage());
+            return;
+        }
+        List<String> evicted;
+        synchronized (this) {
+            Long previous = index.put(key, (long) buffer.capacity());
+            totalBytes += buffer.capacity() - (previous == null ? 0 : previous);
+            evicted = evictIfNecessary();
+        }
+        evicted.forEach(this::deleteFile);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 淘汰最久未使用的条目直到总大小不超过上限,返回需要删除文件的键;调用方需持有锁
+     */
+    private List<String> evictIfNecessary() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            totalBytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    private synchronized void forget(String key) {
+        Long size = index.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private void deleteFile(String key) {
+        try {
+            Files.deleteIfExists(fileOf(key));
+        } catch (IOException e) {
+            log.debug("删除向量缓存文件失败: {}", e.getMessage());
+        }
+    }
+
+    private Path fileOf(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    /**
+     * 按修改时间从旧到新重建LRU索引,清理崩溃残留的临时文件
+     */
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        record Entry(String key, long size, long modified) {
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries.add(new Entry(name.substring(0, name.length() - SUFFIX.length()),
+                            attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("加载向量缓存索引失败: {}", e.getMessage());
+        }
+        entries.sort(Comparator.comparingLong(Entry::modified));
+        List<String> evicted;
+        synchronized (this) {
+            entries.forEach(entry -> {
+                index.put(entry.key(), entry.size());
+                totalBytes += entry.size();
+            });
+            evicted = evictIfNecessary();
+        }
+        evicted.forEach(this::deleteFile);
+        log.info("加载向量缓存 {} 条, 共 {} KB: {}", index.size(), totalBytes / 1024, directory);
+    }
+}
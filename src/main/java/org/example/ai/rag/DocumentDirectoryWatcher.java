@@ -0,0 +1,239 @@
+package org.example.ai.rag;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 文档目录监听器.
+ * 使用WatchService递归监听RAG文档目录,同一路径的新增/修改/删除事件合并为最终状态,
+ * 事件静默debounce时间后(或自首个事件起超过最长延迟)把受影响的文件作为摄取任务提交给IngestionJobManager增量处理,
+ * 不再依赖全量遍历目录.事件队列溢出时退化为一次增量全量加载.
+ */
+@Component
+@Slf4j
+public class DocumentDirectoryWatcher {
+
+    private final IngestionJobManager ingestionJobManager;
+    private final RagUtils ragUtils;
+    private final boolean enabled;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+    private final String stateFileName;
+
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Map<Path, ChangeType> pendingChanges = new LinkedHashMap<>();
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private boolean overflowed;
+    private long firstEventAt;
+    private long lastEventAt;
+
+    /**
+     * @param ingestionJobManager 摄取任务管理
+     * @param ragUtils RagUtils工具类
+     * @param enabled 是否开启目录监听
+     * @param debounceMillis 事件静默多久后开始处理(毫秒)
+     * @param maxDelayMillis 持续有事件时最多延迟多久处理(毫秒)
+     * @param stateFileName 状态文件名,状态文件及其日志的变化不触发摄取
+     */
+    @Autowired
+    public DocumentDirectoryWatcher(@Lazy IngestionJobManager ingestionJobManager,
+                                    RagUtils ragUtils,
+                                    @Value("${rag.watch.enabled:true}") boolean enabled,
+                                    @Value("${rag.watch.debounce-ms:2000}") long debounceMillis,
+                                    @Value("${rag.watch.max-delay-ms:30000}") long maxDelayMillis,
+                                    @Value("${rag.processing.state-file-name:.rag-processing-state.json}") String stateFileName) {
+        this.ingestionJobManager = ingestionJobManager;
+        this.ragUtils = ragUtils;
+        this.enabled = enabled;
+        this.debounceMillis = Math.max(1, debounceMillis);
+        this.maxDelayMillis = Math.max(this.debounceMillis, maxDelayMillis);
+        this.stateFileName = stateFileName;
+    }
+
+    /**
+     * 应用启动完成后开始监听
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || watchThread != null) {
+            return;
+        }
+        String documentsPath = ragUtils.getActualDocumentsPath();
+        if (documentsPath == null || documentsPath.isBlank() || !Files.isDirectory(Paths.get(documentsPath))) {
+            log.warn("RAG文档目录不存在,不启动目录监听: {}", documentsPath);
+            return;
+        }
+        Path root = Paths.get(documentsPath).toAbsolutePath();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerRecursively(root, null);
+        } catch (IOException e) {
+            log.error("启动RAG文档目录监听失败: {}", root, e);
+            return;
+        }
+        watchThread = new Thread(this::watchLoop, "rag-document-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("开始监听RAG文档目录: {} (共 {} 个目录)", root, watchedDirectories.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("关闭目录监听失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 监听循环: 收集事件,无事件时按debounce规则判断是否提交一批变更
+     */
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = pendingChanges.isEmpty() && !overflowed
+                        ? watchService.take()
+                        : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (key != null) {
+                handleEvents(key);
+            }
+            if (isReadyToFlush(System.currentTimeMillis())) {
+                flush();
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                markEvent();
+                overflowed = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (path.getFileName().toString().startsWith(stateFileName)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                recordChange(path, ChangeType.DELETED);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // 新目录需要注册监听,注册前已写入其中的文件一并作为新增处理
+                try {
+                    registerRecursively(path, this::recordChange);
+                } catch (IOException e) {
+                    log.warn("注册新目录监听失败: {}", path, e);
+                }
+            } else {
+                recordChange(path, ChangeType.UPSERTED);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    /**
+     * 同一路径只保留最后一次变更: 新增后修改仍是新增/修改,任何变更后删除即为删除,删除后重建视为修改
+     */
+    void recordChange(Path path, ChangeType type) {
+        markEvent();
+        pendingChanges.remove(path);
+        pendingChanges.put(path, type);
+    }
+
+    boolean isReadyToFlush(long now) {
+        if (pendingChanges.isEmpty() && !overflowed) {
+            return false;
+        }
+        return now - lastEventAt >= debounceMillis || now - firstEventAt >= maxDelayMillis;
+    }
+
+    /**
+     * 把当前合并好的变更作为摄取任务提交,任务与重新加载等其他任务串行执行,监听线程不被阻塞
+     */
+    void flush() {
+        List<Path> changed = new ArrayList<>();
+        List<Path> deleted = new ArrayList<>();
+        pendingChanges.forEach((path, type) -> (type == ChangeType.DELETED ? deleted : changed).add(path));
+        boolean fullScan = overflowed;
+        pendingChanges.clear();
+        overflowed = false;
+        ingestionJobManager.submitChanges(changed, deleted, fullScan);
+    }
+
+    /**
+     * 记录事件时间,一批变更的第一个事件同时作为最长延迟的起点
+     */
+    private void markEvent() {
+        long now = System.currentTimeMillis();
+        if (pendingChanges.isEmpty() && !overflowed) {
+            firstEventAt = now;
+        }
+        lastEventAt = now;
+    }
+
+    private void registerRecursively(Path root, BiConsumer<Path, ChangeType> onExistingFile) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (onExistingFile != null) {
+                    onExistingFile.accept(file, ChangeType.UPSERTED);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    enum ChangeType {
+        UPSERTED,
+        DELETED
+    }
+}
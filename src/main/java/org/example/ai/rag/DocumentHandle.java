@@ -0,0 +1,80 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import dev.langchain4j.data.document.parser.apache.pdfbox.ApachePdfBoxDocumentParser;
+import dev.langchain4j.data.document.parser.apache.poi.ApachePoiDocumentParser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 文档句柄,每个文件只打开/解析一次.
+ * 加密检测优先读取文件头尾字节判断,需要解析时解析结果会被缓存并复用于文本提取,
+ * 避免"检测一次、再解析一次"的重复开销.
+ */
+public interface DocumentHandle extends AutoCloseable {
+
+    /**
+     * 文件是否受密码保护
+     */
+    boolean isEncrypted() throws IOException;
+
+    /**
+     * 提取文档文本
+     *
+     * @return 文档对象,没有可提取的文本时返回null
+     */
+    Document load() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * 根据文件扩展名打开对应的文档句柄
+     *
+     * @param path 文件路径
+     * @return 文档句柄
+     */
+    static DocumentHandle open(Path path) {
+        return switch (extensionOf(path.getFileName().toString())) {
+            case "pdf" -> new PdfDocumentHandle(path);
+            case "doc", "docx", "xls", "xlsx" -> new OfficeDocumentHandle(path);
+            default -> new TextDocumentHandle(path);
+        };
+    }
+
+    /**
+     * 根据文件扩展名选择解析器,用于只能以流方式读取的文档(如压缩包内的条目),与open的选择规则一致
+     *
+     * @param fileName 文件名
+     * @return 文档解析器
+     */
+    static DocumentParser parserFor(String fileName) {
+        return switch (extensionOf(fileName)) {
+            case "pdf" -> new ApachePdfBoxDocumentParser();
+            case "doc", "docx", "xls", "xlsx" -> new ApachePoiDocumentParser();
+            default -> new TextDocumentParser();
+        };
+    }
+
+    /**
+     * 小写的文件扩展名,没有扩展名时返回空字符串
+     */
+    static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot == -1 ? "" : fileName.substring(dot + 1).toLowerCase();
+    }
+
+    /**
+     * 与FileSystemDocumentLoader一致的文件元数据
+     */
+    static Metadata fileMetadata(Path path) {
+        Metadata metadata = new Metadata();
+        metadata.put(Document.FILE_NAME, path.getFileName().toString());
+        metadata.put(Document.ABSOLUTE_DIRECTORY_PATH, path.toAbsolutePath().getParent().toString());
+        return metadata;
+    }
+}
@@ -0,0 +1,509 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.data.segment.TextSegmentTransformer;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文档摄取器
+ * 将分段→转换→向量化→存储拆分为通过有界队列连接的流水线:
+ * 1. 分段阶段: 多个线程对提交的文档分段并执行TextSegmentTransformer;
+ * 2. 批次阶段: 单线程把来自不同文件的分段打包成满批次(按分段数或token数上限);
+ * 3. 向量化阶段: 每个批次在长期存在的虚拟线程执行器上调用embedAll,同时进行的批次数不超过embedConcurrency,
+ *    实际发往远程的并发和速率由向量模型(RateLimitedEmbeddingModel)按延迟和限流自适应控制;
+ *    非限流原因失败的混合批次按文件拆开重试,只有仍然失败的文件标记失败;
+ * 4. 写入阶段: 单线程写入向量存储,并把向量ID回填到各文件的IngestionTicket.
+ * 小文件不再产生零碎的embedAll调用,大文件也不会长时间独占一个线程.
+ * 配置了近重复检测时,分段阶段在转换前丢弃与已写入分段近重复的分段,并把所重复的文件记录到凭证中.
+ * 使用SmartDocumentSplitter时分段阶段只产出分段视图,分段文本在向量化时才生成,大文档不会在堆上同时存在多份副本.
+ */
+@Slf4j
+public class DocumentIngestor implements AutoCloseable {
+
+    private final DocumentSplitter documentSplitter;
+    private final TextSegmentTransformer textSegmentTransformer;
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final int maxBatchSegments;
+    private final int maxBatchTokens;
+    private final long lingerMillis;
+    private final NearDuplicateDetector nearDuplicateDetector;
+
+    private final BlockingQueue<PendingDocument> documentQueue;
+    private final BlockingQueue<PendingSegment> segmentQueue;
+    private final BlockingQueue<List<PendingSegment>> batchQueue;
+    private final BlockingQueue<EmbeddedBatch> storeQueue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ExecutorService embedExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-embedder-", 0).factory());
+    private final Semaphore embedPermits;
+
+    private final AtomicLong embeddingRequests = new AtomicLong();
+    private final AtomicLong storedSegments = new AtomicLong();
+    private final AtomicLong suppressedSegments = new AtomicLong();
+    private final LatencyRecorder embeddingLatency = new LatencyRecorder(4096);
+
+    private volatile boolean running = true;
+
+    public DocumentIngestor(DocumentSplitter documentSplitter,
+                            TextSegmentTransformer textSegmentTransformer,
+                            EmbeddingModel embeddingModel,
+                            EmbeddingStore<TextSegment> embeddingStore,
+                            IngestionPipelineSettings settings) {
+        this(documentSplitter, textSegmentTransformer, embeddingModel, embeddingStore, settings, null);
+    }
+
+    /**
+     * @param nearDuplicateDetector 近重复检测,为null时不去重
+     */
+    public DocumentIngestor(DocumentSplitter documentSplitter,
+                            TextSegmentTransformer textSegmentTransformer,
+                            EmbeddingModel embeddingModel,
+                            EmbeddingStore<TextSegment> embeddingStore,
+                            IngestionPipelineSettings settings,
+                            NearDuplicateDetector nearDuplicateDetector) {
+        this.documentSplitter = documentSplitter;
+        this.textSegmentTransformer = textSegmentTransformer;
+        this.embeddingModel = embeddingModel;
+        this.embeddingStore = embeddingStore;
+        this.maxBatchSegments = Math.max(1, settings.maxBatchSegments());
+        this.maxBatchTokens = Math.max(1, settings.maxBatchTokens());
+        this.lingerMillis = Math.max(1, settings.lingerMillis());
+        this.nearDuplicateDetector = nearDuplicateDetector;
+
+        int capacity = Math.max(1, settings.queueCapacity());
+        this.documentQueue = new ArrayBlockingQueue<>(capacity);
+        this.segmentQueue = new ArrayBlockingQueue<>(capacity * maxBatchSegments);
+        this.batchQueue = new ArrayBlockingQueue<>(Math.max(1, settings.embedConcurrency()) * 2);
+        this.storeQueue = new ArrayBlockingQueue<>(Math.max(1, settings.embedConcurrency()) * 2);
+        this.embedPermits = new Semaphore(Math.max(1, settings.embedConcurrency()));
+
+        for (int i = 0; i < Math.max(1, settings.splitterThreads()); i++) {
+            startWorker("rag-splitter-" + i, this::runSplitter);
+        }
+        startWorker("rag-batcher", this::runBatcher);
+        startWorker("rag-embed-dispatcher", this::runEmbedDispatcher);
+        startWorker("rag-store-writer", this::runStoreWriter);
+    }
+
+    /**
+     * 为一个文件打开流水线凭证,同时释放该文件上一版本登记的近重复签名
+     *
+     * @param source 文件标识,用于日志和近重复关联
+     * @return 凭证
+     */
+    public IngestionTicket open(String source) {
+        release(source);
+        return new IngestionTicket(source, this);
+    }
+
+    /**
+     * 释放文件登记的近重复签名,用于文件被删除或处理失败,其分段不再代表向量存储中的内容
+     *
+     * @param source 文件标识
+     */
+    public void release(String source) {
+        if (nearDuplicateDetector != null && source != null) {
+            nearDuplicateDetector.release(source);
+        }
+    }
+
+    /**
+     * 同步摄取单个文档,适用于不需要跨文件批处理的调用方
+     *
+     * @param document 文档
+     * @return 写入的向量ID列表
+     */
+    public List<String> ingest(Document document) {
+        IngestionTicket ticket = open(document.metadata().getString(Document.FILE_NAME));
+        try {
+            ticket.submit(document);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("提交文档被中断", e);
+        }
+        try {
+            return ticket.seal().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /**
+     * 根据向量ID删除旧向量,向量存储不支持按ID删除时仅记录警告
+     *
+     * @param embeddingIds 向量ID
+     */
+    public void remove(Collection<String> embeddingIds) {
+        if (embeddingIds == null || embeddingIds.isEmpty()) {
+            return;
+        }
+        try {
+            embeddingStore.removeAll(embeddingIds);
+            log.debug("已删除 {} 条旧向量", embeddingIds.size());
+        } catch (UnsupportedOperationException e) {
+            log.warn("当前向量存储不支持按ID删除,旧向量将保留: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 累计的embedAll请求数
+     */
+    public long embeddingRequests() {
+        return embeddingRequests.get();
+    }
+
+    /**
+     * 累计写入向量存储的分段数
+     */
+    public long storedSegments() {
+        return storedSegments.get();
+    }
+
+    /**
+     * 累计因近重复被抑制的分段数
+     */
+    public long suppressedSegments() {
+        return suppressedSegments.get();
+    }
+
+    /**
+     * 最近embedAll请求的耗时记录
+     */
+    public LatencyRecorder embeddingLatency() {
+        return embeddingLatency;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        embedExecutor.shutdownNow();
+    }
+
+    void enqueue(IngestionTicket ticket, Document document, List<TextSegment> segments) throws InterruptedException {
+        documentQueue.put(new PendingDocument(ticket, document, segments));
+    }
+
+    private void startWorker(String name, Runnable loop) {
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        thread.start();
+        workers.add(thread);
+    }
+
+    /**
+     * 分段阶段: 分段、去除近重复分段并转换后逐个放入分段队列,已分好段的提交跳过分段
+     */
+    private void runSplitter() {
+        while (running) {
+            PendingDocument pending;
+            try {
+                pending = documentQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            IngestionTicket ticket = pending.ticket();
+            if (ticket.isFailed()) {
+                ticket.onSplit(0);
+                continue;
+            }
+            try {
+                if (pending.document() != null && documentSplitter instanceof SmartDocumentSplitter smart) {
+                    splitLazily(ticket, smart.views(pending.document()));
+                    continue;
+                }
+                List<TextSegment> segments = pending.document() == null
+                        ? pending.segments()
+                        : documentSplitter.split(pending.document());
+                if (nearDuplicateDetector != null) {
+                    segments = suppressDuplicates(ticket, segments);
+                }
+                if (textSegmentTransformer != null) {
+                    segments = textSegmentTransformer.transformAll(segments);
+                }
+                ticket.onSplit(segments.size());
+                for (TextSegment segment : segments) {
+                    segmentQueue.put(new PendingSegment(ticket, segment, null,
+                            TokenEstimator.estimate(segment.text())));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("文档分段失败: {}", ticket.source(), e);
+                fail(ticket, e);
+            }
+        }
+    }
+
+    /**
+     * 逐个把分段视图放入分段队列,队列满时阻塞,内存中只有文档原文和队列中的视图;
+     * 分段文本和转换在向量化阶段才生成
+     */
+    private void splitLazily(IngestionTicket ticket, Iterator<SegmentView> views) throws InterruptedException {
+        int count = 0;
+        int suppressed = 0;
+        while (views.hasNext() && !ticket.isFailed()) {
+            SegmentView view = views.next();
+            if (nearDuplicateDetector != null) {
+                String duplicateOf = nearDuplicateDetector.checkAndRegister(ticket.source(), view);
+                if (duplicateOf != null) {
+                    ticket.onSuppressed(duplicateOf);
+                    suppressed++;
+                    continue;
+                }
+            }
+            segmentQueue.put(new PendingSegment(ticket, null, view, TokenEstimator.estimate(view)));
+            count++;
+        }
+        if (suppressed > 0) {
+            suppressedSegments.addAndGet(suppressed);
+            log.debug("{} 个近重复分段未写入: {}", suppressed, ticket.source());
+        }
+        ticket.onSplit(count);
+    }
+
+    /**
+     * 在转换前按原始文本去重,避免文件名等附加内容影响相似度
+     */
+    private List<TextSegment> suppressDuplicates(IngestionTicket ticket, List<TextSegment> segments) {
+        List<TextSegment> kept = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            String duplicateOf = nearDuplicateDetector.checkAndRegister(ticket.source(), segment.text());
+            if (duplicateOf == null) {
+                kept.add(segment);
+            } else {
+                ticket.onSuppressed(duplicateOf);
+            }
+        }
+        if (kept.size() < segments.size()) {
+            suppressedSegments.addAndGet(segments.size() - kept.size());
+            log.debug("{} 个近重复分段未写入: {}", segments.size() - kept.size(), ticket.source());
+        }
+        return kept;
+    }
+
+    /**
+     * 批次阶段: 凑满分段数或token上限即发出批次,队列空闲超过linger时间则发出未满批次
+     */
+    private void runBatcher() {
+        List<PendingSegment> batch = new ArrayList<>(maxBatchSegments);
+        int batchTokens = 0;
+        while (running) {
+            try {
+                PendingSegment segment = batch.isEmpty()
+                        ? segmentQueue.take()
+                        : segmentQueue.poll(lingerMillis, TimeUnit.MILLISECONDS);
+                if (segment == null) {
+                    batchQueue.put(batch);
+                    batch = new ArrayList<>(maxBatchSegments);
+                    batchTokens = 0;
+                    continue;
+                }
+                if (segment.ticket().isFailed()) {
+                    // 失败文件的剩余分段直接丢弃
+                    continue;
+                }
+                if (!batch.isEmpty() && batchTokens + segment.tokens() > maxBatchTokens) {
+                    batchQueue.put(batch);
+                    batch = new ArrayList<>(maxBatchSegments);
+                    batchTokens = 0;
+                }
+                batch.add(segment);
+                batchTokens += segment.tokens();
+                if (batch.size() >= maxBatchSegments) {
+                    batchQueue.put(batch);
+                    batch = new ArrayList<>(maxBatchSegments);
+                    batchTokens = 0;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 向量化阶段: 取得许可后把批次交给虚拟线程,许可用尽时阻塞,对批次阶段形成背压
+     */
+    private void runEmbedDispatcher() {
+        while (running) {
+            List<PendingSegment> batch;
+            try {
+                embedPermits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                batch = batchQueue.take();
+            } catch (InterruptedException e) {
+                embedPermits.release();
+                return;
+            }
+            try {
+                embedExecutor.execute(() -> {
+                    try {
+                        embed(batch);
+                    } finally {
+                        embedPermits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 摄取器已关闭
+                embedPermits.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 一个批次一次embedAll调用
+     */
+    private void embed(List<PendingSegment> batch) {
+        try {
+            embedOrIsolate(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void embedOrIsolate(List<PendingSegment> batch) throws InterruptedException {
+        List<TextSegment> segments;
+        List<Embedding> embeddings;
+        try {
+            segments = batch.stream().map(this::materialize).toList();
+            long start = System.nanoTime();
+            embeddings = embeddingModel.embedAll(segments).content();
+            embeddingLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            embeddingRequests.incrementAndGet();
+        } catch (Exception e) {
+            isolateFailure(batch, e);
+            return;
+        }
+        storeQueue.put(new EmbeddedBatch(batch, segments, embeddings));
+    }
+
+    /**
+     * 批次向量化失败: 一个批次可能混合多个文件的分段,某个文件的坏分段(超长、非法字符等)不应牵连同批的其他文件,
+     * 按文件拆开各自重试一次,只有仍然失败的文件标记失败.
+     * 限流已由向量模型退避重试过,拆开只会放大请求数,与单文件批次一样直接失败
+     */
+    private void isolateFailure(List<PendingSegment> batch, Exception cause) throws InterruptedException {
+        Map<IngestionTicket, List<PendingSegment>> byTicket = new LinkedHashMap<>();
+        for (PendingSegment segment : batch) {
+            byTicket.computeIfAbsent(segment.ticket(), ticket -> new ArrayList<>()).add(segment);
+        }
+        if (byTicket.size() == 1 || RateLimitedEmbeddingModel.isThrottled(cause)) {
+            log.error("批量向量化失败,涉及 {} 个分段", batch.size(), cause);
+            failAll(batch, cause);
+            return;
+        }
+        log.warn("批量向量化失败,按文件拆分为 {} 个批次重试: {}", byTicket.size(), cause.getMessage());
+        for (List<PendingSegment> part : byTicket.values()) {
+            if (!part.get(0).ticket().isFailed()) {
+                embedOrIsolate(part);
+            }
+        }
+    }
+
+    /**
+     * 分段视图在此时生成文本并转换,已生成的分段原样返回
+     */
+    private TextSegment materialize(PendingSegment pending) {
+        if (pending.view() == null) {
+            return pending.segment();
+        }
+        TextSegment segment = pending.view().toTextSegment();
+        return textSegmentTransformer == null ? segment : textSegmentTransformer.transform(segment);
+    }
+
+    /**
+     * 写入阶段: 写入向量存储并把向量ID回填到各文件凭证;已失败文件的向量随即删除
+     */
+    private void runStoreWriter() {
+        while (running) {
+            EmbeddedBatch embedded;
+            try {
+                embedded = storeQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<PendingSegment> batch = embedded.segments();
+            try {
+                List<String> ids = embeddingStore.addAll(embedded.embeddings(), embedded.texts());
+                storedSegments.addAndGet(ids.size());
+                List<String> orphaned = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!batch.get(i).ticket().onStored(ids.get(i))) {
+                        orphaned.add(ids.get(i));
+                    }
+                }
+                remove(orphaned);
+            } catch (Exception e) {
+                log.error("写入向量存储失败,涉及 {} 个分段", batch.size(), e);
+                failAll(batch, e);
+            }
+        }
+    }
+
+    private void failAll(List<PendingSegment> batch, Exception cause) {
+        batch.stream()
+                .map(PendingSegment::ticket)
+                .distinct()
+                .forEach(ticket -> fail(ticket, cause));
+    }
+
+    /**
+     * 凭证失败: 删除已写入的向量,并释放其近重复签名,之后的文件不能再以这些分段为重复依据
+     */
+    void fail(IngestionTicket ticket, Throwable cause) {
+        remove(ticket.fail(cause));
+        release(ticket.source());
+    }
+
+    /**
+     * 流水线参数
+     *
+     * @param maxBatchSegments 单次embedAll的最大分段数
+     * @param maxBatchTokens   单次embedAll的最大估算token数
+     * @param lingerMillis     未满批次的最长等待时间
+     * @param queueCapacity    文档队列容量
+     * @param splitterThreads  分段线程数
+     * @param embedConcurrency 同时进行的向量化批次数上限
+     */
+    public record IngestionPipelineSettings(int maxBatchSegments, int maxBatchTokens, long lingerMillis,
+                                            int queueCapacity, int splitterThreads, int embedConcurrency) {
+    }
+
+    private record PendingDocument(IngestionTicket ticket, Document document, List<TextSegment> segments) {
+    }
+
+    /**
+     * 待向量化的分段,segment和view二者之一不为null
+     */
+    private record PendingSegment(IngestionTicket ticket, TextSegment segment, SegmentView view, int tokens) {
+    }
+
+    private record EmbeddedBatch(List<PendingSegment> segments, List<TextSegment> texts, List<Embedding> embeddings) {
+    }
+}
@@ -1,24 +1,20 @@
 package org.example.ai.rag;
 
 import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.Metadata;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.TextDocumentParser;
-import dev.langchain4j.data.document.parser.apache.pdfbox.ApachePdfBoxDocumentParser;
-import dev.langchain4j.data.document.parser.apache.poi.ApachePoiDocumentParser;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
+import dev.langchain4j.data.segment.TextSegment;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.example.ai.rag.DocumentTreeScanner.ScannedFile;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -26,16 +22,9 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
-import org.apache.poi.poifs.crypt.EncryptionInfo;
-import org.apache.pdfbox.pdmodel.PDDocument;
 
 /**
  * 文档处理主流程,涵盖增量检测、流式读取、并行处理、质量过滤等.
@@ -45,28 +34,69 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 @Slf4j
 public class DocumentProcessingService {
 
+    /**
+     * 大文件流式分割时每次提交到流水线的分段数
+     */
+    private static final int STREAM_SUBMIT_BATCH = 32;
+
     private final DocumentProcessingStateTracker stateTracker;
     private final RagUtils ragUtils;
 
+    /**
+     * 文件解析执行器,每个文件一个虚拟线程,多次摄取共用,不再每次创建线程池
+     */
+    private final ExecutorService fileExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-file-", 0).factory());
+
+    /**
+     * 目录扫描器,多次扫描共用其ForkJoinPool,首次扫描时按rag.scan.parallelism创建
+     */
+    private DocumentTreeScanner treeScanner;
+
+    /**
+     * 集群摄取协调,直接构造服务(如单元测试)时为null,不做协调
+     */
+    @Lazy
+    @Resource
+    private ClusterIngestionCoordinator clusterCoordinator;
+
+    /**
+     * 知识库版本号,摄取或删除结束后递增使检索缓存失效;直接构造服务时为null
+     */
+    @Resource
+    private IngestionGeneration ingestionGeneration;
+
     @Value("${rag.large-file.threshold-bytes:5242880}") // 5MB
     private long largeFileThresholdBytes;
 
     @Value("${rag.large-file.stream-chunk-size:262144}") // 256KB
     private int streamChunkSize;
 
+    @Value("${rag.large-file.checkpoint-segments:2000}")
+    private int checkpointSegments;
+
+    @Value("${rag.segment.smart.large-size:400}")
+    private int largeDocumentSegmentSize;
+
+    @Value("${rag.segment.max-overlap:200}")
+    private int maxOverlap;
+
     @Value("${rag.processing.include-hidden:false}")
     private boolean includeHiddenFiles;
 
     @Value("${rag.parallelism:4}")
     private int maxParallelism;
 
+    @Value("${rag.scan.parallelism:4}")
+    private int scanParallelism;
+
     @Value("${rag.content.min-length:0}") // 修改默认值为0，不过滤短文档
     private int minContentLength;
 
     @Value("${rag.content.max-noise-ratio:1.0}") // 修改默认值为1.0，不过滤高噪音文档
     private double maxNoiseRatio;
 
-    @Value("${rag.processing.track-state:false}") // 默认不跟踪状态
+    @Value("${rag.processing.track-state:true}") // 默认跟踪状态,与application.yml一致
     private boolean trackState;
 
     @Value("${rag.processing.state-file-name:.rag-processing-state.json}")
@@ -78,21 +108,31 @@ public class DocumentProcessingService {
      * 根据是否强制重建或启用状态跟踪决定处理全部还是变更的文件；
      * 最后并行处理这些文档。
      *
-     * @param ingestor    向量存储对象
+     * @param ingestor    文档摄取器
      * @param forceReload 是否强制重建
      */
-    public void ingestAllDocuments(EmbeddingStoreIngestor ingestor, boolean forceReload) {
+    public void ingestAllDocuments(DocumentIngestor ingestor, boolean forceReload) {
+        ingestAllDocuments(ingestor, forceReload, IngestionProgress.NONE);
+    }
+
+    /**
+     * 全量或增量加载文档,并通过回调报告进度、响应取消
+     *
+     * @param ingestor    文档摄取器
+     * @param forceReload 是否强制重建
+     * @param progress    进度回调
+     */
+    public void ingestAllDocuments(DocumentIngestor ingestor, boolean forceReload, IngestionProgress progress) {
         Path docsPath = resolveDocumentsPath();
         if (docsPath == null) {
             return;
         }
-        try (Stream<Path> pathStream = Files.walk(docsPath)) {
-            List<Path> candidates = pathStream
-                    .filter(Files::isRegularFile)
-                    .filter(this::filterHiddenFile)
-                    .filter(this::filterStateFile)
-                    .filter(this::filterNonDocumentFiles) // 添加非文档文件过滤
-                    .collect(Collectors.toList());
+        try {
+            // 单次遍历,每个文件只读取一次属性,后续过滤、增量比较和处理都复用扫描记录
+            List<ScannedFile> candidates = treeScanner().scan(docsPath, file ->
+                    filterHiddenFile(file)
+                            && filterStateFile(file.path())
+                            && filterNonDocumentFiles(file.path())); // 添加非文档文件过滤
 
             if (candidates.isEmpty()) {
                 log.info("未在路径 {} 中发现可处理的文档", docsPath);
@@ -100,14 +140,14 @@ public class DocumentProcessingService {
             }
 
             // 当禁用状态跟踪或强制重载时，处理所有文件
-            List<Path> toProcess = (forceReload || trackState) ? candidates : filterChangedFiles(candidates);
+            List<ScannedFile> toProcess = (forceReload || trackState) ? candidates : filterChangedFiles(candidates);
             if (toProcess.isEmpty()) {
                 log.info("没有需要更新的文档,跳过摄取");
                 return;
             }
 
             log.info("开始处理 {} 个文档 (forceReload={})", toProcess.size(), forceReload);
-            processInParallel(toProcess, ingestor);
+            processInParallel(toProcess, ingestor, progress);
         } catch (IOException e) {
             log.error("遍历文档目录失败", e);
         }
@@ -117,160 +157,782 @@ public class DocumentProcessingService {
      * 单文件摄取,用于新增文档.
      */
     public void ingestSingleDocument(String filePath,
-                                     EmbeddingStoreIngestor ingestor,
+                                     DocumentIngestor ingestor,
                                      boolean forceReload) {
+        ingestSingleDocument(filePath, ingestor, forceReload, IngestionProgress.NONE);
+    }
+
+    /**
+     * 单文件摄取,并通过回调报告进度
+     */
+    public void ingestSingleDocument(String filePath,
+                                     DocumentIngestor ingestor,
+                                     boolean forceReload,
+                                     IngestionProgress progress) {
         if (filePath == null || filePath.isBlank()) {
             log.warn("文件路径为空,忽略添加");
             return;
         }
-        Path path = Paths.get(filePath);
-        if (!Files.exists(path)) {
+        ScannedFile file = DocumentTreeScanner.scanFile(Paths.get(filePath));
+        if (file == null) {
             log.warn("文件不存在: {}", filePath);
             return;
         }
-        processDocument(path, ingestor, stateTracker, forceReload);
+        reprocessDuplicateDependents(processAll(List.of(file), ingestor, progress, forceReload), ingestor, progress);
+    }
+
+    /**
+     * 按文件变更增量摄取,用于目录监听。
+     * 新增或修改的文件经过与全量加载相同的过滤后按增量规则处理；
+     * 被删除的文件（或目录下的全部文件）删除其向量并移除处理状态。
+     *
+     * @param changed  新增或修改的文件
+     * @param deleted  被删除的文件或目录
+     * @param ingestor 文档摄取器
+     * @param progress 进度回调
+     */
+    public void ingestChangedDocuments(Collection<Path> changed, Collection<Path> deleted, DocumentIngestor ingestor,
+                                       IngestionProgress progress) {
+        List<String> removed = new ArrayList<>();
+        deleted.forEach(path -> removed.addAll(removeDocuments(path, ingestor)));
+
+        List<ScannedFile> toProcess = changed.stream()
+                .filter(this::filterStateFile)
+                .filter(this::filterNonDocumentFiles)
+                .map(DocumentTreeScanner::scanFile)
+                .filter(Objects::nonNull)
+                .filter(this::filterHiddenFile)
+                .collect(Collectors.toList());
+        List<String> replaced = new ArrayList<>(removed);
+        if (!toProcess.isEmpty()) {
+            log.info("检测到 {} 个文档变更,开始增量处理", toProcess.size());
+            replaced.addAll(processAll(toProcess, ingestor, progress, false));
+        }
+        reprocessDuplicateDependents(replaced, ingestor, progress);
+    }
+
+    /**
+     * 删除文件或目录下所有已跟踪文件的向量和处理状态
+     *
+     * @return 被删除的文件
+     */
+    private List<String> removeDocuments(Path path, DocumentIngestor ingestor) {
+        if (!trackState) {
+            log.debug("未开启状态跟踪,无法定位已删除文件的向量: {}", path);
+            return List.of();
+        }
+        String absolutePath = path.toAbsolutePath().toString();
+        String directoryPrefix = absolutePath + File.separator;
+        String archivePrefix = absolutePath + ArchiveDocumentReader.ENTRY_SEPARATOR;
+        List<String> removed = stateTracker.snapshotStates().keySet().stream()
+                .filter(key -> key.equals(absolutePath) || key.startsWith(directoryPrefix)
+                        || key.startsWith(archivePrefix))
+                .toList();
+        for (String key : removed) {
+            ingestor.remove(stateTracker.remove(key));
+            ingestor.release(key);
+            if (clusterCoordinator != null) {
+                clusterCoordinator.forget(key);
+            }
+            log.info("文档已删除,移除其向量: {}", key);
+        }
+        if (!removed.isEmpty()) {
+            advanceGeneration("删除 " + removed.size() + " 个文档");
+        }
+        return removed;
+    }
+
+    private void advanceGeneration(String reason) {
+        if (ingestionGeneration != null) {
+            ingestionGeneration.advance(reason);
+        }
+    }
+
+    /**
+     * 近重复分段只保留先写入的一份,被依赖的文件内容变化或删除后,依赖它的文件需要强制重新处理,
+     * 否则这部分内容会从知识库中消失。重新处理的文件内容未变,只需处理一轮
+     *
+     * @param replaced 内容已被替换或删除的文件
+     * @param ingestor 文档摄取器
+     * @param progress 进度回调
+     */
+    private void reprocessDuplicateDependents(Collection<String> replaced, DocumentIngestor ingestor,
+                                              IngestionProgress progress) {
+        if (!trackState || replaced.isEmpty()) {
+            return;
+        }
+        List<ScannedFile> dependents = stateTracker.findDuplicateDependents(replaced).stream()
+                // 压缩包条目随所在压缩包一起重新处理
+                .map(key -> Objects.requireNonNullElse(ArchiveDocumentReader.archiveOf(key), key))
+                .distinct()
+                .map(path -> DocumentTreeScanner.scanFile(Paths.get(path)))
+                .filter(Objects::nonNull)
+                .toList();
+        if (dependents.isEmpty()) {
+            return;
+        }
+        log.info("{} 个文档的近重复分段所依赖的内容已变化,重新处理", dependents.size());
+        processAll(dependents, ingestor, progress, true);
+    }
+
+    /**
+     * 并行处理文档,完成后重新处理近重复分段依赖了已变化文件的文档
+     *
+     * @param files    文件扫描记录
+     * @param ingestor 文档摄取器
+     * @param progress 进度回调
+     */
+    private void processInParallel(List<ScannedFile> files, DocumentIngestor ingestor, IngestionProgress progress) {
+        reprocessDuplicateDependents(processAll(files, ingestor, progress, false), ingestor, progress);
     }
 
     /**
      * 并行处理文档,并行处理多个文件
-     * 根据配置创建一个固定大小的线程池，提交每个文件的处理任务（processDocument）为异步任务,并等待所有任务完成。
-     * 处理完成后，线程池会被正确关闭。
+     * 每个文件在长期存在的虚拟线程执行器上解析，同时解析的文件数不超过配置的并行度，
+     * 解析后的文档提交给摄取流水线即可处理下一个文件，分段、批量向量化和写入由流水线完成。
+     * 每个文件开始前检查任务是否已取消，已取消时剩余文件不再处理，已提交的文件照常完成。
+     * 集群部署时正由其他节点处理的文件在本轮结束后重试，直到对方完成（采用其处理状态）或租约过期（由本节点接手）。
+     * 只有写入或删除了向量时才递增知识库版本号，全部跳过或失败时检索缓存继续有效。
      *
-     * @param paths    文件路径列表
-     * @param ingestor 向量存储对象
-     */
-    private void processInParallel(List<Path> paths, EmbeddingStoreIngestor ingestor) {
-        // 使用自定义线程池配置提升大量文件处理性能
-        int threads = Math.min(Math.max(1, maxParallelism), paths.size());
-        // 创建具有合适配置的线程池
-        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
-            Thread t = new Thread(r);
-            t.setDaemon(false);  // 非守护线程
-            t.setPriority(Thread.NORM_PRIORITY);  // 标准优先级
-            return t;
-        });
+     * @param files    文件扫描记录
+     * @param ingestor 文档摄取器
+     * @param progress 进度回调
+     * @param force    是否强制处理内容未变的文件
+     * @return 内容被替换或清除的文件,用于查找依赖它们的近重复文件
+     */
+    private List<String> processAll(List<ScannedFile> files, DocumentIngestor ingestor, IngestionProgress progress,
+                                    boolean force) {
+        progress.onFilesDiscovered(files.size());
+        List<String> replaced = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean changed = new AtomicBoolean();
+        List<ScannedFile> pending = files;
         try {
-            //使用CompletableFuture异步编程，提交任务→异步执行→后续获取结果
-            List<CompletableFuture<Void>> futures = paths.stream()
-                    .map(path -> CompletableFuture.runAsync(
-                            //具体处理文档操作
-                            () -> processDocument(path, ingestor, stateTracker, false), executor))
-                    .toList();
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-        } finally {
-            executor.shutdown();
-            try {
-                // 增加等待时间以确保所有任务完成
-                if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
-                    log.warn("文档处理线程池关闭超时，强制关闭");
-                    executor.shutdownNow();
+            while (!pending.isEmpty()) {
+                List<ScannedFile> deferred = processBatch(pending, ingestor, progress, force, replaced, changed);
+                if (deferred.isEmpty()) {
+                    break;
                 }
-            } catch (InterruptedException e) {
-                log.warn("文档处理线程池关闭被中断");
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
+                log.debug("{} 个文档正由集群中其他节点处理,稍后重试", deferred.size());
+                try {
+                    Thread.sleep(clusterCoordinator.pollInterval().toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    deferred.forEach(file -> progress.onFileCancelled());
+                    break;
+                }
+                pending = deferred;
+            }
+        } finally {
+            if (changed.get()) {
+                advanceGeneration("处理 " + files.size() + " 个文档");
             }
         }
+        return replaced;
     }
 
     /**
-     * 状态检查：若启用了状态跟踪且文档无需处理，则标记为跳过。
+     * 并行处理一轮文档
+     *
+     * @param files    文件扫描记录
+     * @param ingestor 文档摄取器
+     * @param progress 进度回调
+     * @param force    是否强制处理内容未变的文件
+     * @param replaced 收集内容被替换或清除的文件
+     * @param changed  有文件写入或删除了向量时置为true
+     * @return 正由集群中其他节点处理、需要稍后重试的文件
+     */
+    private List<ScannedFile> processBatch(List<ScannedFile> files, DocumentIngestor ingestor,
+                                           IngestionProgress progress, boolean force, List<String> replaced,
+                                           AtomicBoolean changed) {
+        List<ScannedFile> deferred = Collections.synchronizedList(new ArrayList<>());
+        // 解析PDF、Office文档占用内存和CPU,用信号量限制同时解析的文件数
+        Semaphore parsePermits = new Semaphore(Math.max(1, maxParallelism));
+        //使用CompletableFuture异步编程，提交任务→异步执行→后续获取结果
+        List<CompletableFuture<Void>> futures = files.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> {
+                            try {
+                                parsePermits.acquire();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return CompletableFuture.completedFuture(FileOutcome.CANCELLED);
+                            }
+                            try {
+                                if (progress.isCancelled()) {
+                                    return CompletableFuture.completedFuture(FileOutcome.CANCELLED);
+                                }
+                                //具体处理文档操作,返回该文件在流水线中完成的future
+                                return processDocument(file, ingestor, stateTracker, force);
+                            } finally {
+                                parsePermits.release();
+                            }
+                        }, fileExecutor)
+                        .thenCompose(completion -> completion)
+                        .thenAccept(outcome -> {
+                            if (outcome.deferred()) {
+                                deferred.add(file);
+                                return;
+                            }
+                            reportOutcome(progress, outcome);
+                            replaced.addAll(outcome.replaced());
+                            if (outcome.segments() > 0 || !outcome.replaced().isEmpty()) {
+                                changed.set(true);
+                            }
+                        }))
+                .toList();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return List.copyOf(deferred);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fileExecutor.shutdownNow();
+        synchronized (this) {
+            if (treeScanner != null) {
+                treeScanner.close();
+            }
+        }
+    }
+
+    private synchronized DocumentTreeScanner treeScanner() {
+        if (treeScanner == null) {
+            treeScanner = new DocumentTreeScanner(scanParallelism);
+        }
+        return treeScanner;
+    }
+
+    private void reportOutcome(IngestionProgress progress, FileOutcome outcome) {
+        if (outcome.cancelled()) {
+            progress.onFileCancelled();
+        } else {
+            progress.onFileCompleted(!outcome.failed(), outcome.segments());
+            if (outcome.suppressed() > 0) {
+                progress.onSegmentsSuppressed(outcome.suppressed());
+            }
+        }
+    }
+
+    /**
+     * 状态检查：若启用了状态跟踪，先比较修改时间和大小，变化时再计算内容哈希；
+     * 内容未变（仅被touch）的文件只刷新元信息，不产生任何向量化调用。
      * 文件检查：跳过空文件或受密码保护的文件。
      * 文件处理：
      * 大文本文件采用流式处理；
      * 其他文件（如PDF、Office文档）正常加载处理。
-     * 结果记录：根据处理结果更新状态（成功、失败或跳过）。
+     * 结果记录：文件的全部分段写入后按记录的向量ID删除旧向量，并记录新的向量ID（成功、失败或跳过）。
+     * 集群协调：需要处理的文件先申请集群租约，其他节点已处理完同一版本时采用其处理状态，正在处理时稍后重试。
      *
-     * @param path     文件路径
-     * @param ingestor 向量存储对象
+     * @param file     文件扫描记录,元信息直接取自扫描结果
+     * @param ingestor 文档摄取器
      * @param tracker  状态跟踪器
      * @param force    是否强制处理
+     * @return 文件在摄取流水线中处理完成的future,携带写入的分段数
      */
-    private void processDocument(Path path, EmbeddingStoreIngestor ingestor, DocumentProcessingStateTracker tracker, boolean force) {
+    private CompletableFuture<FileOutcome> processDocument(ScannedFile file, DocumentIngestor ingestor,
+                                                           DocumentProcessingStateTracker tracker, boolean force) {
+        Path path = file.path();
+        if (ArchiveDocumentReader.isArchive(path.getFileName().toString())) {
+            return processArchive(file, ingestor, tracker, force);
+        }
+        DocumentProcessingSnapshot fileSnapshot = file.snapshot();
         // 当禁用状态跟踪时，总是处理文档
-        if (!force && trackState && tracker != null && !tracker.shouldProcess(createSnapshot(path))) {
-            // 跳过处理
-            tracker.markSkipped(createSnapshot(path));
-            return;
+        boolean tracking = trackState && tracker != null;
+        if (tracking) {
+            if (!force && !tracker.hasMetadataChanged(fileSnapshot)) {
+                // 跳过处理
+                tracker.markSkipped(fileSnapshot);
+                return CompletableFuture.completedFuture(FileOutcome.SKIPPED);
+            }
+            fileSnapshot = withContentHash(path, fileSnapshot);
+            if (!force && !tracker.shouldProcess(fileSnapshot)) {
+                log.debug("文件内容未变化,仅更新元信息: {}", path);
+                tracker.markUnchanged(fileSnapshot);
+                return CompletableFuture.completedFuture(FileOutcome.SKIPPED);
+            }
         }
-
-        if (trackState && tracker != null) {
+        DocumentProcessingSnapshot snapshot = withClaimVersion(path, fileSnapshot);
+        ClusterIngestionCoordinator.Claim claim = claim(snapshot, force);
+        if (claim.status() != ClusterIngestionCoordinator.ClaimStatus.CLAIMED) {
+            return CompletableFuture.completedFuture(adoptClaim(claim, snapshot, ingestor, tracking ? tracker : null));
+        }
+        if (tracking) {
             // 标记处理中
-            tracker.markProcessing(createSnapshot(path));
+            tracker.markProcessing(snapshot);
         }
+        return releaseClaim(snapshot, ingestDocument(path, snapshot, ingestor, tracker, tracking, force),
+                tracking ? tracker : null);
+    }
+
+    /**
+     * 处理已获得集群租约(或未开启集群协调)的文件
+     *
+     * @param path     文件路径
+     * @param snapshot 文件快照
+     * @param ingestor 文档摄取器
+     * @param tracker  状态跟踪器
+     * @param tracking 是否开启状态跟踪
+     * @param force    是否强制处理
+     * @return 文件在摄取流水线中处理完成的future
+     */
+    private CompletableFuture<FileOutcome> ingestDocument(Path path, DocumentProcessingSnapshot snapshot,
+                                                          DocumentIngestor ingestor,
+                                                          DocumentProcessingStateTracker tracker,
+                                                          boolean tracking, boolean force) {
+        List<String> previousIds = tracking ? tracker.getEmbeddingIds(snapshot.absolutePath()) : List.of();
 
         // 检查文件是否为空，如果为空则跳过
-        try {
-            if (Files.size(path) == 0) {
-                log.debug("文件为空,跳过处理: {}", path);
-                if (trackState && tracker != null) {
-                    // 标记跳过
-                    tracker.markSkipped(createSnapshot(path));
-                }
-                return;
-            }
-        } catch (IOException e) {
-            log.warn("无法获取文件大小,跳过处理: {}", path, e);
-            if (trackState && tracker != null) {
-                // 标记文档处理失败
-                tracker.markFailure(createSnapshot(path), "无法获取文件大小: " + e.getMessage());
+        if (snapshot.fileSize() == 0) {
+            log.debug("文件为空,跳过处理: {}", path);
+            if (tracking) {
+                // 文件被清空,删除旧版本向量和未完成的检查点向量
+                ingestor.remove(previousIds);
+                ingestor.remove(tracker.discardCheckpoint(snapshot.absolutePath()));
+                ingestor.release(snapshot.absolutePath());
+                tracker.markSkippedWithoutEmbeddings(snapshot);
             }
-            return;
+            return CompletableFuture.completedFuture(FileOutcome.cleared(List.of(snapshot.absolutePath())));
         }
 
-        // 创建用于记录已处理的文档片段的计数器,保证原子性
-        AtomicLong ingestedSegments = new AtomicLong();
+        IngestionTicket ticket = null;
+        DocumentHandle handle = null;
         try {
+            // 对于PDF等二进制文件，不应使用大文件流式处理逻辑
+            // 只对文本文件使用大文件流式处理
+            boolean streaming = !isBinaryFile(path.getFileName().toString())
+                    && snapshot.fileSize() >= largeFileThresholdBytes;
+            if (!streaming) {
+                // 常规文件只打开一次,加密检测与文本提取共用同一个解析结果
+                handle = DocumentHandle.open(path);
+            }
+
             // 检查文件是否受密码保护，有密码保护跳过
-            if (isPasswordProtected(path)) {
+            if (isPasswordProtected(path) || (handle != null && handle.isEncrypted())) {
                 log.debug("文件受密码保护,跳过处理: {}", path);
-                if (trackState && tracker != null) {
-                    tracker.markSkipped(createSnapshot(path));
+                if (tracking) {
+                    ingestor.remove(previousIds);
+                    ingestor.remove(tracker.discardCheckpoint(snapshot.absolutePath()));
+                    ingestor.release(snapshot.absolutePath());
+                    tracker.markSkippedWithoutEmbeddings(snapshot);
                 }
-                return;
+                return CompletableFuture.completedFuture(FileOutcome.cleared(List.of(snapshot.absolutePath())));
             }
 
-            // 对于PDF等二进制文件，不应使用大文件流式处理逻辑
-            String fileName = path.getFileName().toString();
-            String extension = getFileExtension(fileName).toLowerCase();
-            boolean isBinaryFile = "pdf".equals(extension) || "doc".equals(extension) || "docx".equals(extension) ||
-                    "xls".equals(extension) || "xlsx".equals(extension);
-
-            // 只对文本文件使用大文件流式处理
-            if (!isBinaryFile && Files.size(path) >= largeFileThresholdBytes) {
-                processLargeFile(path, ingestor, createSnapshot(path), ingestedSegments);
+            ticket = ingestor.open(snapshot.absolutePath());
+            List<String> committedIds = List.of();
+            if (streaming) {
+                committedIds = processLargeFile(path, ticket, snapshot, tracking ? tracker : null, ingestor, force);
             } else {
+                if (tracking) {
+                    // 文件不再按流式处理(变小或调整了阈值),之前未完成的检查点作废
+                    ingestor.remove(tracker.discardCheckpoint(snapshot.absolutePath()));
+                }
                 // 对于非二进制文件，使用常规处理逻辑
-                processRegularFile(path, ingestor, ingestedSegments);
+                processRegularFile(path, handle, ticket);
             }
-            if (trackState && tracker != null) {
-                // 处理成功,记录已处理的文档片段数
-                tracker.markSuccess(createSnapshot(path), ingestedSegments.get());
+            return completeTicket(ticket, snapshot, previousIds, committedIds, ingestor, tracking ? tracker : null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("提交文档被中断: {}", path);
+            abandonTicket(ingestor, ticket, e);
+            if (tracking) {
+                tracker.markFailure(snapshot, "提交文档被中断");
             }
         } catch (Exception e) {
             log.error("处理文档失败: {}", path, e);
-            if (trackState && tracker != null) {
-                tracker.markFailure(createSnapshot(path), e.getMessage());
+            abandonTicket(ingestor, ticket, e);
+            if (tracking) {
+                tracker.markFailure(snapshot, e.getMessage());
             }
+        } finally {
+            closeHandle(handle);
+        }
+        return CompletableFuture.completedFuture(FileOutcome.FAILED);
+    }
+
+    /**
+     * 封闭凭证,文件的全部分段写入后记录结果。
+     * 失败时凭证只删除最后一个检查点之后写入的向量,检查点保留,下次处理时从检查点继续
+     *
+     * @param ticket       文件的流水线凭证
+     * @param snapshot     文件快照
+     * @param previousIds  上一版本的向量ID
+     * @param committedIds 已记录到检查点、不再由凭证持有的向量ID
+     * @param ingestor     文档摄取器
+     * @param tracker      状态跟踪器,未开启状态跟踪时为null
+     * @return 处理结果
+     */
+    private CompletableFuture<FileOutcome> completeTicket(IngestionTicket ticket, DocumentProcessingSnapshot snapshot,
+                                                          List<String> previousIds, List<String> committedIds,
+                                                          DocumentIngestor ingestor,
+                                                          DocumentProcessingStateTracker tracker) {
+        return ticket.seal().handle((sealedIds, error) -> {
+            if (error != null) {
+                log.error("处理文档失败: {}", snapshot.absolutePath(), error);
+                if (tracker != null) {
+                    tracker.markFailure(snapshot, error.getMessage());
+                }
+                return FileOutcome.FAILED;
+            }
+            List<String> embeddingIds = sealedIds;
+            if (!committedIds.isEmpty()) {
+                embeddingIds = new ArrayList<>(committedIds);
+                embeddingIds.addAll(sealedIds);
+            }
+            // 新版本写入成功后再删除旧向量,避免处理失败导致文档从知识库中消失
+            ingestor.remove(previousIds);
+            if (tracker != null) {
+                // 处理成功,记录本次写入的向量ID和近重复分段依赖的文件,检查点中的向量已并入处理状态
+                tracker.markSuccess(snapshot, embeddingIds, ticket.duplicateSources());
+                if (!committedIds.isEmpty()) {
+                    tracker.discardCheckpoint(snapshot.absolutePath());
+                }
+            }
+            return new FileOutcome(false, false, false, embeddingIds.size(), ticket.suppressedSegments(),
+                    List.of(snapshot.absolutePath()));
+        });
+    }
+
+    /**
+     * 处理zip/jar等压缩包：
+     * 压缩包的修改时间和大小未变化时整体跳过；否则只读取中央目录，按条目的大小、修改时间和CRC判断条目是否变化，
+     * 变化的条目以流的方式交给对应的解析器后提交到摄取流水线，不解压到磁盘；压缩包中已不存在的条目删除其向量。
+     * 每个条目作为独立文档跟踪向量ID，全部条目完成后记录压缩包本身的状态。
+     *
+     * @param file     压缩包扫描记录
+     * @param ingestor 文档摄取器
+     * @param tracker  状态跟踪器
+     * @param force    是否强制处理
+     * @return 全部条目在摄取流水线中处理完成的future
+     */
+    private CompletableFuture<FileOutcome> processArchive(ScannedFile file, DocumentIngestor ingestor,
+                                                          DocumentProcessingStateTracker tracker, boolean force) {
+        Path path = file.path();
+        DocumentProcessingSnapshot snapshot = file.snapshot();
+        boolean tracking = trackState && tracker != null;
+        if (tracking) {
+            if (!force && !tracker.hasMetadataChanged(snapshot)) {
+                tracker.markSkipped(snapshot);
+                return CompletableFuture.completedFuture(FileOutcome.SKIPPED);
+            }
+        }
+        snapshot = withClaimVersion(path, snapshot);
+        // 压缩包整体申请集群租约,完成记录包含全部条目的处理状态
+        ClusterIngestionCoordinator.Claim claim = claim(snapshot, force);
+        if (claim.status() != ClusterIngestionCoordinator.ClaimStatus.CLAIMED) {
+            return CompletableFuture.completedFuture(adoptClaim(claim, snapshot, ingestor, tracking ? tracker : null));
+        }
+        if (tracking) {
+            tracker.markProcessing(snapshot);
+        }
+        return releaseClaim(snapshot, ingestArchive(path, snapshot, ingestor, tracker, tracking, force),
+                tracking ? tracker : null);
+    }
+
+    /**
+     * 处理已获得集群租约(或未开启集群协调)的压缩包
+     *
+     * @param path     压缩包路径
+     * @param snapshot 压缩包快照
+     * @param ingestor 文档摄取器
+     * @param tracker  状态跟踪器
+     * @param tracking 是否开启状态跟踪
+     * @param force    是否强制处理
+     * @return 全部条目在摄取流水线中处理完成的future
+     */
+    private CompletableFuture<FileOutcome> ingestArchive(Path path, DocumentProcessingSnapshot snapshot,
+                                                         DocumentIngestor ingestor,
+                                                         DocumentProcessingStateTracker tracker,
+                                                         boolean tracking, boolean force) {
+        // 复用ZIP密码保护探测,受保护的压缩包删除其全部条目的向量
+        boolean skip;
+        try {
+            skip = snapshot.fileSize() == 0 || isPasswordProtected(path);
+        } catch (IOException e) {
+            log.error("读取压缩包失败: {}", path, e);
+            if (tracking) {
+                tracker.markFailure(snapshot, "读取压缩包失败");
+            }
+            return CompletableFuture.completedFuture(FileOutcome.FAILED);
+        }
+        if (skip) {
+            log.debug("压缩包为空或受密码保护,跳过处理: {}", path);
+            if (!tracking) {
+                return CompletableFuture.completedFuture(FileOutcome.SKIPPED);
+            }
+            List<String> removed = removeArchiveEntries(snapshot.absolutePath(), Set.of(), ingestor);
+            tracker.markSkippedWithoutEmbeddings(snapshot);
+            return CompletableFuture.completedFuture(FileOutcome.cleared(removed));
+        }
+
+        List<CompletableFuture<FileOutcome>> outcomes = new ArrayList<>();
+        List<String> removed = List.of();
+        boolean readFailed = false;
+        try (ArchiveDocumentReader archive = ArchiveDocumentReader.open(path)) {
+            List<ArchiveDocumentReader.ArchiveEntry> entries = archive.entries(this::isDocumentFileName);
+            for (ArchiveDocumentReader.ArchiveEntry entry : entries) {
+                outcomes.add(processArchiveEntry(archive, entry, ingestor, tracking ? tracker : null, force));
+            }
+            if (tracking) {
+                Set<String> present = entries.stream()
+                        .map(entry -> entry.snapshot().absolutePath())
+                        .collect(Collectors.toSet());
+                removed = removeArchiveEntries(snapshot.absolutePath(), present, ingestor);
+            }
+            log.debug("压缩包 {} 共 {} 个文档条目", path, entries.size());
+        } catch (IOException e) {
+            // 已提交的条目照常完成
+            log.error("读取压缩包失败: {}", path, e);
+            readFailed = true;
+        }
+
+        List<String> removedEntries = removed;
+        boolean failedToRead = readFailed;
+        return CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            FileOutcome combined = FileOutcome.combine(
+                    outcomes.stream().map(CompletableFuture::join).toList(), removedEntries);
+            boolean failed = failedToRead || combined.failed();
+            if (tracking) {
+                if (failed) {
+                    tracker.markFailure(snapshot, failedToRead ? "读取压缩包失败" : "部分条目处理失败");
+                } else {
+                    tracker.markSuccess(snapshot, List.of());
+                }
+            }
+            return failed == combined.failed() ? combined : new FileOutcome(true, false, false, combined.segments(),
+                    combined.suppressed(), combined.replaced());
+        });
+    }
+
+    /**
+     * 处理压缩包中的一个条目：大小、修改时间未变或CRC未变时跳过，否则流式解析并提交到摄取流水线。
+     * 大文本条目与磁盘上的大文件一样边读边切分。
+     *
+     * @param archive  已打开的压缩包
+     * @param entry    条目
+     * @param ingestor 文档摄取器
+     * @param tracker  状态跟踪器,未开启状态跟踪时为null
+     * @param force    是否强制处理
+     * @return 条目在摄取流水线中处理完成的future
+     */
+    private CompletableFuture<FileOutcome> processArchiveEntry(ArchiveDocumentReader archive,
+                                                               ArchiveDocumentReader.ArchiveEntry entry,
+                                                               DocumentIngestor ingestor,
+                                                               DocumentProcessingStateTracker tracker, boolean force) {
+        DocumentProcessingSnapshot snapshot = entry.snapshot();
+        String key = snapshot.absolutePath();
+        if (tracker != null) {
+            if (!force && !tracker.shouldProcess(snapshot)) {
+                if (tracker.hasMetadataChanged(snapshot)) {
+                    // 修改时间变化但CRC相同
+                    tracker.markUnchanged(snapshot);
+                } else {
+                    tracker.markSkipped(snapshot);
+                }
+                return CompletableFuture.completedFuture(FileOutcome.SKIPPED);
+            }
+            tracker.markProcessing(snapshot);
+        }
+        List<String> previousIds = tracker != null ? tracker.getEmbeddingIds(key) : List.of();
+
+        IngestionTicket ticket = null;
+        try {
+            ticket = ingestor.open(key);
+            if (!isBinaryFile(entry.fileName()) && snapshot.fileSize() >= largeFileThresholdBytes) {
+                List<TextSegment> batch = new ArrayList<>(STREAM_SUBMIT_BATCH);
+                try (Reader reader = archive.openReader(entry)) {
+                    long segments = newStreamingSplitter().split(reader, archive.metadata(entry),
+                            batchingSink(ticket, batch));
+                    flushBatch(ticket, batch);
+                    log.debug("压缩包条目采用流式处理完成: {} (size={} bytes, segments={})",
+                            key, snapshot.fileSize(), segments);
+                }
+            } else {
+                Document document = archive.load(entry);
+                if (document != null && isHighQuality(document.text())) {
+                    ticket.submit(document);
+                } else {
+                    log.debug("压缩包条目没有可提取的文本或质量较低,跳过: {}", key);
+                }
+            }
+            return completeTicket(ticket, snapshot, previousIds, List.of(), ingestor, tracker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("提交压缩包条目被中断: {}", key);
+            abandonTicket(ingestor, ticket, e);
+            if (tracker != null) {
+                tracker.markFailure(snapshot, "提交文档被中断");
+            }
+        } catch (Exception e) {
+            log.error("处理压缩包条目失败: {}", key, e);
+            abandonTicket(ingestor, ticket, e);
+            if (tracker != null) {
+                tracker.markFailure(snapshot, e.getMessage());
+            }
+        }
+        return CompletableFuture.completedFuture(FileOutcome.FAILED);
+    }
+
+    /**
+     * 集群协调以内容哈希作为文件版本,快照还没有哈希(未开启状态跟踪或压缩包)时在申请租约前计算
+     */
+    private DocumentProcessingSnapshot withClaimVersion(Path path, DocumentProcessingSnapshot snapshot) {
+        if (snapshot.contentHash() != null || clusterCoordinator == null || !clusterCoordinator.isActive()) {
+            return snapshot;
+        }
+        return withContentHash(path, snapshot);
+    }
+
+    /**
+     * 申请集群租约,未开启集群协调时总是由本节点处理
+     */
+    private ClusterIngestionCoordinator.Claim claim(DocumentProcessingSnapshot snapshot, boolean force) {
+        return clusterCoordinator == null ? ClusterIngestionCoordinator.Claim.LOCAL
+                : clusterCoordinator.claim(snapshot, force);
+    }
+
+    /**
+     * 处理集群中其他节点已完成或正在处理的文件：
+     * 已完成时采用其处理状态，删除本节点记录的、已不属于该文件的旧向量；正在处理时标记为稍后重试
+     *
+     * @param claim    申请结果
+     * @param snapshot 文件快照
+     * @param ingestor 文档摄取器
+     * @param tracker  状态跟踪器,未开启状态跟踪时为null
+     * @return 处理结果
+     */
+    private FileOutcome adoptClaim(ClusterIngestionCoordinator.Claim claim, DocumentProcessingSnapshot snapshot,
+                                   DocumentIngestor ingestor, DocumentProcessingStateTracker tracker) {
+        if (claim.status() == ClusterIngestionCoordinator.ClaimStatus.BUSY) {
+            return FileOutcome.DEFERRED;
+        }
+        log.debug("文档已由集群中其他节点处理,采用其处理状态: {}", snapshot.absolutePath());
+        // 其他节点已把新版本写入共享的向量存储,本节点的检索缓存同样需要失效
+        advanceGeneration("采用集群中其他节点的处理结果: " + snapshot.absolutePath());
+        if (tracker != null) {
+            for (DocumentProcessingState state : claim.states()) {
+                ingestor.remove(tracker.adopt(state));
+            }
+            if (ArchiveDocumentReader.isArchive(Paths.get(snapshot.absolutePath()).getFileName().toString())) {
+                Set<String> present = claim.states().stream()
+                        .map(DocumentProcessingState::getFilePath)
+                        .collect(Collectors.toSet());
+                removeArchiveEntries(snapshot.absolutePath(), present, ingestor);
+            }
+        }
+        return FileOutcome.SKIPPED;
+    }
+
+    /**
+     * 文件处理结束后通知集群：成功时发布本节点记录的处理状态（包括压缩包条目），失败或取消时只释放租约
+     *
+     * @param snapshot   文件快照
+     * @param completion 文件处理完成的future
+     * @param tracker    状态跟踪器,未开启状态跟踪时为null
+     * @return completion
+     */
+    private CompletableFuture<FileOutcome> releaseClaim(DocumentProcessingSnapshot snapshot,
+                                                        CompletableFuture<FileOutcome> completion,
+                                                        DocumentProcessingStateTracker tracker) {
+        if (clusterCoordinator == null || !clusterCoordinator.isActive()) {
+            return completion;
+        }
+        return completion.whenComplete((outcome, error) -> {
+            if (error == null && !outcome.failed() && !outcome.cancelled()) {
+                clusterCoordinator.complete(snapshot, publishedStates(snapshot.absolutePath(), tracker));
+            } else {
+                clusterCoordinator.abandon(snapshot);
+            }
+        });
+    }
+
+    private List<DocumentProcessingState> publishedStates(String absolutePath, DocumentProcessingStateTracker tracker) {
+        if (tracker == null) {
+            return List.of();
+        }
+        String entryPrefix = absolutePath + ArchiveDocumentReader.ENTRY_SEPARATOR;
+        return tracker.snapshotStates().entrySet().stream()
+                .filter(entry -> entry.getKey().equals(absolutePath) || entry.getKey().startsWith(entryPrefix))
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+
+    /**
+     * 删除压缩包中已不存在的条目的向量和处理状态
+     *
+     * @param archivePath 压缩包绝对路径
+     * @param present     压缩包中仍存在的条目键
+     * @param ingestor    文档摄取器
+     * @return 被删除的条目键
+     */
+    private List<String> removeArchiveEntries(String archivePath, Set<String> present, DocumentIngestor ingestor) {
+        String prefix = archivePath + ArchiveDocumentReader.ENTRY_SEPARATOR;
+        List<String> removed = stateTracker.snapshotStates().keySet().stream()
+                .filter(key -> key.startsWith(prefix) && !present.contains(key))
+                .toList();
+        for (String key : removed) {
+            ingestor.remove(stateTracker.remove(key));
+            ingestor.release(key);
+            log.info("压缩包条目已删除,移除其向量: {}", key);
+        }
+        return removed;
+    }
+
+    /**
+     * 关闭文档句柄,释放解析结果
+     */
+    private void closeHandle(DocumentHandle handle) {
+        if (handle == null) {
+            return;
+        }
+        try {
+            handle.close();
+        } catch (IOException e) {
+            log.debug("关闭文档句柄失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 解析中途失败时作废凭证,并删除该文件已写入流水线的部分向量
+     */
+    private void abandonTicket(DocumentIngestor ingestor, IngestionTicket ticket, Exception cause) {
+        if (ticket != null) {
+            ingestor.fail(ticket, cause);
+        }
+    }
+
+    /**
+     * 计算文件内容哈希并附加到快照,计算失败时返回原快照(将按内容已变化处理)
+     *
+     * @param path     文件路径
+     * @param snapshot 文件快照
+     * @return 携带内容哈希的快照
+     */
+    private DocumentProcessingSnapshot withContentHash(Path path, DocumentProcessingSnapshot snapshot) {
+        try {
+            return snapshot.withContentHash(ContentHasher.hash(path));
+        } catch (IOException e) {
+            log.warn("计算文件内容哈希失败: {}", path, e);
+            return snapshot;
         }
     }
 
     /**
      * 处理常规文件：
-     * 通过 FileSystemDocumentLoader 加载指定路径的文档。
+     * 通过已打开的文档句柄提取文本（复用加密检测时的解析结果）。
      * 使用 isHighQuality 方法判断文档内容质量。
-     * 若文档质量合格，则调用 ingestor.ingest() 将其存入向量存储，并增加已处理片段计数。
-     * 质量不合格则记录调试日志并跳过。
+     * 若文档质量合格，则提交到摄取流水线。
+     * 质量不合格或没有可提取的文本则记录调试日志并跳过。
      *
-     * @param path             文件路径
-     * @param ingestor         向量存储对象
-     * @param ingestedSegments 已处理的文档片段计数器
-     */
-    private void processRegularFile(Path path, EmbeddingStoreIngestor ingestor, AtomicLong ingestedSegments) {
-        Document document = FileSystemDocumentLoader.loadDocument(path, getDocumentParserForFile(path));
-        if (isHighQuality(document.text())) {
-            ingestor.ingest(document);
-            ingestedSegments.incrementAndGet();
+     * @param path   文件路径
+     * @param handle 文档句柄
+     * @param ticket 文件的流水线凭证
+     */
+    private void processRegularFile(Path path, DocumentHandle handle, IngestionTicket ticket)
+            throws IOException, InterruptedException {
+        Document document = handle.load();
+        if (document == null) {
+            log.debug("文档没有可提取的文本,跳过: {}", path);
+        } else if (isHighQuality(document.text())) {
+            ticket.submit(document);
         } else {
             log.debug("文档质量较低,跳过: {}", path);
         }
@@ -278,68 +940,118 @@ public class DocumentProcessingService {
 
     /**
      * 处理大文件：
-     * 创建一个字符缓冲区，用于存储文件片段。
-     * 创建一个 StringBuilder 对象，用于构建文件片段。
-     * 创建一个计数器，用于记录已处理的文档片段数。
-     * 创建一个缓冲区读取器，用于逐行读取文件内容。
-     * 循环读取文件内容，每次读取 streamChunkSize 个字符。
-     * 将读取到的字符添加到缓冲区中。
-     * 当缓冲区中的字符数量达到 streamChunkSize 时，调用 ingestChunk 方法处理缓冲区中的内容。
+     * 通过内存映射读取并自动识别编码（UTF-8/UTF-16/GBK/GB18030），解码后的文本块直接交给流式分割器；
+     * 分割器边读边切，段落/句子边界处切分并在读缓冲区之间延续重叠，直接产出最终分段；
+     * 分段按 STREAM_SUBMIT_BATCH 个一组提交到摄取流水线，流水线队列满时阻塞，内存占用与文件大小无关。
+     * 大文件按噪音比例逐段过滤，不再按最小文档长度过滤。
+     * 开启状态跟踪时，每产出 checkpointSegments 个分段等待已提交的分段写入，记录检查点（字节偏移、分割状态和向量ID）；
+     * 进程中断或处理失败后，下次处理同一版本的文件时从最后一个检查点继续，已写入的分段不再重复向量化。
      *
      * @param path     文件路径
-     * @param ingestor 向量存储对象
-     */
-    private void processLargeFile(Path path, EmbeddingStoreIngestor ingestor,
-                                  DocumentProcessingSnapshot snapshot, AtomicLong ingestedSegments) throws IOException {
-        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            char[] buffer = new char[streamChunkSize];
-            StringBuilder chunkBuilder = new StringBuilder(streamChunkSize);
-            int read;
-            int chunkIndex = 0;
-            while ((read = reader.read(buffer)) != -1) {
-                chunkBuilder.append(buffer, 0, read);
-                if (chunkBuilder.length() >= streamChunkSize) {
-                    chunkIndex = ingestChunk(path, ingestor, chunkBuilder, chunkIndex, ingestedSegments);
-                }
-            }
-            if (!chunkBuilder.isEmpty()) {
-                ingestChunk(path, ingestor, chunkBuilder, chunkIndex, ingestedSegments);
+     * @param ticket   文件的流水线凭证
+     * @param snapshot 文件快照
+     * @param tracker  状态跟踪器,未开启状态跟踪时为null,不记录检查点
+     * @param ingestor 文档摄取器
+     * @param force    是否强制处理,强制处理时丢弃已有检查点
+     * @return 已记录到检查点的向量ID(包括之前运行中写入的)
+     */
+    private List<String> processLargeFile(Path path, IngestionTicket ticket, DocumentProcessingSnapshot snapshot,
+                                          DocumentProcessingStateTracker tracker, DocumentIngestor ingestor,
+                                          boolean force) throws IOException, InterruptedException {
+        String settings = checkpointSettings();
+        IngestionCheckpoint resume = tracker == null ? null : tracker.loadCheckpoint(snapshot.absolutePath());
+        if (resume != null && (force || !resume.matches(snapshot, settings))) {
+            log.info("文件已变化或分割参数已调整,丢弃摄取检查点: {}", path);
+            ingestor.remove(tracker.discardCheckpoint(snapshot.absolutePath()));
+            resume = null;
+        }
+        List<String> committed = new ArrayList<>(resume == null ? List.of() : resume.embeddingIds());
+        List<TextSegment> batch = new ArrayList<>(STREAM_SUBMIT_BATCH);
+        try (MappedTextReader reader = resume == null
+                ? MappedTextReader.open(path, streamChunkSize)
+                : MappedTextReader.open(path, streamChunkSize, Charset.forName(resume.charset()), resume.byteOffset())) {
+            StreamingTextSplitter.SplitState from = StreamingTextSplitter.SplitState.START;
+            if (resume != null) {
+                from = resume.splitState();
+                log.info("从检查点继续处理大文件: {} (已写入 {} 个分段, 字节偏移 {}/{})",
+                        path, resume.nextIndex(), resume.byteOffset(), snapshot.fileSize());
             }
-            log.debug("大文件采用流式处理完成: {} (size={} bytes)", path, snapshot.fileSize());
+            StreamingTextSplitter.ChunkListener checkpointer = tracker == null || checkpointSegments <= 0 ? null
+                    : checkpointer(reader, ticket, batch, snapshot, settings, tracker, committed, from.nextIndex());
+            long segments = newStreamingSplitter().split(reader, DocumentHandle.fileMetadata(path),
+                    batchingSink(ticket, batch), from, checkpointer);
+            flushBatch(ticket, batch);
+            log.debug("大文件采用流式处理完成: {} (size={} bytes, charset={}, segments={})",
+                    path, snapshot.fileSize(), reader.charset(), segments);
         }
+        return committed;
     }
 
     /**
-     * 处理文件片段：
-     * 创建一个 Metadata 对象，用于存储文件名和片段索引。
-     * 创建一个 Document 对象，将片段内容、元数据存储在它中。
-     * 调用 ingestor.ingest() 方法将 Document 对象存入向量存储。
-     * 增加已处理的文档片段计数。
-     *
-     * @param path         文件路径
-     * @param ingestor     向量存储对象
-     * @param chunkBuilder 文件片段缓冲区
-     * @param chunkIndex   文件片段索引
+     * 每产出 checkpointSegments 个分段记录一次检查点：提交缓冲的分段并等待写入完成，
+     * 此时读取位置之前的分段都已在向量存储中，记录读取位置、分割状态和新写入的向量ID
      */
-    private int ingestChunk(Path path, EmbeddingStoreIngestor ingestor, StringBuilder chunkBuilder,
-                            int chunkIndex, AtomicLong ingestedSegments) {
-        String chunkText = chunkBuilder.toString();
-        chunkBuilder.setLength(0);
-        if (!isHighQuality(chunkText)) {
-            return chunkIndex + 1;
-        }
+    private StreamingTextSplitter.ChunkListener checkpointer(MappedTextReader reader, IngestionTicket ticket,
+                                                             List<TextSegment> batch,
+                                                             DocumentProcessingSnapshot snapshot, String settings,
+                                                             DocumentProcessingStateTracker tracker,
+                                                             List<String> committed, long startIndex) {
+        long[] lastCheckpoint = {startIndex};
+        return state -> {
+            if (state.nextIndex() - lastCheckpoint[0] < checkpointSegments) {
+                return;
+            }
+            flushBatch(ticket, batch);
+            List<String> embeddingIds = ticket.commit();
+            committed.addAll(embeddingIds);
+            tracker.saveCheckpoint(new IngestionCheckpoint(snapshot.absolutePath(), snapshot.fileSize(),
+                    snapshot.lastModifiedTime(), snapshot.contentHash(), settings, reader.charset().name(),
+                    reader.position(), state.charOffset(), state.pending(), state.carried(), state.nextIndex(),
+                    embeddingIds));
+            lastCheckpoint[0] = state.nextIndex();
+            log.debug("记录摄取检查点: {} (分段 {}, 字节偏移 {})", snapshot.absolutePath(), state.nextIndex(),
+                    reader.position());
+        };
+    }
+
+    /**
+     * 影响流式分割结果的参数,参数变化后检查点失效
+     */
+    private String checkpointSettings() {
+        return Math.max(largeDocumentSegmentSize, maxOverlap + 1) + "/" + maxOverlap + "/" + maxNoiseRatio;
+    }
+
+    private StreamingTextSplitter newStreamingSplitter() {
+        return new StreamingTextSplitter(Math.max(largeDocumentSegmentSize, maxOverlap + 1), maxOverlap, streamChunkSize);
+    }
+
+    /**
+     * 流式分割的分段按噪音比例过滤后攒够 STREAM_SUBMIT_BATCH 个提交一次
+     */
+    private StreamingTextSplitter.SegmentSink batchingSink(IngestionTicket ticket, List<TextSegment> batch) {
+        return segment -> {
+            if (!isLowNoise(segment.text())) {
+                return;
+            }
+            batch.add(segment);
+            if (batch.size() >= STREAM_SUBMIT_BATCH) {
+                flushBatch(ticket, batch);
+            }
+        };
+    }
 
-        // 创建元数据对象, 用于存储文件名和片段索引
-        Metadata metadata = new Metadata();
-        metadata.put(Document.FILE_NAME, path.getFileName().toString());
-        metadata.put("chunk_index", chunkIndex);
-        metadata.put("chunk_length", chunkText.length());
+    private void flushBatch(IngestionTicket ticket, List<TextSegment> batch) throws InterruptedException {
+        if (!batch.isEmpty()) {
+            ticket.submitSegments(batch);
+            batch.clear();
+        }
+    }
 
-        // 创建文档对象, 将片段内容、元数据存储在它中
-        Document chunkDocument = Document.from(chunkText, metadata);
-        ingestor.ingest(chunkDocument);
-        ingestedSegments.incrementAndGet();
-        return chunkIndex + 1;
+    /**
+     * PDF、Office等二进制文档需要完整解析,不能按文本流式处理
+     */
+    private boolean isBinaryFile(String fileName) {
+        return Set.of("pdf", "doc", "docx", "xls", "xlsx").contains(getFileExtension(fileName).toLowerCase());
     }
 
     /**
@@ -358,74 +1070,68 @@ public class DocumentProcessingService {
         if (trimmed.length() < minContentLength) {
             return false;
         }
-        long noise = trimmed.chars()
-                .filter(ch -> !Character.isLetterOrDigit(ch) && !Character.isWhitespace(ch) && ch < 128)
-                .count();
-        double noiseRatio = (double) noise / trimmed.length();
-        return noiseRatio <= maxNoiseRatio;
+        return isLowNoise(trimmed);
     }
 
     /**
-     * 创建一个 DocumentProcessingSnapshot 对象，用于保存文件元信息。
+     * 统计噪音字符比例是否在允许范围内
      *
-     * @param path 文件路径
-     * @return DocumentProcessingSnapshot 对象
+     * @param text 文本内容
+     * @return 噪音比例不超过 maxNoiseRatio 时返回true
      */
-    private DocumentProcessingSnapshot createSnapshot(Path path) {
-        try {
-            return DocumentProcessingSnapshot.from(path);
-        } catch (IOException e) {
-            log.error("获取文件元信息失败: {}", path, e);
-            return null;
+    private boolean isLowNoise(String text) {
+        if (text.isEmpty()) {
+            return false;
         }
+        long noise = text.chars()
+                .filter(ch -> !Character.isLetterOrDigit(ch) && !Character.isWhitespace(ch) && ch < 128)
+                .count();
+        double noiseRatio = (double) noise / text.length();
+        return noiseRatio <= maxNoiseRatio;
     }
 
     /**
-     * 该方法用于过滤出需要处理的文件路径列表。首先将候选路径转换为快照对象，过滤掉空值，
-     * 再根据stateTracker判断是否应处理，最后提取路径并收集为列表。
+     * 该方法用于过滤出需要处理的文件列表。直接使用扫描记录中的快照，
+     * 根据stateTracker判断是否应处理，不再重新读取文件元信息。
      * 核心在于通过状态跟踪器筛选出真正需要处理的文件。
      *
-     * @param candidates 候选路径列表
-     * @return 处理文件路径list
+     * @param candidates 候选文件扫描记录
+     * @return 需要处理的文件list
      */
-    private List<Path> filterChangedFiles(List<Path> candidates) {
+    private List<ScannedFile> filterChangedFiles(List<ScannedFile> candidates) {
         return candidates.stream()
-                .map(this::createSnapshot)
-                .filter(Objects::nonNull)
-                .filter(stateTracker::shouldProcess)
-                .map(snapshot -> Paths.get(snapshot.absolutePath()))
+                .filter(file -> stateTracker.shouldProcess(file.snapshot()))
                 .collect(Collectors.toCollection(ArrayList::new));
     }
 
     /**
-     * 获取文件的扩展名，如果没有扩展名则返回空字符串。
+     * 过滤隐藏文件,隐藏属性在扫描时已经确定
      *
-     * @param path 文件路径
-     * @return 文件扩展名
+     * @param file 文件扫描记录
+     * @return 是否保留
      */
-    private boolean filterHiddenFile(Path path) {
-        if (includeHiddenFiles) {
-            return true;
-        }
-        try {
-            return !Files.isHidden(path);
-        } catch (IOException e) {
-            return true;
-        }
+    private boolean filterHiddenFile(ScannedFile file) {
+        return includeHiddenFiles || !file.hidden();
     }
 
     /**
-     * 忽略状态文件
+     * 忽略状态文件及其预写日志、临时文件
      */
     private boolean filterStateFile(Path path) {
-        return !path.getFileName().toString().equals(stateFileName);
+        return !path.getFileName().toString().startsWith(stateFileName);
     }
 
     /**
      * 过滤掉非文档文件（视频、图片、压缩包等）
      */
     private boolean filterNonDocumentFiles(Path path) {
-        String fileName = path.getFileName().toString();
+        return isDocumentFileName(path.getFileName().toString());
+    }
+
+    /**
+     * 按文件名判断是否为文档,也用于过滤压缩包中的条目。zip/jar/war/ear压缩包按条目流式处理
+     */
+    private boolean isDocumentFileName(String fileName) {
         String extension = getFileExtension(fileName).toLowerCase();
 
         // 定义非文档文件扩展名集合
@@ -435,7 +1141,9 @@ public class DocumentProcessingService {
                 // 图片格式
                 "jpg", "jpeg", "png", "gif", "bmp", "webp", "tiff", "tif", "svg", "ico", "raw", "arw", "cr2", "nrw", "k25", "dib", "heif", "heic", "ind", "indd", "indt", "jp2", "j2k", "jpf", "jpx", "jpm", "mj2", "svgz", "ai", "eps",
                 // 压缩包格式
-                "zip", "rar", "7z", "tar", "gz", "bz2", "xz", "tgz", "tbz2", "txz", "iso", "dmg", "jar", "war", "ear",
+                "rar", "7z", "tar", "gz", "bz2", "xz", "tgz", "tbz2", "txz", "iso", "dmg",
+                // 编译产物
+                "class",
                 // 可执行文件
                 "exe", "msi", "bat", "cmd", "sh", "bin", "app", "deb", "rpm",
                 // 数据库文件
@@ -467,23 +1175,6 @@ public class DocumentProcessingService {
         return docsPath;
     }
 
-    /**
-     * 根据文件扩展名获取相应的文档解析器
-     *
-     * @param path 文件路径
-     */
-    private DocumentParser getDocumentParserForFile(Path path) {
-        String fileName = path.getFileName().toString();
-        // 获取文件扩展名
-        String extension = getFileExtension(fileName).toLowerCase();
-
-        return switch (extension) {
-            case "pdf" -> new ApachePdfBoxDocumentParser();
-            case "doc", "docx", "xls", "xlsx" -> new ApachePoiDocumentParser();
-            default -> new TextDocumentParser();
-        };
-    }
-
     /**
      * 获取文件扩展名
      */
@@ -495,97 +1186,70 @@ public class DocumentProcessingService {
     }
 
     /**
-     * 检查文件是否受密码保护
+     * 检查压缩文件是否受密码保护,PDF和Office文档的加密检测由DocumentHandle完成.
+     * zip/jar/war/ear只有含加密条目时才视为受保护;无法打开的压缩包抛出异常,由调用方记为处理失败
      *
      * @param path 文件路径
      * @return 如果文件受密码保护返回true，否则返回false
+     * @throws IOException 压缩包损坏等原因无法读取
      */
-    private boolean isPasswordProtected(Path path) {
-        String fileName = path.getFileName().toString();
-        String extension = getFileExtension(fileName).toLowerCase();
+    private boolean isPasswordProtected(Path path) throws IOException {
+        String extension = getFileExtension(path.getFileName().toString()).toLowerCase();
+        switch (extension) {
+            case "zip":
+            case "jar":
+            case "war":
+            case "ear":
+                return ArchiveDocumentReader.isEncrypted(path);
+            case "rar":
+            case "7z":
+                // RAR和7Z需要额外的库支持(如junrar或sevenzipjbinding),暂时无法检查密码保护
+                log.debug("无法检查{}文件的密码保护状态", extension);
+                return false;
+            default:
+                // 对于其他类型的文件，默认不检查密码保护
+                return false;
+        }
+    }
 
-        try {
-            switch (extension) {
-                case "pdf":
-                    // 检查PDF文件是否加密
-                    try {
-                        PDDocument document = PDDocument.load(path.toFile());
-                        boolean encrypted = document.isEncrypted();
-                        document.close();
-                        return encrypted;
-                    } catch (IOException e) {
-                        // 如果加载失败，可能是因为密码保护
-                        log.debug("PDF文件可能受密码保护: {}", path, e);
-                        return true;
-                    }
-
-                case "doc":
-                case "docx":
-                case "xls":
-                case "xlsx":
-                    // 检查Office文档是否加密
-                    try (FileInputStream fis = new FileInputStream(path.toFile())) {
-                        POIFSFileSystem poifs = new POIFSFileSystem(fis);
-                        // 尝试获取加密信息
-                        boolean encrypted = poifs.getRoot().hasEntry(EncryptionInfo.ENCRYPTION_INFO_ENTRY);
-                        return encrypted;
-                    } catch (Exception e) {
-                        // 如果读取失败，可能是因为密码保护
-                        log.debug("Office文档可能受密码保护: {}", path, e);
-                        return true;
-                    }
-
-                case "zip":
-                case "rar":
-                case "7z":
-                    // 对于压缩文件，简单检查是否能列出条目
-                    try {
-                        switch (extension) {
-                            case "zip":
-                                try (ZipFile zipFile = new ZipFile(path.toFile())) {
-                                    // 尝试访问条目但不读取内容
-                                    Enumeration<? extends ZipEntry> entries = zipFile.entries();
-                                    if (entries.hasMoreElements()) {
-                                        ZipEntry entry = entries.nextElement();
-                                        // 尝试获取输入流来检查是否受密码保护
-                                        try (InputStream is = zipFile.getInputStream(entry)) {
-                                            // 如果能获取到流，则不是密码保护的（至少这个条目不是）
-                                            return false;
-                                        } catch (IOException e) {
-                                            // 如果获取流失败，可能是密码保护
-                                            log.debug("ZIP条目可能受密码保护: {}", entry.getName());
-                                            return true;
-                                        }
-                                    }
-                                    return false;
-                                }
+    /**
+     * 单个文件的处理结果
+     *
+     * @param failed     是否处理失败
+     * @param cancelled  是否因任务取消而未处理
+     * @param segments   写入向量存储的分段数
+     * @param suppressed 因近重复而未写入的分段数
+     * @param replaced   内容被替换或清除的文件(压缩包为其中的条目)
+     */
+    private record FileOutcome(boolean failed, boolean cancelled, boolean deferred, int segments, int suppressed,
+                               List<String> replaced) {
+        static final FileOutcome SKIPPED = new FileOutcome(false, false, false, 0, 0, List.of());
+        static final FileOutcome FAILED = new FileOutcome(true, false, false, 0, 0, List.of());
+        static final FileOutcome CANCELLED = new FileOutcome(false, true, false, 0, 0, List.of());
+        /**
+         * 正由集群中其他节点处理,稍后重试
+         */
+        static final FileOutcome DEFERRED = new FileOutcome(false, false, true, 0, 0, List.of());
 
-                                // 注意：RAR和7Z需要额外的库支持，这里仅作占位符
-                            case "rar":
-                            case "7z":
-                                // 对于RAR和7Z文件，暂时无法简单检查密码保护
-                                // 可以考虑使用第三方库如junrar或sevenzipjbinding
-                                log.debug("无法检查{}文件的密码保护状态", extension);
-                                return false;
-
-                            default:
-                                return false;
-                        }
-                    } catch (IOException e) {
-                        // 如果无法打开压缩文件，可能是因为密码保护
-                        log.debug("压缩文件可能受密码保护: {}", path, e);
-                        return true;
-                    }
-
-                default:
-                    // 对于其他类型的文件，默认不检查密码保护
-                    return false;
+        static FileOutcome cleared(List<String> paths) {
+            return new FileOutcome(false, false, false, 0, 0, List.copyOf(paths));
+        }
+
+        /**
+         * 合并压缩包中各条目的处理结果
+         */
+        static FileOutcome combine(List<FileOutcome> outcomes, List<String> removed) {
+            List<String> replaced = new ArrayList<>(removed);
+            boolean failed = false;
+            int segments = 0;
+            int suppressed = 0;
+            for (FileOutcome outcome : outcomes) {
+                failed |= outcome.failed();
+                segments += outcome.segments();
+                suppressed += outcome.suppressed();
+                replaced.addAll(outcome.replaced());
             }
-        } catch (Exception e) {
-            log.warn("检查文件密码保护时发生错误: {}", path, e);
-            // 发生异常时，保守地认为文件可能受密码保护
-            return true;
+            return new FileOutcome(failed, false, false, segments, suppressed, List.copyOf(replaced));
         }
     }
 }
-
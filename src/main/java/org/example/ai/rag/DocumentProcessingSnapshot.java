@@ -3,18 +3,20 @@ package org.example.ai.rag;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * 文档处理快照
  * @param absolutePath
  * @param fileSize
  * @param lastModifiedTime
+ * @param contentHash 文件内容哈希,仅在元信息变化时才计算,未计算时为null
  */
-public record DocumentProcessingSnapshot(String absolutePath, long fileSize, long lastModifiedTime) {
+public record DocumentProcessingSnapshot(String absolutePath, long fileSize, long lastModifiedTime, String contentHash) {
 
     /**
      * 从给定的文件路径创建一个DocumentProcessingSnapshot对象
-     * 通过Files.size()获取文件大小，通过Files.getLastModifiedTime()获取文件最后修改时间
+     * 通过一次Files.readAttributes()同时获取文件大小和最后修改时间
      * 将路径、文件大小和修改时间作为参数构造新的快照对象
      * 主要用于创建文档处理的快照信息
      *
@@ -22,11 +24,32 @@ public record DocumentProcessingSnapshot(String absolutePath, long fileSize, lon
      * @return DocumentProcessingSnapshot
      */
     public static DocumentProcessingSnapshot from(Path path) throws IOException {
+        return from(path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    /**
+     * 由目录遍历时已读取的文件属性创建快照,不再访问文件系统
+     *
+     * @param path       文件路径
+     * @param attributes 文件属性
+     * @return DocumentProcessingSnapshot
+     */
+    public static DocumentProcessingSnapshot from(Path path, BasicFileAttributes attributes) {
         return new DocumentProcessingSnapshot(
                 path.toAbsolutePath().toString(),
-                Files.size(path),
-                Files.getLastModifiedTime(path).toMillis()
+                attributes.size(),
+                attributes.lastModifiedTime().toMillis(),
+                null
         );
     }
-}
 
+    /**
+     * 返回附带内容哈希的新快照
+     *
+     * @param hash 文件内容哈希
+     * @return DocumentProcessingSnapshot
+     */
+    public DocumentProcessingSnapshot withContentHash(String hash) {
+        return new DocumentProcessingSnapshot(absolutePath, fileSize, lastModifiedTime, hash);
+    }
+}
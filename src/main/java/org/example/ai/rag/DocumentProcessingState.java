@@ -5,11 +5,13 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 /**
  * 文档处理状态,用于持久化处理结果,支持增量更新.
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class DocumentProcessingState {
@@ -28,12 +30,32 @@ public class DocumentProcessingState {
 
     private long processedSegments;
 
+    /**
+     * 文件内容哈希,用于识别仅修改时间变化而内容未变的文件
+     */
+    private String contentHash;
+
+    /**
+     * 该文件写入向量存储的向量ID,文件变更时据此精确替换旧向量.
+     * 预写日志中为null表示向量ID与上一条记录相同,重放时沿用上一条记录的值
+     */
+    private List<String> embeddingIds;
+
+    /**
+     * 该文件因近重复而未写入的分段所重复的其他文件,这些文件变更或删除时需要重新处理该文件
+     */
+    private List<String> duplicateOf;
+
     public enum ProcessingStatus {
         PENDING,
         PROCESSING,
         SUCCESS,
         FAILED,
-        SKIPPED
+        SKIPPED,
+        /**
+         * 文件已删除,仅作为预写日志中的删除标记,不会保留在内存状态中
+         */
+        DELETED
     }
 }
 
@@ -1,25 +1,35 @@
 package org.example.ai.rag;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 文档处理状态跟踪器,用于持久化每个文件的处理情况,支持增量式加载.
+ * 每次状态变更只向预写日志追加一条记录并按组刷盘,日志超过阈值后再合并为快照,
+ * 单次更新的磁盘开销与已跟踪的文件数量无关.
  */
 @Component
 @Slf4j
@@ -29,37 +39,94 @@ public class DocumentProcessingStateTracker {
     private final ObjectMapper objectMapper;
     private final String stateFileName;
     private final Map<String, DocumentProcessingState> states = new ConcurrentHashMap<>();
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long compactThreshold;
+    private final ScheduledExecutorService syncScheduler;
+    private DocumentStateJournal journal;
+    private IngestionCheckpointStore checkpointStore;
+
+    /**
+     * 使用默认日志参数创建跟踪器
+     *
+     * @param ragUtils RagUtils工具类
+     * @param stateFileName 状态文件名
+     */
+    public DocumentProcessingStateTracker(RagUtils ragUtils, String stateFileName) {
+        this(ragUtils, stateFileName, 64, 1000, 10000);
+    }
 
     /**
      * 依赖注入：通过@Lazy注解延迟加载RagUtils工具类
-     * 配置读取：从配置文件读取状态文件名，默认为".rag-processing-state.json"
+     * 配置读取：从配置文件读取状态文件名，默认为".rag-processing-state.json"，以及日志刷盘和合并参数
      * 初始化组件：创建JSON对象映射器并注册所有模块
-     * 加载状态：调用loadFromDisk()方法从磁盘加载处理状态
+     * 加载状态：调用loadFromDisk()方法读取快照并重放预写日志
      * 主要用于文档处理状态的持久化管理。
      *
      * @param ragUtils RagUtils工具类
      * @param stateFileName 状态文件名
+     * @param syncEvery 每追加多少条记录强制刷盘一次
+     * @param syncIntervalMillis 定时刷盘间隔(毫秒)
+     * @param compactThreshold 日志记录数超过该值(且超过已跟踪文件数)时合并为快照
      */
-    public DocumentProcessingStateTracker(@Lazy RagUtils ragUtils, @Value("${rag.processing.state-file-name:.rag-processing-state.json}") String stateFileName) {
+    @Autowired
+    public DocumentProcessingStateTracker(@Lazy RagUtils ragUtils,
+                                          @Value("${rag.processing.state-file-name:.rag-processing-state.json}") String stateFileName,
+                                          @Value("${rag.processing.journal.sync-every:64}") int syncEvery,
+                                          @Value("${rag.processing.journal.sync-interval-ms:1000}") long syncIntervalMillis,
+                                          @Value("${rag.processing.journal.compact-threshold:10000}") long compactThreshold) {
         this.ragUtils = ragUtils;
         this.stateFileName = stateFileName;
         this.objectMapper = JsonMapper.builder().findAndAddModules().build();
-        loadFromDisk();
+        this.compactThreshold = compactThreshold;
+        loadFromDisk(syncEvery);
+        this.syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rag-state-journal-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, syncIntervalMillis);
+        syncScheduler.scheduleWithFixedDelay(this::syncJournal, interval, interval, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * 判断文件是否需要重新处理。首先根据文件路径获取其处理状态，若无记录则返回 true 表示需处理；
-     * 若有记录，则比较文件的最后修改时间和大小，任一不同则返回 true，表示文件已变更需重新处理。
+     * 判断文件是否需要重新处理。首先根据文件路径获取其处理状态，若无记录或上次未处理完成则返回 true 表示需处理；
+     * 若有记录，则比较文件的最后修改时间和大小，均相同则无需处理；
+     * 元信息不同但快照携带的内容哈希与记录一致时，说明文件只是被touch，同样无需处理。
      * @param snapshot 文件快照信息
      * @return 是否需要处理
      */
     public boolean shouldProcess(DocumentProcessingSnapshot snapshot) {
         DocumentProcessingState state = states.get(snapshot.absolutePath());
-        if (state == null) {
+        if (state == null || !isCompleted(state)) {
             return true;
         }
-        return state.getLastModified() != snapshot.lastModifiedTime() || state.getFileSize() != snapshot.fileSize();
+        if (!isMetadataChanged(state, snapshot)) {
+            return false;
+        }
+        return snapshot.contentHash() == null || !snapshot.contentHash().equals(state.getContentHash());
+    }
+
+    /**
+     * 判断文件的修改时间或大小是否与记录不一致,用于决定是否需要计算内容哈希
+     * @param snapshot 文件快照信息
+     * @return 元信息是否变化
+     */
+    public boolean hasMetadataChanged(DocumentProcessingSnapshot snapshot) {
+        DocumentProcessingState state = states.get(snapshot.absolutePath());
+        return state == null || !isCompleted(state) || isMetadataChanged(state, snapshot);
+    }
+
+    /**
+     * 获取文件上次写入向量存储的向量ID
+     * @param absolutePath 文件绝对路径
+     * @return 向量ID列表,无记录时返回空列表
+     */
+    public List<String> getEmbeddingIds(String absolutePath) {
+        DocumentProcessingState state = states.get(absolutePath);
+        if (state == null || state.getEmbeddingIds() == null) {
+            return List.of();
+        }
+        return state.getEmbeddingIds();
     }
 
     /**
@@ -72,23 +139,120 @@ public class DocumentProcessingStateTracker {
     }
 
     /**
-     * 标记成功/**
      * 标记处理成功
      * @param snapshot 文件信息
-     * @param processedSegments 处理的分片数
+     * @param embeddingIds 本次写入向量存储的向量ID
+     */
+    public void markSuccess(DocumentProcessingSnapshot snapshot, List<String> embeddingIds) {
+        markSuccess(snapshot, embeddingIds, List.of());
+    }
+
+    /**
+     * 标记处理成功,并记录近重复分段所依赖的文件
+     * @param snapshot 文件信息
+     * @param embeddingIds 本次写入向量存储的向量ID
+     * @param duplicateOf 被抑制的近重复分段所重复的其他文件
+     */
+    public void markSuccess(DocumentProcessingSnapshot snapshot, List<String> embeddingIds, List<String> duplicateOf) {
+        lock.lock();
+        try {
+            applyState(snapshot, DocumentProcessingState.ProcessingStatus.SUCCESS, null, embeddingIds.size(),
+                    embeddingIds, duplicateOf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 采用集群中其他节点记录的处理状态,该节点已写入向量并删除了上一版本的向量
+     * @param state 其他节点的处理状态
+     * @return 本节点记录的、不再属于该文件的向量ID(上一版本和未完成检查点的向量),供调用方删除
      */
-    public void markSuccess(DocumentProcessingSnapshot snapshot, long processedSegments) {
-        updateState(snapshot, DocumentProcessingState.ProcessingStatus.SUCCESS, null, processedSegments);
+    public List<String> adopt(DocumentProcessingState state) {
+        lock.lock();
+        try {
+            List<String> adoptedIds = state.getEmbeddingIds() == null ? List.of() : state.getEmbeddingIds();
+            List<String> stale = new ArrayList<>(discardCheckpoint(state.getFilePath()));
+            DocumentProcessingState previous = states.get(state.getFilePath());
+            if (previous != null && previous.getEmbeddingIds() != null) {
+                Set<String> kept = new HashSet<>(adoptedIds);
+                previous.getEmbeddingIds().stream().filter(id -> !kept.contains(id)).forEach(stale::add);
+            }
+            DocumentProcessingState adopted = DocumentProcessingState.builder()
+                    .filePath(state.getFilePath())
+                    .fileSize(state.getFileSize())
+                    .lastModified(state.getLastModified())
+                    .status(state.getStatus())
+                    .lastError(state.getLastError())
+                    .processedSegments(state.getProcessedSegments())
+                    .contentHash(state.getContentHash())
+                    .embeddingIds(List.copyOf(adoptedIds))
+                    .duplicateOf(state.getDuplicateOf() == null || state.getDuplicateOf().isEmpty()
+                            ? null : List.copyOf(state.getDuplicateOf()))
+                    .updatedAt(System.currentTimeMillis())
+                    .build();
+            states.put(adopted.getFilePath(), adopted);
+            persist(adopted);
+            return stale;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * 跳过处理
+     * 查找有分段因与指定文件近重复而未写入的文件
+     * @param absolutePaths 内容已变化或被删除的文件
+     * @return 需要重新处理的文件,不包含absolutePaths本身
+     */
+    public Set<String> findDuplicateDependents(Collection<String> absolutePaths) {
+        if (absolutePaths.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> sources = new HashSet<>(absolutePaths);
+        Set<String> dependents = new LinkedHashSet<>();
+        states.forEach((path, state) -> {
+            if (state.getDuplicateOf() != null && !sources.contains(path)
+                    && state.getDuplicateOf().stream().anyMatch(sources::contains)) {
+                dependents.add(path);
+            }
+        });
+        return dependents;
+    }
+
+    /**
+     * 跳过处理,保留已有的向量ID
      * @param snapshot 文件信息
      */
     public void markSkipped(DocumentProcessingSnapshot snapshot) {
         updateState(snapshot, DocumentProcessingState.ProcessingStatus.SKIPPED, null, 0);
     }
 
+    /**
+     * 跳过处理并清空向量ID,用于文件变为空或受保护、旧向量已被删除的情况
+     * @param snapshot 文件信息
+     */
+    public void markSkippedWithoutEmbeddings(DocumentProcessingSnapshot snapshot) {
+        updateState(snapshot, DocumentProcessingState.ProcessingStatus.SKIPPED, null, 0, List.of());
+    }
+
+    /**
+     * 文件仅被touch而内容未变：刷新修改时间和大小,保留原有状态、分片数和向量ID
+     * @param snapshot 携带内容哈希的文件信息
+     */
+    public void markUnchanged(DocumentProcessingSnapshot snapshot) {
+        lock.lock();
+        try {
+            DocumentProcessingState previous = states.get(snapshot.absolutePath());
+            if (previous == null) {
+                applyState(snapshot, DocumentProcessingState.ProcessingStatus.SKIPPED, null, 0, null);
+            } else {
+                applyState(snapshot, previous.getStatus(), previous.getLastError(), previous.getProcessedSegments(), null);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * 处理失败
      * @param snapshot 文件信息
@@ -98,14 +262,214 @@ public class DocumentProcessingStateTracker {
         updateState(snapshot, DocumentProcessingState.ProcessingStatus.FAILED, errorMessage, 0);
     }
 
+    /**
+     * 文件被删除：移除该文件的状态并在预写日志中记录删除标记
+     * @param absolutePath 文件绝对路径
+     * @return 该文件已写入向量存储的向量ID,供调用方删除;无记录时返回空列表
+     */
+    public List<String> remove(String absolutePath) {
+        lock.lock();
+        try {
+            List<String> checkpointed = discardCheckpoint(absolutePath);
+            DocumentProcessingState previous = states.remove(absolutePath);
+            if (previous == null) {
+                return checkpointed;
+            }
+            persistDeletion(absolutePath);
+            List<String> embeddingIds = previous.getEmbeddingIds() == null ? List.of() : previous.getEmbeddingIds();
+            if (checkpointed.isEmpty()) {
+                return embeddingIds;
+            }
+            List<String> all = new ArrayList<>(embeddingIds);
+            all.addAll(checkpointed);
+            return all;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取超大文件的摄取检查点
+     * @param absolutePath 文件绝对路径
+     * @return 合并了全部已写入向量ID的最新检查点,没有检查点或读取失败时返回null
+     */
+    public IngestionCheckpoint loadCheckpoint(String absolutePath) {
+        if (checkpointStore == null) {
+            return null;
+        }
+        try {
+            return checkpointStore.load(absolutePath);
+        } catch (IOException e) {
+            log.warn("读取摄取检查点失败,从头处理: {} ({})", absolutePath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 追加一条摄取检查点并刷盘,未配置文档路径时忽略
+     * @param checkpoint 检查点,向量ID只包含自上一条检查点以来新写入的部分
+     */
+    public void saveCheckpoint(IngestionCheckpoint checkpoint) {
+        if (checkpointStore == null) {
+            return;
+        }
+        try {
+            checkpointStore.append(checkpoint);
+        } catch (IOException e) {
+            log.warn("写入摄取检查点失败: {} ({})", checkpoint.filePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * 删除文件的摄取检查点。文件处理完成时检查点中的向量已并入处理状态,处理失败或检查点失效时由调用方删除这些向量
+     * @param absolutePath 文件绝对路径
+     * @return 检查点记录的向量ID,没有检查点时返回空列表
+     */
+    public List<String> discardCheckpoint(String absolutePath) {
+        if (checkpointStore == null) {
+            return List.of();
+        }
+        try {
+            return checkpointStore.delete(absolutePath);
+        } catch (IOException e) {
+            log.warn("删除摄取检查点失败: {} ({})", absolutePath, e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * 与向量存储中实际存在的向量核对,用于从向量快照恢复之后.
+     * 向量不全在存储中的文件删除状态(下次摄取重新处理),压缩包内有条目被删除时压缩包本身也删除状态,
+     * 向量不全在存储中的检查点被丢弃
+     * @param storedIds 向量存储中的全部向量ID
+     * @return 仍被处理状态或检查点引用的向量ID,其余向量不属于任何文件,由调用方删除
+     */
+    public Set<String> reconcile(Set<String> storedIds) {
+        lock.lock();
+        try {
+            Set<String> referenced = new HashSet<>();
+            Set<String> invalidated = new LinkedHashSet<>();
+            for (DocumentProcessingState state : List.copyOf(states.values())) {
+                List<String> ids = state.getEmbeddingIds() == null ? List.of() : state.getEmbeddingIds();
+                if (storedIds.containsAll(ids)) {
+                    referenced.addAll(ids);
+                    continue;
+                }
+                invalidated.add(state.getFilePath());
+                String archive = ArchiveDocumentReader.archiveOf(state.getFilePath());
+                if (archive != null) {
+                    invalidated.add(archive);
+                }
+            }
+            for (String path : invalidated) {
+                DocumentProcessingState state = states.remove(path);
+                if (state != null) {
+                    persistDeletion(path);
+                    if (state.getEmbeddingIds() != null) {
+                        state.getEmbeddingIds().forEach(referenced::remove);
+                    }
+                }
+            }
+            int discarded = 0;
+            if (checkpointStore != null) {
+                for (String path : checkpointStore.filePaths()) {
+                    IngestionCheckpoint checkpoint = loadCheckpoint(path);
+                    if (checkpoint != null && storedIds.containsAll(checkpoint.embeddingIds())) {
+                        referenced.addAll(checkpoint.embeddingIds());
+                    } else {
+                        discardCheckpoint(path);
+                        discarded++;
+                    }
+                }
+            }
+            if (!invalidated.isEmpty() || discarded > 0) {
+                log.info("向量存储中缺少部分向量,{} 个文件和 {} 个检查点需要重新处理", invalidated.size(), discarded);
+            }
+            return referenced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 状态文件路径,未配置文档路径时返回null
+     */
+    public Path stateFilePath() {
+        return resolveStateFile();
+    }
+
     public Map<String, DocumentProcessingState> snapshotStates() {
         return Collections.unmodifiableMap(states);
     }
 
+    /**
+     * 清空所有处理状态和摄取检查点。向量存储被重建为空时(如内存向量存储重启),记录的向量ID已失效,需要全部重新摄取
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            if (checkpointStore != null) {
+                try {
+                    checkpointStore.deleteAll();
+                } catch (IOException e) {
+                    log.warn("删除摄取检查点失败: {}", e.getMessage());
+                }
+            }
+            if (states.isEmpty()) {
+                return;
+            }
+            states.clear();
+            compact();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 应用关闭时刷盘并合并日志,下次启动只需读取快照
+     */
+    @PreDestroy
+    public void close() {
+        syncScheduler.shutdown();
+        lock.lock();
+        try {
+            if (journal != null) {
+                if (journal.journalRecords() > 0) {
+                    compact();
+                }
+                journal.close();
+            }
+        } catch (IOException e) {
+            log.warn("关闭RAG状态日志失败: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void persistDeletion(String absolutePath) {
+        persist(DocumentProcessingState.builder()
+                .filePath(absolutePath)
+                .status(DocumentProcessingState.ProcessingStatus.DELETED)
+                .updatedAt(System.currentTimeMillis())
+                .build());
+    }
+
+    /**
+     * 仅SUCCESS和SKIPPED视为已处理完成,PROCESSING(进程中断)和FAILED都需要重试
+     */
+    private boolean isCompleted(DocumentProcessingState state) {
+        return state.getStatus() == DocumentProcessingState.ProcessingStatus.SUCCESS
+                || state.getStatus() == DocumentProcessingState.ProcessingStatus.SKIPPED;
+    }
+
+    private boolean isMetadataChanged(DocumentProcessingState state, DocumentProcessingSnapshot snapshot) {
+        return state.getLastModified() != snapshot.lastModifiedTime() || state.getFileSize() != snapshot.fileSize();
+    }
+
     /**
      * 更新文档处理状态并持久化。通过DocumentProcessingSnapshot获取文件信息，
      * 结合传入的处理状态、错误信息和已处理分片数，构建一个新的DocumentProcessingState对象，
-     * 并将其存入内存映射中，最后调用persist()方法将状态写入磁盘。
+     * 并将其存入内存映射中，最后调用persist()方法将本次变更追加到预写日志。
      *
      * @param snapshot 文件信息
      * @param status 状态
@@ -114,6 +478,60 @@ public class DocumentProcessingStateTracker {
      */
     private void updateState(DocumentProcessingSnapshot snapshot, DocumentProcessingState.ProcessingStatus status,
                              String errorMessage, long processedSegments) {
+        updateState(snapshot, status, errorMessage, processedSegments, null);
+    }
+
+    /**
+     * 更新文档处理状态并持久化。
+     * 未传入向量ID或快照未携带内容哈希时沿用上一次记录的值,保证旧向量始终可被定位和替换。
+     *
+     * @param snapshot 文件信息
+     * @param status 状态
+     * @param errorMessage 错误信息
+     * @param processedSegments 处理的分片数
+     * @param embeddingIds 向量ID,为null时保留原值
+     */
+    private void updateState(DocumentProcessingSnapshot snapshot, DocumentProcessingState.ProcessingStatus status,
+                             String errorMessage, long processedSegments, List<String> embeddingIds) {
+        lock.lock();
+        try {
+            applyState(snapshot, status, errorMessage, processedSegments, embeddingIds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 合并上一次记录的值生成新状态,写入内存并追加到预写日志,调用方需持有锁.
+     * 与上一次记录完全相同(如未变化的文件每次扫描都被标记为跳过)时不写日志
+     */
+    private void applyState(DocumentProcessingSnapshot snapshot, DocumentProcessingState.ProcessingStatus status,
+                            String errorMessage, long processedSegments, List<String> embeddingIds) {
+        applyState(snapshot, status, errorMessage, processedSegments, embeddingIds, null);
+    }
+
+    /**
+     * 同上,近重复依赖为null时沿用原值,清空向量ID时一并清空
+     */
+    private void applyState(DocumentProcessingSnapshot snapshot, DocumentProcessingState.ProcessingStatus status,
+                            String errorMessage, long processedSegments, List<String> embeddingIds,
+                            List<String> duplicateOf) {
+        DocumentProcessingState previous = states.get(snapshot.absolutePath());
+        String contentHash = snapshot.contentHash();
+        if (contentHash == null && previous != null) {
+            contentHash = previous.getContentHash();
+        }
+        if (duplicateOf == null) {
+            duplicateOf = previous == null || (embeddingIds != null && embeddingIds.isEmpty())
+                    ? List.of() : previous.getDuplicateOf();
+        }
+        boolean idsChanged = previous == null || previous.getEmbeddingIds() == null
+                || embeddingIds != null && !embeddingIds.equals(previous.getEmbeddingIds());
+        if (!idsChanged) {
+            embeddingIds = previous.getEmbeddingIds();
+        } else if (embeddingIds == null) {
+            embeddingIds = List.of();
+        }
         DocumentProcessingState state = DocumentProcessingState.builder()
                 .filePath(snapshot.absolutePath())
                 .fileSize(snapshot.fileSize())
@@ -121,59 +539,102 @@ public class DocumentProcessingStateTracker {
                 .status(status)
                 .lastError(errorMessage)
                 .processedSegments(processedSegments)
-                .updatedAt(System.currentTimeMillis())
+                .contentHash(contentHash)
+                .embeddingIds(idsChanged ? List.copyOf(embeddingIds) : embeddingIds)
+                .duplicateOf(duplicateOf == null || duplicateOf.isEmpty() ? null : List.copyOf(duplicateOf))
+                .updatedAt(previous == null ? System.currentTimeMillis() : previous.getUpdatedAt())
                 .build();
+        if (state.equals(previous)) {
+            return;
+        }
+        state.setUpdatedAt(System.currentTimeMillis());
         states.put(snapshot.absolutePath(), state);
-        persist();
+        // 向量ID未变时日志记录不带向量ID,避免每次状态变更都重写超大文件的全部向量ID
+        persist(idsChanged ? state : state.toBuilder().embeddingIds(null).build());
     }
 
     /**
-     * 从磁盘加载文档处理状态文件。
-     * 首先通过 resolveStateFile() 获取状态文件路径，若文件不存在则直接返回。
-     * 若存在，则获取写锁后读取文件内容并反序列化为 DocumentProcessingState 列表，
-     * 将每个状态存入内存映射中，最后记录加载条数或异常信息。
+     * 从磁盘加载文档处理状态。
+     * 首先通过 resolveStateFile() 获取状态文件路径，若为空则直接返回。
+     * 否则读取快照文件并重放其后的预写日志，将每个状态存入内存映射中，
+     * 最后记录加载条数或异常信息；日志较长时顺便合并为新快照。
      */
-    private void loadFromDisk() {
+    private void loadFromDisk(int syncEvery) {
         Path stateFile = resolveStateFile();
-        if (stateFile == null || !Files.exists(stateFile)) {
-            log.info("未找到RAG状态文件,将从空状态开始加载文档: {}", stateFile);
+        if (stateFile == null) {
+            log.info("未配置RAG文档路径,状态仅保存在内存中");
             return;
         }
-        // 获取写锁, 防止其他线程写入
-        lock.writeLock().lock();
+        journal = new DocumentStateJournal(stateFile, objectMapper, syncEvery);
+        checkpointStore = new IngestionCheckpointStore(stateFile, objectMapper);
+        lock.lock();
         try {
-            byte[] data = Files.readAllBytes(stateFile);
-            List<DocumentProcessingState> list = objectMapper.readValue(data, new TypeReference<>() {});
+            List<DocumentProcessingState> list = journal.load();
             list.forEach(state -> states.put(state.getFilePath(), state));
-            log.info("成功加载 {} 条文档处理状态", list.size());
+            log.info("成功加载 {} 条文档处理状态(重放日志 {} 条)", list.size(), journal.journalRecords());
+            if (shouldCompact()) {
+                compact();
+            }
         } catch (IOException e) {
             log.warn("读取RAG状态文件失败,忽略并重新开始: {}", e.getMessage());
         } finally {
-            lock.writeLock().unlock();
-            log.info("已释放RAG状态文件锁");
+            lock.unlock();
         }
     }
 
     /**
-     * 将内存中的文档处理状态写入磁盘。
-     * 首先通过 resolveStateFile() 获取状态文件路径，若为空则返回。
-     * 获取写锁，并创建父目录，最后将状态列表写入文件。
+     * 将一次状态变更追加到预写日志，日志过长时合并为快照。调用方需持有锁。
      */
-    private void persist() {
-        Path stateFile = resolveStateFile();
-        if (stateFile == null) {
+    private void persist(DocumentProcessingState state) {
+        if (journal == null) {
             return;
         }
-        // 获取写锁, 防止其他线程写入
-        lock.writeLock().lock();
         try {
-            Files.createDirectories(stateFile.getParent());
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(stateFile.toFile(), states.values());
+            journal.append(state);
+            if (shouldCompact()) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.warn("写入RAG状态日志失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 日志记录数同时超过阈值和已跟踪文件数时才合并,保证合并成本被足够多的追加摊薄
+     */
+    private boolean shouldCompact() {
+        long records = journal.journalRecords();
+        return records >= compactThreshold && records >= states.size();
+    }
+
+    /**
+     * 将内存中的全部状态写为快照并清空日志。调用方需持有锁。
+     */
+    private void compact() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.compact(states.values());
+            log.debug("RAG状态日志已合并为快照,共 {} 条状态", states.size());
+        } catch (IOException e) {
+            log.warn("合并RAG状态日志失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 定时把未刷盘的日志记录fsync到磁盘,与按条数刷盘共同构成组提交
+     */
+    private void syncJournal() {
+        lock.lock();
+        try {
+            if (journal != null) {
+                journal.sync();
+            }
         } catch (IOException e) {
-            log.warn("写入RAG状态文件失败: {}", e.getMessage());
+            log.warn("刷新RAG状态日志失败: {}", e.getMessage());
         } finally {
-            lock.writeLock().unlock();
-            log.info("已释放RAG状态文件锁");
+            lock.unlock();
         }
     }
 
@@ -0,0 +1,166 @@
+package org.example.ai.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档处理状态的预写日志.
+ * 快照文件保存某一时刻的全部状态(与原状态文件格式一致),之后的每次状态变更以一行紧凑JSON追加到日志文件;
+ * 日志按组fsync,达到阈值时合并进新的快照并清空日志.启动时先读快照再重放日志,DELETED记录表示删除该文件的状态,
+ * 不含向量ID(embeddingIds为null)的记录只更新状态,向量ID沿用该文件的上一条记录,
+ * 进程崩溃导致的最后一行不完整记录会被忽略.
+ * 非线程安全,由DocumentProcessingStateTracker在锁内调用.
+ */
+@Slf4j
+class DocumentStateJournal {
+
+    static final String JOURNAL_SUFFIX = ".journal";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final ObjectMapper objectMapper;
+    private final int syncEvery;
+
+    private FileChannel channel;
+    private int unsyncedRecords;
+    private long journalRecords;
+
+    DocumentStateJournal(Path snapshotFile, ObjectMapper objectMapper, int syncEvery) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + JOURNAL_SUFFIX);
+        this.objectMapper = objectMapper;
+        this.syncEvery = Math.max(1, syncEvery);
+    }
+
+    /**
+     * 读取快照并重放日志,返回按文件路径合并后的最新状态
+     */
+    List<DocumentProcessingState> load() throws IOException {
+        Map<String, DocumentProcessingState> merged = new LinkedHashMap<>();
+        if (Files.exists(snapshotFile)) {
+            List<DocumentProcessingState> snapshot = objectMapper.readValue(snapshotFile.toFile(), new TypeReference<>() {});
+            snapshot.forEach(state -> merged.put(state.getFilePath(), state));
+        }
+        journalRecords = 0;
+        if (Files.exists(journalFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        DocumentProcessingState state = objectMapper.readValue(line, DocumentProcessingState.class);
+                        if (state.getStatus() == DocumentProcessingState.ProcessingStatus.DELETED) {
+                            merged.remove(state.getFilePath());
+                        } else {
+                            if (state.getEmbeddingIds() == null) {
+                                DocumentProcessingState previous = merged.get(state.getFilePath());
+                                state.setEmbeddingIds(previous == null || previous.getEmbeddingIds() == null
+                                        ? List.of() : previous.getEmbeddingIds());
+                            }
+                            merged.put(state.getFilePath(), state);
+                        }
+                        journalRecords++;
+                    } catch (IOException e) {
+                        // 只可能是崩溃时写了一半的最后一条记录
+                        log.warn("忽略不完整的RAG状态日志记录: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * 追加一条状态变更记录,每syncEvery条强制刷盘一次
+     */
+    void append(DocumentProcessingState state) throws IOException {
+        byte[] line = (objectMapper.writeValueAsString(state) + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        FileChannel journal = openChannel();
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journalRecords++;
+        if (++unsyncedRecords >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * 将尚未刷盘的记录fsync到磁盘
+     */
+    void sync() throws IOException {
+        if (channel != null && unsyncedRecords > 0) {
+            channel.force(false);
+            unsyncedRecords = 0;
+        }
+    }
+
+    long journalRecords() {
+        return journalRecords;
+    }
+
+    /**
+     * 把当前全部状态写成新快照(先写临时文件再原子替换),随后清空日志
+     */
+    void compact(Collection<DocumentProcessingState> states) throws IOException {
+        Files.createDirectories(snapshotFile.getParent());
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + TEMP_SUFFIX);
+        try (FileChannel temp = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(objectMapper.writeValueAsBytes(states));
+            while (buffer.hasRemaining()) {
+                temp.write(buffer);
+            }
+            temp.force(true);
+        }
+        try {
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // 快照已落盘,日志中的记录全部失效
+        FileChannel journal = openChannel();
+        journal.truncate(0);
+        journal.force(true);
+        unsyncedRecords = 0;
+        journalRecords = 0;
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            Files.createDirectories(journalFile.getParent());
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+}
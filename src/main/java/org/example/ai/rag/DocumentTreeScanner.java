@@ -0,0 +1,192 @@
+package org.example.ai.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * 文档目录扫描器.
+ * 遍历时每个文件只读取一次BasicFileAttributes,直接生成不可变的扫描记录,
+ * 后续的隐藏文件判断、增量比较和处理都复用同一份记录,不再对每个文件重复stat(NFS等网络文件系统上尤其明显).
+ * 目录递归拆分为ForkJoin任务: 有多个子目录的目录每个子目录一个任务,空闲线程窃取其他子树的任务,
+ * 文档集中在某一个深层子树时也能并行遍历;只有一个子目录时在当前任务内继续向下.
+ * 扫描器持有一个ForkJoinPool,多次扫描共用,不再使用时调用close
+ */
+@Slf4j
+public class DocumentTreeScanner implements AutoCloseable {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism 并行遍历的线程数
+     */
+    public DocumentTreeScanner(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("rag-scanner-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * 扫描目录下的全部普通文件
+     *
+     * @param root   根目录
+     * @param filter 文件过滤条件(不应再访问文件系统)
+     * @return 按路径排序的扫描记录
+     */
+    public List<ScannedFile> scan(Path root, Predicate<ScannedFile> filter) throws IOException {
+        BasicFileAttributes rootAttributes = Files.readAttributes(root, BasicFileAttributes.class);
+        if (!rootAttributes.isDirectory()) {
+            ScannedFile file = ScannedFile.of(root, rootAttributes);
+            return rootAttributes.isRegularFile() && filter.test(file) ? List.of(file) : List.of();
+        }
+
+        // 根目录无法列出时向上抛出;根目录下指向目录的符号链接与Files.walkFileTree的起点一样会被遍历
+        List<ScannedFile> result = new ArrayList<>();
+        List<Path> subtrees = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    log.debug("读取文件属性失败,跳过: {}", entry);
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    subtrees.add(entry);
+                } else if (attributes.isRegularFile()) {
+                    ScannedFile file = ScannedFile.of(entry, attributes);
+                    if (filter.test(file)) {
+                        result.add(file);
+                    }
+                }
+            }
+        }
+        if (!subtrees.isEmpty()) {
+            result.addAll(pool.invoke(new DirectoryTask(subtrees, filter)));
+        }
+        result.sort(Comparator.comparing(ScannedFile::path));
+        return result;
+    }
+
+    /**
+     * 读取单个文件的扫描记录,用于目录监听和单文件摄取
+     *
+     * @param path 文件路径
+     * @return 扫描记录,文件不存在或不是普通文件时返回null
+     */
+    public static ScannedFile scanFile(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? ScannedFile.of(path, attributes) : null;
+        } catch (IOException e) {
+            log.debug("读取文件属性失败: {}", path);
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 遍历一组目录的任务.多于一个目录时每个目录拆分为一个子任务;
+     * 只有一个目录时列出其中的文件,子目录继续按同样的规则处理
+     */
+    private static final class DirectoryTask extends RecursiveTask<List<ScannedFile>> {
+
+        private final List<Path> directories;
+        private final Predicate<ScannedFile> filter;
+
+        DirectoryTask(List<Path> directories, Predicate<ScannedFile> filter) {
+            this.directories = directories;
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<ScannedFile> compute() {
+            List<ScannedFile> result = new ArrayList<>();
+            List<Path> pending = directories;
+            // 深而窄的目录链在当前任务内逐层向下,不产生递归
+            while (pending.size() == 1) {
+                List<Path> subdirectories = new ArrayList<>();
+                list(pending.get(0), result, subdirectories);
+                pending = subdirectories;
+            }
+            if (!pending.isEmpty()) {
+                List<DirectoryTask> tasks = pending.stream()
+                        .map(directory -> new DirectoryTask(List.of(directory), filter))
+                        .toList();
+                invokeAll(tasks);
+                tasks.forEach(task -> result.addAll(task.join()));
+            }
+            return result;
+        }
+
+        /**
+         * 列出一个目录,无法访问的文件和目录记录日志后跳过;子目录中的符号链接只跟随到普通文件,不跟随到目录
+         */
+        private void list(Path directory, List<ScannedFile> files, List<Path> subdirectories) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isSymbolicLink()) {
+                            // 与Files.isRegularFile一致,链接到普通文件的符号链接也作为文档
+                            attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                            if (!attributes.isRegularFile()) {
+                                continue;
+                            }
+                        }
+                    } catch (IOException e) {
+                        log.debug("无法访问,跳过: {} ({})", entry, e.getMessage());
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(entry);
+                    } else if (attributes.isRegularFile()) {
+                        ScannedFile scanned = ScannedFile.of(entry, attributes);
+                        if (filter.test(scanned)) {
+                            files.add(scanned);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("无法访问,跳过: {} ({})", directory, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 一个文件的扫描记录
+     *
+     * @param path     文件路径
+     * @param snapshot 文件元信息快照
+     * @param hidden   是否为隐藏文件(与Files.isHidden一致: 名称以.开头,Windows上为DOS隐藏属性)
+     */
+    public record ScannedFile(Path path, DocumentProcessingSnapshot snapshot, boolean hidden) {
+
+        static ScannedFile of(Path path, BasicFileAttributes attributes) {
+            String name = path.getFileName() == null ? "" : path.getFileName().toString();
+            boolean hidden = attributes instanceof DosFileAttributes dos ? dos.isHidden() : name.startsWith(".");
+            return new ScannedFile(path, DocumentProcessingSnapshot.from(path, attributes), hidden);
+        }
+    }
+}
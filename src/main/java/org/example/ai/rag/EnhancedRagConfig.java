@@ -4,6 +4,7 @@ import dev.langchain4j.community.store.embedding.redis.RedisEmbeddingStore;
 import dev.langchain4j.data.document.DocumentParser;
 import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.parser.TextDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.data.segment.TextSegmentTransformer;
 import dev.langchain4j.model.embedding.EmbeddingModel;
@@ -11,7 +12,6 @@ import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,7 +19,15 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Primary;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
 
 /**
  * 增强的RAG配置
@@ -34,11 +42,46 @@ public class EnhancedRagConfig {
 
     @Lazy
     @Resource
-    private DocumentProcessingService documentProcessingService;
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Lazy
+    @Resource
+    private RagReadiness ragReadiness;
+
+    @Resource
+    private IngestionGeneration ingestionGeneration;
+
+    @Lazy
+    @Resource
+    private DocumentProcessingStateTracker documentProcessingStateTracker;
 
     @Value("${rag.vector.store.type:redis}")
     private String vectorStoreType;
 
+    @Value("${rag.vector.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${rag.vector.hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${rag.vector.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    @Value("${rag.vector.quantized.rerank-factor:4}")
+    private int quantizedRerankFactor;
+
+    @Value("${rag.vector.snapshot.enabled:true}")
+    private boolean snapshotEnabled;
+
+    @Value("${rag.vector.snapshot.path:}")
+    private String snapshotPath;
+
+    @Value("${rag.vector.snapshot.quiet-seconds:10}")
+    private long snapshotQuietSeconds;
+
+    @Value("${rag.processing.track-state:true}")
+    private boolean trackState;
+
     @Value("${spring.data.redis-stack.host}")
     private String redisHost;
 
@@ -51,6 +94,18 @@ public class EnhancedRagConfig {
     @Value("${rag.segment.max-overlap:200}")
     private int maxOverlap;
 
+    @Value("${rag.segment.mode:chars}")
+    private String segmentMode;
+
+    @Value("${rag.segment.tokens.target:480}")
+    private int segmentTargetTokens;
+
+    @Value("${rag.segment.tokens.overlap:64}")
+    private int segmentOverlapTokens;
+
+    @Value("${rag.segment.tokens.vocabulary:}")
+    private String tokenizerVocabulary;
+
     @Value("${rag.segment.smart.small-threshold:1500}")
     private int smallDocumentThreshold;
 
@@ -63,26 +118,144 @@ public class EnhancedRagConfig {
     @Value("${rag.segment.smart.large-size:400}")
     private int largeDocumentSegmentSize;
 
+    @Value("${rag.embedding.batch.max-segments:10}")
+    private int embeddingBatchMaxSegments;
+
+    @Value("${rag.embedding.batch.max-tokens:8192}")
+    private int embeddingBatchMaxTokens;
+
+    @Value("${rag.embedding.batch.linger-ms:50}")
+    private long embeddingBatchLingerMillis;
+
+    @Value("${rag.embedding.pipeline.queue-capacity:64}")
+    private int pipelineQueueCapacity;
+
+    @Value("${rag.embedding.pipeline.splitter-threads:2}")
+    private int pipelineSplitterThreads;
+
+    @Value("${rag.embedding.pipeline.embed-concurrency:16}")
+    private int pipelineEmbedConcurrency;
+
+    @Value("${rag.embedding.rate-limit.adaptive:true}")
+    private boolean rateLimitAdaptive;
+
+    @Value("${rag.embedding.rate-limit.initial-concurrency:2}")
+    private int rateLimitInitialConcurrency;
+
+    @Value("${rag.embedding.rate-limit.min-concurrency:1}")
+    private int rateLimitMinConcurrency;
+
+    @Value("${rag.embedding.rate-limit.latency-tolerance:2.0}")
+    private double rateLimitLatencyTolerance;
+
+    @Value("${rag.embedding.rate-limit.requests-per-second:0}")
+    private double rateLimitRequestsPerSecond;
+
+    @Value("${rag.embedding.rate-limit.tokens-per-second:0}")
+    private double rateLimitTokensPerSecond;
+
+    @Value("${rag.embedding.rate-limit.max-retries:5}")
+    private int rateLimitMaxRetries;
+
+    @Value("${rag.embedding.rate-limit.backoff-ms:1000}")
+    private long rateLimitBackoffMillis;
+
+    @Value("${langchain4j.community.dashscope.embedding-model.model-name:unknown}")
+    private String embeddingModelName;
+
+    @Value("${rag.embedding.dimension:1536}")
+    private int embeddingDimension;
+
+    @Value("${rag.embedding.cache.enabled:true}")
+    private boolean embeddingCacheEnabled;
+
+    @Value("${rag.embedding.cache.directory:${user.home}/.ai-code-helper/embedding-cache}")
+    private String embeddingCacheDirectory;
+
+    @Value("${rag.embedding.cache.max-size-mb:1024}")
+    private long embeddingCacheMaxSizeMb;
+
+    @Value("${rag.embedding.cache.redis.enabled:false}")
+    private boolean embeddingCacheRedisEnabled;
+
+    @Value("${rag.embedding.cache.redis.ttl-days:30}")
+    private long embeddingCacheRedisTtlDays;
+
+    @Value("${rag.dedup.enabled:true}")
+    private boolean dedupEnabled;
+
+    @Value("${rag.dedup.similarity:0.95}")
+    private double dedupSimilarity;
+
+    @Value("${rag.dedup.min-length:50}")
+    private int dedupMinLength;
+
     @Value("${rag.retrieval.max-results:10}")
     private int maxResults;
 
     @Value("${rag.retrieval.min-score:0.7}")
     private double minScore;
 
+    @Value("${rag.retrieval.hybrid.enabled:true}")
+    private boolean hybridEnabled;
+
+    @Value("${rag.retrieval.hybrid.candidates:30}")
+    private int hybridCandidates;
+
+    @Value("${rag.retrieval.hybrid.rrf-k:60}")
+    private int hybridRrfK;
+
+    @Value("${rag.retrieval.hybrid.lexical-only:true}")
+    private boolean hybridLexicalOnly;
+
+    @Value("${rag.retrieval.cache.enabled:true}")
+    private boolean retrievalCacheEnabled;
+
+    @Value("${rag.retrieval.cache.max-size:10000}")
+    private long retrievalCacheMaxSize;
+
+    @Value("${rag.retrieval.cache.ttl-minutes:30}")
+    private long retrievalCacheTtlMinutes;
+
     /**
-     * 向量存储配置,默认使用内存向量存储,可以替换为Redis
+     * 向量存储配置,默认使用内存向量存储,可以替换为Redis或进程内HNSW索引
      * 如果使用Redis向量存储实现，需要Redis Stack或 RediSearch模块，需要用docker来启动 RediSearch模块
+     * 开启混合检索时包装为LexicalIndexingEmbeddingStore,摄取写入向量的同时写入倒排索引.
+     * Redis向量存储无法在启动时列出已有分段来重建倒排索引,不建倒排索引,混合检索退化为向量检索
      */
     @Bean
     @Primary
     public EmbeddingStore<TextSegment> enhancedEmbeddingStore() {
+        EmbeddingStore<TextSegment> store = createEmbeddingStore();
+        if (!hybridEnabled) {
+            return store;
+        }
+        if (!(store instanceof SnapshottingEmbeddingStore)) {
+            // 只覆盖本次启动后摄取的分段的索引参与融合会偏向新文档,也白白在堆内保存这些分段的文本
+            log.info("Redis向量存储启动时无法重建倒排索引,混合检索只使用向量检索");
+            return store;
+        }
+        // 从快照重建或全部重新摄取,摄取完成后索引覆盖全部分段
+        lexicalIndex().setComplete(true);
+        return new LexicalIndexingEmbeddingStore(store, lexicalIndex());
+    }
+
+    /**
+     * 倒排索引,进程内存储从快照恢复时按快照中的文本重建
+     */
+    @Bean
+    public LexicalIndex lexicalIndex() {
+        return new LexicalIndex();
+    }
+
+    private EmbeddingStore<TextSegment> createEmbeddingStore() {
         if ("redis".equalsIgnoreCase(vectorStoreType)) {
             try {
                 log.info("尝试使用Redis向量存储");
                 RedisEmbeddingStore redisEmbeddingStore = RedisEmbeddingStore.builder()
                         .host(redisHost)
                         .port(redisPort)
-                        .dimension(1536)
+                        .dimension(embeddingDimension)
                         .build();
                 return redisEmbeddingStore;
             } catch (Exception e) {
@@ -91,9 +264,101 @@ public class EnhancedRagConfig {
             }
         }
         
-        // 默认使用内存向量存储
-        log.info("使用内存向量存储");
-        return new InMemoryEmbeddingStore<>();
+        SnapshottingEmbeddingStore store;
+        if ("hnsw".equalsIgnoreCase(vectorStoreType)) {
+            log.info("使用HNSW向量存储: M={}, efConstruction={}, efSearch={}", hnswM, hnswEfConstruction, hnswEfSearch);
+            store = new HnswEmbeddingStore(hnswM, hnswEfConstruction, hnswEfSearch);
+        } else if ("quantized".equalsIgnoreCase(vectorStoreType)) {
+            log.info("使用量化向量存储: 重排候选倍数 {}", quantizedRerankFactor);
+            store = new QuantizedEmbeddingStore(quantizedRerankFactor);
+        } else {
+            // 默认使用内存向量存储
+            log.info("使用内存向量存储");
+            store = new MappedEmbeddingStore();
+        }
+        Path snapshotPath = resolveSnapshotPath();
+        if (snapshotPath == null) {
+            // 内存向量存储启动时为空,状态文件中记录的向量ID已失效,需要全部重新摄取
+            documentProcessingStateTracker.clear();
+            return store;
+        }
+        restoreSnapshot(store, snapshotPath);
+        store.enableSnapshots(snapshotPath, embeddingModelName,
+                () -> List.copyOf(documentProcessingStateTracker.snapshotStates().values()),
+                Duration.ofSeconds(Math.max(1, snapshotQuietSeconds)));
+        return store;
+    }
+
+    /**
+     * 从快照恢复内存向量存储: 映射快照文件,与处理状态核对后只保留仍属于某个文件的向量,之后的摄取只处理变更的文件.
+     * 本节点没有处理状态时采用快照中的处理状态,预先构建的快照可以直接复制到其他节点使用.
+     * 快照不存在、损坏或向量模型不一致时清空处理状态,全部重新摄取
+     */
+    private void restoreSnapshot(SnapshottingEmbeddingStore store, Path snapshotPath) {
+        if (!Files.exists(snapshotPath)) {
+            log.info("向量快照不存在,全部重新摄取: {}", snapshotPath);
+            documentProcessingStateTracker.clear();
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            VectorStoreSnapshot snapshot = VectorStoreSnapshot.open(snapshotPath);
+            if (!embeddingModelName.equals(snapshot.model())) {
+                log.warn("向量快照的模型 {} 与当前模型 {} 不一致,全部重新摄取", snapshot.model(), embeddingModelName);
+                documentProcessingStateTracker.clear();
+                return;
+            }
+            store.load(snapshot);
+            if (documentProcessingStateTracker.snapshotStates().isEmpty() && !snapshot.states().isEmpty()) {
+                snapshot.states().forEach(documentProcessingStateTracker::adopt);
+                log.info("采用向量快照中的 {} 条处理状态", snapshot.states().size());
+            }
+            Set<String> referenced = documentProcessingStateTracker.reconcile(store.ids());
+            List<String> orphans = store.ids().stream().filter(id -> !referenced.contains(id)).toList();
+            store.removeAll(orphans);
+            if (hybridEnabled) {
+                rebuildLexicalIndex(snapshot, store.ids());
+            }
+            log.info("从向量快照加载 {} 条向量(丢弃 {} 条不属于任何文件的向量), 耗时 {} ms",
+                    store.size(), orphans.size(), System.currentTimeMillis() - start);
+            if (!trackState && store.size() == 0 && snapshot.size() > 0) {
+                log.warn("未开启rag.processing.track-state,向量无法与文件对应,快照不会被使用");
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("加载向量快照失败,全部重新摄取: {}", e.getMessage());
+            store.removeAll();
+            lexicalIndex().clear();
+            documentProcessingStateTracker.clear();
+        }
+    }
+
+    /**
+     * 按快照中仍然有效的向量的文本重建倒排索引
+     */
+    private void rebuildLexicalIndex(VectorStoreSnapshot snapshot, Set<String> live) {
+        long start = System.currentTimeMillis();
+        LexicalIndex index = lexicalIndex();
+        String[] ids = snapshot.ids();
+        for (int i = 0; i < ids.length; i++) {
+            if (live.contains(ids[i])) {
+                index.add(ids[i], snapshot.segment(i));
+            }
+        }
+        log.info("从向量快照重建倒排索引: {} 个分段, 耗时 {} ms", index.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 快照文件路径: 未单独配置时放在文档目录,与状态文件同名加.vectors后缀(扫描文档时随状态文件一起被过滤)
+     */
+    private Path resolveSnapshotPath() {
+        if (!snapshotEnabled) {
+            return null;
+        }
+        if (snapshotPath != null && !snapshotPath.isBlank()) {
+            return Paths.get(snapshotPath);
+        }
+        Path stateFile = documentProcessingStateTracker.stateFilePath();
+        return stateFile == null ? null : stateFile.resolveSibling(stateFile.getFileName() + ".vectors");
     }
 
     /**
@@ -105,14 +370,38 @@ public class EnhancedRagConfig {
     }
 
     /**
-     * 文档分割器,默认使用SmartDocumentSplitter
+     * 文档分割器,默认使用SmartDocumentSplitter按字符数分段;
+     * rag.segment.mode为tokens时按Qwen分词器的token数把段落打包到目标大小,段落数和向量数更少
      */
     @Bean
     public DocumentSplitter documentSplitter() {
+        if ("tokens".equalsIgnoreCase(segmentMode)) {
+            QwenTokenizer tokenizer = qwenTokenizer();
+            int target = Math.max(1, segmentTargetTokens);
+            int overlap = Math.max(0, Math.min(segmentOverlapTokens, target - 1));
+            log.info("按token数分段: 目标 {} token, 重叠 {} token, {}", target, overlap,
+                    tokenizer.isExact() ? "使用Qwen词表计数" : "未配置词表,按估算计数");
+            return new DocumentByParagraphSplitter(target, overlap, tokenizer);
+        }
         return new SmartDocumentSplitter(maxSegmentSize, smallDocumentSegmentSize, largeDocumentSegmentSize,
                 smallDocumentThreshold, largeDocumentThreshold, maxOverlap);
     }
 
+    /**
+     * Qwen分词器,词表未配置或加载失败时退化为估算
+     */
+    private QwenTokenizer qwenTokenizer() {
+        if (tokenizerVocabulary == null || tokenizerVocabulary.isBlank()) {
+            return QwenTokenizer.heuristic();
+        }
+        try {
+            return QwenTokenizer.load(tokenizerVocabulary);
+        } catch (IOException | RuntimeException e) {
+            log.warn("加载Qwen分词词表失败,按估算计数: {} ({})", tokenizerVocabulary, e.getMessage());
+            return QwenTokenizer.heuristic();
+        }
+    }
+
     /**
      * 文档转换器 - 增加文档元信息
      */
@@ -147,53 +436,112 @@ public class EnhancedRagConfig {
     }
 
     /**
-     * 内容检索器,创建一个增强的内容检索器（ContentRetriever），
-     * 通过传入的向量存储（EmbeddingStore）和配置参数（如最大返回结果数、最小匹配分数等），结合嵌入模型（EmbeddingModel），
-     * 构建一个基于向量搜索的内容检索组件。
-     *
-     * @param embeddingStore 向量存储
-     * @return 内容检索器
+     * 流水线式文档摄取器
+     * 分段、批量向量化、写入分阶段并行,来自多个文件的分段会被打包成满批次调用embedAll,
+     * 并返回写入的向量ID,供状态跟踪器实现文件级的向量替换。
+     * 开启向量缓存时,摄取使用带磁盘/Redis缓存的向量模型,未变化的分段不再重复调用远程接口。
+     * 开启近重复检测时,与已写入分段高度相似的分段在向量化之前被丢弃。
      */
     @Bean
-    @Lazy
-    public ContentRetriever enhancedContentRetriever(EmbeddingStore<TextSegment> embeddingStore) {
-        return EmbeddingStoreContentRetriever.builder()
-                .embeddingModel(embeddingModel)
-                .embeddingStore(embeddingStore)
-                .maxResults(maxResults)
-                .minScore(minScore)
-                .build();
+    public DocumentIngestor documentIngestor(
+            EmbeddingStore<TextSegment> embeddingStore,
+            DocumentSplitter documentSplitter,
+            TextSegmentTransformer textSegmentTransformer) {
+        DocumentIngestor.IngestionPipelineSettings settings = new DocumentIngestor.IngestionPipelineSettings(
+                embeddingBatchMaxSegments, embeddingBatchMaxTokens, embeddingBatchLingerMillis,
+                pipelineQueueCapacity, pipelineSplitterThreads, pipelineEmbedConcurrency);
+        NearDuplicateDetector nearDuplicateDetector = null;
+        if (dedupEnabled) {
+            nearDuplicateDetector = new NearDuplicateDetector(dedupSimilarity, dedupMinLength);
+            log.info("启用近重复分段检测: 相似度阈值 {}, 最短长度 {}", dedupSimilarity, dedupMinLength);
+        }
+        return new DocumentIngestor(documentSplitter, textSegmentTransformer, ingestionEmbeddingModel(),
+                embeddingStore, settings, nearDuplicateDetector);
     }
 
     /**
-     * 初始化时加载文档
-     * 移除@PostConstruct，改为手动初始化以避免循环依赖
+     * 摄取使用的向量模型,远程调用经RateLimitedEmbeddingModel限速,开启缓存时再包装为CachingEmbeddingModel,
+     * 命中缓存的分段不占用远程调用配额。
+     * 不注册为EmbeddingModel类型的Bean,避免替换检索使用的原始模型
      */
-    public void initializeDocuments(EmbeddingStoreIngestor embeddingStoreIngestor) {
-        loadDocumentsAsync(embeddingStoreIngestor);
+    private EmbeddingModel ingestionEmbeddingModel() {
+        EmbeddingModel remote = rateLimitedEmbeddingModel();
+        if (!embeddingCacheEnabled) {
+            return remote;
+        }
+        DiskEmbeddingCache diskCache = new DiskEmbeddingCache(Path.of(embeddingCacheDirectory),
+                embeddingCacheMaxSizeMb * 1024 * 1024);
+        log.info("启用向量缓存: {} (上限 {} MB, Redis二级缓存: {})",
+                embeddingCacheDirectory, embeddingCacheMaxSizeMb, embeddingCacheRedisEnabled);
+        return new CachingEmbeddingModel(remote, embeddingModelName, embeddingDimension, diskCache,
+                embeddingCacheRedisEnabled ? redisTemplate : null, Duration.ofDays(embeddingCacheRedisTtlDays));
     }
 
     /**
-     * 异步加载文档到向量存储
+     * 摄取时的远程向量模型限速: 令牌桶限制每秒请求数和token数,并发数在[最小并发, 流水线并发上限]之间
+     * 按延迟和限流自适应调整;关闭自适应时固定为流水线并发上限
      */
-    @Async
-    public void loadDocumentsAsync(EmbeddingStoreIngestor embeddingStoreIngestor) {
-        documentProcessingService.ingestAllDocuments(embeddingStoreIngestor, false);
+    private RateLimitedEmbeddingModel rateLimitedEmbeddingModel() {
+        int maxConcurrency = Math.max(1, pipelineEmbedConcurrency);
+        AdaptiveConcurrencyLimiter limiter = rateLimitAdaptive
+                ? new AdaptiveConcurrencyLimiter(rateLimitInitialConcurrency, rateLimitMinConcurrency,
+                maxConcurrency, rateLimitLatencyTolerance)
+                : AdaptiveConcurrencyLimiter.fixed(maxConcurrency);
+        log.info("向量化限速: 自适应并发 {} (初始 {}, 范围 {}~{}), 每秒请求数上限 {}, 每秒token数上限 {}",
+                rateLimitAdaptive, limiter.currentLimit(), rateLimitMinConcurrency, maxConcurrency,
+                rateLimitRequestsPerSecond > 0 ? rateLimitRequestsPerSecond : "不限",
+                rateLimitTokensPerSecond > 0 ? rateLimitTokensPerSecond : "不限");
+        return new RateLimitedEmbeddingModel(embeddingModel, limiter, rateLimitRequestsPerSecond,
+                rateLimitTokensPerSecond, rateLimitMaxRetries, rateLimitBackoffMillis);
     }
 
     /**
-     * 动态添加文档到RAG知识库
+     * 内容检索器,创建一个增强的内容检索器（ContentRetriever），
+     * 通过传入的向量存储（EmbeddingStore）和配置参数（如最大返回结果数、最小匹配分数等），结合嵌入模型（EmbeddingModel），
+     * 构建一个基于向量搜索的内容检索组件。索引就绪之前不检索。
+     * 开启混合检索时同时检索倒排索引并按RRF融合,标识符查询在倒排索引有命中时不调用向量化接口。
+     * 开启检索缓存时缓存查询向量和检索结果,检索结果在摄取或删除文档后失效。
+     *
+     * @param embeddingStore 向量存储
+     * @return 内容检索器
      */
-    public void addDocument(String filePath, EmbeddingStoreIngestor embeddingStoreIngestor) {
-        documentProcessingService.ingestSingleDocument(filePath, embeddingStoreIngestor, true);
+    @Bean
+    @Lazy
+    public ContentRetriever enhancedContentRetriever(EmbeddingStore<TextSegment> embeddingStore) {
+        ContentRetriever retriever;
+        if (hybridEnabled) {
+            log.info("启用混合检索: 每路候选 {}, RRF k={}, 标识符查询只用倒排索引: {}",
+                    hybridCandidates, hybridRrfK, hybridLexicalOnly);
+            retriever = new HybridContentRetriever(queryEmbeddingModel(), embeddingStore, lexicalIndex(),
+                    maxResults, minScore, hybridCandidates, hybridRrfK, hybridLexicalOnly);
+        } else {
+            retriever = EmbeddingStoreContentRetriever.builder()
+                    .embeddingModel(queryEmbeddingModel())
+                    .embeddingStore(embeddingStore)
+                    .maxResults(maxResults)
+                    .minScore(minScore)
+                    .build();
+        }
+        if (retrievalCacheEnabled) {
+            log.info("启用检索缓存: 上限 {} 条, 过期时间 {} 分钟", retrievalCacheMaxSize, retrievalCacheTtlMinutes);
+            // 预热期间不检索,缓存放在就绪检查之内,不会缓存预热期间的空结果
+            retriever = new CachingContentRetriever(retriever, ingestionGeneration, retrievalCacheMaxSize,
+                    Duration.ofMinutes(retrievalCacheTtlMinutes));
+        }
+        return new ReadinessAwareContentRetriever(retriever, ragReadiness);
     }
 
     /**
-     * 重新加载所有文档
+     * 检索使用的向量模型,开启检索缓存时包装为CachingQueryEmbeddingModel,高频问题不重复调用远程接口。
+     * 语义回答缓存按名称注入同一个实例,回答缓存未命中时向量化过的问题在检索时不再调用远程接口。
+     * 不参与按类型注入,EmbeddingModel类型的注入点仍然得到原始模型
      */
-    public void reloadAllDocuments(EmbeddingStoreIngestor embeddingStoreIngestor) {
-        log.info("重新加载所有RAG文档");
-        documentProcessingService.ingestAllDocuments(embeddingStoreIngestor, true);
+    @Bean(name = "queryEmbeddingModel", autowireCandidate = false)
+    public EmbeddingModel queryEmbeddingModel() {
+        return retrievalCacheEnabled
+                ? new CachingQueryEmbeddingModel(embeddingModel, retrievalCacheMaxSize,
+                Duration.ofMinutes(retrievalCacheTtlMinutes))
+                : embeddingModel;
     }
 
     /**
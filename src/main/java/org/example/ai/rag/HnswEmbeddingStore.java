@@ -0,0 +1,682 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * 进程内HNSW(分层可导航小世界图)近似最近邻向量存储.
+ * 每个向量随机分配层数(概率随层数按M指数递减),上层稀疏用于快速定位,第0层稠密用于精确搜索;
+ * 插入时在每层以efConstruction宽度束搜索候选,按启发式选取至多M个邻居并双向连接,邻居超过上限(第0层为2M)时重新筛选.
+ * 查询从顶层入口贪心下降到第0层,再以max(efSearch, maxResults)宽度束搜索,耗时随向量数近似对数增长.
+ * 插入和查询可以并发,邻居表按节点加锁;删除只做标记,被删节点仍参与导航但不出现在结果中,标记删除的节点多于存活节点时重建图.
+ * 带元数据过滤的查询在图上找到的结果不足时回退为精确扫描.
+ * 持久化: 向量和文本写入VectorStoreSnapshot,图结构写入快照同名加.graph后缀的文件,加载时图与快照不匹配则重新构建.
+ */
+@Slf4j
+public class HnswEmbeddingStore extends SnapshottingEmbeddingStore {
+
+    private static final long GRAPH_MAGIC = 0x5241474857534731L; // "RAGHWSG1"
+    private static final int MAX_LEVEL = 16;
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+
+    private final Map<String, Node> byId = new ConcurrentHashMap<>();
+    /**
+     * 插入、查询和保存持有读锁,重建和清空持有写锁
+     */
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final Object entryLock = new Object();
+    private final Object registryLock = new Object();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private volatile Node[] nodes = new Node[1024];
+    private volatile int nodeCount;
+    private volatile Node entryPoint;
+    private volatile int dimension;
+
+    /**
+     * @param m              每个节点在非0层的邻居数上限,第0层为2M
+     * @param efConstruction 插入时的搜索宽度
+     * @param efSearch       查询时的搜索宽度,越大召回率越高、耗时越长
+     */
+    public HnswEmbeddingStore(int m, int efConstruction, int efSearch) {
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.efSearch = Math.max(1, efSearch);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        boolean changed = false;
+        for (String id : ids) {
+            changed |= markDeleted(byId.remove(id));
+        }
+        if (changed) {
+            modified();
+            rebuildIfSparse();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        boolean changed = false;
+        for (Map.Entry<String, Node> entry : byId.entrySet()) {
+            TextSegment segment = entry.getValue().segment();
+            if (segment != null && filter.test(segment.metadata()) && byId.remove(entry.getKey(), entry.getValue())) {
+                changed |= markDeleted(entry.getValue());
+            }
+        }
+        if (changed) {
+            modified();
+            rebuildIfSparse();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        structureLock.writeLock().lock();
+        try {
+            if (byId.isEmpty() && nodeCount == 0) {
+                return;
+            }
+            reset();
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+        modified();
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector();
+        float queryNorm = VectorStoreSnapshot.norm(query);
+        int maxResults = Math.max(1, request.maxResults());
+        Filter filter = request.filter();
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(maxResults);
+        structureLock.readLock().lock();
+        try {
+            Node entry = entryPoint;
+            if (entry == null || query.length != dimension) {
+                return new EmbeddingSearchResult<>(matches);
+            }
+            Candidate current = new Candidate(entry, similarity(query, queryNorm, entry));
+            for (int level = entry.level; level > 0; level--) {
+                current = greedy(query, queryNorm, current, level);
+            }
+            List<Candidate> found = searchLayer(query, queryNorm, List.of(current), Math.max(efSearch, maxResults), 0);
+            for (Candidate candidate : found) {
+                double score = RelevanceScore.fromCosineSimilarity(candidate.similarity());
+                if (score < request.minScore() || matches.size() == maxResults) {
+                    break;
+                }
+                TextSegment segment = candidate.node().segment();
+                if (filter != null && (segment == null || !filter.test(segment.metadata()))) {
+                    continue;
+                }
+                matches.add(match(candidate.node(), score, segment));
+            }
+            if (filter != null && matches.size() < maxResults) {
+                // 过滤条件很严格时图上的候选可能都不满足条件,精确扫描保证结果完整
+                return new EmbeddingSearchResult<>(exactSearch(query, queryNorm, maxResults, request.minScore(), filter));
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    @Override
+    public int size() {
+        return byId.size();
+    }
+
+    @Override
+    public Set<String> ids() {
+        return new HashSet<>(byId.keySet());
+    }
+
+    /**
+     * 加载快照: 文本在命中时从映射区解码;图文件与快照匹配时直接恢复图结构,否则并行插入重新构建
+     *
+     * @param snapshot 已映射的快照
+     */
+    @Override
+    public void load(VectorStoreSnapshot snapshot) throws IOException {
+        long start = System.currentTimeMillis();
+        String[] ids = snapshot.ids();
+        if (restoreGraph(snapshot, ids)) {
+            log.info("从图文件恢复HNSW索引: {} 个节点, 耗时 {} ms", ids.length, System.currentTimeMillis() - start);
+            return;
+        }
+        IntStream.range(0, ids.length).parallel()
+                .forEach(i -> insert(ids[i], snapshot.vector(i), null, snapshot, i));
+        log.info("重新构建HNSW索引: {} 个节点, 耗时 {} ms", ids.length, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 把存活的向量写入快照文件,图结构写入同名.graph文件
+     */
+    @Override
+    public void save(Path path, String model, List<DocumentProcessingState> states) throws IOException {
+        long start = System.currentTimeMillis();
+        structureLock.readLock().lock();
+        try {
+            Node[] all = nodes;
+            int count = nodeCount;
+            List<Node> live = new ArrayList<>(count);
+            int[] remap = new int[count];
+            Arrays.fill(remap, -1);
+            for (int i = 0; i < count; i++) {
+                Node node = all[i];
+                if (node != null && !node.deleted) {
+                    remap[i] = live.size();
+                    live.add(node);
+                }
+            }
+            VectorStoreSnapshot.write(path, model, dimension, states, new VectorStoreSnapshot.Source() {
+                @Override
+                public int size() {
+                    return live.size();
+                }
+
+                @Override
+                public String id(int index) {
+                    return live.get(index).id;
+                }
+
+                @Override
+                public float[] vector(int index) {
+                    return live.get(index).vector;
+                }
+
+                @Override
+                public TextSegment segment(int index) {
+                    return live.get(index).segment();
+                }
+            });
+            writeGraph(graphPath(path), Files.size(path), live, remap);
+            log.info("写入HNSW快照: {} 个节点, 耗时 {} ms, {}", live.size(), System.currentTimeMillis() - start, path);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected void put(String id, float[] vector, TextSegment segment) {
+        insert(id, vector, segment, null, -1);
+    }
+
+    private void insert(String id, float[] vector, TextSegment segment, VectorStoreSnapshot snapshot,
+                        int snapshotIndex) {
+        structureLock.readLock().lock();
+        try {
+            insertUnlocked(id, vector, segment, snapshot, snapshotIndex);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 插入一个节点,调用方持有读锁或写锁.层数高于当前入口的节点在整个插入期间持有入口锁,保证成为入口时已经连入图中
+     */
+    private void insertUnlocked(String id, float[] vector, TextSegment segment, VectorStoreSnapshot snapshot,
+                                int snapshotIndex) {
+        Node node = register(id, vector, segment, snapshot, snapshotIndex, randomLevel());
+        markDeleted(byId.put(id, node));
+        Node entry;
+        synchronized (entryLock) {
+            entry = entryPoint;
+            if (entry == null) {
+                entryPoint = node;
+                return;
+            }
+        }
+        if (node.level > entry.level) {
+            synchronized (entryLock) {
+                entry = entryPoint;
+                if (node.level > entry.level) {
+                    connect(node, entry);
+                    entryPoint = node;
+                    return;
+                }
+            }
+        }
+        connect(node, entry);
+    }
+
+    private void connect(Node node, Node entry) {
+        Candidate current = new Candidate(entry, similarity(node.vector, node.norm, entry));
+        for (int level = entry.level; level > node.level; level--) {
+            current = greedy(node.vector, node.norm, current, level);
+        }
+        List<Candidate> entryPoints = List.of(current);
+        for (int level = Math.min(entry.level, node.level); level >= 0; level--) {
+            List<Candidate> candidates = searchLayer(node.vector, node.norm, entryPoints, efConstruction, level);
+            candidates.removeIf(candidate -> candidate.node() == node);
+            List<Candidate> selected = selectNeighbors(candidates, m);
+            int[] links = new int[selected.size()];
+            for (int i = 0; i < links.length; i++) {
+                links[i] = selected.get(i).node().index;
+            }
+            node.setLinks(level, links, links.length);
+            int maxLinks = level == 0 ? maxM0 : m;
+            for (Candidate neighbor : selected) {
+                link(neighbor.node(), node, neighbor.similarity(), level, maxLinks);
+            }
+            if (!candidates.isEmpty()) {
+                entryPoints = candidates;
+            }
+        }
+    }
+
+    /**
+     * 把node加入neighbor的邻居表,超过上限时在原有邻居和node中按启发式重新选取
+     */
+    private void link(Node neighbor, Node node, double similarity, int level, int maxLinks) {
+        synchronized (neighbor) {
+            int count = neighbor.linkCounts[level];
+            if (count < maxLinks) {
+                neighbor.links[level][count] = node.index;
+                neighbor.linkCounts[level] = count + 1;
+                return;
+            }
+            List<Candidate> candidates = new ArrayList<>(count + 1);
+            candidates.add(new Candidate(node, similarity));
+            for (int i = 0; i < count; i++) {
+                Node existing = node(neighbor.links[level][i]);
+                candidates.add(new Candidate(existing, similarity(neighbor.vector, neighbor.norm, existing)));
+            }
+            candidates.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+            List<Candidate> selected = selectNeighbors(candidates, maxLinks);
+            for (int i = 0; i < selected.size(); i++) {
+                neighbor.links[level][i] = selected.get(i).node().index;
+            }
+            neighbor.linkCounts[level] = selected.size();
+        }
+    }
+
+    /**
+     * 启发式选取邻居: 按相似度从高到低,只保留与查询点的相似度高于与任一已选邻居相似度的候选,
+     * 使邻居分布在不同方向上;不足上限时用被跳过的候选补足
+     *
+     * @param candidates 按相似度降序排列的候选
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> candidates, int max) {
+        if (candidates.size() <= max) {
+            return candidates;
+        }
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (similarity(candidate.node().vector, candidate.node().norm, chosen.node()) > candidate.similarity()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : pruned).add(candidate);
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 在一层上贪心移动到与查询最相似的节点
+     */
+    private Candidate greedy(float[] query, float queryNorm, Candidate start, int level) {
+        Candidate best = start;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int index : best.node().links(level)) {
+                Node neighbor = node(index);
+                double similarity = similarity(query, queryNorm, neighbor);
+                if (similarity > best.similarity()) {
+                    best = new Candidate(neighbor, similarity);
+                    changed = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 在一层上做宽度为ef的束搜索,被删除的节点参与导航但不计入结果
+     *
+     * @return 按相似度降序排列的结果
+     */
+    private List<Candidate> searchLayer(float[] query, float queryNorm, List<Candidate> entryPoints, int ef, int level) {
+        BitSet visited = new BitSet(nodeCount);
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(
+                Comparator.comparingDouble(Candidate::similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+        for (Candidate entry : entryPoints) {
+            if (visited.get(entry.node().index)) {
+                continue;
+            }
+            visited.set(entry.node().index);
+            frontier.add(entry);
+            if (!entry.node().deleted) {
+                results.add(entry);
+            }
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+        while (!frontier.isEmpty()) {
+            Candidate closest = frontier.poll();
+            if (results.size() >= ef && closest.similarity() < results.peek().similarity()) {
+                break;
+            }
+            for (int index : closest.node().links(level)) {
+                if (visited.get(index)) {
+                    continue;
+                }
+                visited.set(index);
+                Node neighbor = node(index);
+                double similarity = similarity(query, queryNorm, neighbor);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Candidate candidate = new Candidate(neighbor, similarity);
+                    frontier.add(candidate);
+                    if (!neighbor.deleted) {
+                        results.add(candidate);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        return sorted;
+    }
+
+    private List<EmbeddingMatch<TextSegment>> exactSearch(float[] query, float queryNorm, int maxResults,
+                                                          double minScore, Filter filter) {
+        PriorityQueue<Candidate> top = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+        for (Node node : byId.values()) {
+            double similarity = similarity(query, queryNorm, node);
+            if (RelevanceScore.fromCosineSimilarity(similarity) < minScore
+                    || top.size() == maxResults && similarity <= top.peek().similarity()) {
+                continue;
+            }
+            TextSegment segment = node.segment();
+            if (segment == null || !filter.test(segment.metadata())) {
+                continue;
+            }
+            top.add(new Candidate(node, similarity));
+            if (top.size() > maxResults) {
+                top.poll();
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(top);
+        sorted.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        return sorted.stream()
+                .map(c -> match(c.node(), RelevanceScore.fromCosineSimilarity(c.similarity()), c.node().segment()))
+                .toList();
+    }
+
+    private static EmbeddingMatch<TextSegment> match(Node node, double score, TextSegment segment) {
+        return new EmbeddingMatch<>(score, node.id, Embedding.from(node.vector), segment);
+    }
+
+    private static double similarity(float[] query, float queryNorm, Node node) {
+        float[] vector = node.vector;
+        double dot = SimilarityKernel.get().dot(query, 0, vector, 0, vector.length);
+        double denominator = (double) queryNorm * node.norm;
+        return denominator == 0 ? 0 : dot / denominator;
+    }
+
+    private int randomLevel() {
+        double random = 1 - ThreadLocalRandom.current().nextDouble();
+        return Math.min(MAX_LEVEL, (int) (-Math.log(random) * levelMultiplier));
+    }
+
+    private Node register(String id, float[] vector, TextSegment segment, VectorStoreSnapshot snapshot,
+                          int snapshotIndex, int level) {
+        synchronized (registryLock) {
+            if (dimension == 0) {
+                dimension = vector.length;
+            } else if (vector.length != dimension) {
+                throw new IllegalArgumentException("向量维度不一致: " + vector.length + " != " + dimension);
+            }
+            int index = nodeCount;
+            if (index == nodes.length) {
+                nodes = Arrays.copyOf(nodes, index * 2);
+            }
+            Node node = new Node(index, id, vector, segment, snapshot, snapshotIndex, level, m, maxM0);
+            nodes[index] = node;
+            nodeCount = index + 1;
+            return node;
+        }
+    }
+
+    private Node node(int index) {
+        return nodes[index];
+    }
+
+    private boolean markDeleted(Node node) {
+        if (node == null || node.deleted) {
+            return false;
+        }
+        node.deleted = true;
+        deleted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 标记删除的节点多于存活节点时,用存活节点重建图
+     */
+    private void rebuildIfSparse() {
+        if (deleted.get() <= Math.max(1000, byId.size())) {
+            return;
+        }
+        structureLock.writeLock().lock();
+        try {
+            if (deleted.get() <= Math.max(1000, byId.size())) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            List<Node> live = new ArrayList<>(byId.values());
+            reset();
+            // 写锁已阻止其他插入和查询,工作线程不再获取读锁
+            live.parallelStream().forEach(node ->
+                    insertUnlocked(node.id, node.vector, node.segment, node.snapshot, node.snapshotIndex));
+            log.info("重建HNSW索引: {} 个节点, 耗时 {} ms", live.size(), System.currentTimeMillis() - start);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    private void reset() {
+        synchronized (registryLock) {
+            byId.clear();
+            nodes = new Node[1024];
+            nodeCount = 0;
+            entryPoint = null;
+            dimension = 0;
+            deleted.set(0);
+        }
+    }
+
+    private boolean restoreGraph(VectorStoreSnapshot snapshot, String[] ids) {
+        Path graphFile = graphPath(snapshot.path());
+        if (!Files.exists(graphFile) || ids.length == 0) {
+            return false;
+        }
+        structureLock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graphFile), 1 << 16))) {
+            if (in.readLong() != GRAPH_MAGIC || in.readInt() != m || in.readInt() != ids.length
+                    || in.readLong() != Files.size(snapshot.path()) || nodeCount != 0) {
+                log.info("HNSW图文件与快照不匹配,重新构建: {}", graphFile);
+                return false;
+            }
+            int entry = in.readInt();
+            for (int i = 0; i < ids.length; i++) {
+                int level = in.readInt();
+                Node node = register(ids[i], snapshot.vector(i), null, snapshot, i, level);
+                for (int l = 0; l <= level; l++) {
+                    int count = in.readInt();
+                    int[] links = new int[count];
+                    for (int k = 0; k < count; k++) {
+                        links[k] = in.readInt();
+                    }
+                    node.setLinks(l, links, count);
+                }
+                byId.put(ids[i], node);
+            }
+            entryPoint = nodes[entry];
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取HNSW图文件失败,重新构建: {}", e.getMessage());
+            reset();
+            return false;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    private void writeGraph(Path graphFile, long snapshotSize, List<Node> live, int[] remap) throws IOException {
+        Node entry = entryPoint;
+        int entryIndex = 0;
+        if (entry != null && entry.index < remap.length && remap[entry.index] >= 0) {
+            entryIndex = remap[entry.index];
+        } else {
+            for (int i = 1; i < live.size(); i++) {
+                if (live.get(i).level > live.get(entryIndex).level) {
+                    entryIndex = i;
+                }
+            }
+        }
+        Path temp = Files.createTempFile(graphFile.toAbsolutePath().getParent(), graphFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeLong(GRAPH_MAGIC);
+                out.writeInt(m);
+                out.writeInt(live.size());
+                out.writeLong(snapshotSize);
+                out.writeInt(entryIndex);
+                for (Node node : live) {
+                    out.writeInt(node.level);
+                    for (int level = 0; level <= node.level; level++) {
+                        // 指向已删除或保存之后插入的节点的边被丢弃
+                        int[] links = Arrays.stream(node.links(level))
+                                .filter(index -> index < remap.length && remap[index] >= 0)
+                                .map(index -> remap[index])
+                                .toArray();
+                        out.writeInt(links.length);
+                        for (int link : links) {
+                            out.writeInt(link);
+                        }
+                    }
+                }
+            }
+            try {
+                Files.move(temp, graphFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, graphFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Path graphPath(Path snapshotPath) {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".graph");
+    }
+
+    private static final class Node {
+
+        final int index;
+        final String id;
+        final float[] vector;
+        final float norm;
+        final int level;
+        final int[][] links;
+        final int[] linkCounts;
+        final TextSegment segment;
+        final VectorStoreSnapshot snapshot;
+        final int snapshotIndex;
+        volatile boolean deleted;
+
+        Node(int index, String id, float[] vector, TextSegment segment, VectorStoreSnapshot snapshot,
+             int snapshotIndex, int level, int m, int maxM0) {
+            this.index = index;
+            this.id = id;
+            this.vector = vector;
+            this.norm = VectorStoreSnapshot.norm(vector);
+            this.segment = segment;
+            this.snapshot = snapshot;
+            this.snapshotIndex = snapshotIndex;
+            this.level = level;
+            this.links = new int[level + 1][];
+            this.linkCounts = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? maxM0 : m];
+            }
+        }
+
+        /**
+         * 文本片段,从快照加载的节点在此时解码
+         */
+        TextSegment segment() {
+            return snapshot == null ? segment : snapshot.segment(snapshotIndex);
+        }
+
+        synchronized int[] links(int level) {
+            return Arrays.copyOf(links[level], linkCounts[level]);
+        }
+
+        synchronized void setLinks(int level, int[] indexes, int count) {
+            int n = Math.min(count, links[level].length);
+            System.arraycopy(indexes, 0, links[level], 0, n);
+            linkCounts[level] = n;
+        }
+    }
+
+    private record Candidate(Node node, double similarity) {
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 倒排索引与向量检索混合的内容检索器.
+ * 两路各取candidates个候选,按倒数排名融合(RRF,得分为各路1/(k+名次)之和)后取前maxResults个,
+ * 类名、错误码、配置键等向量检索匹配不好的精确词也能被检索到.
+ * 查询只由标识符组成、倒排索引覆盖全部分段(LexicalIndex.isComplete)且有命中时,直接返回倒排索引的结果,
+ * 不调用远程向量化接口.索引不完整时(Redis向量存储)只使用向量检索:
+ * 倒排索引只含部分分段时融合会抬高这部分分段的名次,使最近摄取的文档压过更相关的旧文档
+ */
+@Slf4j
+public class HybridContentRetriever implements ContentRetriever {
+
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final LexicalIndex lexicalIndex;
+    private final int maxResults;
+    private final double minScore;
+    private final int candidates;
+    private final int rrfK;
+    private final boolean lexicalOnly;
+
+    /**
+     * @param embeddingModel 查询向量化使用的模型
+     * @param embeddingStore 向量存储
+     * @param lexicalIndex   倒排索引
+     * @param maxResults     返回的结果数
+     * @param minScore       向量检索的最低相似度
+     * @param candidates     每一路检索的候选数
+     * @param rrfK           RRF的平滑常数,越大名次的影响越平缓
+     * @param lexicalOnly    标识符查询是否只用倒排索引
+     */
+    public HybridContentRetriever(EmbeddingModel embeddingModel, EmbeddingStore<TextSegment> embeddingStore,
+                                  LexicalIndex lexicalIndex, int maxResults, double minScore,
+                                  int candidates, int rrfK, boolean lexicalOnly) {
+        this.embeddingModel = embeddingModel;
+        this.embeddingStore = embeddingStore;
+        this.lexicalIndex = lexicalIndex;
+        this.maxResults = maxResults;
+        this.minScore = minScore;
+        this.candidates = Math.max(maxResults, candidates);
+        this.rrfK = Math.max(1, rrfK);
+        this.lexicalOnly = lexicalOnly;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        String text = query.text();
+        if (lexicalOnly && lexicalIndex.isComplete() && LexicalTokenizer.isIdentifierQuery(text)) {
+            List<LexicalIndex.Hit> hits = lexicalIndex.search(text, maxResults);
+            if (!hits.isEmpty()) {
+                log.debug("标识符查询只使用倒排索引: {} ({} 条结果)", text, hits.size());
+                Map<String, Ranked> ranked = new LinkedHashMap<>();
+                fuse(ranked, hits.stream().map(hit -> new Candidate(hit.id(), hit.segment())).toList());
+                return toContents(ranked);
+            }
+        }
+        Embedding queryEmbedding = embeddingModel.embed(text).content();
+        List<EmbeddingMatch<TextSegment>> matches = embeddingStore.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(queryEmbedding)
+                .maxResults(candidates)
+                .minScore(minScore)
+                .build()).matches();
+        Map<String, Ranked> ranked = new LinkedHashMap<>();
+        fuse(ranked, matches.stream().map(match -> new Candidate(match.embeddingId(), match.embedded())).toList());
+        if (!lexicalIndex.isComplete()) {
+            return toContents(ranked);
+        }
+        List<LexicalIndex.Hit> hits = lexicalIndex.search(text, candidates);
+        fuse(ranked, hits.stream().map(hit -> new Candidate(hit.id(), hit.segment())).toList());
+        log.debug("混合检索: 向量 {} 条, 倒排 {} 条, 融合后 {} 条", matches.size(), hits.size(), ranked.size());
+        return toContents(ranked);
+    }
+
+    /**
+     * 把一路结果按名次累加到RRF得分
+     */
+    private void fuse(Map<String, Ranked> ranked, List<Candidate> list) {
+        for (int rank = 0; rank < list.size(); rank++) {
+            Candidate candidate = list.get(rank);
+            if (candidate.segment() == null) {
+                continue;
+            }
+            double score = 1.0 / (rrfK + rank + 1);
+            ranked.computeIfAbsent(candidate.id(), id -> new Ranked(id, candidate.segment())).score += score;
+        }
+    }
+
+    /**
+     * 按融合得分从高到低取前maxResults个,得分相同时保持先出现的在前
+     */
+    private List<Content> toContents(Map<String, Ranked> ranked) {
+        List<Ranked> sorted = new ArrayList<>(ranked.values());
+        sorted.sort(Comparator.comparingDouble((Ranked r) -> r.score).reversed());
+        List<Content> contents = new ArrayList<>(Math.min(maxResults, sorted.size()));
+        for (Ranked r : sorted.subList(0, Math.min(maxResults, sorted.size()))) {
+            contents.add(Content.from(r.segment, Map.of(
+                    ContentMetadata.SCORE, r.score,
+                    ContentMetadata.EMBEDDING_ID, r.id)));
+        }
+        return contents;
+    }
+
+    private record Candidate(String id, TextSegment segment) {
+    }
+
+    private static final class Ranked {
+
+        private final String id;
+        private final TextSegment segment;
+        private double score;
+
+        Ranked(String id, TextSegment segment) {
+            this.id = id;
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.example.ai.rag;
+
+import java.util.List;
+
+/**
+ * 超大文件的摄取检查点.
+ * 记录时该位置之前产出的分段均已写入向量存储,进程中断后可以从byteOffset处继续读取、从分割状态继续切分,
+ * 已写入的向量不再重复向量化.检查点文件逐条追加,每条只记录自上一条以来新写入的向量ID.
+ *
+ * @param filePath     文件绝对路径
+ * @param fileSize     文件大小,与当前文件不一致时检查点失效
+ * @param lastModified 文件修改时间,与当前文件不一致时检查点失效
+ * @param contentHash  文件内容哈希,两者都有值且不一致时检查点失效
+ * @param settings     分割参数,参数变化后检查点失效
+ * @param charset      文件编码
+ * @param byteOffset   已读取到的字节偏移
+ * @param charOffset   分割状态: 待切分文本在全文中的字符偏移
+ * @param pending      分割状态: 待切分文本
+ * @param carried      分割状态: 待切分文本开头属于上一分段重叠部分的长度
+ * @param nextIndex    分割状态: 下一个分段的序号
+ * @param embeddingIds 已写入的向量ID(加载后为全部,追加时为本条新增)
+ */
+public record IngestionCheckpoint(String filePath, long fileSize, long lastModified, String contentHash,
+                                  String settings, String charset, long byteOffset, long charOffset,
+                                  String pending, int carried, long nextIndex, List<String> embeddingIds) {
+
+    /**
+     * 检查点是否属于当前版本的文件和当前分割参数
+     */
+    public boolean matches(DocumentProcessingSnapshot snapshot, String currentSettings) {
+        return fileSize == snapshot.fileSize()
+                && lastModified == snapshot.lastModifiedTime()
+                && (contentHash == null || snapshot.contentHash() == null || contentHash.equals(snapshot.contentHash()))
+                && settings.equals(currentSettings);
+    }
+
+    /**
+     * 检查点记录的分割状态
+     */
+    public StreamingTextSplitter.SplitState splitState() {
+        return new StreamingTextSplitter.SplitState(charOffset, pending, carried, nextIndex);
+    }
+}
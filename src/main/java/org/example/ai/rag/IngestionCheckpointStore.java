@@ -0,0 +1,180 @@
+package org.example.ai.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 摄取检查点文件.
+ * 每个正在处理的超大文件一个检查点文件,与状态文件放在同一目录,文件名以状态文件名开头(扫描时随状态文件一起被过滤);
+ * 每条检查点以一行JSON追加并立即刷盘,加载时合并全部记录的向量ID,崩溃时写了一半的最后一行被忽略.
+ * 启动时列出已有的检查点文件,之后判断某个文件是否有检查点不需要访问磁盘.
+ * 同一文件的检查点只由处理该文件的线程读写.
+ */
+@Slf4j
+class IngestionCheckpointStore {
+
+    private final Path directory;
+    private final String prefix;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Path> checkpointFiles = new ConcurrentHashMap<>();
+
+    /**
+     * @param stateFile    状态文件路径
+     * @param objectMapper JSON序列化
+     */
+    IngestionCheckpointStore(Path stateFile, ObjectMapper objectMapper) {
+        this.directory = stateFile.toAbsolutePath().getParent();
+        this.prefix = stateFile.getFileName() + ".checkpoint.";
+        this.objectMapper = objectMapper;
+        discover();
+    }
+
+    /**
+     * 加载文件的检查点
+     *
+     * @param filePath 文件绝对路径
+     * @return 合并了全部向量ID的最新检查点,没有检查点时返回null
+     */
+    IngestionCheckpoint load(String filePath) throws IOException {
+        Path file = checkpointFiles.get(filePath);
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+        IngestionCheckpoint latest = null;
+        List<String> embeddingIds = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    IngestionCheckpoint checkpoint = objectMapper.readValue(line, IngestionCheckpoint.class);
+                    embeddingIds.addAll(checkpoint.embeddingIds());
+                    latest = checkpoint;
+                } catch (IOException e) {
+                    log.warn("忽略不完整的检查点记录: {} ({})", file, e.getMessage());
+                }
+            }
+        }
+        if (latest == null) {
+            return null;
+        }
+        return new IngestionCheckpoint(latest.filePath(), latest.fileSize(), latest.lastModified(),
+                latest.contentHash(), latest.settings(), latest.charset(), latest.byteOffset(), latest.charOffset(),
+                latest.pending(), latest.carried(), latest.nextIndex(), List.copyOf(embeddingIds));
+    }
+
+    /**
+     * 追加一条检查点并刷盘
+     *
+     * @param checkpoint 检查点,embeddingIds只包含自上一条以来新写入的向量ID
+     */
+    void append(IngestionCheckpoint checkpoint) throws IOException {
+        Path file = checkpointFiles.computeIfAbsent(checkpoint.filePath(), this::fileFor);
+        byte[] line = (objectMapper.writeValueAsString(checkpoint) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 删除文件的检查点
+     *
+     * @param filePath 文件绝对路径
+     * @return 检查点记录的全部向量ID,没有检查点时返回空列表
+     */
+    List<String> delete(String filePath) throws IOException {
+        if (!checkpointFiles.containsKey(filePath)) {
+            return List.of();
+        }
+        IngestionCheckpoint checkpoint = load(filePath);
+        Path file = checkpointFiles.remove(filePath);
+        Files.deleteIfExists(file);
+        return checkpoint == null ? List.of() : checkpoint.embeddingIds();
+    }
+
+    /**
+     * 有检查点的文件
+     */
+    Set<String> filePaths() {
+        return Set.copyOf(checkpointFiles.keySet());
+    }
+
+    /**
+     * 删除全部检查点,用于向量存储被重建为空
+     */
+    void deleteAll() throws IOException {
+        for (String filePath : List.copyOf(checkpointFiles.keySet())) {
+            Path file = checkpointFiles.remove(filePath);
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private Path fileFor(String filePath) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(filePath.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(prefix + HexFormat.of().formatHex(digest, 0, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    /**
+     * 列出已有的检查点文件,按第一条记录中的文件路径建立索引
+     */
+    private void discover() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                String line;
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    line = reader.readLine();
+                }
+                try {
+                    if (line == null || line.isBlank()) {
+                        // 第一条记录尚未写入就中断,没有关联任何向量
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    IngestionCheckpoint checkpoint = objectMapper.readValue(line, IngestionCheckpoint.class);
+                    checkpointFiles.put(checkpoint.filePath(), file);
+                } catch (IOException e) {
+                    log.warn("无法读取检查点文件,忽略: {} ({})", file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("列出检查点文件失败: {}", e.getMessage());
+        }
+        if (!checkpointFiles.isEmpty()) {
+            log.info("发现 {} 个未完成文件的摄取检查点", checkpointFiles.size());
+        }
+    }
+}
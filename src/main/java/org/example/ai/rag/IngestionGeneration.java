@@ -0,0 +1,30 @@
+package org.example.ai.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 知识库版本号.每次摄取、删除文档结束后递增,依赖检索结果的缓存记录写入时的版本号,版本号变化后缓存失效
+ */
+@Component
+@Slf4j
+public class IngestionGeneration {
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public long current() {
+        return generation.get();
+    }
+
+    /**
+     * 知识库内容已变化
+     *
+     * @param reason 日志中的原因
+     */
+    public void advance(String reason) {
+        long next = generation.incrementAndGet();
+        log.debug("知识库版本号递增为 {}: {}", next, reason);
+    }
+}
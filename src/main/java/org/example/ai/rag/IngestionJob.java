@@ -0,0 +1,203 @@
+package org.example.ai.rag;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次异步文档摄取任务,同时作为DocumentProcessingService的进度回调.
+ * 计数器由多个处理线程并发更新,状态只由任务执行线程和取消请求修改.
+ */
+public class IngestionJob implements IngestionProgress {
+
+    public enum JobType {
+        /**
+         * 全量重新加载
+         */
+        RELOAD,
+        /**
+         * 单个文档
+         */
+        DOCUMENT,
+        /**
+         * 目录监听发现的文件变更
+         */
+        CHANGES
+    }
+
+    public enum JobStatus {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id = UUID.randomUUID().toString().replace("-", "");
+    private final JobType type;
+    private final String target;
+    private final long createdAt = System.currentTimeMillis();
+
+    private final AtomicInteger totalFiles = new AtomicInteger();
+    private final AtomicInteger completedFiles = new AtomicInteger();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final AtomicInteger cancelledFiles = new AtomicInteger();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong suppressedSegments = new AtomicLong();
+    private final CompletableFuture<IngestionJob> completion = new CompletableFuture<>();
+
+    private volatile JobStatus status = JobStatus.QUEUED;
+    private volatile boolean cancelRequested;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile long latencyStart;
+    private volatile String error;
+
+    public IngestionJob(JobType type, String target) {
+        this.type = type;
+        this.target = target;
+    }
+
+    @Override
+    public void onFilesDiscovered(int count) {
+        totalFiles.addAndGet(count);
+    }
+
+    @Override
+    public void onFileCompleted(boolean success, int segmentCount) {
+        completedFiles.incrementAndGet();
+        if (!success) {
+            failedFiles.incrementAndGet();
+        }
+        segments.addAndGet(segmentCount);
+    }
+
+    @Override
+    public void onSegmentsSuppressed(int count) {
+        suppressedSegments.addAndGet(count);
+    }
+
+    @Override
+    public void onFileCancelled() {
+        cancelledFiles.incrementAndGet();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelRequested;
+    }
+
+    /**
+     * 请求取消: 未开始的任务不再执行,运行中的任务在下一个文件开始前停止
+     *
+     * @return 任务已结束时返回false
+     */
+    public boolean cancel() {
+        if (isFinished()) {
+            return false;
+        }
+        cancelRequested = true;
+        return true;
+    }
+
+    public boolean isFinished() {
+        return status == JobStatus.SUCCEEDED || status == JobStatus.FAILED || status == JobStatus.CANCELLED;
+    }
+
+    /**
+     * 任务开始执行
+     *
+     * @param latencyStart 开始时向量化耗时记录的序号,只统计本任务期间的请求
+     */
+    void markRunning(long latencyStart) {
+        this.latencyStart = latencyStart;
+        this.startedAt = System.currentTimeMillis();
+        this.status = JobStatus.RUNNING;
+    }
+
+    void markFinished(JobStatus finalStatus, String errorMessage) {
+        this.error = errorMessage;
+        this.finishedAt = System.currentTimeMillis();
+        this.status = finalStatus;
+        completion.complete(this);
+    }
+
+    /**
+     * 任务结束(成功、失败或取消)时完成的future
+     */
+    public CompletableFuture<IngestionJob> completion() {
+        return completion;
+    }
+
+    /**
+     * 平均每秒写入的分段数,运行中按当前时间计算
+     */
+    public double segmentsPerSecond() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        long end = finishedAt == 0 ? System.currentTimeMillis() : finishedAt;
+        return segments.get() * 1000.0 / Math.max(1, end - startedAt);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public JobType getType() {
+        return type;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public long getLatencyStart() {
+        return latencyStart;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles.get();
+    }
+
+    public int getCompletedFiles() {
+        return completedFiles.get();
+    }
+
+    public int getFailedFiles() {
+        return failedFiles.get();
+    }
+
+    public int getCancelledFiles() {
+        return cancelledFiles.get();
+    }
+
+    public long getSegments() {
+        return segments.get();
+    }
+
+    public long getSuppressedSegments() {
+        return suppressedSegments.get();
+    }
+}
@@ -0,0 +1,221 @@
+package org.example.ai.rag;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * 异步文档摄取任务管理.
+ * 重新加载、添加文档和目录监听的变更都作为任务提交到同一个单线程执行器,按提交顺序串行执行,
+ * 同一文件不会被两个任务同时处理;同一时刻最多只有一个排队中或运行中的重新加载任务.
+ * 调用方拿到任务ID后轮询进度,可以协作式取消.
+ */
+@Component
+@Slf4j
+public class IngestionJobManager {
+
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    private final DocumentProcessingService documentProcessingService;
+    private final DocumentIngestor documentIngestor;
+    private final DocumentProcessingStateTracker stateTracker;
+    private final int historySize;
+
+    private final Map<String, IngestionJob> jobs = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rag-ingestion-job");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private IngestionJob activeReload;
+
+    /**
+     * @param documentProcessingService 文档处理服务
+     * @param documentIngestor 文档摄取器
+     * @param stateTracker 状态跟踪器,用于汇总任务期间失败的文件
+     * @param historySize 保留的已结束任务数
+     */
+    @Autowired
+    public IngestionJobManager(@Lazy DocumentProcessingService documentProcessingService,
+                               @Lazy DocumentIngestor documentIngestor,
+                               @Lazy DocumentProcessingStateTracker stateTracker,
+                               @Value("${rag.jobs.history-size:50}") int historySize) {
+        this.documentProcessingService = documentProcessingService;
+        this.documentIngestor = documentIngestor;
+        this.stateTracker = stateTracker;
+        this.historySize = Math.max(1, historySize);
+    }
+
+    /**
+     * 提交重新加载任务,已有重新加载任务排队或运行时不再提交
+     *
+     * @param forceReload 是否强制重建
+     * @return 提交结果,accepted为false时job为正在进行的重新加载任务
+     */
+    public synchronized Submission submitReload(boolean forceReload) {
+        if (activeReload != null && !activeReload.isFinished()) {
+            return new Submission(activeReload, false);
+        }
+        IngestionJob job = new IngestionJob(IngestionJob.JobType.RELOAD, forceReload ? "force" : "incremental");
+        activeReload = job;
+        submit(job, j -> documentProcessingService.ingestAllDocuments(documentIngestor, forceReload, j));
+        return new Submission(job, true);
+    }
+
+    /**
+     * 提交单文档摄取任务
+     *
+     * @param filePath 文件路径
+     * @return 任务
+     */
+    public synchronized IngestionJob submitDocument(String filePath) {
+        IngestionJob job = new IngestionJob(IngestionJob.JobType.DOCUMENT, filePath);
+        submit(job, j -> documentProcessingService.ingestSingleDocument(filePath, documentIngestor, true, j));
+        return job;
+    }
+
+    /**
+     * 提交目录监听发现的文件变更
+     *
+     * @param changed  新增或修改的文件
+     * @param deleted  被删除的文件或目录
+     * @param fullScan 是否先执行一次增量全量加载(监听事件溢出时)
+     * @return 任务
+     */
+    public synchronized IngestionJob submitChanges(Collection<Path> changed, Collection<Path> deleted, boolean fullScan) {
+        IngestionJob job = new IngestionJob(IngestionJob.JobType.CHANGES,
+                changed.size() + " changed, " + deleted.size() + " deleted");
+        submit(job, j -> {
+            if (fullScan) {
+                log.warn("目录监听事件溢出,执行一次增量全量加载");
+                documentProcessingService.ingestAllDocuments(documentIngestor, false, j);
+            }
+            documentProcessingService.ingestChangedDocuments(changed, deleted, documentIngestor, j);
+        });
+        return job;
+    }
+
+    /**
+     * 请求取消任务
+     *
+     * @param jobId 任务ID
+     * @return 任务不存在或已结束时返回false
+     */
+    public synchronized boolean cancel(String jobId) {
+        IngestionJob job = jobs.get(jobId);
+        return job != null && job.cancel();
+    }
+
+    public synchronized IngestionJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * 按提交顺序返回保留的任务
+     */
+    public synchronized List<IngestionJob> listJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * 生成任务进度报告: 文件进度、吞吐量、本任务期间的向量化延迟分位数以及失败文件
+     *
+     * @param job 任务
+     * @return 进度报告
+     */
+    public IngestionJobReport report(IngestionJob job) {
+        Map<String, Long> latency = new LinkedHashMap<>();
+        if (job.getStartedAt() > 0) {
+            long[] values = documentIngestor.embeddingLatency().percentiles(job.getLatencyStart(), 50, 90, 99);
+            if (values.length == 3) {
+                latency.put("p50", values[0]);
+                latency.put("p90", values[1]);
+                latency.put("p99", values[2]);
+            }
+        }
+        List<IngestionJobReport.FailedFile> failures = job.getStartedAt() == 0 ? List.of() :
+                stateTracker.snapshotStates().values().stream()
+                        .filter(state -> state.getStatus() == DocumentProcessingState.ProcessingStatus.FAILED)
+                        .filter(state -> state.getUpdatedAt() >= job.getStartedAt())
+                        .filter(state -> job.getFinishedAt() == 0 || state.getUpdatedAt() <= job.getFinishedAt())
+                        .limit(MAX_REPORTED_FAILURES)
+                        .map(state -> new IngestionJobReport.FailedFile(state.getFilePath(), state.getLastError()))
+                        .toList();
+        return new IngestionJobReport(job.getId(), job.getType(), job.getStatus(), job.getTarget(),
+                job.getTotalFiles(), job.getCompletedFiles(), job.getFailedFiles(), job.getCancelledFiles(),
+                job.getSegments(), job.getSuppressedSegments(), job.segmentsPerSecond(), latency, failures,
+                job.getCreatedAt(), job.getStartedAt(), job.getFinishedAt(), job.getError());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            jobs.values().forEach(IngestionJob::cancel);
+        }
+        executor.shutdownNow();
+    }
+
+    private void submit(IngestionJob job, Consumer<IngestionJob> work) {
+        jobs.put(job.getId(), job);
+        trimHistory();
+        executor.execute(() -> run(job, work));
+        log.info("已提交RAG摄取任务: {} ({}, {})", job.getId(), job.getType(), job.getTarget());
+    }
+
+    private void run(IngestionJob job, Consumer<IngestionJob> work) {
+        if (job.isCancelled()) {
+            job.markFinished(IngestionJob.JobStatus.CANCELLED, null);
+            log.info("RAG摄取任务在开始前被取消: {}", job.getId());
+            return;
+        }
+        job.markRunning(documentIngestor.embeddingLatency().count());
+        try {
+            work.accept(job);
+            job.markFinished(job.isCancelled() ? IngestionJob.JobStatus.CANCELLED : IngestionJob.JobStatus.SUCCEEDED, null);
+            log.info("RAG摄取任务结束: {} status={}, files={}/{}, failed={}, segments={}, suppressed={}", job.getId(),
+                    job.getStatus(), job.getCompletedFiles(), job.getTotalFiles(), job.getFailedFiles(),
+                    job.getSegments(), job.getSuppressedSegments());
+        } catch (Exception e) {
+            log.error("RAG摄取任务失败: {}", job.getId(), e);
+            job.markFinished(IngestionJob.JobStatus.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * 只淘汰已结束的任务,排队和运行中的任务始终可查询
+     */
+    private void trimHistory() {
+        int excess = jobs.size() - historySize;
+        Iterator<IngestionJob> iterator = jobs.values().iterator();
+        while (excess > 0 && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+
+    /**
+     * 任务提交结果
+     *
+     * @param job      新提交的任务,或未被接受时正在进行的同类任务
+     * @param accepted 是否被接受
+     */
+    public record Submission(IngestionJob job, boolean accepted) {
+    }
+}
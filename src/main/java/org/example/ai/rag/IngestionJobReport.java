@@ -0,0 +1,53 @@
+package org.example.ai.rag;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 摄取任务进度报告,时间均为毫秒时间戳,未开始或未结束时为0
+ *
+ * @param jobId                  任务ID
+ * @param type                   任务类型
+ * @param status                 任务状态
+ * @param target                 任务对象(文件路径、重新加载方式等)
+ * @param totalFiles             需要处理的文件数
+ * @param completedFiles         已处理完成的文件数(包括失败和跳过)
+ * @param failedFiles            处理失败的文件数
+ * @param cancelledFiles         因取消而未处理的文件数
+ * @param segments               写入向量存储的分段数
+ * @param suppressedSegments     因近重复而未写入的分段数
+ * @param segmentsPerSecond      平均每秒写入的分段数
+ * @param embeddingLatencyMillis 任务期间向量化请求的耗时分位数(p50/p90/p99)
+ * @param failures               任务期间处理失败的文件
+ * @param createdAt              提交时间
+ * @param startedAt              开始时间
+ * @param finishedAt             结束时间
+ * @param error                  任务整体失败时的错误信息
+ */
+public record IngestionJobReport(String jobId,
+                                 IngestionJob.JobType type,
+                                 IngestionJob.JobStatus status,
+                                 String target,
+                                 int totalFiles,
+                                 int completedFiles,
+                                 int failedFiles,
+                                 int cancelledFiles,
+                                 long segments,
+                                 long suppressedSegments,
+                                 double segmentsPerSecond,
+                                 Map<String, Long> embeddingLatencyMillis,
+                                 List<FailedFile> failures,
+                                 long createdAt,
+                                 long startedAt,
+                                 long finishedAt,
+                                 String error) {
+
+    /**
+     * 处理失败的文件
+     *
+     * @param filePath 文件路径
+     * @param error    错误信息
+     */
+    public record FailedFile(String filePath, String error) {
+    }
+}
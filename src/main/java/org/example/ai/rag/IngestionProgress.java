@@ -0,0 +1,50 @@
+package org.example.ai.rag;
+
+/**
+ * 文档摄取进度回调,由DocumentProcessingService在处理过程中调用.
+ * 回调可能来自多个解析线程和流水线写入线程,实现需保证线程安全.
+ */
+public interface IngestionProgress {
+
+    /**
+     * 不关心进度的调用方使用的空实现
+     */
+    IngestionProgress NONE = new IngestionProgress() {
+    };
+
+    /**
+     * 确定了本次需要处理的文件数
+     */
+    default void onFilesDiscovered(int count) {
+    }
+
+    /**
+     * 一个文件处理结束(包括因未变化或受保护而跳过)
+     *
+     * @param success  是否成功
+     * @param segments 写入向量存储的分段数
+     */
+    default void onFileCompleted(boolean success, int segments) {
+    }
+
+    /**
+     * 一个文件有分段因与已有分段近重复而未写入
+     *
+     * @param count 被抑制的分段数
+     */
+    default void onSegmentsSuppressed(int count) {
+    }
+
+    /**
+     * 一个文件因任务取消而未处理
+     */
+    default void onFileCancelled() {
+    }
+
+    /**
+     * 是否已请求取消,每个文件开始处理前检查
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,226 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个文件在摄取流水线中的凭证.
+ * 一个文件可以提交多个Document(如大文件的多个片段),其分段会与其他文件的分段混合成批次向量化;
+ * 调用seal()表示不再提交,当所有分段都写入向量存储后completion完成并返回该文件的全部向量ID.
+ * 超大文件可以在中途调用commit()等待已提交的分段写入并取走其向量ID,用于记录检查点.
+ * 提交和等待都发生在虚拟线程上,用ReentrantLock和Condition同步,阻塞时不占用载体线程.
+ */
+public class IngestionTicket {
+
+    private final String source;
+    private final DocumentIngestor ingestor;
+    private final CompletableFuture<List<String>> completion = new CompletableFuture<>();
+    private final List<String> embeddingIds = new ArrayList<>();
+    private final Set<String> duplicateSources = new LinkedHashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+
+    private int pendingDocuments;
+    private long pendingSegments;
+    private int suppressedSegments;
+    private boolean sealed;
+
+    IngestionTicket(String source, DocumentIngestor ingestor) {
+        this.source = source;
+        this.ingestor = ingestor;
+    }
+
+    /**
+     * 提交一个文档到流水线,队列已满时阻塞等待,从而对解析阶段形成背压
+     *
+     * @param document 文档
+     */
+    public void submit(Document document) throws InterruptedException {
+        register();
+        ingestor.enqueue(this, document, null);
+    }
+
+    /**
+     * 提交已经分好段的文本(如流式分割器的产出),流水线只执行转换、向量化和写入
+     *
+     * @param segments 分段
+     */
+    public void submitSegments(List<TextSegment> segments) throws InterruptedException {
+        register();
+        ingestor.enqueue(this, null, List.copyOf(segments));
+    }
+
+    /**
+     * 封闭凭证,不再提交新文档
+     *
+     * @return 全部分段写入完成后返回向量ID的future
+     */
+    public CompletableFuture<List<String>> seal() {
+        lock.lock();
+        try {
+            sealed = true;
+        } finally {
+            lock.unlock();
+        }
+        tryComplete();
+        return completion;
+    }
+
+    /**
+     * 等待已提交的分段全部写入向量存储,取走这些分段的向量ID.
+     * 取走的向量由调用方负责(记录到检查点),之后凭证失败时不再删除,seal()的结果也不再包含它们
+     *
+     * @return 自上次commit以来写入的向量ID
+     */
+    public List<String> commit() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!completion.isDone() && (pendingDocuments > 0 || pendingSegments > 0)) {
+                drained.await();
+            }
+            if (completion.isCompletedExceptionally()) {
+                throw new IllegalStateException("文件摄取已失败: " + source, completion.exceptionNow());
+            }
+            List<String> committed = List.copyOf(embeddingIds);
+            embeddingIds.clear();
+            return committed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public boolean isFailed() {
+        return completion.isCompletedExceptionally();
+    }
+
+    /**
+     * 因与已有分段近重复而未写入的分段数
+     */
+    public int suppressedSegments() {
+        lock.lock();
+        try {
+            return suppressedSegments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 被抑制的分段所重复的其他文件,这些文件内容变化或删除时需要重新处理本文件
+     */
+    public List<String> duplicateSources() {
+        lock.lock();
+        try {
+            return List.copyOf(duplicateSources);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一个分段因近重复被抑制
+     *
+     * @param duplicateOf 已有分段所属的文件
+     */
+    void onSuppressed(String duplicateOf) {
+        lock.lock();
+        try {
+            suppressedSegments++;
+            if (!source.equals(duplicateOf)) {
+                duplicateSources.add(duplicateOf);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 文档分段完成: 先登记新分段再扣减待分段文档,保证不会提前判定完成
+     */
+    void onSplit(int segmentCount) {
+        lock.lock();
+        try {
+            pendingSegments += segmentCount;
+            pendingDocuments--;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        tryComplete();
+    }
+
+    /**
+     * 一个分段写入完成
+     *
+     * @return 凭证已失败时返回false,调用方需删除该向量
+     */
+    boolean onStored(String id) {
+        lock.lock();
+        try {
+            if (completion.isCompletedExceptionally()) {
+                return false;
+            }
+            embeddingIds.add(id);
+            pendingSegments--;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        tryComplete();
+        return true;
+    }
+
+    /**
+     * 标记失败,返回已写入的向量ID以便调用方清理
+     */
+    List<String> fail(Throwable cause) {
+        lock.lock();
+        try {
+            completion.completeExceptionally(cause);
+            drained.signalAll();
+            List<String> stored = List.copyOf(embeddingIds);
+            embeddingIds.clear();
+            return stored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void register() {
+        lock.lock();
+        try {
+            if (sealed) {
+                throw new IllegalStateException("凭证已封闭,不能继续提交: " + source);
+            }
+            pendingDocuments++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void tryComplete() {
+        List<String> result;
+        lock.lock();
+        try {
+            if (!sealed || pendingDocuments > 0 || pendingSegments > 0 || completion.isDone()) {
+                return;
+            }
+            result = List.copyOf(embeddingIds);
+        } finally {
+            lock.unlock();
+        }
+        completion.complete(result);
+    }
+}
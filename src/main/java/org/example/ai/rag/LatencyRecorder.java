@@ -0,0 +1,60 @@
+package org.example.ai.rag;
+
+import java.util.Arrays;
+
+/**
+ * 最近若干次调用耗时的环形记录,用于计算延迟分位数.
+ * 每条记录带有全局序号,调用方可以只统计某个时间点之后的记录(如某个摄取任务开始之后).
+ */
+public class LatencyRecorder {
+
+    private final long[] samples;
+    private long count;
+
+    public LatencyRecorder(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param millis 耗时(毫秒)
+     */
+    public synchronized void record(long millis) {
+        samples[(int) (count % samples.length)] = millis;
+        count++;
+    }
+
+    /**
+     * 累计记录数,可作为之后调用percentiles的起点
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * 计算序号不小于since的记录(最多保留最近capacity条)的分位数
+     *
+     * @param since       起始序号
+     * @param percentiles 分位数,取值0~100
+     * @return 与percentiles一一对应的耗时(毫秒),没有记录时返回空数组
+     */
+    public synchronized long[] percentiles(long since, double... percentiles) {
+        long from = Math.max(since, count - samples.length);
+        int size = (int) Math.max(0, count - from);
+        if (size == 0) {
+            return new long[0];
+        }
+        long[] window = new long[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = samples[(int) ((from + i) % samples.length)];
+        }
+        Arrays.sort(window);
+        long[] result = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(percentiles[i] / 100.0 * size) - 1;
+            result[i] = window[Math.min(size - 1, Math.max(0, rank))];
+        }
+        return result;
+    }
+}
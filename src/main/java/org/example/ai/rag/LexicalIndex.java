@@ -0,0 +1,301 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.filter.Filter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内BM25倒排索引,与向量存储使用相同的ID,在摄取时随向量一起写入(LexicalIndexingEmbeddingStore).
+ * 文档按写入顺序编号,倒排表是按文档号递增的int数组;文本用SegmentCodec压缩保存,只在返回结果时解压.
+ * 删除只做标记,标记的文档超过存活文档数(且超过1000)时压缩倒排表.
+ * 全部分段的压缩文本和倒排表都在堆内,内存占用随语料线性增长,堆大小需要按语料规模预留
+ */
+@Slf4j
+public class LexicalIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_COMPACT = 1000;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> docNumbers = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private String[] ids = new String[16];
+    private int[] lengths = new int[16];
+    private byte[][] records = new byte[16][];
+    private final BitSet deleted = new BitSet();
+    private int docCount;
+    private int deletedCount;
+    private long totalLength;
+    private volatile boolean complete;
+
+    /**
+     * 检索结果
+     *
+     * @param id      向量ID
+     * @param score   BM25得分
+     * @param segment 文本片段
+     */
+    public record Hit(String id, double score, TextSegment segment) {
+    }
+
+    /**
+     * 写入或替换一个文本片段
+     */
+    public void add(String id, TextSegment segment) {
+        if (id == null || segment == null) {
+            return;
+        }
+        List<String> tokens = LexicalTokenizer.tokenize(segment.text());
+        byte[] record = SegmentCodec.compress(segment);
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        lock.writeLock().lock();
+        try {
+            delete(id);
+            compactIfNeeded();
+            int doc = docCount++;
+            if (doc == ids.length) {
+                int capacity = ids.length * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                records = Arrays.copyOf(records, capacity);
+            }
+            ids[doc] = id;
+            lengths[doc] = tokens.size();
+            records[doc] = record;
+            totalLength += tokens.size();
+            docNumbers.put(id, doc);
+            frequencies.forEach((term, frequency) -> postings.computeIfAbsent(term, t -> new Postings()).add(doc, frequency));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Collection<String> removedIds) {
+        lock.writeLock().lock();
+        try {
+            for (String id : removedIds) {
+                delete(id);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除元数据满足过滤条件的文本片段
+     */
+    public void removeAll(Filter filter) {
+        List<String> matched = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int doc = 0; doc < docCount; doc++) {
+                if (!deleted.get(doc) && filter.test(SegmentCodec.decompress(records[doc]).metadata())) {
+                    matched.add(ids[doc]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        remove(matched);
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            docNumbers.clear();
+            postings.clear();
+            ids = new String[16];
+            lengths = new int[16];
+            records = new byte[16][];
+            deleted.clear();
+            docCount = 0;
+            deletedCount = 0;
+            totalLength = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 索引是否覆盖向量存储中的全部分段.
+     * 进程内存储启动时从快照重建或全部重新摄取,索引是完整的;Redis向量存储无法在启动时遍历,
+     * 未变化的文件不再摄取,索引只包含本次启动后摄取的分段
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * 当前索引的文本片段数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docNumbers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25检索,查询词去重后逐词累加得分
+     *
+     * @param query      查询文本
+     * @param maxResults 最多返回的结果数
+     * @return 按得分从高到低排列的结果
+     */
+    public List<Hit> search(String query, int maxResults) {
+        Set<String> terms = new LinkedHashSet<>(LexicalTokenizer.tokenize(query));
+        if (terms.isEmpty() || maxResults <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            int live = docNumbers.size();
+            if (live == 0) {
+                return List.of();
+            }
+            double averageLength = Math.max(1.0, (double) totalLength / live);
+            float[] scores = new float[docCount];
+            BitSet matched = new BitSet(docCount);
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                int documentFrequency = 0;
+                for (int i = 0; i < list.size; i++) {
+                    if (!deleted.get(list.docs[i])) {
+                        documentFrequency++;
+                    }
+                }
+                if (documentFrequency == 0) {
+                    continue;
+                }
+                double idf = Math.log(1 + (live - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.docs[i];
+                    if (deleted.get(doc)) {
+                        continue;
+                    }
+                    double tf = list.frequencies[i];
+                    double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                    scores[doc] += (float) (idf * tf * (K1 + 1) / (tf + norm));
+                    matched.set(doc);
+                }
+            }
+            PriorityQueue<Integer> top = new PriorityQueue<>(maxResults + 1,
+                    (a, b) -> scores[a] != scores[b] ? Float.compare(scores[a], scores[b]) : Integer.compare(b, a));
+            for (int doc = matched.nextSetBit(0); doc >= 0; doc = matched.nextSetBit(doc + 1)) {
+                top.offer(doc);
+                if (top.size() > maxResults) {
+                    top.poll();
+                }
+            }
+            Hit[] hits = new Hit[top.size()];
+            for (int i = hits.length - 1; i >= 0; i--) {
+                int doc = top.poll();
+                hits[i] = new Hit(ids[doc], scores[doc], SegmentCodec.decompress(records[doc]));
+            }
+            return List.of(hits);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void delete(String id) {
+        Integer doc = docNumbers.remove(id);
+        if (doc == null) {
+            return;
+        }
+        deleted.set(doc);
+        deletedCount++;
+        totalLength -= lengths[doc];
+        records[doc] = null;
+    }
+
+    /**
+     * 标记删除的文档过多时重新编号,倒排表按新编号过滤,文档号仍保持递增
+     */
+    private void compactIfNeeded() {
+        if (deletedCount <= Math.max(MIN_COMPACT, docNumbers.size())) {
+            return;
+        }
+        int[] remap = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (deleted.get(doc)) {
+                remap[doc] = -1;
+                continue;
+            }
+            remap[doc] = next;
+            ids[next] = ids[doc];
+            lengths[next] = lengths[doc];
+            records[next] = records[doc];
+            docNumbers.put(ids[next], next);
+            next++;
+        }
+        Arrays.fill(ids, next, docCount, null);
+        Arrays.fill(records, next, docCount, null);
+        postings.values().removeIf(list -> list.remap(remap) == 0);
+        deleted.clear();
+        log.debug("压缩倒排索引: 移除 {} 个已删除文档, 剩余 {} 个", deletedCount, next);
+        deletedCount = 0;
+        docCount = next;
+    }
+
+    /**
+     * 一个词的倒排表: 文档号和词频
+     */
+    private static final class Postings {
+
+        private int[] docs = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        int remap(int[] remap) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int doc = remap[docs[i]];
+                if (doc >= 0) {
+                    docs[kept] = doc;
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            return kept;
+        }
+    }
+}
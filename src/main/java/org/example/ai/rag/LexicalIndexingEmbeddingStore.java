@@ -0,0 +1,109 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 写入向量存储的同时维护倒排索引的装饰器,摄取和文件级替换(removeAll)无需感知倒排索引.
+ * 检索直接转发给被装饰的向量存储
+ */
+public class LexicalIndexingEmbeddingStore implements EmbeddingStore<TextSegment>, AutoCloseable {
+
+    private final EmbeddingStore<TextSegment> delegate;
+    private final LexicalIndex index;
+
+    public LexicalIndexingEmbeddingStore(EmbeddingStore<TextSegment> delegate, LexicalIndex index) {
+        this.delegate = delegate;
+        this.index = index;
+    }
+
+    public EmbeddingStore<TextSegment> delegate() {
+        return delegate;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return delegate.add(embedding);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        delegate.add(id, embedding);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = delegate.add(embedding, textSegment);
+        index.add(id, textSegment);
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return delegate.addAll(embeddings);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> embedded) {
+        List<String> ids = delegate.addAll(embeddings, embedded);
+        indexAll(ids, embedded);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        delegate.addAll(ids, embeddings, embedded);
+        indexAll(ids, embedded);
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        delegate.removeAll(ids);
+        index.remove(ids);
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        delegate.removeAll(filter);
+        index.removeAll(filter);
+    }
+
+    @Override
+    public void removeAll() {
+        delegate.removeAll();
+        index.clear();
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        return delegate.search(request);
+    }
+
+    /**
+     * 被装饰的存储有close方法时(进程内存储写入最后一次快照)转发,由Spring在销毁Bean时调用
+     */
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        } else if (delegate instanceof SnapshottingEmbeddingStore snapshotting) {
+            snapshotting.close();
+        }
+    }
+
+    private void indexAll(List<String> ids, List<TextSegment> embedded) {
+        if (embedded == null || ids == null) {
+            return;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            index.add(ids.get(i), embedded.get(i));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.ai.rag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 倒排索引的分词器.
+ * 中日韩文字没有空格分词,连续的中日韩字符按相邻两字切分(单字成段时保留单字),不依赖词典;
+ * 其他字母数字按标识符整体保留(类名、配置键、错误码中的.、_、-、::不拆开),同时拆出各部分和驼峰子词,
+ * 例如"rag.vector.store.type"产生整体以及rag、vector、store、type,"NullPointerException"产生整体以及null、pointer、exception.
+ * 全部转为小写,单个拉丁字母丢弃
+ */
+final class LexicalTokenizer {
+
+    /**
+     * 查询中的单个词是否像代码标识符: 驼峰、含.、_、::、#、字母数字混合或全大写
+     */
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][\\w$]*(?:(?:\\.|::|#|-|/)[\\w$]+)*(?:\\(\\))?");
+    private static final Pattern IDENTIFIER_SIGNAL = Pattern.compile(
+            ".*(?:[a-z][A-Z]|[._#$]|::|[A-Za-z]\\d|\\d[A-Za-z]|\\(\\)).*|[A-Z][A-Z0-9_]{2,}");
+
+    private LexicalTokenizer() {
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int c = text.codePointAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < length && isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                addCjk(text.substring(start, i), tokens);
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                int start = i;
+                while (i < length) {
+                    int ch = text.codePointAt(i);
+                    if (Character.isLetterOrDigit(ch) && !isCjk(ch) || ch == '_' || ch == '$') {
+                        i += Character.charCount(ch);
+                    } else if (isJoiner(text, i)) {
+                        i += text.startsWith("::", i) ? 2 : 1;
+                    } else {
+                        break;
+                    }
+                }
+                addWord(text.substring(start, i), tokens);
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 查询由不超过3个标识符组成且至少一个有明显的代码特征时,视为只需精确匹配的查询
+     */
+    static boolean isIdentifierQuery(String query) {
+        if (query == null) {
+            return false;
+        }
+        String trimmed = query.strip();
+        if (trimmed.isEmpty() || trimmed.length() > 120) {
+            return false;
+        }
+        String[] words = trimmed.split("\\s+");
+        if (words.length > 3) {
+            return false;
+        }
+        boolean signal = false;
+        for (String word : words) {
+            if (!IDENTIFIER.matcher(word).matches()) {
+                return false;
+            }
+            signal |= IDENTIFIER_SIGNAL.matcher(word).matches();
+        }
+        return signal;
+    }
+
+    /**
+     * .、-、::、/、#两侧都是字母数字时作为标识符的一部分
+     */
+    private static boolean isJoiner(String text, int i) {
+        char c = text.charAt(i);
+        int width = text.startsWith("::", i) ? 2 : 1;
+        if (c != '.' && c != '-' && c != '/' && c != '#' && width == 1) {
+            return false;
+        }
+        if (i == 0 || i + width >= text.length()) {
+            return false;
+        }
+        int before = text.codePointBefore(i);
+        int after = text.codePointAt(i + width);
+        return Character.isLetterOrDigit(before) && !isCjk(before) && Character.isLetterOrDigit(after) && !isCjk(after);
+    }
+
+    private static void addWord(String word, List<String> tokens) {
+        String lower = word.toLowerCase(Locale.ROOT);
+        if (lower.length() > 1 || Character.isDigit(lower.charAt(0))) {
+            tokens.add(lower);
+        }
+        String[] parts = word.split("::|[._\\-/#$]+");
+        if (parts.length > 1) {
+            for (String part : parts) {
+                if (!part.isEmpty()) {
+                    addParts(part, tokens, true);
+                }
+            }
+        } else {
+            addParts(word, tokens, false);
+        }
+    }
+
+    /**
+     * 驼峰和字母数字边界处拆出子词,只有一个子词且已经作为整体加入时不重复加入
+     */
+    private static void addParts(String part, List<String> tokens, boolean includeWhole) {
+        List<String> subwords = splitCamelCase(part);
+        if (includeWhole || subwords.size() > 1) {
+            if (includeWhole) {
+                addToken(part, tokens);
+            }
+            if (subwords.size() > 1) {
+                for (String subword : subwords) {
+                    addToken(subword, tokens);
+                }
+            }
+        }
+    }
+
+    private static void addToken(String token, List<String> tokens) {
+        if (token.length() > 1 || Character.isDigit(token.charAt(0))) {
+            tokens.add(token.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static List<String> splitCamelCase(String word) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i < word.length(); i++) {
+            char previous = word.charAt(i - 1);
+            char current = word.charAt(i);
+            boolean boundary = Character.isLowerCase(previous) && Character.isUpperCase(current)
+                    || Character.isLetter(previous) != Character.isLetter(current)
+                    // "HTTPServer"在S之前切分
+                    || Character.isUpperCase(previous) && Character.isUpperCase(current)
+                    && i + 1 < word.length() && Character.isLowerCase(word.charAt(i + 1));
+            if (boundary) {
+                parts.add(word.substring(start, i));
+                start = i;
+            }
+        }
+        parts.add(word.substring(start));
+        return parts;
+    }
+
+    private static void addCjk(String run, List<String> tokens) {
+        int[] codePoints = run.codePoints().toArray();
+        if (codePoints.length == 1) {
+            tokens.add(run);
+            return;
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            tokens.add(new String(codePoints, i, 2));
+        }
+    }
+
+    private static boolean isCjk(int c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+}
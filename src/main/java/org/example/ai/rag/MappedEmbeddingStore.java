@@ -0,0 +1,539 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 支持二进制快照的内存向量存储.
+ * 新写入的向量连续存放在堆内的一个float数组中;从快照加载的向量留在内存映射的快照文件里,文本和元数据在命中时才解码,
+ * 启动时不需要读入全部向量.快照写入成功后堆内向量切换为引用新快照.
+ * 检索为暴力余弦相似度扫描: 按块计算点积(SimilarityKernel),映射区的向量按块批量复制后计算,
+ * 每块的分数立即并入固定大小的最小堆,不为全部向量生成中间结果.
+ */
+@Slf4j
+public class MappedEmbeddingStore extends SnapshottingEmbeddingStore {
+
+    /**
+     * 每次计算点积的向量数
+     */
+    private static final int BLOCK = 256;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final SimilarityKernel kernel;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * 向量ID到位置: 非负数为堆内槽位,负数-i-1为快照中的第i条
+     */
+    private final Map<String, Integer> locations = new HashMap<>();
+    private int dimension;
+
+    private int slotCount;
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+    private float[] vectors = new float[0];
+    private float[] norms = new float[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private int[] versions = new int[0];
+
+    private VectorStoreSnapshot snapshot;
+    private String[] snapshotIds = new String[0];
+    /**
+     * 快照中仍然有效(未被删除或替换)的条目
+     */
+    private BitSet snapshotLive = new BitSet();
+
+    public MappedEmbeddingStore() {
+        this(SimilarityKernel.get());
+    }
+
+    MappedEmbeddingStore(SimilarityKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        boolean changed = false;
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                changed |= removeEntry(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (changed) {
+            modified();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        List<String> matched = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotCount; slot++) {
+                TextSegment segment = segments[slot];
+                if (ids[slot] != null && segment != null && filter.test(segment.metadata())) {
+                    matched.add(ids[slot]);
+                }
+            }
+            for (int i = snapshotLive.nextSetBit(0); i >= 0; i = snapshotLive.nextSetBit(i + 1)) {
+                TextSegment segment = snapshot.segment(i);
+                if (segment != null && filter.test(segment.metadata())) {
+                    matched.add(snapshotIds[i]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        removeAll(matched);
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            if (locations.isEmpty() && slotCount == 0 && snapshot == null) {
+                return;
+            }
+            locations.clear();
+            dimension = 0;
+            slotCount = 0;
+            freeCount = 0;
+            resize(0);
+            snapshot = null;
+            snapshotIds = new String[0];
+            snapshotLive = new BitSet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        modified();
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector();
+        float queryNorm = VectorStoreSnapshot.norm(query);
+        Filter filter = request.filter();
+        TopK top = new TopK(Math.max(1, request.maxResults()));
+        // 相关度(cos+1)/2随余弦单调,扫描时直接比较余弦
+        double minCosine = request.minScore() * 2 - 1;
+        lock.readLock().lock();
+        try {
+            if (query.length != dimension) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            float[] dots = new float[BLOCK];
+            for (int start = 0; start < slotCount; start += BLOCK) {
+                int count = Math.min(BLOCK, slotCount - start);
+                kernel.dots(query, vectors, start * dimension, count, dimension, dots);
+                for (int j = 0; j < count; j++) {
+                    int slot = start + j;
+                    if (ids[slot] != null) {
+                        offer(top, slot, cosine(dots[j], norms[slot], queryNorm), minCosine, filter);
+                    }
+                }
+            }
+            if (snapshot != null) {
+                float[] block = new float[BLOCK * dimension];
+                int size = snapshot.size();
+                for (int start = snapshotLive.nextSetBit(0); start >= 0 && start < size;
+                     start = snapshotLive.nextSetBit(start + BLOCK)) {
+                    int count = Math.min(BLOCK, size - start);
+                    snapshot.vectors(start, count, block);
+                    kernel.dots(query, block, 0, count, dimension, dots);
+                    for (int j = 0; j < count; j++) {
+                        int index = start + j;
+                        if (snapshotLive.get(index)) {
+                            offer(top, -index - 1, cosine(dots[j], snapshot.norm(index), queryNorm), minCosine, filter);
+                        }
+                    }
+                }
+            }
+            int[] found = top.sortedLocations();
+            double[] cosines = top.sortedScores();
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(found.length);
+            for (int i = 0; i < found.length; i++) {
+                int location = found[i];
+                matches.add(new EmbeddingMatch<>(RelevanceScore.fromCosineSimilarity(cosines[i]), id(location),
+                        Embedding.from(vector(location)), segment(location)));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前存储的全部向量ID
+     */
+    @Override
+    public Set<String> ids() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(locations.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 加载快照中的全部向量,向量引用映射区,不复制到堆内
+     *
+     * @param snapshot 已映射的快照
+     */
+    @Override
+    public void load(VectorStoreSnapshot snapshot) {
+        String[] loaded = snapshot.ids();
+        lock.writeLock().lock();
+        try {
+            if (loaded.length > 0) {
+                checkDimension(snapshot.dimension());
+            }
+            if (this.snapshot != null) {
+                // 再次加载时先把旧快照中的条目复制到堆内
+                for (int i = snapshotLive.nextSetBit(0); i >= 0; i = snapshotLive.nextSetBit(i + 1)) {
+                    store(snapshotIds[i], this.snapshot.vector(i), this.snapshot.segment(i));
+                }
+            }
+            BitSet live = new BitSet(loaded.length);
+            for (int i = 0; i < loaded.length; i++) {
+                Integer previous = locations.put(loaded[i], -i - 1);
+                if (previous != null && previous >= 0) {
+                    release(previous);
+                }
+                live.set(i);
+            }
+            this.snapshot = snapshot;
+            this.snapshotIds = loaded;
+            this.snapshotLive = live;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把当前全部向量写入快照文件,写入成功后堆内的向量切换为引用新快照
+     *
+     * @param path   快照文件
+     * @param model  向量模型名
+     * @param states 处理状态
+     */
+    @Override
+    public void save(Path path, String model, List<DocumentProcessingState> states) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Saved> copy = new ArrayList<>();
+        int snapshotDimension;
+        lock.readLock().lock();
+        try {
+            snapshotDimension = dimension;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (ids[slot] != null) {
+                    copy.add(new Saved(ids[slot], slot, versions[slot], vector(slot), segments[slot], null, -1));
+                }
+            }
+            for (int i = snapshotLive.nextSetBit(0); i >= 0; i = snapshotLive.nextSetBit(i + 1)) {
+                copy.add(new Saved(snapshotIds[i], -1, 0, null, null, snapshot, i));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        VectorStoreSnapshot.write(path, model, snapshotDimension, states, new VectorStoreSnapshot.Source() {
+            @Override
+            public int size() {
+                return copy.size();
+            }
+
+            @Override
+            public String id(int index) {
+                return copy.get(index).id();
+            }
+
+            @Override
+            public float[] vector(int index) {
+                Saved saved = copy.get(index);
+                return saved.vector() != null ? saved.vector() : saved.snapshot().vector(saved.snapshotIndex());
+            }
+
+            @Override
+            public TextSegment segment(int index) {
+                Saved saved = copy.get(index);
+                return saved.snapshot() == null ? saved.segment() : saved.snapshot().segment(saved.snapshotIndex());
+            }
+        });
+        VectorStoreSnapshot written = VectorStoreSnapshot.open(path);
+        lock.writeLock().lock();
+        try {
+            BitSet live = new BitSet(copy.size());
+            String[] writtenIds = new String[copy.size()];
+            for (int i = 0; i < copy.size(); i++) {
+                Saved saved = copy.get(i);
+                writtenIds[i] = saved.id();
+                Integer location = locations.get(saved.id());
+                // 写入期间被替换或删除的条目保持不变,它在新快照中的副本不再有效
+                boolean unchanged = saved.slot() >= 0
+                        ? location != null && location == saved.slot() && versions[saved.slot()] == saved.version()
+                        : location != null && location == -saved.snapshotIndex() - 1 && snapshot == saved.snapshot();
+                if (unchanged) {
+                    if (saved.slot() >= 0) {
+                        release(saved.slot());
+                    }
+                    locations.put(saved.id(), -i - 1);
+                    live.set(i);
+                }
+            }
+            snapshot = written;
+            snapshotIds = writtenIds;
+            snapshotLive = live;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("写入向量快照: {} 条, 耗时 {} ms, {}", copy.size(), System.currentTimeMillis() - start, path);
+    }
+
+    @Override
+    protected void put(String id, float[] vector, TextSegment segment) {
+        lock.writeLock().lock();
+        try {
+            checkDimension(vector.length);
+            store(id, vector, segment);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写入堆内槽位,同一ID已存在时原位替换,调用方持有写锁
+     */
+    private void store(String id, float[] vector, TextSegment segment) {
+        Integer location = locations.get(id);
+        int slot;
+        if (location != null && location >= 0) {
+            slot = location;
+        } else {
+            if (location != null) {
+                snapshotLive.clear(-location - 1);
+            }
+            slot = allocate();
+            locations.put(id, slot);
+        }
+        System.arraycopy(vector, 0, vectors, slot * dimension, dimension);
+        norms[slot] = VectorStoreSnapshot.norm(vector);
+        ids[slot] = id;
+        segments[slot] = segment;
+        versions[slot]++;
+    }
+
+    private boolean removeEntry(String id) {
+        Integer location = locations.remove(id);
+        if (location == null) {
+            return false;
+        }
+        if (location >= 0) {
+            release(location);
+        } else {
+            snapshotLive.clear(-location - 1);
+        }
+        return true;
+    }
+
+    private void checkDimension(int length) {
+        if (dimension == 0) {
+            dimension = length;
+            resize(ids.length);
+        } else if (length != dimension) {
+            throw new IllegalArgumentException("向量维度不一致: " + length + " != " + dimension);
+        }
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == ids.length) {
+            resize(Math.max(INITIAL_CAPACITY, ids.length * 2));
+        }
+        return slotCount++;
+    }
+
+    private void release(int slot) {
+        ids[slot] = null;
+        segments[slot] = null;
+        versions[slot]++;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(64, freeCount * 2));
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void resize(int capacity) {
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        norms = Arrays.copyOf(norms, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+    }
+
+    /**
+     * 分数高于堆中最低分时才检查过滤条件(可能需要从快照解码元数据)
+     */
+    private void offer(TopK top, int location, double cosine, double minCosine, Filter filter) {
+        if (cosine < minCosine || !top.accepts(cosine)) {
+            return;
+        }
+        if (filter != null) {
+            TextSegment segment = segment(location);
+            if (segment == null || !filter.test(segment.metadata())) {
+                return;
+            }
+        }
+        top.add(location, cosine);
+    }
+
+    private String id(int location) {
+        return location >= 0 ? ids[location] : snapshotIds[-location - 1];
+    }
+
+    private float[] vector(int location) {
+        if (location >= 0) {
+            return Arrays.copyOfRange(vectors, location * dimension, (location + 1) * dimension);
+        }
+        return snapshot.vector(-location - 1);
+    }
+
+    private TextSegment segment(int location) {
+        return location >= 0 ? segments[location] : snapshot.segment(-location - 1);
+    }
+
+    private static double cosine(float dot, float norm, float queryNorm) {
+        double denominator = (double) norm * queryNorm;
+        return denominator == 0 ? 0 : dot / denominator;
+    }
+
+    /**
+     * 保留分数最高的k个位置的最小堆,用基本类型数组存放,扫描过程中不创建对象
+     */
+    static final class TopK {
+
+        private final int[] locations;
+        private final double[] scores;
+        private int size;
+        private boolean sorted;
+
+        TopK(int k) {
+            this.locations = new int[k];
+            this.scores = new double[k];
+        }
+
+        boolean accepts(double score) {
+            return size < scores.length || score > scores[0];
+        }
+
+        void add(int location, double score) {
+            if (size < scores.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (scores[parent] <= score) {
+                        break;
+                    }
+                    locations[i] = locations[parent];
+                    scores[i] = scores[parent];
+                    i = parent;
+                }
+                locations[i] = location;
+                scores[i] = score;
+            } else if (score > scores[0]) {
+                siftDown(location, score);
+            }
+        }
+
+        /**
+         * 按分数降序排列的位置,排序之后不能再加入
+         */
+        int[] sortedLocations() {
+            sort();
+            return Arrays.copyOf(locations, size);
+        }
+
+        double[] sortedScores() {
+            sort();
+            return Arrays.copyOf(scores, size);
+        }
+
+        /**
+         * 堆排序: 依次把堆顶(最低分)换到末尾,得到降序数组
+         */
+        private void sort() {
+            if (sorted) {
+                return;
+            }
+            int n = size;
+            for (int end = n - 1; end > 0; end--) {
+                int location = locations[end];
+                double score = scores[end];
+                locations[end] = locations[0];
+                scores[end] = scores[0];
+                size = end;
+                siftDown(location, score);
+            }
+            size = n;
+            sorted = true;
+        }
+
+        private void siftDown(int location, double score) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (scores[child] >= score) {
+                    break;
+                }
+                locations[i] = locations[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            locations[i] = location;
+            scores[i] = score;
+        }
+    }
+
+    private record Saved(String id, int slot, int version, float[] vector, TextSegment segment,
+                         VectorStoreSnapshot snapshot, int snapshotIndex) {
+    }
+}
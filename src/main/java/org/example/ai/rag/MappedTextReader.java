@@ -0,0 +1,178 @@
+package org.example.ai.rag;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 基于内存映射的大文本读取器.
+ * 按窗口映射文件,由CharsetSniffer探测编码后用TextDecoder直接解码到池化的CharBuffer,
+ * 供StreamingTextSplitter按块消费;整个过程不经过InputStreamReader的中间缓冲,也不产生中间String.
+ * 非法字节按替换字符解码,编码探测失误不会导致整个文件处理失败;开头全是ASCII的GBK文件在解码中途改用GB18030.
+ * CharBuffer打开时借出、关闭时归还,每个文件一个虚拟线程时也能复用.
+ */
+public class MappedTextReader implements StreamingTextSplitter.TextChunkSource, Closeable {
+
+    /**
+     * 单个映射窗口的最大字节数,同时规避MappedByteBuffer的2GB上限
+     */
+    static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final int POOL_CAPACITY = 16;
+    private static final BlockingQueue<CharBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(POOL_CAPACITY);
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private TextDecoder decoder;
+    private final long windowSize;
+
+    private CharBuffer buffer;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean finished;
+
+    MappedTextReader(Path path, int bufferSize, long windowSize) throws IOException {
+        this(path, bufferSize, windowSize, null, 0);
+    }
+
+    /**
+     * @param charset  文件编码,为null时从文件开头探测
+     * @param position 开始解码的字节偏移,必须位于字符边界
+     */
+    MappedTextReader(Path path, int bufferSize, long windowSize, Charset charset, long position) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.fileSize = channel.size();
+            this.windowSize = Math.max(CharsetSniffer.SAMPLE_SIZE, windowSize);
+            if (charset == null) {
+                mapWindow(0);
+                CharsetSniffer.Detection detection = CharsetSniffer.detect(window);
+                window.position(detection.bomLength());
+                this.decoder = new TextDecoder(detection.charset(), detection.bomLength() == 0);
+            } else {
+                // 检查点记录的UTF-8可能是开头全是ASCII时的探测结果,仍允许回退
+                mapWindow(Math.min(position, fileSize));
+                this.decoder = new TextDecoder(charset, true);
+            }
+            this.buffer = borrowBuffer(Math.max(1024, bufferSize));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开文件并探测编码
+     *
+     * @param path       文件路径
+     * @param bufferSize 每次解码的字符数
+     * @return 读取器
+     */
+    public static MappedTextReader open(Path path, int bufferSize) throws IOException {
+        return new MappedTextReader(path, bufferSize, MAP_WINDOW_SIZE);
+    }
+
+    /**
+     * 从检查点记录的字节偏移继续读取,使用记录的编码,不再探测
+     *
+     * @param path       文件路径
+     * @param bufferSize 每次解码的字符数
+     * @param charset    文件编码
+     * @param position   字节偏移,取自之前读取时的position()
+     * @return 读取器
+     */
+    public static MappedTextReader open(Path path, int bufferSize, Charset charset, long position) throws IOException {
+        return new MappedTextReader(path, bufferSize, MAP_WINDOW_SIZE, charset, position);
+    }
+
+    /**
+     * 已解码的字节偏移.解码器只消费完整的字符,因此在两次next()之间总是位于字符边界
+     */
+    public long position() {
+        return window == null ? fileSize : windowStart + window.position();
+    }
+
+    /**
+     * 当前解码使用的编码,解码中途从UTF-8回退后为GB18030
+     */
+    public Charset charset() {
+        return decoder.charset();
+    }
+
+    /**
+     * 解码下一块文本,返回的CharBuffer在下一次调用前有效
+     *
+     * @return 文本块,读完返回null
+     */
+    @Override
+    public CharBuffer next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        buffer.clear();
+        while (true) {
+            boolean lastWindow = windowStart + window.limit() >= fileSize;
+            CoderResult result = decoder.decode(window, buffer, lastWindow);
+            if (result.isOverflow()) {
+                break;
+            }
+            if (!lastWindow) {
+                // 从窗口中未消费的字节处重新映射,跨窗口被截断的多字节字符由下一个窗口完整解码
+                mapWindow(windowStart + window.position());
+                continue;
+            }
+            if (decoder.flush(buffer).isOverflow()) {
+                break;
+            }
+            finished = true;
+            break;
+        }
+        buffer.flip();
+        if (!buffer.hasRemaining() && finished) {
+            return null;
+        }
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            releaseBuffer(buffer);
+            buffer = null;
+        }
+        if (decoder != null) {
+            decoder.close();
+            decoder = null;
+        }
+        // MappedByteBuffer没有公开的unmap方法,丢弃引用后由GC回收映射
+        window = null;
+        channel.close();
+    }
+
+    private void mapWindow(long position) throws IOException {
+        long size = Math.min(windowSize, fileSize - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        windowStart = position;
+    }
+
+    private static CharBuffer borrowBuffer(int capacity) {
+        CharBuffer pooled = BUFFER_POOL.poll();
+        if (pooled != null && pooled.capacity() == capacity) {
+            return pooled;
+        }
+        return CharBuffer.allocate(capacity);
+    }
+
+    private static void releaseBuffer(CharBuffer buffer) {
+        buffer.clear();
+        BUFFER_POOL.offer(buffer);
+    }
+}
@@ -0,0 +1,177 @@
+package org.example.ai.rag;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 基于SimHash的近重复分段检测.
+ * 每个分段按字符4-gram计算64位SimHash,相似度定义为 1 - 汉明距离/64;
+ * 按抽屉原理把签名切成(最大距离+1)段,任一段完全相同的已有签名才作为候选,再精确比较汉明距离.
+ * 索引中每个分段只保存一个long签名和来源文件,来源文件重新摄取或删除时释放其全部签名.
+ * 线程安全.
+ */
+public class NearDuplicateDetector {
+
+    private static final int SHINGLE_SIZE = 4;
+
+    private final int maxDistance;
+    private final int minLength;
+    private final int bandCount;
+    private final int bandWidth;
+    private final List<Map<Long, List<Entry>>> bands = new ArrayList<>();
+    private final Map<String, List<Entry>> entriesBySource = new HashMap<>();
+
+    /**
+     * @param similarity 判定为重复的最低相似度(0~1),如0.95表示64位签名最多相差3位
+     * @param minLength  参与去重的最短文本长度,过短的文本签名不可靠,始终保留
+     */
+    public NearDuplicateDetector(double similarity, int minLength) {
+        double clamped = Math.max(0.5, Math.min(1.0, similarity));
+        this.maxDistance = (int) Math.floor((1 - clamped) * 64 + 1e-9);
+        this.minLength = Math.max(1, minLength);
+        this.bandCount = maxDistance + 1;
+        this.bandWidth = (int) Math.ceil(64.0 / bandCount);
+        for (int i = 0; i < bandCount; i++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * 检查分段是否与已登记的分段近重复,不重复时登记该分段
+     *
+     * @param source 分段所属文件
+     * @param text   分段文本
+     * @return 重复时返回已有分段的来源文件,否则返回null
+     */
+    public synchronized String checkAndRegister(String source, CharSequence text) {
+        if (text.length() < minLength) {
+            return null;
+        }
+        long signature = simHash(text);
+        for (int band = 0; band < bandCount; band++) {
+            List<Entry> candidates = bands.get(band).get(bandKey(signature, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (Entry candidate : candidates) {
+                if (Long.bitCount(candidate.signature() ^ signature) <= maxDistance) {
+                    return candidate.source();
+                }
+            }
+        }
+        Entry entry = new Entry(signature, source);
+        for (int band = 0; band < bandCount; band++) {
+            bands.get(band).computeIfAbsent(bandKey(signature, band), k -> new ArrayList<>(1)).add(entry);
+        }
+        entriesBySource.computeIfAbsent(source, k -> new ArrayList<>()).add(entry);
+        return null;
+    }
+
+    /**
+     * 释放某个文件登记的全部签名,用于文件重新摄取、摄取失败或被删除
+     *
+     * @param source 文件
+     */
+    public synchronized void release(String source) {
+        List<Entry> entries = entriesBySource.remove(source);
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            for (int band = 0; band < bandCount; band++) {
+                long key = bandKey(entry.signature(), band);
+                List<Entry> list = bands.get(band).get(key);
+                if (list != null) {
+                    list.remove(entry);
+                    if (list.isEmpty()) {
+                        bands.get(band).remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 已登记的分段数
+     */
+    public synchronized int size() {
+        return entriesBySource.values().stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * 两个签名的相似度
+     */
+    public static double similarity(long a, long b) {
+        return 1 - Long.bitCount(a ^ b) / 64.0;
+    }
+
+    /**
+     * 计算64位SimHash: 文本转小写并压缩空白后取字符4-gram,每个gram的64位哈希按位投票
+     */
+    public static long simHash(CharSequence text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean lastSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                if (!lastSpace && !normalized.isEmpty()) {
+                    normalized.append(' ');
+                }
+                lastSpace = true;
+            } else {
+                normalized.append(Character.toLowerCase(ch));
+                lastSpace = false;
+            }
+        }
+        int[] votes = new int[64];
+        int grams = Math.max(1, normalized.length() - SHINGLE_SIZE + 1);
+        for (int start = 0; start < grams; start++) {
+            long hash = hashGram(normalized, start, Math.min(normalized.length(), start + SHINGLE_SIZE));
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * FNV-1a 64位哈希,再做一次murmur风格的混合使各位分布均匀
+     */
+    private static long hashGram(CharSequence text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private long bandKey(long signature, int band) {
+        int shift = band * bandWidth;
+        int width = Math.min(bandWidth, 64 - shift);
+        long mask = width >= 64 ? -1L : (1L << width) - 1;
+        return ((long) band << 56) ^ ((signature >>> shift) & mask);
+    }
+
+    private record Entry(long signature, String source) {
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "NearDuplicateDetector(maxDistance=%d, bands=%d)", maxDistance, bandCount);
+    }
+}
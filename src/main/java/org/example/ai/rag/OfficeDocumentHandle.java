@@ -0,0 +1,104 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.extractor.ExtractorFactory;
+import org.apache.poi.extractor.POITextExtractor;
+import org.apache.poi.poifs.crypt.EncryptionInfo;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Office文档句柄
+ * 只读文件头8个字节即可区分OOXML(ZIP,未加密)与OLE2容器;加密的docx/xlsx会被包装成带EncryptionInfo的OLE2容器.
+ * 旧版doc/xls的加密标记位于文档流内部,需要解析才能确定,此时解析得到的文本会被缓存供load()复用.
+ */
+@Slf4j
+class OfficeDocumentHandle implements DocumentHandle {
+
+    private static final byte[] OLE2_MAGIC = {
+            (byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1
+    };
+
+    private final Path path;
+    private POIFSFileSystem fileSystem;
+    private Boolean encrypted;
+    private String text;
+
+    OfficeDocumentHandle(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public boolean isEncrypted() throws IOException {
+        if (encrypted == null) {
+            if (!isOle2Container()) {
+                encrypted = false;
+            } else {
+                fileSystem = new POIFSFileSystem(path.toFile(), true);
+                encrypted = fileSystem.getRoot().hasEntry(EncryptionInfo.ENCRYPTION_INFO_ENTRY) || !extractText();
+            }
+        }
+        return encrypted;
+    }
+
+    @Override
+    public Document load() throws IOException {
+        if (isEncrypted()) {
+            return null;
+        }
+        if (text == null && !extractText()) {
+            encrypted = true;
+            return null;
+        }
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        return Document.from(text, DocumentHandle.fileMetadata(path));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileSystem != null) {
+            fileSystem.close();
+            fileSystem = null;
+        }
+    }
+
+    /**
+     * 提取文本并缓存,OLE2文件复用已打开的POIFSFileSystem,OOXML文件直接从文件打开
+     *
+     * @return 文档受密码保护无法提取时返回false
+     */
+    private boolean extractText() throws IOException {
+        try {
+            POITextExtractor extractor = fileSystem != null
+                    ? ExtractorFactory.createExtractor(fileSystem)
+                    : ExtractorFactory.createExtractor(path.toFile());
+            if (fileSystem != null) {
+                // 文件系统由句柄负责关闭
+                extractor.setCloseFilesystem(false);
+            }
+            try (extractor) {
+                text = extractor.getText();
+            }
+            return true;
+        } catch (EncryptedDocumentException e) {
+            log.debug("Office文档受密码保护: {}", path);
+            return false;
+        }
+    }
+
+    private boolean isOle2Container() throws IOException {
+        byte[] header = new byte[OLE2_MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.readNBytes(header, 0, header.length) == header.length && Arrays.equals(header, OLE2_MAGIC);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * PDF文档句柄
+ * 加密字典(/Encrypt)总是出现在trailer中,线性化文件还会出现在文件头部的首页trailer中,
+ * 因此先只读取头尾各PROBE_BYTES字节判断;未命中时才解析文件,并复用同一个PDDocument提取文本.
+ */
+@Slf4j
+class PdfDocumentHandle implements DocumentHandle {
+
+    private static final int PROBE_BYTES = 4096;
+    private static final byte[] ENCRYPT_MARKER = "/Encrypt".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path path;
+    private PDDocument document;
+    private Boolean encrypted;
+
+    PdfDocumentHandle(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public boolean isEncrypted() throws IOException {
+        if (encrypted == null) {
+            if (probeEncryptMarker()) {
+                encrypted = true;
+            } else {
+                try {
+                    encrypted = document().isEncrypted();
+                } catch (InvalidPasswordException e) {
+                    log.debug("PDF文件受密码保护: {}", path);
+                    encrypted = true;
+                }
+            }
+        }
+        return encrypted;
+    }
+
+    @Override
+    public Document load() throws IOException {
+        if (isEncrypted()) {
+            return null;
+        }
+        String text = new PDFTextStripper().getText(document());
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        return Document.from(text, DocumentHandle.fileMetadata(path));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (document != null) {
+            document.close();
+            document = null;
+        }
+    }
+
+    /**
+     * 从文件直接加载(随机访问),不像InputStream方式那样先把整个文件复制到内存
+     */
+    private PDDocument document() throws IOException {
+        if (document == null) {
+            document = PDDocument.load(path.toFile());
+        }
+        return document;
+    }
+
+    /**
+     * 读取文件头尾字节,查找/Encrypt标记
+     */
+    private boolean probeEncryptMarker() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= PROBE_BYTES * 2L) {
+                return contains(read(channel, 0, (int) size));
+            }
+            return contains(read(channel, 0, PROBE_BYTES)) || contains(read(channel, size - PROBE_BYTES, PROBE_BYTES));
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1) {
+            // 读满为止
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static boolean contains(ByteBuffer buffer) {
+        int limit = buffer.limit() - ENCRYPT_MARKER.length;
+        outer:
+        for (int i = 0; i <= limit; i++) {
+            for (int j = 0; j < ENCRYPT_MARKER.length; j++) {
+                if (buffer.get(i + j) != ENCRYPT_MARKER[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
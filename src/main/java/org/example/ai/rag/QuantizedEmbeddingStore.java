@@ -0,0 +1,487 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 标量量化的紧凑内存向量存储.
+ * 每个向量按自身最大绝对值量化为int8,量化码连续存放在一个byte数组中,每条只额外保存缩放系数和量化后的范数,
+ * 不再为每条保留float[]、Embedding和TextSegment对象.文本和元数据经SegmentCodec压缩,命中时才解压.
+ * 检索分两步: 先用int8查询向量对全部量化码做整数点积的近似扫描,保留maxResults x rerankFactor个候选;
+ * 再用原始向量对候选精确重排.原始向量在写入快照之前保留在堆内,写入之后从内存映射的快照读取,文本也改为从快照解码,
+ * 此时堆内每条只剩量化码;没有开启快照时不保留原始向量,重排使用float查询向量与量化码的非对称点积.
+ */
+@Slf4j
+public class QuantizedEmbeddingStore extends SnapshottingEmbeddingStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int rerankFactor;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private volatile boolean retainVectors;
+
+    private int dimension;
+    private int slotCount;
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private float[] codeNorms = new float[0];
+    private String[] ids = new String[0];
+    private int[] versions = new int[0];
+    /**
+     * 尚未写入快照的原始向量,只在开启快照时保留
+     */
+    private float[][] vectors = new float[0][];
+    /**
+     * 尚未写入快照的压缩文本和元数据
+     */
+    private byte[][] records = new byte[0][];
+    private VectorStoreSnapshot[] snapshots = new VectorStoreSnapshot[0];
+    private int[] snapshotIndexes = new int[0];
+
+    /**
+     * @param rerankFactor 近似扫描保留maxResults的多少倍候选用于精确重排
+     */
+    public QuantizedEmbeddingStore(int rerankFactor) {
+        this.rerankFactor = Math.max(1, rerankFactor);
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        boolean changed = false;
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer slot = slots.remove(id);
+                if (slot != null) {
+                    release(slot);
+                    changed = true;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (changed) {
+            modified();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        List<String> matched = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (ids[slot] == null) {
+                    continue;
+                }
+                TextSegment segment = segment(slot);
+                if (segment != null && filter.test(segment.metadata())) {
+                    matched.add(ids[slot]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        removeAll(matched);
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            if (slots.isEmpty() && slotCount == 0) {
+                return;
+            }
+            slots.clear();
+            dimension = 0;
+            slotCount = 0;
+            freeCount = 0;
+            resize(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        modified();
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector();
+        float queryNorm = VectorStoreSnapshot.norm(query);
+        Quantized quantizedQuery = quantize(query);
+        int maxResults = Math.max(1, request.maxResults());
+        int candidateCount = maxResults * rerankFactor;
+        Filter filter = request.filter();
+        lock.readLock().lock();
+        try {
+            if (query.length != dimension || queryNorm == 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            // 近似扫描: int8点积
+            PriorityQueue<Candidate> top = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+            byte[] queryCodes = quantizedQuery.codes();
+            double queryFactor = quantizedQuery.scale() / quantizedQuery.norm();
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (ids[slot] == null || codeNorms[slot] == 0) {
+                    continue;
+                }
+                double similarity = dot(queryCodes, codes, slot * dimension, dimension)
+                        * queryFactor * scales[slot] / codeNorms[slot];
+                if (top.size() == candidateCount && similarity <= top.peek().similarity()) {
+                    continue;
+                }
+                TextSegment segment = null;
+                if (filter != null) {
+                    segment = segment(slot);
+                    if (segment == null || !filter.test(segment.metadata())) {
+                        continue;
+                    }
+                }
+                top.offer(new Candidate(slot, similarity, segment));
+                if (top.size() > candidateCount) {
+                    top.poll();
+                }
+            }
+            // 精确重排
+            List<Candidate> reranked = new ArrayList<>(top.size());
+            for (Candidate candidate : top) {
+                reranked.add(new Candidate(candidate.slot(), exactSimilarity(candidate.slot(), query, queryNorm),
+                        candidate.segment()));
+            }
+            reranked.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(maxResults);
+            for (Candidate candidate : reranked) {
+                double score = RelevanceScore.fromCosineSimilarity(candidate.similarity());
+                if (matches.size() == maxResults || score < request.minScore()) {
+                    break;
+                }
+                int slot = candidate.slot();
+                TextSegment segment = candidate.segment() != null ? candidate.segment() : segment(slot);
+                matches.add(new EmbeddingMatch<>(score, ids[slot], Embedding.from(vector(slot)), segment));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> ids() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(slots.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 开启快照后新写入的原始向量保留到写入快照为止,用于精确重排
+     */
+    @Override
+    public void enableSnapshots(Path path, String model, Supplier<List<DocumentProcessingState>> states,
+                                Duration quietPeriod) {
+        retainVectors = true;
+        super.enableSnapshots(path, model, states, quietPeriod);
+    }
+
+    /**
+     * 加载快照: 原始向量和文本留在映射区,堆内只保存量化码
+     *
+     * @param snapshot 已映射的快照
+     */
+    @Override
+    public void load(VectorStoreSnapshot snapshot) {
+        long start = System.currentTimeMillis();
+        String[] snapshotIds = snapshot.ids();
+        for (int i = 0; i < snapshotIds.length; i++) {
+            store(snapshotIds[i], quantize(snapshot.vector(i)), null, null, snapshot, i);
+        }
+        log.info("量化向量存储加载快照: {} 条, 堆内约 {} KB, 耗时 {} ms",
+                snapshotIds.length, heapBytes() / 1024, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 把当前全部向量写入快照文件,写入成功后释放堆内的原始向量和压缩文本,改为引用新快照
+     */
+    @Override
+    public void save(Path path, String model, List<DocumentProcessingState> states) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Saved> copy = new ArrayList<>();
+        int snapshotDimension;
+        lock.readLock().lock();
+        try {
+            snapshotDimension = dimension;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (ids[slot] != null) {
+                    // 没有原始向量也不在快照中的条目(开启快照之前写入)只能写入反量化的向量
+                    float[] vector = vectors[slot] != null || snapshots[slot] != null ? vectors[slot] : dequantize(slot);
+                    copy.add(new Saved(slot, versions[slot], ids[slot], vector, records[slot],
+                            snapshots[slot], snapshotIndexes[slot]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        VectorStoreSnapshot.write(path, model, snapshotDimension, states, new VectorStoreSnapshot.Source() {
+            @Override
+            public int size() {
+                return copy.size();
+            }
+
+            @Override
+            public String id(int index) {
+                return copy.get(index).id();
+            }
+
+            @Override
+            public float[] vector(int index) {
+                Saved saved = copy.get(index);
+                return saved.vector() != null ? saved.vector() : saved.snapshot().vector(saved.snapshotIndex());
+            }
+
+            @Override
+            public TextSegment segment(int index) {
+                Saved saved = copy.get(index);
+                if (saved.record() != null) {
+                    return SegmentCodec.decompress(saved.record());
+                }
+                return saved.snapshot() == null ? null : saved.snapshot().segment(saved.snapshotIndex());
+            }
+        });
+        VectorStoreSnapshot snapshot = VectorStoreSnapshot.open(path);
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < copy.size(); i++) {
+                Saved saved = copy.get(i);
+                // 写入期间被替换或删除的条目保持不变
+                if (versions[saved.slot()] == saved.version()) {
+                    vectors[saved.slot()] = null;
+                    records[saved.slot()] = null;
+                    snapshots[saved.slot()] = snapshot;
+                    snapshotIndexes[saved.slot()] = i;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("写入向量快照: {} 条, 堆内约 {} KB, 耗时 {} ms, {}",
+                copy.size(), heapBytes() / 1024, System.currentTimeMillis() - start, path);
+    }
+
+    /**
+     * 估算堆内占用的字节数: 量化码、每条的数组项、尚未写入快照的原始向量和压缩文本,不含ID字符串
+     */
+    public long heapBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = codes.length + (long) ids.length * (3 * Float.BYTES + 3 * Integer.BYTES + 4L * 8);
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (vectors[slot] != null) {
+                    bytes += 16 + (long) vectors[slot].length * Float.BYTES;
+                }
+                if (records[slot] != null) {
+                    bytes += 16 + records[slot].length;
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected void put(String id, float[] vector, TextSegment segment) {
+        store(id, quantize(vector), retainVectors ? vector : null,
+                segment == null ? null : SegmentCodec.compress(segment), null, -1);
+    }
+
+    private void store(String id, Quantized quantized, float[] vector, byte[] record,
+                       VectorStoreSnapshot snapshot, int snapshotIndex) {
+        lock.writeLock().lock();
+        try {
+            if (slots.isEmpty() && slotCount == 0) {
+                dimension = quantized.codes().length;
+            } else if (quantized.codes().length != dimension) {
+                throw new IllegalArgumentException("向量维度不一致: " + quantized.codes().length + " != " + dimension);
+            }
+            Integer existing = slots.get(id);
+            int slot = existing != null ? existing : allocate(id);
+            System.arraycopy(quantized.codes(), 0, codes, slot * dimension, dimension);
+            scales[slot] = quantized.scale();
+            codeNorms[slot] = quantized.norm();
+            versions[slot]++;
+            vectors[slot] = vector;
+            records[slot] = record;
+            snapshots[slot] = snapshot;
+            snapshotIndexes[slot] = snapshotIndex;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 分配一个槽位,优先复用删除留下的空槽,调用方持有写锁
+     */
+    private int allocate(String id) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == ids.length) {
+                resize(Math.max(INITIAL_CAPACITY, ids.length * 2));
+            }
+            slot = slotCount++;
+        }
+        ids[slot] = id;
+        slots.put(id, slot);
+        return slot;
+    }
+
+    private void release(int slot) {
+        ids[slot] = null;
+        vectors[slot] = null;
+        records[slot] = null;
+        snapshots[slot] = null;
+        codeNorms[slot] = 0;
+        versions[slot]++;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(64, freeCount * 2));
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void resize(int capacity) {
+        codes = Arrays.copyOf(codes, capacity * dimension);
+        scales = Arrays.copyOf(scales, capacity);
+        codeNorms = Arrays.copyOf(codeNorms, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        vectors = Arrays.copyOf(vectors, capacity);
+        records = Arrays.copyOf(records, capacity);
+        snapshots = Arrays.copyOf(snapshots, capacity);
+        snapshotIndexes = Arrays.copyOf(snapshotIndexes, capacity);
+    }
+
+    /**
+     * 与原始向量的余弦相似度;原始向量不可用时使用float查询向量与量化码的非对称点积
+     */
+    private double exactSimilarity(int slot, float[] query, float queryNorm) {
+        if (vectors[slot] != null) {
+            float[] vector = vectors[slot];
+            double dot = SimilarityKernel.get().dot(vector, 0, query, 0, dimension);
+            return dot / ((double) VectorStoreSnapshot.norm(vector) * queryNorm);
+        }
+        if (snapshots[slot] != null) {
+            VectorStoreSnapshot snapshot = snapshots[slot];
+            int index = snapshotIndexes[slot];
+            return snapshot.dot(index, query) / ((double) snapshot.norm(index) * queryNorm);
+        }
+        int offset = slot * dimension;
+        double dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += codes[offset + i] * query[i];
+        }
+        return dot * scales[slot] / ((double) codeNorms[slot] * queryNorm);
+    }
+
+    private float[] vector(int slot) {
+        if (vectors[slot] != null) {
+            return vectors[slot];
+        }
+        if (snapshots[slot] != null) {
+            return snapshots[slot].vector(snapshotIndexes[slot]);
+        }
+        return dequantize(slot);
+    }
+
+    private float[] dequantize(int slot) {
+        float[] vector = new float[dimension];
+        int offset = slot * dimension;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = codes[offset + i] * scales[slot];
+        }
+        return vector;
+    }
+
+    private TextSegment segment(int slot) {
+        if (records[slot] != null) {
+            return SegmentCodec.decompress(records[slot]);
+        }
+        return snapshots[slot] == null ? null : snapshots[slot].segment(snapshotIndexes[slot]);
+    }
+
+    private static int dot(byte[] query, byte[] codes, int offset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += query[i] * codes[offset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * 按最大绝对值把向量对称量化到[-127, 127]
+     */
+    static Quantized quantize(float[] vector) {
+        float maxAbs = 0;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        byte[] codes = new byte[vector.length];
+        if (maxAbs == 0) {
+            return new Quantized(codes, 0, 0);
+        }
+        float scale = maxAbs / 127f;
+        long sumOfSquares = 0;
+        for (int i = 0; i < vector.length; i++) {
+            int code = Math.round(vector[i] / scale);
+            codes[i] = (byte) code;
+            sumOfSquares += (long) code * code;
+        }
+        return new Quantized(codes, scale, (float) (Math.sqrt(sumOfSquares) * scale));
+    }
+
+    record Quantized(byte[] codes, float scale, float norm) {
+    }
+
+    private record Candidate(int slot, double similarity, TextSegment segment) {
+    }
+
+    private record Saved(int slot, int version, String id, float[] vector, byte[] record,
+                         VectorStoreSnapshot snapshot, int snapshotIndex) {
+    }
+}
@@ -0,0 +1,239 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 与通义千问(Qwen)兼容的本地分词器,只计数不编码.
+ * 词表为tiktoken格式(每行"base64编码的字节序列 排名",即Qwen发布的qwen.tiktoken),Qwen2/Qwen3的普通token与之相同;
+ * 先按Qwen的正则预分词,再对每段UTF-8字节做字节级BPE合并.同一预分词片段的token数会被缓存,
+ * 分段器反复度量增长中的段落时基本只命中缓存.
+ * 没有词表时退化为TokenEstimator的估算.
+ */
+@Slf4j
+public class QwenTokenizer implements TokenCountEstimator {
+
+    /**
+     * Qwen的预分词正则
+     */
+    private static final Pattern PRE_TOKENIZER = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*"
+                    + "|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+            Pattern.UNICODE_CHARACTER_CLASS);
+
+    /**
+     * 聊天模板中每条消息的额外token: &lt;|im_start|&gt;、角色、换行、&lt;|im_end|&gt;、换行
+     */
+    private static final int TOKENS_PER_MESSAGE = 5;
+
+    private static final int MAX_CACHED_PIECES = 100_000;
+
+    /**
+     * 字节序列(按ISO-8859-1一一映射为字符串)到合并排名
+     */
+    private final Map<String, Integer> ranks;
+    private final Map<String, Integer> pieceCache = new ConcurrentHashMap<>();
+
+    private QwenTokenizer(Map<String, Integer> ranks) {
+        this.ranks = ranks;
+    }
+
+    /**
+     * 加载tiktoken格式的词表
+     *
+     * @param location 文件路径,或以classpath:开头的类路径资源
+     * @return 分词器
+     * @throws IOException 词表不存在或格式错误
+     */
+    public static QwenTokenizer load(String location) throws IOException {
+        try (InputStream in = open(location);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            Map<String, Integer> ranks = new HashMap<>(1 << 18);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    throw new IOException("词表格式错误: " + line);
+                }
+                byte[] token = Base64.getDecoder().decode(line.substring(0, space));
+                ranks.put(new String(token, StandardCharsets.ISO_8859_1), Integer.parseInt(line.substring(space + 1).trim()));
+            }
+            if (ranks.size() < 256) {
+                throw new IOException("词表缺少单字节token: " + location);
+            }
+            log.info("加载Qwen分词词表: {} 个token", ranks.size());
+            return new QwenTokenizer(ranks);
+        }
+    }
+
+    /**
+     * 没有词表时使用的估算分词器
+     */
+    public static QwenTokenizer heuristic() {
+        return new QwenTokenizer(null);
+    }
+
+    /**
+     * 是否使用真实词表计数
+     */
+    public boolean isExact() {
+        return ranks != null;
+    }
+
+    /**
+     * 统计文本的token数
+     *
+     * @param text 文本
+     * @return token数,空文本为0
+     */
+    public int countTokens(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        if (ranks == null) {
+            return TokenEstimator.estimate(text);
+        }
+        int tokens = 0;
+        Matcher matcher = PRE_TOKENIZER.matcher(text);
+        while (matcher.find()) {
+            tokens += countPiece(matcher.group());
+        }
+        return tokens;
+    }
+
+    @Override
+    public int estimateTokenCountInText(String text) {
+        return countTokens(text);
+    }
+
+    @Override
+    public int estimateTokenCountInMessage(ChatMessage message) {
+        String text;
+        if (message instanceof SystemMessage systemMessage) {
+            text = systemMessage.text();
+        } else if (message instanceof UserMessage userMessage) {
+            text = userMessage.contents().stream()
+                    .filter(TextContent.class::isInstance)
+                    .map(content -> ((TextContent) content).text())
+                    .collect(Collectors.joining("\n"));
+        } else if (message instanceof AiMessage aiMessage) {
+            text = aiMessage.text();
+        } else if (message instanceof ToolExecutionResultMessage toolMessage) {
+            text = toolMessage.text();
+        } else {
+            text = String.valueOf(message);
+        }
+        return TOKENS_PER_MESSAGE + countTokens(text);
+    }
+
+    @Override
+    public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimateTokenCountInMessage(message);
+        }
+        return tokens;
+    }
+
+    private int countPiece(String piece) {
+        Integer cached = pieceCache.get(piece);
+        if (cached != null) {
+            return cached;
+        }
+        int tokens = bytePairMerge(new String(piece.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1));
+        if (pieceCache.size() >= MAX_CACHED_PIECES) {
+            pieceCache.clear();
+        }
+        pieceCache.put(piece, tokens);
+        return tokens;
+    }
+
+    /**
+     * 字节级BPE: 反复合并相邻且合并结果排名最小的两段,直到没有可合并的相邻段,返回剩余段数.
+     * 与tiktoken的byte_pair_merge相同
+     *
+     * @param bytes 按ISO-8859-1映射的UTF-8字节
+     */
+    int bytePairMerge(String bytes) {
+        int n = bytes.length();
+        if (n <= 1 || ranks.containsKey(bytes)) {
+            return Math.min(n, 1);
+        }
+        // starts[i]为第i段的起始字节,最后一个元素为n
+        int[] starts = new int[n + 1];
+        for (int i = 0; i <= n; i++) {
+            starts[i] = i;
+        }
+        int parts = n;
+        int[] pairRanks = new int[n];
+        for (int i = 0; i < parts - 1; i++) {
+            pairRanks[i] = rank(bytes, starts[i], starts[i + 2]);
+        }
+        while (parts > 1) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i < parts - 1; i++) {
+                if (pairRanks[i] < bestRank) {
+                    bestRank = pairRanks[i];
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+            // 合并第best段和第best+1段
+            System.arraycopy(starts, best + 2, starts, best + 1, parts - best - 1);
+            System.arraycopy(pairRanks, best + 1, pairRanks, best, parts - best - 2);
+            parts--;
+            if (best < parts - 1) {
+                pairRanks[best] = rank(bytes, starts[best], starts[best + 2]);
+            }
+            if (best > 0) {
+                pairRanks[best - 1] = rank(bytes, starts[best - 1], starts[best + 1]);
+            }
+        }
+        return parts;
+    }
+
+    private int rank(String bytes, int from, int to) {
+        Integer rank = ranks.get(bytes.substring(from, to));
+        return rank == null ? Integer.MAX_VALUE : rank;
+    }
+
+    private static InputStream open(String location) throws IOException {
+        if (location.startsWith("classpath:")) {
+            String resource = location.substring("classpath:".length()).replaceFirst("^/", "");
+            InputStream in = QwenTokenizer.class.getClassLoader().getResourceAsStream(resource);
+            if (in == null) {
+                throw new FileNotFoundException("类路径中不存在词表: " + resource);
+            }
+            return in;
+        }
+        return Files.newInputStream(Paths.get(location));
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.ai.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * RAG索引就绪状态.
+ * 应用启动后HTTP端口立即可用,文档在后台摄取;索引预热完成之前聊天不做检索,直接由模型回答,
+ * 避免检索到残缺的索引或等待摄取.
+ */
+@Component
+@Slf4j
+public class RagReadiness {
+
+    public enum State {
+        /**
+         * 启动摄取尚未完成,检索返回空结果
+         */
+        WARMING,
+        /**
+         * 索引可用
+         */
+        READY
+    }
+
+    private volatile State state = State.WARMING;
+    private volatile String startupJobId;
+    private volatile long readySince;
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * 启动摄取任务ID,尚未提交时为null
+     */
+    public String startupJobId() {
+        return startupJobId;
+    }
+
+    /**
+     * 变为就绪的时间,未就绪时为0
+     */
+    public long readySince() {
+        return readySince;
+    }
+
+    /**
+     * 记录启动摄取任务
+     *
+     * @param jobId 任务ID
+     */
+    public void warming(String jobId) {
+        this.startupJobId = jobId;
+    }
+
+    /**
+     * 索引可用,之后一直保持就绪,后续的重新加载和增量更新不影响检索
+     *
+     * @param reason 日志中的原因
+     */
+    public synchronized void markReady(String reason) {
+        if (state == State.READY) {
+            return;
+        }
+        readySince = System.currentTimeMillis();
+        state = State.READY;
+        log.info("RAG索引已就绪: {}", reason);
+    }
+}
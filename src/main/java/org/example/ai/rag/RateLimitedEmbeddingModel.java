@@ -0,0 +1,166 @@
+package org.example.ai.rag;
+
+import com.alibaba.dashscope.exception.ApiException;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限速的远程向量模型.
+ * 每次embedAll先按请求数和估算token数从令牌桶取令牌,再从自适应并发限制器取得并发许可,
+ * 请求的耗时和限流结果反馈给限制器,使并发数跟随服务端实际能承受的吞吐变化.
+ * 被限流(HTTP 429 / DashScope Throttling)的请求按指数退避重试,超过重试次数后才向上抛出.
+ * 应包装在缓存之内,命中缓存的分段不占用令牌和并发.
+ */
+@Slf4j
+public class RateLimitedEmbeddingModel implements EmbeddingModel {
+
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final EmbeddingModel delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final int maxRetries;
+    private final long backoffMillis;
+
+    /**
+     * @param delegate          远程向量模型
+     * @param limiter           并发限制器
+     * @param requestsPerSecond 每秒请求数上限,不大于0时不限制
+     * @param tokensPerSecond   每秒估算token数上限,不大于0时不限制
+     * @param maxRetries        被限流时的最大重试次数
+     * @param backoffMillis     首次重试前的等待时间(毫秒),之后每次翻倍
+     */
+    public RateLimitedEmbeddingModel(EmbeddingModel delegate, AdaptiveConcurrencyLimiter limiter,
+                                     double requestsPerSecond, double tokensPerSecond,
+                                     int maxRetries, long backoffMillis) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.requestBucket = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond) : null;
+        this.tokenBucket = tokensPerSecond > 0 ? new TokenBucket(tokensPerSecond) : null;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMillis = Math.max(1, backoffMillis);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        int tokens = textSegments.stream().mapToInt(segment -> TokenEstimator.estimate(segment.text())).sum();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                acquire(tokens);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待向量化配额被中断", e);
+            }
+            long start = System.nanoTime();
+            Response<List<Embedding>> response;
+            try {
+                response = delegate.embedAll(textSegments);
+            } catch (RuntimeException e) {
+                if (!isThrottled(e)) {
+                    limiter.onFailure();
+                    throw e;
+                }
+                limiter.onThrottled();
+                if (attempt >= maxRetries) {
+                    log.warn("向量化请求被限流,已重试 {} 次,放弃", attempt);
+                    throw e;
+                }
+                long backoff = backoff(attempt);
+                log.debug("向量化请求被限流,并发上限降为 {},{} ms后重试", limiter.currentLimit(), backoff);
+                sleep(backoff, e);
+                continue;
+            }
+            limiter.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return response;
+        }
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int concurrencyLimit() {
+        return limiter.currentLimit();
+    }
+
+    /**
+     * 累计被限流的请求数
+     */
+    public long throttledRequests() {
+        return limiter.throttledRequests();
+    }
+
+    /**
+     * 判断异常是否为服务端限流: LangChain4j的RateLimitException、HTTP 429或DashScope的Throttling错误码.
+     * 只看异常类型和状态码,不匹配消息文本,避免把消息里恰好带有"429"的其他错误当成限流
+     */
+    static boolean isThrottled(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RateLimitException) {
+                return true;
+            }
+            if (cause instanceof HttpException http && http.statusCode() == HTTP_TOO_MANY_REQUESTS) {
+                return true;
+            }
+            if (cause instanceof ApiException api && api.getStatus() != null
+                    && (api.getStatus().getStatusCode() == HTTP_TOO_MANY_REQUESTS
+                    || isThrottlingCode(api.getStatus().getCode()))) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * DashScope限流错误码形如Throttling、Throttling.RateQuota、Throttling.AllocationQuota
+     */
+    private static boolean isThrottlingCode(String code) {
+        return code != null && (code.equals("Throttling") || code.startsWith("Throttling."));
+    }
+
+    private void acquire(int tokens) throws InterruptedException {
+        if (requestBucket != null) {
+            requestBucket.acquire(1);
+        }
+        if (tokenBucket != null) {
+            tokenBucket.acquire(tokens);
+        }
+        limiter.acquire();
+    }
+
+    /**
+     * 指数退避,加入随机抖动避免多个请求同时重试
+     */
+    private long backoff(int attempt) {
+        long base = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt, 16));
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    private void sleep(long millis, RuntimeException throttled) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throttled.addSuppressed(e);
+            throw throttled;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * 索引就绪之前不检索的内容检索器,聊天在预热期间不带检索内容,也不产生查询向量化调用
+ */
+@Slf4j
+public class ReadinessAwareContentRetriever implements ContentRetriever {
+
+    private final ContentRetriever delegate;
+    private final RagReadiness readiness;
+
+    public ReadinessAwareContentRetriever(ContentRetriever delegate, RagReadiness readiness) {
+        this.delegate = delegate;
+        this.readiness = readiness;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        if (!readiness.isReady()) {
+            log.debug("RAG索引预热中,本次对话不检索");
+            return List.of();
+        }
+        return delegate.retrieve(query);
+    }
+}
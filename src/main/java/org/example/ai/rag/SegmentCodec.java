@@ -0,0 +1,99 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 文本片段的紧凑编码: 文本和元数据按快照的记录格式(VectorStoreSnapshot.writeRecord)序列化后用预置字典的deflate压缩,
+ * 供在堆内长期保存分段文本的存储和索引使用
+ */
+final class SegmentCodec {
+
+    /**
+     * 压缩预置字典: 元数据的常见键和textSegmentTransformer添加的文本头,短文本也能获得较好的压缩率
+     */
+    private static final byte[] DICTIONARY = "absolute_directory_pathsegment_offsetindexfile_name.md.txt.pdf.docx文档：\n类型：\n内容："
+            .getBytes(StandardCharsets.UTF_8);
+
+    private SegmentCodec() {
+    }
+
+    /**
+     * 压缩文本和元数据,格式: 原始长度(4) deflate数据;压缩后没有变小时长度为负(-原始长度-1),后接原始字节
+     */
+    static byte[] compress(TextSegment segment) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(segment.text().length() * 3 + 64);
+        try {
+            VectorStoreSnapshot.writeRecord(new DataOutputStream(buffer), segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] raw = buffer.toByteArray();
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] compressed = new byte[Integer.BYTES + raw.length];
+            int length = deflater.deflate(compressed, Integer.BYTES, raw.length);
+            if (!deflater.finished()) {
+                ByteBuffer stored = ByteBuffer.allocate(Integer.BYTES + raw.length);
+                stored.putInt(-raw.length - 1).put(raw);
+                return stored.array();
+            }
+            ByteBuffer.wrap(compressed).putInt(raw.length);
+            return Arrays.copyOf(compressed, Integer.BYTES + length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 解压compress的结果
+     */
+    static TextSegment decompress(byte[] record) {
+        int rawLength = ByteBuffer.wrap(record).getInt();
+        byte[] raw;
+        if (rawLength < 0) {
+            raw = Arrays.copyOfRange(record, Integer.BYTES, record.length);
+        } else {
+            raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(record, Integer.BYTES, record.length - Integer.BYTES);
+                int offset = 0;
+                while (offset < rawLength) {
+                    int n = inflater.inflate(raw, offset, rawLength - offset);
+                    if (n == 0) {
+                        if (!inflater.needsDictionary()) {
+                            throw new IllegalStateException("压缩文本损坏");
+                        }
+                        inflater.setDictionary(DICTIONARY);
+                    }
+                    offset += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("压缩文本损坏", e);
+            } finally {
+                inflater.end();
+            }
+        }
+        try {
+            return VectorStoreSnapshot.readRecord(new DataInputStream(new ByteArrayInputStream(raw)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+/**
+ * 分段视图,只记录分段在共享文本中的起止位置和元数据,不复制文本.
+ * 近重复检测和token估算直接读取视图,调用toTextSegment()时才生成分段的String.
+ */
+public final class SegmentView implements CharSequence {
+
+    private final CharSequence source;
+    private final int start;
+    private final int end;
+    private final Metadata metadata;
+
+    SegmentView(CharSequence source, int start, int end, Metadata metadata) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.metadata = metadata;
+    }
+
+    /**
+     * 分段在原文中的起始字符偏移
+     */
+    public int start() {
+        return start;
+    }
+
+    public Metadata metadata() {
+        return metadata;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return source.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > length() || from > to) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + ")");
+        }
+        return new SegmentView(source, start + from, start + to, metadata);
+    }
+
+    /**
+     * 生成分段文本
+     */
+    @Override
+    public String toString() {
+        return source.subSequence(start, end).toString();
+    }
+
+    /**
+     * 生成文本片段,文本在此时才被复制
+     */
+    public TextSegment toTextSegment() {
+        return TextSegment.from(toString(), metadata);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.ai.rag;
+
+/**
+ * 向量点积内核.
+ * 目前只有四路展开的标量实现: Vector API仍是孵化模块,需要--add-modules启动参数,
+ * 编译和启动都会输出孵化模块警告,java -jar也无法通过清单加载该模块,因此不使用.
+ * 检索代码统一经由本类计算点积,Vector API正式发布后在这里增加SIMD实现即可.
+ */
+abstract class SimilarityKernel {
+
+    private static final SimilarityKernel INSTANCE = new Scalar();
+
+    /**
+     * 检索使用的实现
+     */
+    static SimilarityKernel get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 标量实现
+     */
+    static SimilarityKernel scalar() {
+        return new Scalar();
+    }
+
+    /**
+     * 实现名称,用于日志
+     */
+    abstract String name();
+
+    /**
+     * a[aOffset, aOffset + length)与b[bOffset, bOffset + length)的点积
+     */
+    abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * 查询向量与vectors中从offset开始连续存放的count个向量的点积,写入out[0, count)
+     */
+    void dots(float[] query, float[] vectors, int offset, int count, int dimension, float[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = dot(query, 0, vectors, offset + i * dimension, dimension);
+        }
+    }
+
+    /**
+     * 四路展开的标量实现,独立的累加器让JIT可以并行执行乘加
+     */
+    private static final class Scalar extends SimilarityKernel {
+
+        @Override
+        String name() {
+            return "scalar";
+        }
+
+        @Override
+        float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            float s0 = 0;
+            float s1 = 0;
+            float s2 = 0;
+            float s3 = 0;
+            int i = 0;
+            for (; i + 3 < length; i += 4) {
+                s0 += a[aOffset + i] * b[bOffset + i];
+                s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+                s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+                s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+            }
+            for (; i < length; i++) {
+                s0 += a[aOffset + i] * b[bOffset + i];
+            }
+            return s0 + s1 + s2 + s3;
+        }
+    }
+}
@@ -2,15 +2,21 @@ package org.example.ai.rag;
 
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
+import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.segment.TextSegment;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * 智能分割策略:
  * 1. 对超大文档减小chunk,保证召回准确性;
  * 2. 对短文档扩大chunk,减少碎片噪声.
+ * 切分点与StreamingTextSplitter相同,依次优先段落边界、换行、句末标点、空白.
+ * 分段以共享文档文本上的视图(SegmentView)按需逐个产出,文本在向量化时才复制,
+ * 不再为每个文档创建DocumentByParagraphSplitter并一次性生成全部分段的String.
  */
 public class SmartDocumentSplitter implements DocumentSplitter {
 
@@ -36,19 +42,32 @@ public class SmartDocumentSplitter implements DocumentSplitter {
     }
 
     /**
-     * 根据文档长度智能分割文档
-     * 该方法根据文档的实际长度动态调整分段大小，使用DocumentByParagraphSplitter进行实际的分割操作。
+     * 根据文档长度智能分割文档,一次性生成全部分段
      * 对于超大文档使用较小的分段以保证召回准确性，对于短文档使用较大的分段以减少碎片噪声。
-     * 
+     *
      * @param document 待分割的文档对象
      * @return 分割后的文本段列表
      */
     @Override
     public List<TextSegment> split(Document document) {
-        int length = document.text() == null ? 0 : document.text().length();
-        int segmentSize = determineSegmentSize(length);
-        DocumentByParagraphSplitter delegate = new DocumentByParagraphSplitter(segmentSize, overlap);
-        return delegate.split(document);
+        List<TextSegment> segments = new ArrayList<>();
+        views(document).forEachRemaining(view -> segments.add(view.toTextSegment()));
+        return segments;
+    }
+
+    /**
+     * 按需产出分段视图,每次next()只向前寻找一个切分点.
+     * 每个分段的元数据在文档元数据基础上增加index(分段序号)和segment_offset(起始字符偏移)
+     *
+     * @param document 待分割的文档对象
+     * @return 分段视图迭代器,纯空白的分段被跳过
+     */
+    public Iterator<SegmentView> views(Document document) {
+        String text = document.text() == null ? "" : document.text();
+        int segmentSize = Math.max(2, determineSegmentSize(text.length()));
+        // 重叠不能超过分段的一半,保证每次切分都能向前推进
+        int maxOverlap = Math.max(0, Math.min(overlap, segmentSize / 2 - 1));
+        return new ViewIterator(text, document.metadata(), segmentSize, maxOverlap);
     }
 
     /**
@@ -66,5 +85,75 @@ public class SmartDocumentSplitter implements DocumentSplitter {
         }
         return Math.max(defaultSegmentSize, overlap + 1);
     }
-}
 
+    private static final class ViewIterator implements Iterator<SegmentView> {
+
+        private final String text;
+        private final Metadata metadata;
+        private final int segmentSize;
+        private final int maxOverlap;
+        private int start;
+        // start开头属于上一分段重叠部分的长度
+        private int carried;
+        private int index;
+        private boolean finished;
+        private SegmentView next;
+
+        ViewIterator(String text, Metadata metadata, int segmentSize, int maxOverlap) {
+            this.text = text;
+            this.metadata = metadata;
+            this.segmentSize = segmentSize;
+            this.maxOverlap = maxOverlap;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !finished) {
+                if (text.length() - start > segmentSize) {
+                    int cut = StreamingTextSplitter.findCut(text, start, segmentSize);
+                    next = view(start, cut);
+                    int overlapStart = StreamingTextSplitter.findOverlapStart(text, start, cut, maxOverlap);
+                    carried = cut - overlapStart;
+                    start = overlapStart;
+                } else {
+                    if (text.length() - start > carried) {
+                        next = view(start, text.length());
+                    }
+                    finished = true;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public SegmentView next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SegmentView view = next;
+            next = null;
+            return view;
+        }
+
+        /**
+         * 去掉首尾空白后的视图,纯空白时返回null
+         */
+        private SegmentView view(int from, int to) {
+            int begin = from;
+            int end = to;
+            while (begin < end && Character.isWhitespace(text.charAt(begin))) {
+                begin++;
+            }
+            while (end > begin && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            if (begin == end) {
+                return null;
+            }
+            Metadata segmentMetadata = metadata.copy();
+            segmentMetadata.put("index", String.valueOf(index++));
+            segmentMetadata.put("segment_offset", (long) from);
+            return new SegmentView(text, begin, end, segmentMetadata);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 可写入二进制快照(VectorStoreSnapshot)的进程内向量存储.
+ * 各个add/addAll重载在这里统一生成ID、校验参数并调用modified(),子类只实现写入单个向量的put和检索;
+ * 子类的删除操作在变更后调用modified().开启自动快照后,存储有变更且静默一段时间(一轮摄取结束)时写入快照,
+ * 应用关闭时由Spring调用close()写入最后一次.
+ */
+@Slf4j
+public abstract class SnapshottingEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private final AtomicLong modifications = new AtomicLong();
+    private final Object snapshotLock = new Object();
+    private volatile long lastModifiedAt;
+    private long savedModifications;
+    private Path snapshotPath;
+    private String model;
+    private Supplier<List<DocumentProcessingState>> states;
+    private Duration quietPeriod;
+    private ScheduledExecutorService snapshotScheduler;
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        put(id, embedding.vector(), null);
+        modified();
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        put(id, embedding.vector(), textSegment);
+        modified();
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = embeddings.stream().map(e -> UUID.randomUUID().toString()).toList();
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> embedded) {
+        List<String> ids = embeddings.stream().map(e -> UUID.randomUUID().toString()).toList();
+        addAll(ids, embeddings, embedded);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        if (ids.size() != embeddings.size() || embedded != null && embedded.size() != embeddings.size()) {
+            throw new IllegalArgumentException("ID、向量和文本片段的数量必须一致");
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            put(ids.get(i), embeddings.get(i).vector(), embedded == null ? null : embedded.get(i));
+        }
+        if (!ids.isEmpty()) {
+            modified();
+        }
+    }
+
+    /**
+     * 写入或替换一个向量,由add/addAll调用,之后统一调用modified()
+     *
+     * @param id      向量ID
+     * @param vector  向量
+     * @param segment 文本片段,可以为null
+     */
+    protected abstract void put(String id, float[] vector, TextSegment segment);
+
+    /**
+     * 当前存储的向量数
+     */
+    public abstract int size();
+
+    /**
+     * 当前存储的全部向量ID
+     */
+    public abstract Set<String> ids();
+
+    /**
+     * 加载快照中的全部向量
+     *
+     * @param snapshot 已映射的快照
+     */
+    public abstract void load(VectorStoreSnapshot snapshot) throws IOException;
+
+    /**
+     * 把当前全部向量写入快照文件
+     *
+     * @param path   快照文件
+     * @param model  向量模型名
+     * @param states 处理状态
+     */
+    public abstract void save(Path path, String model, List<DocumentProcessingState> states) throws IOException;
+
+    /**
+     * 开启自动快照: 存储有变更且静默超过quietPeriod时写入快照,关闭时写入最后一次
+     *
+     * @param path        快照文件
+     * @param model       向量模型名
+     * @param states      写入快照时读取处理状态
+     * @param quietPeriod 最后一次变更之后的静默时间
+     */
+    public void enableSnapshots(Path path, String model, Supplier<List<DocumentProcessingState>> states,
+                                Duration quietPeriod) {
+        synchronized (snapshotLock) {
+            this.snapshotPath = path;
+            this.model = model;
+            this.states = states;
+            this.quietPeriod = quietPeriod;
+            this.savedModifications = modifications.get();
+            this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "rag-vector-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        long interval = Math.max(1000, quietPeriod.toMillis() / 2);
+        snapshotScheduler.scheduleWithFixedDelay(this::saveIfQuiet, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("向量存储快照已开启: {}", path);
+    }
+
+    /**
+     * 有未写入快照的变更时立即写入
+     *
+     * @return 是否写入了快照
+     */
+    public boolean saveSnapshot() {
+        synchronized (snapshotLock) {
+            if (snapshotPath == null) {
+                return false;
+            }
+            long current = modifications.get();
+            if (current == savedModifications) {
+                return false;
+            }
+            try {
+                save(snapshotPath, model, states.get());
+                savedModifications = current;
+                return true;
+            } catch (IOException | RuntimeException e) {
+                log.warn("写入向量快照失败: {}", e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 停止自动快照并写入最后一次快照,由Spring在销毁Bean时调用
+     */
+    public void close() {
+        ScheduledExecutorService scheduler;
+        synchronized (snapshotLock) {
+            scheduler = snapshotScheduler;
+        }
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        saveSnapshot();
+    }
+
+    /**
+     * 子类在存储内容变化后调用
+     */
+    protected void modified() {
+        modifications.incrementAndGet();
+        lastModifiedAt = System.currentTimeMillis();
+    }
+
+    private void saveIfQuiet() {
+        if (System.currentTimeMillis() - lastModifiedAt < quietPeriod.toMillis()) {
+            return;
+        }
+        saveSnapshot();
+    }
+}
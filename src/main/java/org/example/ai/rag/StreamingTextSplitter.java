@@ -0,0 +1,215 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * 流式文本分割器,用于超大文本文件.
+ * 边读边切,直接产出最终的TextSegment,不再先按固定字符数切块再交给DocumentSplitter二次分割;
+ * 切分点依次优先选择段落边界、换行、句末标点、空白,重叠部分跨读缓冲区延续到下一个分段.
+ * 内存中只保留不超过一个分段加一个读缓冲区的文本,与文件大小无关.
+ * 每个分段的切分点只取决于分段起点之后的文本,因此可以在任意文本块之后记录分割状态,
+ * 之后从该状态继续分割,结果与不中断分割完全一致.
+ */
+public class StreamingTextSplitter {
+
+    private static final String SENTENCE_ENDINGS = "。！？；.!?;";
+
+    private final int maxSegmentSize;
+    private final int maxOverlap;
+    private final int readBufferSize;
+
+    public StreamingTextSplitter(int maxSegmentSize, int maxOverlap, int readBufferSize) {
+        this.maxSegmentSize = Math.max(2, maxSegmentSize);
+        // 重叠不能超过分段的一半,保证每次切分都能向前推进
+        this.maxOverlap = Math.max(0, Math.min(maxOverlap, this.maxSegmentSize / 2 - 1));
+        this.readBufferSize = Math.max(1024, readBufferSize);
+    }
+
+    /**
+     * 分段接收方,队列满时可以阻塞
+     */
+    @FunctionalInterface
+    public interface SegmentSink {
+        void accept(TextSegment segment) throws InterruptedException;
+    }
+
+    /**
+     * 文本块来源,返回的CharBuffer只需在下一次调用next()之前有效,读完返回null
+     */
+    @FunctionalInterface
+    public interface TextChunkSource {
+        CharBuffer next() throws IOException;
+    }
+
+    /**
+     * 每个文本块处理完之后的回调,用于记录检查点
+     */
+    @FunctionalInterface
+    public interface ChunkListener {
+        void afterChunk(SplitState state) throws IOException, InterruptedException;
+    }
+
+    /**
+     * 分割状态
+     *
+     * @param charOffset pending第一个字符在全文中的字符偏移
+     * @param pending    尚未产出的文本,开头可能是上一分段的重叠部分,长度不超过一个分段
+     * @param carried    pending开头属于上一分段重叠部分的长度
+     * @param nextIndex  下一个分段的序号,即已产出的分段数
+     */
+    public record SplitState(long charOffset, String pending, int carried, long nextIndex) {
+        public static final SplitState START = new SplitState(0, "", 0, 0);
+    }
+
+    /**
+     * 读取全部文本并按边界切分,每个分段的元数据在给定元数据基础上增加index(分段序号)和segment_offset(起始字符偏移)
+     *
+     * @param reader   文本来源
+     * @param metadata 文件元数据
+     * @param sink     分段接收方
+     * @return 产出的分段数
+     */
+    public long split(Reader reader, Metadata metadata, SegmentSink sink) throws IOException, InterruptedException {
+        char[] buffer = new char[readBufferSize];
+        return split(() -> {
+            int read = reader.read(buffer);
+            return read == -1 ? null : CharBuffer.wrap(buffer, 0, read);
+        }, metadata, sink);
+    }
+
+    /**
+     * 从文本块来源读取全部文本并按边界切分,文本块直接追加到待切分缓冲区,不经过中间String
+     *
+     * @param source   文本块来源,如MappedTextReader
+     * @param metadata 文件元数据
+     * @param sink     分段接收方
+     * @return 产出的分段数
+     */
+    public long split(TextChunkSource source, Metadata metadata, SegmentSink sink) throws IOException, InterruptedException {
+        return split(source, metadata, sink, SplitState.START, null);
+    }
+
+    /**
+     * 从给定的分割状态继续切分,source需从该状态对应的位置开始读取
+     *
+     * @param source   文本块来源
+     * @param metadata 文件元数据
+     * @param sink     分段接收方
+     * @param from     分割状态,从头开始时为SplitState.START
+     * @param listener 每个文本块处理完后的回调,可以为null
+     * @return 文件的分段总数(包括继续之前已产出的分段)
+     */
+    public long split(TextChunkSource source, Metadata metadata, SegmentSink sink, SplitState from,
+                      ChunkListener listener) throws IOException, InterruptedException {
+        StringBuilder pending = new StringBuilder(maxSegmentSize + readBufferSize);
+        pending.append(from.pending());
+        // pending[0]在全文中的字符偏移
+        long pendingOffset = from.charOffset();
+        // pending开头属于上一分段重叠部分的长度
+        int carried = from.carried();
+        long index = from.nextIndex();
+        CharBuffer chunk;
+        while ((chunk = source.next()) != null) {
+            append(pending, chunk);
+            // 在缓冲区内移动起点,每读一次只整体搬移一次剩余文本
+            int start = 0;
+            while (pending.length() - start > maxSegmentSize) {
+                int cut = findCut(pending, start, maxSegmentSize);
+                index += emit(pending, start, cut, metadata, pendingOffset + start, index, sink);
+                int next = findOverlapStart(pending, start, cut, maxOverlap);
+                carried = cut - next;
+                start = next;
+            }
+            pending.delete(0, start);
+            pendingOffset += start;
+            if (listener != null) {
+                listener.afterChunk(new SplitState(pendingOffset, pending.toString(), carried, index));
+            }
+        }
+        if (pending.length() > carried) {
+            index += emit(pending, 0, pending.length(), metadata, pendingOffset, index, sink);
+        }
+        return index;
+    }
+
+    /**
+     * 堆内CharBuffer直接按数组批量追加,避免StringBuilder逐字符调用charAt
+     */
+    private static void append(StringBuilder pending, CharBuffer chunk) {
+        if (chunk.hasArray()) {
+            pending.append(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+        } else {
+            pending.append(chunk);
+        }
+    }
+
+    /**
+     * 在[start+maxSegmentSize/2, start+maxSegmentSize]范围内从后往前寻找最合适的切分点,
+     * 调用方保证text从start开始至少还有maxSegmentSize个字符
+     */
+    static int findCut(CharSequence text, int start, int maxSegmentSize) {
+        int max = start + maxSegmentSize;
+        int min = start + maxSegmentSize / 2;
+        for (int i = max; i > min; i--) {
+            if (text.charAt(i - 1) == '\n' && text.charAt(i - 2) == '\n') {
+                return i;
+            }
+        }
+        for (int i = max; i > min; i--) {
+            if (text.charAt(i - 1) == '\n') {
+                return i;
+            }
+        }
+        for (int i = max; i > min; i--) {
+            if (SENTENCE_ENDINGS.indexOf(text.charAt(i - 1)) >= 0) {
+                return i;
+            }
+        }
+        for (int i = max; i > min; i--) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                return i;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 重叠部分从cut-maxOverlap开始,并向后对齐到下一个空白或句末之后,避免从半个单词开始
+     */
+    static int findOverlapStart(CharSequence text, int segmentStart, int cut, int maxOverlap) {
+        if (maxOverlap == 0) {
+            return cut;
+        }
+        int start = Math.max(segmentStart + 1, cut - maxOverlap);
+        for (int i = start; i < cut; i++) {
+            char ch = text.charAt(i - 1);
+            if (Character.isWhitespace(ch) || SENTENCE_ENDINGS.indexOf(ch) >= 0) {
+                return i;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * 产出text[start, end)作为一个分段,纯空白时不产出
+     *
+     * @return 产出的分段数(0或1)
+     */
+    private int emit(CharSequence text, int start, int end, Metadata metadata, long offset, long index,
+                     SegmentSink sink) throws InterruptedException {
+        String segmentText = text.subSequence(start, end).toString().strip();
+        if (segmentText.isEmpty()) {
+            return 0;
+        }
+        Metadata segmentMetadata = metadata.copy();
+        segmentMetadata.put("index", String.valueOf(index));
+        segmentMetadata.put("segment_offset", offset);
+        sink.accept(TextSegment.from(segmentText, segmentMetadata));
+        return 1;
+    }
+}
@@ -0,0 +1,210 @@
+package org.example.ai.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按探测到的编码解码文本,非法字节按替换字符解码.
+ * CharsetSniffer只检查文件开头的样本,开头全是ASCII(如很长的英文许可证头)的GBK文件会被判为UTF-8.
+ * 因此探测得到UTF-8时,在遇到第一个非ASCII字节处用从这里开始的字节重新探测,再决定按UTF-8还是GB18030解码其余内容.
+ * GBK的双字节常常也是合法的UTF-8双字节序列,所以按一段样本判断,而不是看单个字符能否按UTF-8解码.
+ * 解码器按编码池化,打开时借出、关闭时归还,每个文件一个虚拟线程时也能复用.
+ */
+@Slf4j
+final class TextDecoder implements AutoCloseable {
+
+    private static final int POOL_CAPACITY = 16;
+
+    /**
+     * 重新探测至少需要的字节数,不足且还有后续输入时先要求调用方补充
+     */
+    private static final int RESNIFF_BYTES = 4096;
+    private static final ConcurrentMap<Charset, BlockingQueue<CharsetDecoder>> DECODER_POOLS = new ConcurrentHashMap<>();
+
+    private Charset charset;
+    private CharsetDecoder decoder;
+    private boolean undecided;
+
+    /**
+     * @param charset 编码
+     * @param sniffed 编码是否由探测得到(而非BOM确定),为UTF-8时在第一个非ASCII字节处重新探测
+     */
+    TextDecoder(Charset charset, boolean sniffed) {
+        this.charset = charset;
+        this.undecided = sniffed && StandardCharsets.UTF_8.equals(charset);
+        this.decoder = borrowDecoder(charset);
+    }
+
+    /**
+     * 当前使用的编码,重新探测为GB18030后随之改变
+     */
+    Charset charset() {
+        return charset;
+    }
+
+    /**
+     * 与CharsetDecoder.decode相同,只消费完整的字符.
+     * 编码待定时可能在第一个非ASCII字节之前返回UNDERFLOW,调用方按常规补充输入后再次调用
+     */
+    CoderResult decode(ByteBuffer in, CharBuffer out, boolean endOfInput) {
+        if (undecided) {
+            int nonAscii = firstNonAscii(in);
+            if (nonAscii == -1) {
+                return decoder.decode(in, out, endOfInput);
+            }
+            if (nonAscii > in.position()) {
+                int limit = in.limit();
+                in.limit(nonAscii);
+                CoderResult result = decoder.decode(in, out, false);
+                in.limit(limit);
+                if (result.isOverflow()) {
+                    return result;
+                }
+            }
+            if (in.remaining() < RESNIFF_BYTES && !endOfInput) {
+                return CoderResult.UNDERFLOW;
+            }
+            resniff(in);
+        }
+        return decoder.decode(in, out, endOfInput);
+    }
+
+    CoderResult flush(CharBuffer out) {
+        return decoder.flush(out);
+    }
+
+    /**
+     * 以字符流读取,流中的字节从当前位置开始解码(BOM需由调用方跳过)
+     *
+     * @param in      字节流,随返回的Reader一起关闭
+     * @param charset 编码
+     * @param sniffed 编码是否由探测得到
+     */
+    static Reader reader(InputStream in, Charset charset, boolean sniffed) {
+        return new DecodingReader(in, new TextDecoder(charset, sniffed));
+    }
+
+    @Override
+    public void close() {
+        if (decoder != null) {
+            releaseDecoder(decoder);
+            decoder = null;
+        }
+    }
+
+    /**
+     * 用第一个非ASCII字节开始的样本重新探测,此前解码的都是ASCII,改用GB18030不影响已输出的文本
+     */
+    private void resniff(ByteBuffer in) {
+        undecided = false;
+        ByteBuffer sample = in.slice(in.position(), Math.min(in.remaining(), CharsetSniffer.SAMPLE_SIZE));
+        if (CharsetSniffer.detect(sample).charset().equals(CharsetSniffer.GB18030)) {
+            log.debug("开头全是ASCII的文本在第一个非ASCII字节处探测为GB18030,改用GB18030解码");
+            releaseDecoder(decoder);
+            charset = CharsetSniffer.GB18030;
+            decoder = borrowDecoder(charset);
+        }
+    }
+
+    private static int firstNonAscii(ByteBuffer in) {
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 每种编码一个有界的解码器池,池中没有时新建,用前重置状态
+     */
+    private static CharsetDecoder borrowDecoder(Charset charset) {
+        CharsetDecoder pooled = DECODER_POOLS.computeIfAbsent(charset, c -> new ArrayBlockingQueue<>(POOL_CAPACITY))
+                .poll();
+        if (pooled != null) {
+            return pooled.reset();
+        }
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static void releaseDecoder(CharsetDecoder decoder) {
+        DECODER_POOLS.computeIfAbsent(decoder.charset(), c -> new ArrayBlockingQueue<>(POOL_CAPACITY)).offer(decoder);
+    }
+
+    /**
+     * 基于TextDecoder的字符流,替代InputStreamReader
+     */
+    private static final class DecodingReader extends Reader {
+
+        private final InputStream in;
+        private final TextDecoder decoder;
+        private final ByteBuffer bytes = ByteBuffer.allocate(8192).flip();
+        private boolean endOfInput;
+        private boolean flushing;
+        private boolean finished;
+
+        DecodingReader(InputStream in, TextDecoder decoder) {
+            this.in = in;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            // 填满调用方的缓冲区或读到末尾才返回,不在重新探测前只返回一小段ASCII
+            while (out.hasRemaining() && !finished) {
+                if (!flushing) {
+                    CoderResult result = decoder.decode(bytes, out, endOfInput);
+                    if (result.isOverflow()) {
+                        break;
+                    }
+                    if (!endOfInput) {
+                        // 字节已用完或末尾是被截断的多字节字符,补充字节后继续
+                        fill();
+                        continue;
+                    }
+                    flushing = true;
+                }
+                finished = decoder.flush(out).isUnderflow();
+            }
+            int read = out.position() - off;
+            return read == 0 ? -1 : read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            decoder.close();
+            in.close();
+        }
+
+        private void fill() throws IOException {
+            bytes.compact();
+            int read = in.read(bytes.array(), bytes.position(), bytes.remaining());
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                bytes.position(bytes.position() + read);
+            }
+            bytes.flip();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+
+import java.nio.file.Path;
+
+/**
+ * 纯文本文档句柄,文本文件不存在加密检测
+ */
+class TextDocumentHandle implements DocumentHandle {
+
+    private final Path path;
+
+    TextDocumentHandle(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public boolean isEncrypted() {
+        return false;
+    }
+
+    @Override
+    public Document load() {
+        return FileSystemDocumentLoader.loadDocument(path, new TextDocumentParser());
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.ai.rag;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 令牌桶限速.
+ * 令牌按固定速率补充,桶容量为一秒的令牌数,空闲后允许一秒内的突发.
+ * 单次可以申请超过桶容量的令牌(如一个token数很多的批次),超出部分记为欠账,由之后的申请者等待偿还,
+ * 因此长期速率不会超过设定值.
+ */
+public class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private final LongSupplier clock;
+
+    private double available;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数,必须大于0
+     */
+    public TokenBucket(double permitsPerSecond) {
+        this(permitsPerSecond, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, LongSupplier clock) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond必须大于0: " + permitsPerSecond);
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.clock = clock;
+        this.available = capacity;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * 申请令牌,令牌不足时阻塞到欠账还清
+     *
+     * @param permits 令牌数
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long waitNanos = reserve(permits);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * 预留令牌,不阻塞
+     *
+     * @param permits 令牌数
+     * @return 需要等待的纳秒数,0表示可以立即执行
+     */
+    synchronized long reserve(long permits) {
+        long now = clock.getAsLong();
+        available = Math.min(capacity, available + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        available -= Math.max(0, permits);
+        return available >= 0 ? 0 : (long) Math.ceil(-available / permitsPerNano);
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.ai.rag;
+
+/**
+ * 轻量级token数估算,用于向量化批次的token上限控制.
+ * 中日韩字符按1个token计,其余字符按4个字符1个token计.
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的token数
+     *
+     * @param text 文本
+     * @return 估算的token数,至少为1
+     */
+    public static int estimate(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 1;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.UnicodeScript.of(ch) == Character.UnicodeScript.HAN
+                    || (ch >= '぀' && ch <= 'ヿ') || (ch >= '가' && ch <= '힯')) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return Math.max(1, cjk + (other + 3) / 4);
+    }
+}
@@ -0,0 +1,529 @@
+package org.example.ai.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 向量存储二进制快照.
+ * 文件布局(大端序,字符串为int长度前缀的UTF-8,长度-1表示null):
+ * <pre>
+ * 头部    magic(8) 版本(4) 维度(4) 条目数(4) 向量模型名 处理状态JSON, 之后填充到64字节对齐
+ * 向量区  条目数 x 维度 个float32, 紧密排列
+ * 范数区  条目数 个float32
+ * ID区    每条一个字符串
+ * 记录区  每条: 文本 元数据项数(4) 每项: 键 类型(1) 值
+ * 索引区  条目数 个long, 每条记录在记录区内的偏移
+ * 尾部    ID区起始(8) 记录区起始(8) 索引区起始(8) magic(8)
+ * </pre>
+ * 写入临时文件后原子替换;加载时按区映射到内存,只读取ID区,检索时向量从映射区按块批量读取,
+ * 文本和元数据在命中时才解码.快照带有处理状态,可以整体复制到其他节点使用.
+ */
+final class VectorStoreSnapshot {
+
+    static final long MAGIC = 0x52414756534E4150L; // "RAGVSNAP"
+    static final int VERSION = 1;
+
+    private static final int ALIGNMENT = 64;
+    private static final int TRAILER_BYTES = 4 * Long.BYTES;
+    private static final long CHUNK_BYTES = 1L << 30;
+    private static final ObjectMapper OBJECT_MAPPER = JsonMapper.builder().findAndAddModules().build();
+
+    /**
+     * 写入快照的数据源,写入期间条目不能变化
+     */
+    interface Source {
+        int size();
+
+        String id(int index);
+
+        float[] vector(int index);
+
+        TextSegment segment(int index);
+    }
+
+    private final Path path;
+    private final int dimension;
+    private final int count;
+    private final String model;
+    private final List<DocumentProcessingState> states;
+    private final Region vectors;
+    private final Region norms;
+    private final Region ids;
+    private final Region records;
+    private final Region index;
+
+    private VectorStoreSnapshot(Path path, int dimension, int count, String model,
+                                List<DocumentProcessingState> states, Region vectors, Region norms,
+                                Region ids, Region records, Region index) {
+        this.path = path;
+        this.dimension = dimension;
+        this.count = count;
+        this.model = model;
+        this.states = states;
+        this.vectors = vectors;
+        this.norms = norms;
+        this.ids = ids;
+        this.records = records;
+        this.index = index;
+    }
+
+    /**
+     * 写入快照: 先写同目录下的临时文件,完成后原子替换目标文件
+     *
+     * @param path      快照文件
+     * @param model     向量模型名,加载时模型不一致则丢弃快照
+     * @param dimension 向量维度
+     * @param states    处理状态
+     * @param source    条目
+     */
+    static void write(Path path, String model, int dimension, List<DocumentProcessingState> states,
+                      Source source) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            int count = source.size();
+            long[] offsets = new long[count];
+            try (CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+                 DataOutputStream out = new DataOutputStream(counter)) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dimension);
+                out.writeInt(count);
+                writeString(out, model);
+                writeString(out, OBJECT_MAPPER.writeValueAsString(states));
+                out.write(new byte[(int) (align(counter.count) - counter.count)]);
+
+                ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES);
+                float[] normsOf = new float[count];
+                for (int i = 0; i < count; i++) {
+                    float[] vector = source.vector(i);
+                    if (vector.length != dimension) {
+                        throw new IOException("向量维度不一致: " + source.id(i));
+                    }
+                    buffer.clear();
+                    buffer.asFloatBuffer().put(vector);
+                    out.write(buffer.array());
+                    normsOf[i] = norm(vector);
+                }
+                for (float norm : normsOf) {
+                    out.writeFloat(norm);
+                }
+                long idsStart = counter.count;
+                for (int i = 0; i < count; i++) {
+                    writeString(out, source.id(i));
+                }
+                long recordsStart = counter.count;
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = counter.count - recordsStart;
+                    writeRecord(out, source.segment(i));
+                }
+                long indexStart = counter.count;
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                out.writeLong(idsStart);
+                out.writeLong(recordsStart);
+                out.writeLong(indexStart);
+                out.writeLong(MAGIC);
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 映射快照文件.映射建立后文件即使被新快照替换,已映射的内容仍然有效
+     *
+     * @param path 快照文件
+     * @return 快照
+     * @throws IOException 文件损坏或版本不支持
+     */
+    static VectorStoreSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 20 + TRAILER_BYTES) {
+                throw new IOException("快照文件过小: " + path);
+            }
+            ByteBuffer header = read(channel, 0, 20);
+            if (header.getLong() != MAGIC) {
+                throw new IOException("不是向量快照文件: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的快照版本: " + version);
+            }
+            int dimension = header.getInt();
+            int count = header.getInt();
+            long position = 20;
+            byte[] modelBytes = readString(channel, position);
+            position += Integer.BYTES + (modelBytes == null ? 0 : modelBytes.length);
+            byte[] statesBytes = readString(channel, position);
+            position += Integer.BYTES + (statesBytes == null ? 0 : statesBytes.length);
+
+            ByteBuffer trailer = read(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            long idsStart = trailer.getLong();
+            long recordsStart = trailer.getLong();
+            long indexStart = trailer.getLong();
+            if (trailer.getLong() != MAGIC) {
+                throw new IOException("快照文件不完整: " + path);
+            }
+            long vectorsStart = align(position);
+            long vectorBytes = (long) dimension * Float.BYTES;
+            long normsStart = vectorsStart + vectorBytes * count;
+            if (dimension <= 0 && count > 0 || normsStart + (long) count * Float.BYTES != idsStart
+                    || idsStart > recordsStart || recordsStart > indexStart
+                    || indexStart + (long) count * Long.BYTES + TRAILER_BYTES != size) {
+                throw new IOException("快照文件结构损坏: " + path);
+            }
+            List<DocumentProcessingState> states = statesBytes == null ? List.of()
+                    : OBJECT_MAPPER.readValue(statesBytes, new TypeReference<List<DocumentProcessingState>>() { });
+            long vectorChunk = vectorBytes == 0 ? CHUNK_BYTES : Math.max(1, CHUNK_BYTES / vectorBytes) * vectorBytes;
+            return new VectorStoreSnapshot(path, dimension, count,
+                    modelBytes == null ? null : new String(modelBytes, StandardCharsets.UTF_8), states,
+                    Region.map(channel, vectorsStart, vectorBytes * count, vectorChunk),
+                    Region.map(channel, normsStart, (long) count * Float.BYTES, CHUNK_BYTES),
+                    Region.map(channel, idsStart, recordsStart - idsStart, CHUNK_BYTES),
+                    Region.map(channel, recordsStart, indexStart - recordsStart, CHUNK_BYTES),
+                    Region.map(channel, indexStart, (long) count * Long.BYTES, CHUNK_BYTES));
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    int size() {
+        return count;
+    }
+
+    String model() {
+        return model;
+    }
+
+    /**
+     * 写入快照时的处理状态
+     */
+    List<DocumentProcessingState> states() {
+        return states;
+    }
+
+    /**
+     * 按顺序读取全部向量ID
+     */
+    String[] ids() {
+        String[] result = new String[count];
+        long position = 0;
+        for (int i = 0; i < count; i++) {
+            int length = ids.getInt(position);
+            byte[] bytes = new byte[length];
+            ids.get(position + Integer.BYTES, bytes);
+            result[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += Integer.BYTES + length;
+        }
+        return result;
+    }
+
+    float norm(int i) {
+        return norms.getFloat((long) i * Float.BYTES);
+    }
+
+    /**
+     * 与查询向量的点积
+     */
+    double dot(int i, float[] query) {
+        return SimilarityKernel.get().dot(vector(i), 0, query, 0, dimension);
+    }
+
+    float[] vector(int i) {
+        float[] vector = new float[dimension];
+        vectors(i, 1, vector);
+        return vector;
+    }
+
+    /**
+     * 把从first开始的count个向量连续复制到dst,按块批量转换字节序,比逐个getFloat快得多
+     */
+    void vectors(int first, int count, float[] dst) {
+        int vectorBytes = dimension * Float.BYTES;
+        int copied = 0;
+        while (copied < count) {
+            long position = (long) (first + copied) * vectorBytes;
+            ByteBuffer chunk = vectors.chunk(position);
+            int offset = vectors.offset(position);
+            int n = Math.min(count - copied, (chunk.capacity() - offset) / vectorBytes);
+            chunk.slice(offset, n * vectorBytes).asFloatBuffer().get(dst, copied * dimension, n * dimension);
+            copied += n;
+        }
+    }
+
+    /**
+     * 解码第i条记录的文本和元数据
+     *
+     * @return 文本片段,写入时没有文本则返回null
+     */
+    TextSegment segment(int i) {
+        long start = index.getLong((long) i * Long.BYTES);
+        long end = i + 1 < count ? index.getLong((long) (i + 1) * Long.BYTES) : records.length();
+        byte[] bytes = new byte[(int) (end - start)];
+        records.get(start, bytes);
+        try {
+            return readRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("快照记录损坏: " + i, e);
+        }
+    }
+
+    static float norm(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    /**
+     * 写入一条记录: 文本 元数据项数(4) 每项: 键 类型(1) 值
+     *
+     * @param out     输出
+     * @param segment 文本片段,null时只写入长度-1
+     */
+    static void writeRecord(DataOutput out, TextSegment segment) throws IOException {
+        if (segment == null) {
+            out.writeInt(-1);
+            return;
+        }
+        writeString(out, segment.text());
+        Map<String, Object> metadata = segment.metadata().toMap();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Integer v) {
+                out.writeByte('I');
+                out.writeInt(v);
+            } else if (value instanceof Long v) {
+                out.writeByte('L');
+                out.writeLong(v);
+            } else if (value instanceof Float v) {
+                out.writeByte('F');
+                out.writeInt(Float.floatToIntBits(v));
+            } else if (value instanceof Double v) {
+                out.writeByte('D');
+                out.writeLong(Double.doubleToLongBits(v));
+            } else {
+                out.writeByte(value instanceof UUID ? 'U' : 'S');
+                writeString(out, String.valueOf(value));
+            }
+        }
+    }
+
+    /**
+     * 读取writeRecord写入的一条记录
+     *
+     * @param in 输入
+     * @return 文本片段,写入时没有文本则返回null
+     */
+    static TextSegment readRecord(DataInput in) throws IOException {
+        byte[] textBytes = readString(in);
+        if (textBytes == null) {
+            return null;
+        }
+        int entries = in.readInt();
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        for (int e = 0; e < entries; e++) {
+            String key = new String(readString(in), StandardCharsets.UTF_8);
+            byte type = in.readByte();
+            Object value = switch (type) {
+                case 'I' -> in.readInt();
+                case 'L' -> in.readLong();
+                case 'F' -> in.readFloat();
+                case 'D' -> in.readDouble();
+                default -> {
+                    String text = new String(readString(in), StandardCharsets.UTF_8);
+                    yield type == 'U' ? UUID.fromString(text) : text;
+                }
+            };
+            metadata.put(key, value);
+        }
+        return TextSegment.from(new String(textBytes, StandardCharsets.UTF_8), Metadata.from(metadata));
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static byte[] readString(FileChannel channel, long position) throws IOException {
+        int length = read(channel, position, Integer.BYTES).getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (position + Integer.BYTES + length > channel.size()) {
+            throw new IOException("快照文件结构损坏");
+        }
+        return read(channel, position + Integer.BYTES, length).array();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("快照文件不完整");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * 统计已写入字节数,用于记录各区的起始位置(DataOutputStream.size()超过2GB后不再准确)
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * 按块映射的只读文件区域,单个MappedByteBuffer不能超过2GB.
+     * 块大小是8的倍数,按自身宽度对齐的float/long不会跨块;向量区的块大小是单个向量字节数的倍数,一个向量不会跨块
+     */
+    private static final class Region {
+
+        private final MappedByteBuffer[] chunks;
+        private final long chunkSize;
+        private final long length;
+
+        private Region(MappedByteBuffer[] chunks, long chunkSize, long length) {
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+            this.length = length;
+        }
+
+        static Region map(FileChannel channel, long start, long length, long chunkSize) throws IOException {
+            int n = (int) ((length + chunkSize - 1) / chunkSize);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long offset = i * chunkSize;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + offset,
+                        Math.min(chunkSize, length - offset));
+            }
+            return new Region(chunks, chunkSize, length);
+        }
+
+        long length() {
+            return length;
+        }
+
+        ByteBuffer chunk(long position) {
+            return chunks[(int) (position / chunkSize)];
+        }
+
+        int offset(long position) {
+            return (int) (position % chunkSize);
+        }
+
+        float getFloat(long position) {
+            return chunk(position).getFloat(offset(position));
+        }
+
+        long getLong(long position) {
+            return chunk(position).getLong(offset(position));
+        }
+
+        int getInt(long position) {
+            return ByteBuffer.wrap(bytes(position, Integer.BYTES)).getInt();
+        }
+
+        void get(long position, byte[] dst) {
+            int copied = 0;
+            while (copied < dst.length) {
+                ByteBuffer chunk = chunk(position + copied);
+                int offset = offset(position + copied);
+                int length = Math.min(dst.length - copied, chunk.capacity() - offset);
+                chunk.get(offset, dst, copied, length);
+                copied += length;
+            }
+        }
+
+        private byte[] bytes(long position, int length) {
+            byte[] bytes = new byte[length];
+            get(position, bytes);
+            return bytes;
+        }
+    }
+}
@@ -1,36 +1,58 @@
 package org.example.config;
 
 import lombok.extern.slf4j.Slf4j;
-import org.example.ai.rag.EnhancedRagConfig;
+import org.example.ai.rag.DocumentProcessingState;
+import org.example.ai.rag.DocumentProcessingStateTracker;
+import org.example.ai.rag.IngestionJob;
+import org.example.ai.rag.IngestionJobManager;
+import org.example.ai.rag.RagReadiness;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.Resource;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
 
 /**
  * 应用启动监听器
- * 在应用完全启动后执行初始化任务
+ * 在应用完全启动（HTTP端口已可用）后提交唯一一次启动摄取任务，文档在后台摄取，不阻塞启动；
+ * 索引预热完成前聊天不做检索。
  */
 @Component
 @Slf4j
 public class ApplicationStartupListener implements ApplicationListener<ApplicationReadyEvent> {
 
     @Resource
-    private EnhancedRagConfig enhancedRagConfig;
-    
+    private IngestionJobManager ingestionJobManager;
+
+    @Resource
+    private DocumentProcessingStateTracker documentProcessingStateTracker;
+
     @Resource
-    private EmbeddingStoreIngestor embeddingStoreIngestor;
+    private RagReadiness ragReadiness;
 
     @Override
     public void onApplicationEvent(ApplicationReadyEvent event) {
-        log.info("应用启动完成，开始初始化RAG文档");
+        log.info("应用启动完成，提交RAG文档后台摄取任务");
         try {
-            enhancedRagConfig.initializeDocuments(embeddingStoreIngestor);
-            log.info("RAG文档初始化完成");
+            if (hasIndexedDocuments()) {
+                // 持久化向量存储中已有上次运行摄取的文档,直接提供检索,增量更新在后台进行
+                ragReadiness.markReady("向量存储中已有上次摄取的文档");
+            }
+            IngestionJob job = ingestionJobManager.submitReload(false).job();
+            ragReadiness.warming(job.getId());
+            job.completion().thenAccept(finished ->
+                    ragReadiness.markReady("启动摄取任务 " + finished.getId() + " 结束: " + finished.getStatus()));
         } catch (Exception e) {
-            log.error("RAG文档初始化失败", e);
+            log.error("提交RAG文档摄取任务失败", e);
+            ragReadiness.markReady("启动摄取任务提交失败");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 状态跟踪器中有处理成功的文件。内存向量存储启动时会清空状态,因此只有持久化的向量存储满足该条件
+     */
+    private boolean hasIndexedDocuments() {
+        return documentProcessingStateTracker.snapshotStates().values().stream()
+                .anyMatch(state -> state.getStatus() == DocumentProcessingState.ProcessingStatus.SUCCESS);
+    }
+}
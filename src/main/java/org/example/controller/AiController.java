@@ -4,11 +4,15 @@ import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.example.ai.AiCodeHelperService;
+import org.example.ai.cache.CachingAiCodeHelperService;
 import org.example.ai.entity.ConversationSession;
 import org.example.ai.model.AddDocumentRequest;
 import org.example.ai.model.ChatRequest;
 import org.example.ai.model.CreateConversationRequest;
-import org.example.ai.rag.EnhancedRagConfig;
+import org.example.ai.rag.IngestionJob;
+import org.example.ai.rag.IngestionJobManager;
+import org.example.ai.rag.IngestionJobReport;
+import org.example.ai.rag.RagReadiness;
 import org.example.ai.service.ConversationStorageService;
 
 
@@ -35,13 +39,14 @@ public class AiController {
     private ConversationStorageService conversationStorageService;
 
     @Resource
-    private EnhancedRagConfig enhancedRagConfig;
+    private IngestionJobManager ingestionJobManager;
 
     @Resource
-    private dev.langchain4j.store.embedding.EmbeddingStoreIngestor embeddingStoreIngestor;
+    private RagReadiness ragReadiness;
 
     /**
-     * 健康检查接口
+     * 健康检查接口,同时返回RAG索引状态: WARMING时聊天可用但不检索,ragStartupJobId可用于查询启动摄取进度;
+     * 开启语义回答缓存时返回其命中率
      */
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
@@ -49,6 +54,13 @@ public class AiController {
         result.put("status", "UP");
         result.put("timestamp", LocalDateTime.now());
         result.put("service", "ai-code-helper");
+        result.put("rag", ragReadiness.state());
+        if (ragReadiness.startupJobId() != null) {
+            result.put("ragStartupJobId", ragReadiness.startupJobId());
+        }
+        if (aiCodeHelperService instanceof CachingAiCodeHelperService caching) {
+            result.put("answerCache", caching.cache().stats());
+        }
         return ResponseEntity.ok(result);
     }
 
@@ -262,47 +274,82 @@ public class AiController {
     }
 
     /**
-     * 添加文档到RAG知识库
+     * 添加文档到RAG知识库,异步执行,返回任务ID供查询进度
      */
     @PostMapping("/rag/document")
     public ResponseEntity<Map<String, Object>> addDocument(@RequestBody AddDocumentRequest request) {
-        try {
-            enhancedRagConfig.addDocument(request.getFilePath(), embeddingStoreIngestor);
-            
-            Map<String, Object> result = new HashMap<>();
-            result.put("message", "文档添加成功");
-            result.put("filePath", request.getFilePath());
-            result.put("timestamp", LocalDateTime.now());
-            
-            return ResponseEntity.ok(result);
-            
-        } catch (Exception e) {
-            log.error("添加文档失败", e);
+        if (!StringUtils.hasText(request.getFilePath())) {
             Map<String, Object> error = new HashMap<>();
-            error.put("error", "添加文档失败: " + e.getMessage());
-            return ResponseEntity.internalServerError().body(error);
+            error.put("error", "文件路径不能为空");
+            return ResponseEntity.badRequest().body(error);
         }
+        IngestionJob job = ingestionJobManager.submitDocument(request.getFilePath());
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("message", "文档添加任务已提交");
+        result.put("jobId", job.getId());
+        result.put("filePath", request.getFilePath());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.accepted().body(result);
     }
 
     /**
-     * 重新加载RAG文档
+     * 重新加载RAG文档,异步执行;已有重新加载任务进行中时返回409和该任务ID
      */
     @PostMapping("/rag/reload")
-    public ResponseEntity<Map<String, Object>> reloadDocuments() {
-        try {
-            enhancedRagConfig.reloadAllDocuments(embeddingStoreIngestor);
-            
-            Map<String, Object> result = new HashMap<>();
-            result.put("message", "文档重新加载成功");
-            result.put("timestamp", LocalDateTime.now());
-            
-            return ResponseEntity.ok(result);
-            
-        } catch (Exception e) {
-            log.error("重新加载文档失败", e);
+    public ResponseEntity<Map<String, Object>> reloadDocuments(
+            @RequestParam(defaultValue = "true") boolean force) {
+        IngestionJobManager.Submission submission = ingestionJobManager.submitReload(force);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", submission.job().getId());
+        result.put("timestamp", LocalDateTime.now());
+        if (!submission.accepted()) {
+            result.put("error", "已有重新加载任务正在进行");
+            return ResponseEntity.status(409).body(result);
+        }
+        result.put("message", "重新加载任务已提交");
+        return ResponseEntity.accepted().body(result);
+    }
+
+    /**
+     * 查询RAG摄取任务列表
+     */
+    @GetMapping("/rag/jobs")
+    public ResponseEntity<List<IngestionJobReport>> listIngestionJobs() {
+        return ResponseEntity.ok(ingestionJobManager.listJobs().stream()
+                .map(ingestionJobManager::report)
+                .toList());
+    }
+
+    /**
+     * 查询RAG摄取任务进度
+     */
+    @GetMapping("/rag/jobs/{jobId}")
+    public ResponseEntity<?> getIngestionJob(@PathVariable String jobId) {
+        IngestionJob job = ingestionJobManager.getJob(jobId);
+        if (job == null) {
             Map<String, Object> error = new HashMap<>();
-            error.put("error", "重新加载文档失败: " + e.getMessage());
-            return ResponseEntity.internalServerError().body(error);
+            error.put("error", "任务不存在: " + jobId);
+            return ResponseEntity.status(404).body(error);
+        }
+        return ResponseEntity.ok(ingestionJobManager.report(job));
+    }
+
+    /**
+     * 取消RAG摄取任务,正在处理的文件会处理完,剩余文件不再处理
+     */
+    @PostMapping("/rag/jobs/{jobId}/cancel")
+    public ResponseEntity<Map<String, Object>> cancelIngestionJob(@PathVariable String jobId) {
+        boolean cancelled = ingestionJobManager.cancel(jobId);
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", jobId);
+        result.put("success", cancelled);
+        if (!cancelled) {
+            result.put("error", "任务不存在或已结束");
+            return ResponseEntity.status(404).body(result);
         }
+        result.put("message", "已请求取消任务");
+        return ResponseEntity.ok(result);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package org.example.ai.cache;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.example.ai.AiCodeHelperService;
+import org.example.ai.rag.IngestionGeneration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CachingAiCodeHelperServiceTest {
+
+    private AiCodeHelperService delegate;
+    private EmbeddingModel embeddingModel;
+    private IngestionGeneration generation;
+    private SemanticAnswerCache cache;
+    private CachingAiCodeHelperService service;
+    private final Map<Object, ChatMemory> memories = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(AiCodeHelperService.class);
+        embeddingModel = mock(EmbeddingModel.class);
+        // 问题中包含"路线"的向量相同,其他问题正交
+        when(embeddingModel.embed(anyString())).thenAnswer(invocation -> {
+            String text = invocation.getArgument(0);
+            float[] vector = text.contains("路线") ? new float[]{1, 0, 0} : new float[]{0, 1, 0};
+            return Response.from(Embedding.from(vector));
+        });
+        generation = new IngestionGeneration();
+        cache = new SemanticAnswerCache(embeddingModel, generation, 0.95, 100, Duration.ofMinutes(10));
+        service = new CachingAiCodeHelperService(delegate, cache,
+                id -> memories.computeIfAbsent(id, k -> MessageWindowChatMemory.withMaxMessages(10)));
+    }
+
+    @Test
+    void testSimilarFirstTurnQuestionSkipsModel() {
+        when(delegate.chat(anyString(), anyString())).thenReturn("先学Java基础,再学集合和并发");
+        assertEquals("先学Java基础,再学集合和并发", service.chat("c1", "Java学习路线"));
+
+        // 规范化后相同的问题精确命中,不需要向量化
+        assertEquals("先学Java基础,再学集合和并发", service.chat("c2", "java学习路线？"));
+        verify(embeddingModel, times(1)).embed(anyString());
+        // 向量相似的问题语义命中
+        assertEquals("先学Java基础,再学集合和并发", service.chat("c3", "请给一个Java的学习路线"));
+        verify(delegate, times(1)).chat(anyString(), anyString());
+        // 命中的问答写入会话记忆
+        assertEquals(AiMessage.from("先学Java基础,再学集合和并发"), memories.get("c3").messages().get(1));
+
+        assertEquals(1L, cache.stats().get("exactHits"));
+        assertEquals(1L, cache.stats().get("semanticHits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void testFollowUpQuestionsAreNotCached() {
+        when(delegate.chat(anyString(), anyString())).thenReturn("回答");
+        service.chat("c1", "HashMap面试题");
+        // 会话中已有AI回复,追问依赖上下文
+        memories.get("c1").add(AiMessage.from("回答"));
+        service.chat("c1", "HashMap面试题");
+        verify(delegate, times(2)).chat(anyString(), anyString());
+    }
+
+    @Test
+    void testStreamReplayAndGenerationInvalidation() {
+        String answer = "HashMap基于数组加链表,链表过长时转为红黑树,容量超过阈值时扩容。";
+        when(delegate.chatStream(anyString(), anyString())).thenReturn(Flux.just(answer.substring(0, 10),
+                answer.substring(10)));
+        assertEquals(answer, String.join("", service.chatStream("c1", "HashMap面试题").collectList().block()));
+
+        List<String> replayed = service.chatStream("c2", "HashMap面试题").collectList().block();
+        assertTrue(replayed.size() > 1);
+        assertEquals(answer, String.join("", replayed));
+        verify(delegate, times(1)).chatStream(anyString(), anyString());
+
+        // 知识库更新后缓存失效
+        generation.advance("test");
+        service.chatStream("c3", "HashMap面试题").collectList().block();
+        verify(delegate, times(2)).chatStream(anyString(), anyString());
+    }
+
+    @Test
+    void testExpiredAnswersAreNotReturned() {
+        AtomicLong now = new AtomicLong(1_000);
+        SemanticAnswerCache shortLived = new SemanticAnswerCache(embeddingModel, generation, 0.95, 100,
+                Duration.ofMillis(20), now::get);
+        SemanticAnswerCache.Lookup miss = shortLived.lookup("Java学习路线");
+        shortLived.put("Java学习路线", miss, "回答");
+        now.addAndGet(20);
+        assertTrue(shortLived.lookup("Java学习路线").hit());
+        now.addAndGet(1);
+        assertFalse(shortLived.lookup("Java学习路线").hit());
+        assertFalse(shortLived.lookup("Java的学习路线").hit());
+        assertEquals(0, shortLived.stats().get("size"));
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveDocumentReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path createArchive(String name, Map<String, String> entries) throws IOException {
+        Path archive = tempDir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(archive);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return archive;
+    }
+
+    @Test
+    void testEntriesComeFromCentralDirectoryWithCrcAsContentHash() throws IOException {
+        Path archive = createArchive("docs.zip", Map.of(
+                "guide/intro.md", "# 简介\n\n压缩包中的文档",
+                "notes.txt", "plain notes",
+                "META-INF/MANIFEST.MF", "Manifest-Version: 1.0",
+                "nested/inner.zip", "not really a zip",
+                ".hidden.md", "hidden",
+                "image.png", "binary"));
+
+        try (ArchiveDocumentReader reader = ArchiveDocumentReader.open(archive)) {
+            List<ArchiveDocumentReader.ArchiveEntry> entries = reader.entries(name -> !name.endsWith(".png"));
+
+            assertEquals(List.of("intro.md", "notes.txt"), entries.stream()
+                    .map(ArchiveDocumentReader.ArchiveEntry::fileName)
+                    .sorted()
+                    .toList());
+            ArchiveDocumentReader.ArchiveEntry intro = entries.stream()
+                    .filter(entry -> entry.fileName().equals("intro.md"))
+                    .findFirst()
+                    .orElseThrow();
+            byte[] bytes = "# 简介\n\n压缩包中的文档".getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            DocumentProcessingSnapshot snapshot = intro.snapshot();
+            assertEquals(archive.toAbsolutePath() + "!/guide/intro.md", snapshot.absolutePath());
+            assertEquals(bytes.length, snapshot.fileSize());
+            assertEquals(String.format("crc32:%08x", crc.getValue()), snapshot.contentHash());
+        }
+    }
+
+    @Test
+    void testGbkEncodedEntryNamesAreDecoded() throws IOException {
+        Path archive = tempDir.resolve("gbk.zip");
+        try (OutputStream out = Files.newOutputStream(archive);
+             ZipOutputStream zip = new ZipOutputStream(out, Charset.forName("GBK"))) {
+            zip.putNextEntry(new ZipEntry("说明/使用手册.md"));
+            zip.write("# 使用手册".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        try (ArchiveDocumentReader reader = ArchiveDocumentReader.open(archive)) {
+            List<ArchiveDocumentReader.ArchiveEntry> entries = reader.entries(name -> true);
+
+            assertEquals(1, entries.size());
+            assertEquals("使用手册.md", entries.get(0).fileName());
+            assertEquals(archive.toAbsolutePath() + "!/说明/使用手册.md", entries.get(0).snapshot().absolutePath());
+            assertTrue(reader.load(entries.get(0)).text().contains("使用手册"));
+        }
+    }
+
+    @Test
+    void testLoadParsesEntryWithoutExtracting() throws IOException {
+        Path archive = createArchive("docs.jar", Map.of("guide/intro.md", "# 简介\n\n压缩包中的文档", "empty.txt", "  "));
+
+        try (ArchiveDocumentReader reader = ArchiveDocumentReader.open(archive)) {
+            List<ArchiveDocumentReader.ArchiveEntry> entries = reader.entries(name -> true);
+            ArchiveDocumentReader.ArchiveEntry intro = entries.stream()
+                    .filter(entry -> entry.fileName().equals("intro.md"))
+                    .findFirst()
+                    .orElseThrow();
+
+            Document document = reader.load(intro);
+            assertEquals("# 简介\n\n压缩包中的文档", document.text());
+            assertEquals("intro.md", document.metadata().getString(Document.FILE_NAME));
+            assertEquals(archive.toAbsolutePath() + "!/guide",
+                    document.metadata().getString(Document.ABSOLUTE_DIRECTORY_PATH));
+
+            ArchiveDocumentReader.ArchiveEntry empty = entries.stream()
+                    .filter(entry -> entry.fileName().equals("empty.txt"))
+                    .findFirst()
+                    .orElseThrow();
+            assertNull(reader.load(empty), "Blank entries should be skipped");
+
+            try (Reader text = reader.openReader(intro)) {
+                char[] buffer = new char[64];
+                int read = text.read(buffer);
+                assertEquals("# 简介\n\n压缩包中的文档", new String(buffer, 0, read));
+            }
+        }
+        assertEquals(1, Files.list(tempDir).count(), "Nothing should be extracted to disk");
+    }
+
+    @Test
+    void testGbkEntryWithLongAsciiHeadIsDecodedAsGb18030() throws IOException {
+        String text = "# Licensed under the Apache License\n".repeat(3000) + "## 说明\n\n压缩包中的GBK文档\n";
+        Path archive = tempDir.resolve("gbk-entry.zip");
+        try (OutputStream out = Files.newOutputStream(archive);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("guide.txt"));
+            zip.write(text.getBytes(Charset.forName("GBK")));
+            zip.closeEntry();
+        }
+
+        try (ArchiveDocumentReader reader = ArchiveDocumentReader.open(archive);
+             Reader in = reader.openReader(reader.entries(name -> true).get(0))) {
+            StringBuilder decoded = new StringBuilder();
+            char[] buffer = new char[1000];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                decoded.append(buffer, 0, read);
+            }
+            assertEquals(text, decoded.toString());
+        }
+    }
+
+    @Test
+    void testEntryKeyRoundTrip() {
+        assertTrue(ArchiveDocumentReader.isArchive("lib.JAR"));
+        assertFalse(ArchiveDocumentReader.isArchive("backup.7z"));
+        String key = ArchiveDocumentReader.entryKey("/data/docs.zip", "a/b.md");
+        assertEquals("/data/docs.zip!/a/b.md", key);
+        assertEquals("/data/docs.zip", ArchiveDocumentReader.archiveOf(key));
+        assertNull(ArchiveDocumentReader.archiveOf("/data/plain.md"));
+    }
+}
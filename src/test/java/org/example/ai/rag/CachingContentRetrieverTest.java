@@ -0,0 +1,57 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CachingContentRetrieverTest {
+
+    @Test
+    void testNormalizedRepeatedQueriesHitCacheUntilGenerationAdvances() {
+        ContentRetriever delegate = mock(ContentRetriever.class);
+        when(delegate.retrieve(any())).thenReturn(List.of(Content.from("HashMap 扩容")));
+        IngestionGeneration generation = new IngestionGeneration();
+        CachingContentRetriever retriever = new CachingContentRetriever(delegate, generation, 100,
+                Duration.ofMinutes(10));
+
+        List<Content> first = retriever.retrieve(Query.from("HashMap 面试题？"));
+        assertEquals(first, retriever.retrieve(Query.from("  hashmap   面试题")));
+        assertEquals(first, retriever.retrieve(Query.from("ＨａｓｈＭａｐ 面试题!")));
+        verify(delegate, times(1)).retrieve(any());
+
+        // 摄取结束后旧结果失效
+        generation.advance("test");
+        retriever.retrieve(Query.from("HashMap 面试题"));
+        verify(delegate, times(2)).retrieve(any());
+        assertEquals(2L, retriever.stats().get("hits"));
+        assertEquals(1L, retriever.stats().get("stale"));
+
+        assertNotEquals(CachingContentRetriever.normalize("C++"), CachingContentRetriever.normalize("C"));
+    }
+
+    @Test
+    void testQueryEmbeddingsAreCachedByNormalizedText() {
+        EmbeddingModel delegate = mock(EmbeddingModel.class);
+        when(delegate.embed(anyString())).thenReturn(Response.from(Embedding.from(new float[]{1, 0})));
+        CachingQueryEmbeddingModel model = new CachingQueryEmbeddingModel(delegate, 100, Duration.ofMinutes(10));
+
+        Embedding embedding = model.embed("Java 学习路线").content();
+        assertEquals(embedding, model.embed("java 学习路线。").content());
+        assertEquals(embedding, model.embedAll(List.of(TextSegment.from("JAVA 学习路线"))).content().get(0));
+        verify(delegate, times(1)).embed(anyString());
+        verify(delegate, never()).embedAll(any());
+        assertEquals(2L, model.stats().get("hits"));
+    }
+}
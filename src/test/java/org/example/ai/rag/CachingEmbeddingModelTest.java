@@ -0,0 +1,96 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingEmbeddingModelTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testReembeddingUnchangedSegmentsHitsDiskCacheAcrossRestarts() {
+        CountingEmbeddingModel remote = new CountingEmbeddingModel();
+        CachingEmbeddingModel model = new CachingEmbeddingModel(remote, "text-embedding-v4", 2,
+                new DiskEmbeddingCache(tempDir, 1024 * 1024), null, Duration.ZERO);
+        List<TextSegment> segments = List.of(TextSegment.from("a"), TextSegment.from("bb"), TextSegment.from("a"));
+
+        List<Embedding> first = model.embedAll(segments).content();
+        assertEquals(1, remote.calls.get());
+        assertEquals(2, remote.texts.get(), "Duplicate text in one batch should be embedded once");
+        assertArrayEquals(new float[]{1f, 1f}, first.get(2).vector());
+
+        // 模拟重启: 新建缓存实例从磁盘重建索引
+        CachingEmbeddingModel restarted = new CachingEmbeddingModel(remote, "text-embedding-v4", 2,
+                new DiskEmbeddingCache(tempDir, 1024 * 1024), null, Duration.ZERO);
+        List<Embedding> second = restarted.embedAll(segments).content();
+        assertEquals(1, remote.calls.get());
+        assertArrayEquals(new float[]{2f, 1f}, second.get(1).vector());
+
+        // 模型名不同则缓存键不同
+        CachingEmbeddingModel otherModel = new CachingEmbeddingModel(remote, "text-embedding-v3", 2,
+                new DiskEmbeddingCache(tempDir, 1024 * 1024), null, Duration.ZERO);
+        otherModel.embedAll(List.of(TextSegment.from("a")));
+        assertEquals(2, remote.calls.get());
+    }
+
+    @Test
+    void testConcurrentRequestsForSameTextShareOneRemoteCall() throws Exception {
+        CountingEmbeddingModel remote = new CountingEmbeddingModel();
+        remote.gate = new CountDownLatch(1);
+        CachingEmbeddingModel model = new CachingEmbeddingModel(remote, "m", 2,
+                new DiskEmbeddingCache(tempDir, 1024 * 1024), null, Duration.ZERO);
+        List<TextSegment> segments = List.of(TextSegment.from("shared"));
+
+        // 第二个请求在进行中的请求表里找到已有请求时通知
+        CountDownLatch joined = new CountDownLatch(1);
+        ReflectionTestUtils.setField(model, "inFlight", new ConcurrentHashMap<String, CompletableFuture<Embedding>>() {
+            @Override
+            public CompletableFuture<Embedding> putIfAbsent(String key, CompletableFuture<Embedding> value) {
+                CompletableFuture<Embedding> existing = super.putIfAbsent(key, value);
+                if (existing != null) {
+                    joined.countDown();
+                }
+                return existing;
+            }
+        });
+
+        CompletableFuture<List<Embedding>> first = CompletableFuture.supplyAsync(() -> model.embedAll(segments).content());
+        assertTrue(remote.entered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<Embedding>> second = CompletableFuture.supplyAsync(() -> model.embedAll(segments).content());
+        assertTrue(joined.await(5, TimeUnit.SECONDS), "Second request should join the in-flight one");
+        remote.gate.countDown();
+
+        assertArrayEquals(first.get(5, TimeUnit.SECONDS).get(0).vector(), second.get(5, TimeUnit.SECONDS).get(0).vector());
+        assertEquals(1, remote.calls.get());
+    }
+
+    @Test
+    void testDiskCacheEvictsLeastRecentlyUsedWhenOverLimit() {
+        // 每个向量2个float共8字节,上限16字节只能保留2个
+        DiskEmbeddingCache cache = new DiskEmbeddingCache(tempDir, 16);
+        cache.put("aa01", new float[]{1f, 1f});
+        cache.put("aa02", new float[]{2f, 2f});
+        assertNotNull(cache.get("aa01"));
+        cache.put("aa03", new float[]{3f, 3f});
+
+        assertEquals(2, cache.size());
+        assertEquals(16, cache.totalBytes());
+        assertNull(cache.get("aa02"));
+        assertArrayEquals(new float[]{1f, 1f}, cache.get("aa01"));
+        assertFalse(tempDir.resolve("aa").resolve("aa02.emb").toFile().exists());
+    }
+}
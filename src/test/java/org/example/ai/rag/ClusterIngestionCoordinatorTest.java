@@ -0,0 +1,321 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ClusterIngestionCoordinatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 本地Redis替身: 只实现协调用到的命令,每个命令原子执行,过期时间使用可调整的时钟
+     */
+    static class InMemoryRedisTemplate extends RedisTemplate<String, String> {
+        private final Map<String, String> values = new HashMap<>();
+        private final Map<String, Long> expireAt = new HashMap<>();
+        private final ValueOperations<String, String> operations = mock(ValueOperations.class);
+        private long clockOffsetMillis;
+
+        InMemoryRedisTemplate() {
+            when(operations.get(anyString())).thenAnswer(invocation -> get(invocation.getArgument(0)));
+            when(operations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenAnswer(invocation ->
+                    setIfAbsent(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+            doAnswer(invocation -> {
+                set(invocation.getArgument(0), invocation.getArgument(1), null);
+                return null;
+            }).when(operations).set(anyString(), anyString());
+        }
+
+        @Override
+        public ValueOperations<String, String> opsForValue() {
+            return operations;
+        }
+
+        @Override
+        public synchronized Boolean delete(String key) {
+            expireAt.remove(key);
+            return values.remove(key) != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            String key = keys.get(0);
+            if (!args[0].equals(get(key))) {
+                return (T) Long.valueOf(0);
+            }
+            if (script == ClusterIngestionCoordinator.RELEASE_SCRIPT) {
+                delete(key);
+            } else if (script == ClusterIngestionCoordinator.RENEW_SCRIPT) {
+                expireAt.put(key, now() + Long.parseLong((String) args[1]));
+            } else {
+                throw new UnsupportedOperationException("未知脚本");
+            }
+            return (T) Long.valueOf(1);
+        }
+
+        synchronized void advance(Duration duration) {
+            clockOffsetMillis += duration.toMillis();
+        }
+
+        private synchronized String get(String key) {
+            Long deadline = expireAt.get(key);
+            if (deadline != null && deadline <= now()) {
+                delete(key);
+            }
+            return values.get(key);
+        }
+
+        private synchronized Boolean setIfAbsent(String key, String value, Duration ttl) {
+            if (get(key) != null) {
+                return false;
+            }
+            set(key, value, ttl);
+            return true;
+        }
+
+        private synchronized void set(String key, String value, Duration ttl) {
+            values.put(key, value);
+            if (ttl == null) {
+                expireAt.remove(key);
+            } else {
+                expireAt.put(key, now() + ttl.toMillis());
+            }
+        }
+
+        private long now() {
+            return System.currentTimeMillis() + clockOffsetMillis;
+        }
+    }
+
+    private record Node(DocumentProcessingService service, DocumentProcessingStateTracker tracker,
+                        DocumentIngestor ingestor, ClusterIngestionCoordinator coordinator) {
+
+        void ingestAll() {
+            service.ingestAllDocuments(ingestor, false);
+        }
+
+        void close() {
+            service.shutdown();
+            ingestor.close();
+            coordinator.shutdown();
+            tracker.close();
+        }
+    }
+
+    @Test
+    void testOnlyOneNodeProcessesAVersionAndOthersAdoptItsResult() throws IOException {
+        InMemoryRedisTemplate redis = new InMemoryRedisTemplate();
+        ClusterIngestionCoordinator nodeA = coordinator(redis, "node-a", Duration.ofMinutes(1));
+        ClusterIngestionCoordinator nodeB = coordinator(redis, "node-b", Duration.ofMinutes(1));
+        try {
+            Path file = tempDir.resolve("doc.md");
+            Files.writeString(file, "content");
+            DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file);
+
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.CLAIMED, nodeA.claim(snapshot, false).status());
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.BUSY, nodeB.claim(snapshot, false).status());
+
+            DocumentProcessingState state = DocumentProcessingState.builder()
+                    .filePath(snapshot.absolutePath())
+                    .fileSize(snapshot.fileSize())
+                    .lastModified(snapshot.lastModifiedTime())
+                    .status(DocumentProcessingState.ProcessingStatus.SUCCESS)
+                    .embeddingIds(List.of("id-1", "id-2"))
+                    .build();
+            nodeA.complete(snapshot, List.of(state));
+
+            ClusterIngestionCoordinator.Claim adopted = nodeB.claim(snapshot, false);
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.DONE, adopted.status());
+            assertEquals(List.of("id-1", "id-2"), adopted.states().get(0).getEmbeddingIds());
+
+            // 新版本需要重新处理,强制处理忽略完成记录
+            DocumentProcessingSnapshot modified = new DocumentProcessingSnapshot(snapshot.absolutePath(),
+                    snapshot.fileSize(), snapshot.lastModifiedTime() + 1000, null);
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.CLAIMED, nodeB.claim(modified, false).status());
+            nodeB.abandon(modified);
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.CLAIMED, nodeA.claim(snapshot, true).status());
+        } finally {
+            nodeA.shutdown();
+            nodeB.shutdown();
+        }
+    }
+
+    @Test
+    void testVersionIsTheContentHashNotTheModificationTime() throws IOException {
+        InMemoryRedisTemplate redis = new InMemoryRedisTemplate();
+        ClusterIngestionCoordinator nodeA = coordinator(redis, "node-a", Duration.ofMinutes(1));
+        ClusterIngestionCoordinator nodeB = coordinator(redis, "node-b", Duration.ofMinutes(1));
+        try {
+            Path file = tempDir.resolve("doc.md");
+            Files.writeString(file, "content");
+            DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file)
+                    .withContentHash(ContentHasher.hash(file));
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.CLAIMED, nodeA.claim(snapshot, false).status());
+            nodeA.complete(snapshot, List.of());
+
+            // 另一节点的副本修改时间不同但内容相同,采用已有结果
+            DocumentProcessingSnapshot copy = new DocumentProcessingSnapshot(snapshot.absolutePath(),
+                    snapshot.fileSize(), snapshot.lastModifiedTime() + 60_000, snapshot.contentHash());
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.DONE, nodeB.claim(copy, false).status());
+
+            // 大小和修改时间相同但内容不同,需要重新处理
+            Files.writeString(file, "changed");
+            DocumentProcessingSnapshot rewritten = new DocumentProcessingSnapshot(snapshot.absolutePath(),
+                    snapshot.fileSize(), snapshot.lastModifiedTime(), ContentHasher.hash(file));
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.CLAIMED, nodeB.claim(rewritten, false).status());
+            nodeB.abandon(rewritten);
+        } finally {
+            nodeA.shutdown();
+            nodeB.shutdown();
+        }
+    }
+
+    @Test
+    void testExpiredLeaseIsTakenOverAndStaleHolderCannotReleaseIt() throws IOException {
+        InMemoryRedisTemplate redis = new InMemoryRedisTemplate();
+        ClusterIngestionCoordinator crashed = coordinator(redis, "node-a", Duration.ofHours(1));
+        ClusterIngestionCoordinator nodeB = coordinator(redis, "node-b", Duration.ofHours(1));
+        ClusterIngestionCoordinator nodeC = coordinator(redis, "node-c", Duration.ofHours(1));
+        try {
+            Path file = tempDir.resolve("doc.md");
+            Files.writeString(file, "content");
+            DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file);
+
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.CLAIMED, crashed.claim(snapshot, false).status());
+            redis.advance(Duration.ofHours(2));
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.CLAIMED, nodeB.claim(snapshot, false).status());
+
+            // 原持有者恢复后释放租约不能删除新持有者的租约
+            crashed.abandon(snapshot);
+            assertEquals(ClusterIngestionCoordinator.ClaimStatus.BUSY, nodeC.claim(snapshot, false).status());
+        } finally {
+            crashed.shutdown();
+            nodeB.shutdown();
+            nodeC.shutdown();
+        }
+    }
+
+    @Test
+    void testReplicasIngestEachFileExactlyOnce() throws Exception {
+        Path docs = Files.createDirectories(tempDir.resolve("docs"));
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            String content = "第" + i + "篇文档: Redis分布式锁需要设置过期时间并在释放时校验持有者";
+            Files.writeString(docs.resolve("doc-" + i + ".md"), content);
+            contents.add(content);
+        }
+
+        InMemoryRedisTemplate redis = new InMemoryRedisTemplate();
+        EmbeddingStore<TextSegment> sharedStore = new InMemoryEmbeddingStore<>();
+        CountingEmbeddingModel embeddingModel = new CountingEmbeddingModel();
+        List<Node> nodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                nodes.add(startNode("node-" + i, docs, redis, sharedStore, embeddingModel));
+            }
+            ingestConcurrently(nodes);
+
+            assertEquals(contents.size(), embeddingModel.embedded.size());
+            embeddingModel.embedded.forEach((text, count) ->
+                    assertEquals(1, count.get(), "Embedded more than once: " + text));
+            assertTrackersAgree(nodes, docs, 12);
+
+            // 修改一个文件后再次启动,只有该文件被重新处理一次
+            Path changed = docs.resolve("doc-3.md");
+            Files.writeString(changed, "第3篇文档: 修改后的内容");
+            Files.setLastModifiedTime(changed, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+            ingestConcurrently(nodes);
+
+            assertEquals(1, embeddingModel.embedded.get("第3篇文档: 修改后的内容").get());
+            assertEquals(contents.size() + 1, embeddingModel.embedded.size());
+            assertTrackersAgree(nodes, docs, 12);
+        } finally {
+            nodes.forEach(Node::close);
+        }
+    }
+
+    private static void ingestConcurrently(List<Node> nodes) throws Exception {
+        CompletableFuture.allOf(nodes.stream()
+                        .map(node -> CompletableFuture.runAsync(node::ingestAll))
+                        .toArray(CompletableFuture[]::new))
+                .get(60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 每个节点都记录了全部文件的处理状态,且向量ID与实际写入的节点一致
+     */
+    private static void assertTrackersAgree(List<Node> nodes, Path docs, int files) {
+        for (int i = 0; i < files; i++) {
+            String key = docs.resolve("doc-" + i + ".md").toAbsolutePath().toString();
+            DocumentProcessingState reference = nodes.get(0).tracker().snapshotStates().get(key);
+            assertNotNull(reference, "Missing state for " + key);
+            // 再次扫描时未变化的文件被标记为跳过,向量ID保持不变
+            assertTrue(reference.getStatus() == DocumentProcessingState.ProcessingStatus.SUCCESS
+                    || reference.getStatus() == DocumentProcessingState.ProcessingStatus.SKIPPED, key);
+            assertEquals(1, reference.getEmbeddingIds().size());
+            for (Node node : nodes) {
+                DocumentProcessingState state = node.tracker().snapshotStates().get(key);
+                assertNotNull(state);
+                assertEquals(reference.getEmbeddingIds(), state.getEmbeddingIds());
+                assertEquals(reference.getLastModified(), state.getLastModified());
+            }
+        }
+    }
+
+    private static ClusterIngestionCoordinator coordinator(InMemoryRedisTemplate redis, String nodeId, Duration lease) {
+        return new ClusterIngestionCoordinator(redis, true, nodeId, lease, Duration.ofMillis(20), "rag:ingest:");
+    }
+
+    private static Node startNode(String name, Path docs, InMemoryRedisTemplate redis,
+                                  EmbeddingStore<TextSegment> store, EmbeddingModel embeddingModel) {
+        RagUtils ragUtils = mock(RagUtils.class);
+        when(ragUtils.getActualDocumentsPath()).thenReturn(docs.toString());
+        // 状态文件以.开头,扫描时作为隐藏文件被忽略
+        String stateFileName = "." + name + "-state.json";
+        DocumentProcessingStateTracker tracker = new DocumentProcessingStateTracker(ragUtils, stateFileName);
+        ClusterIngestionCoordinator coordinator = coordinator(redis, name, Duration.ofMinutes(1));
+        DocumentIngestor ingestor = new DocumentIngestor(new DocumentByParagraphSplitter(200, 0), null,
+                embeddingModel, store, new DocumentIngestor.IngestionPipelineSettings(10, 8192, 200, 16, 2, 1));
+
+        DocumentProcessingService service = new DocumentProcessingService(tracker, ragUtils);
+        ReflectionTestUtils.setField(service, "clusterCoordinator", coordinator);
+        ReflectionTestUtils.setField(service, "trackState", true);
+        ReflectionTestUtils.setField(service, "stateFileName", stateFileName);
+        ReflectionTestUtils.setField(service, "largeFileThresholdBytes", 5L * 1024 * 1024);
+        ReflectionTestUtils.setField(service, "streamChunkSize", 262144);
+        ReflectionTestUtils.setField(service, "checkpointSegments", 2000);
+        ReflectionTestUtils.setField(service, "largeDocumentSegmentSize", 400);
+        ReflectionTestUtils.setField(service, "maxParallelism", 4);
+        ReflectionTestUtils.setField(service, "scanParallelism", 2);
+        ReflectionTestUtils.setField(service, "maxNoiseRatio", 1.0);
+        return new Node(service, tracker, ingestor, coordinator);
+    }
+}
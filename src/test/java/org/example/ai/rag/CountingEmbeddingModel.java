@@ -0,0 +1,45 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用向量模型: 按文本长度生成二维向量,并统计远程调用次数和每段文本的向量化次数.
+ * 设置gate后调用在进入时通知entered并阻塞到gate放行,用于构造请求进行中的场景
+ */
+class CountingEmbeddingModel implements EmbeddingModel {
+
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger texts = new AtomicInteger();
+    final Map<String, AtomicInteger> embedded = new ConcurrentHashMap<>();
+    final CountDownLatch entered = new CountDownLatch(1);
+    volatile CountDownLatch gate;
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        calls.incrementAndGet();
+        texts.addAndGet(textSegments.size());
+        textSegments.forEach(segment ->
+                embedded.computeIfAbsent(segment.text(), text -> new AtomicInteger()).incrementAndGet());
+        entered.countDown();
+        if (gate != null) {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return Response.from(textSegments.stream()
+                .map(segment -> Embedding.from(new float[]{segment.text().length(), 1f}))
+                .toList());
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.ai.rag;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class DocumentDirectoryWatcherTest {
+
+    @TempDir
+    Path tempDir;
+
+    private DocumentDirectoryWatcher watcher;
+
+    @AfterEach
+    void tearDown() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    /**
+     * 记录提交的变更.IngestionJobManager的方法是synchronized的,verify(timeout)会在等待期间持有mock的监视器,
+     * 监听线程的调用被阻塞到超时之后,因此用应答记录调用,不使用verify(timeout)
+     */
+    private static List<Collection<Path>> recordSubmissions(IngestionJobManager jobManager, CountDownLatch latch,
+                                                          Path expected) {
+        List<Collection<Path>> submissions = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            Collection<Path> changed = invocation.getArgument(0);
+            submissions.add(List.copyOf(changed));
+            if (changed.contains(expected)) {
+                latch.countDown();
+            }
+            return null;
+        }).when(jobManager).submitChanges(any(), any(), anyBoolean());
+        return submissions;
+    }
+
+    private DocumentDirectoryWatcher newWatcher(IngestionJobManager jobManager) {
+        RagUtils ragUtils = mock(RagUtils.class);
+        when(ragUtils.getActualDocumentsPath()).thenReturn(tempDir.toString());
+        return new DocumentDirectoryWatcher(jobManager, ragUtils, true, 200, 5000, ".rag-processing-state.json");
+    }
+
+    @Test
+    void testBurstOfWritesIsCoalescedIntoOneBatch() throws Exception {
+        IngestionJobManager jobManager = mock(IngestionJobManager.class);
+        Path file = tempDir.resolve("guide.md");
+        CountDownLatch submitted = new CountDownLatch(1);
+        List<Collection<Path>> submissions = recordSubmissions(jobManager, submitted, file);
+        watcher = newWatcher(jobManager);
+        watcher.start();
+
+        Files.writeString(file, "第一版");
+        Files.writeString(file, "第二版");
+        Files.writeString(file, "第三版");
+        // 状态文件及其日志的变化不应触发摄取
+        Files.writeString(tempDir.resolve(".rag-processing-state.json.journal"), "{}");
+
+        assertTrue(submitted.await(5, TimeUnit.SECONDS), "Changes should be submitted after the debounce");
+        assertEquals(List.of(file), List.copyOf(submissions.get(0)));
+        // 静默期过后不再有第二批
+        Thread.sleep(500);
+        assertEquals(1, submissions.size());
+        verify(jobManager).submitChanges(any(), any(), eq(false));
+    }
+
+    @Test
+    void testDeleteAfterModifyWinsAndNewDirectoriesAreWatched() {
+        IngestionJobManager jobManager = mock(IngestionJobManager.class);
+        watcher = newWatcher(jobManager);
+
+        Path file = tempDir.resolve("a.txt");
+        watcher.recordChange(file, DocumentDirectoryWatcher.ChangeType.UPSERTED);
+        watcher.recordChange(file, DocumentDirectoryWatcher.ChangeType.DELETED);
+        assertFalse(watcher.isReadyToFlush(System.currentTimeMillis()));
+        assertTrue(watcher.isReadyToFlush(System.currentTimeMillis() + 200));
+
+        watcher.flush();
+        verify(jobManager).submitChanges(eq(List.of()), eq(List.of(file)), eq(false));
+    }
+
+    @Test
+    void testFilesInNewDirectoryArePickedUp() throws Exception {
+        IngestionJobManager jobManager = mock(IngestionJobManager.class);
+        Path file = tempDir.resolve("chapter").resolve("intro.txt");
+        CountDownLatch submitted = new CountDownLatch(1);
+        recordSubmissions(jobManager, submitted, file);
+        watcher = newWatcher(jobManager);
+        watcher.start();
+
+        Files.createDirectory(file.getParent());
+        Files.writeString(file, "内容");
+
+        assertTrue(submitted.await(5, TimeUnit.SECONDS), "File created in a new directory should be submitted");
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.ai.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentHandleTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testPdfEncryptionIsDetectedFromTrailerWithoutParsing() throws IOException {
+        // 不是合法的PDF,只有头尾标记;若探测失败而去解析文件会抛出异常
+        Path pdf = tempDir.resolve("secret.pdf");
+        StringBuilder body = new StringBuilder("%PDF-1.7\n");
+        body.append("x".repeat(20_000));
+        body.append("\ntrailer\n<< /Size 10 /Root 1 0 R /Encrypt 5 0 R >>\nstartxref\n123\n%%EOF\n");
+        Files.writeString(pdf, body.toString(), StandardCharsets.US_ASCII);
+
+        try (DocumentHandle handle = DocumentHandle.open(pdf)) {
+            assertInstanceOf(PdfDocumentHandle.class, handle);
+            assertTrue(handle.isEncrypted());
+            assertNull(handle.load());
+        }
+    }
+
+    @Test
+    void testOoxmlZipHeaderIsNotEncrypted() throws IOException {
+        Path docx = tempDir.resolve("plain.docx");
+        Files.write(docx, new byte[]{'P', 'K', 3, 4, 0, 0, 0, 0});
+
+        try (DocumentHandle handle = DocumentHandle.open(docx)) {
+            assertInstanceOf(OfficeDocumentHandle.class, handle);
+            assertFalse(handle.isEncrypted());
+        }
+    }
+
+    @Test
+    void testTextHandleLoadsDocumentWithFileMetadata() throws IOException {
+        Path md = tempDir.resolve("notes.md");
+        Files.writeString(md, "# Java 学习路线");
+
+        try (DocumentHandle handle = DocumentHandle.open(md)) {
+            assertFalse(handle.isEncrypted());
+            var document = handle.load();
+            assertEquals("# Java 学习路线", document.text());
+            assertEquals("notes.md", document.metadata().getString("file_name"));
+        }
+    }
+}
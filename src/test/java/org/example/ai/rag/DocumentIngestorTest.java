@@ -0,0 +1,142 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class DocumentIngestorTest {
+
+    private EmbeddingModel embeddingModel;
+    private DocumentIngestor ingestor;
+
+    @BeforeEach
+    void setUp() {
+        embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embedAll(anyList())).thenAnswer(invocation -> {
+            List<TextSegment> segments = invocation.getArgument(0);
+            List<Embedding> embeddings = new ArrayList<>();
+            for (TextSegment segment : segments) {
+                embeddings.add(Embedding.from(new float[]{segment.text().length(), 1f}));
+            }
+            return Response.from(embeddings);
+        });
+        ingestor = new DocumentIngestor(new DocumentByParagraphSplitter(100, 0), null, embeddingModel,
+                new InMemoryEmbeddingStore<>(),
+                new DocumentIngestor.IngestionPipelineSettings(10, 8192, 200, 16, 2, 1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingestor.close();
+    }
+
+    @Test
+    void testSegmentsFromSmallFilesArePackedIntoSharedBatches() throws Exception {
+        List<CompletableFuture<List<String>>> completions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            IngestionTicket ticket = ingestor.open("file-" + i);
+            ticket.submit(Document.from("small document " + i, Metadata.from(Document.FILE_NAME, "file-" + i + ".md")));
+            completions.add(ticket.seal());
+        }
+
+        Set<String> allIds = new HashSet<>();
+        for (CompletableFuture<List<String>> completion : completions) {
+            List<String> ids = completion.get(5, TimeUnit.SECONDS);
+            assertEquals(1, ids.size(), "Each small file should own exactly its own segment id");
+            allIds.addAll(ids);
+        }
+        assertEquals(10, allIds.size());
+        assertEquals(10, ingestor.storedSegments());
+        assertTrue(ingestor.embeddingRequests() < 10, "Segments from different files should share embedAll calls");
+    }
+
+    @Test
+    void testEmptyTicketCompletesImmediately() throws Exception {
+        IngestionTicket ticket = ingestor.open("empty");
+        assertEquals(List.of(), ticket.seal().get(1, TimeUnit.SECONDS));
+        verifyNoInteractions(embeddingModel);
+    }
+
+    @Test
+    void testSegmentViewsAreMaterializedAndTransformedAtEmbedding() throws Exception {
+        ingestor.close();
+        InMemoryEmbeddingStore<TextSegment> store = new InMemoryEmbeddingStore<>();
+        SmartDocumentSplitter splitter = new SmartDocumentSplitter(120, 120, 120, 0, Integer.MAX_VALUE, 20);
+        ingestor = new DocumentIngestor(splitter, segment -> TextSegment.from("前缀:" + segment.text(), segment.metadata()),
+                embeddingModel, store, new DocumentIngestor.IngestionPipelineSettings(4, 8192, 50, 2, 1, 1));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            text.append("第").append(i).append("段: HashMap 在链表长度超过阈值时转为红黑树。\n\n");
+        }
+        Document document = Document.from(text.toString(), Metadata.from(Document.FILE_NAME, "big.md"));
+
+        List<String> expected = splitter.split(document).stream().map(TextSegment::text).toList();
+        List<String> ids = ingestor.ingest(document);
+
+        assertEquals(expected.size(), ids.size());
+        List<String> stored = store.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(Embedding.from(new float[]{1f, 1f}))
+                        .maxResults(ids.size())
+                        .build()).matches().stream()
+                .map(match -> match.embedded().text())
+                .toList();
+        assertEquals(new HashSet<>(expected.stream().map(segment -> "前缀:" + segment).toList()), new HashSet<>(stored));
+    }
+
+    @Test
+    void testEmbeddingFailureFailsTicket() {
+        when(embeddingModel.embedAll(anyList())).thenThrow(new RuntimeException("throttled"));
+
+        assertThrows(RuntimeException.class,
+                () -> ingestor.ingest(Document.from("text", Metadata.from(Document.FILE_NAME, "a.md"))));
+        assertEquals(0, ingestor.storedSegments());
+    }
+
+    @Test
+    void testBadSegmentFailsOnlyItsOwnFileInSharedBatch() throws Exception {
+        when(embeddingModel.embedAll(anyList())).thenAnswer(invocation -> {
+            List<TextSegment> segments = invocation.getArgument(0);
+            List<Embedding> embeddings = new ArrayList<>();
+            for (TextSegment segment : segments) {
+                if (segment.text().contains("invalid")) {
+                    throw new IllegalArgumentException("input contains invalid content");
+                }
+                embeddings.add(Embedding.from(new float[]{segment.text().length(), 1f}));
+            }
+            return Response.from(embeddings);
+        });
+
+        List<CompletableFuture<List<String>>> completions = new ArrayList<>();
+        for (String name : List.of("good-1", "bad", "good-2")) {
+            IngestionTicket ticket = ingestor.open(name);
+            String text = name.equals("bad") ? "invalid segment" : "document " + name;
+            ticket.submit(Document.from(text, Metadata.from(Document.FILE_NAME, name + ".md")));
+            completions.add(ticket.seal());
+        }
+
+        assertEquals(1, completions.get(0).get(5, TimeUnit.SECONDS).size());
+        assertThrows(Exception.class, () -> completions.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals(1, completions.get(2).get(5, TimeUnit.SECONDS).size());
+        assertEquals(2, ingestor.storedSegments());
+    }
+}
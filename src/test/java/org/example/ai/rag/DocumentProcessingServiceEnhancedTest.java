@@ -64,8 +64,12 @@ class DocumentProcessingServiceEnhancedTest {
         Path imageFile = tempDir.resolve("photo.jpg");
         Files.createFile(imageFile);
         
-        Path archiveFile = tempDir.resolve("archive.zip");
+        Path archiveFile = tempDir.resolve("archive.7z");
         Files.createFile(archiveFile);
+
+        // zip/jar按条目流式处理,不再过滤
+        Path zipFile = tempDir.resolve("archive.zip");
+        Files.createFile(zipFile);
         
         Path exeFile = tempDir.resolve("program.exe");
         Files.createFile(exeFile);
@@ -77,7 +81,8 @@ class DocumentProcessingServiceEnhancedTest {
             
             assertFalse((Boolean) filterMethod.invoke(service, videoFile), "MP4 file should be filtered out");
             assertFalse((Boolean) filterMethod.invoke(service, imageFile), "JPG file should be filtered out");
-            assertFalse((Boolean) filterMethod.invoke(service, archiveFile), "ZIP file should be filtered out");
+            assertFalse((Boolean) filterMethod.invoke(service, archiveFile), "7Z file should be filtered out");
+            assertTrue((Boolean) filterMethod.invoke(service, zipFile), "ZIP file should be streamed entry by entry");
             assertFalse((Boolean) filterMethod.invoke(service, exeFile), "EXE file should be filtered out");
         } catch (Exception e) {
             if (e instanceof InvocationTargetException) {
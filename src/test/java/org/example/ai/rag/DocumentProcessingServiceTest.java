@@ -4,11 +4,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -55,4 +58,83 @@ class DocumentProcessingServiceTest {
             fail("Failed to invoke filterStateFile method: " + e.getMessage());
         }
     }
+
+    @Test
+    void testAllSkippedRoundKeepsIngestionGeneration() throws Exception {
+        Path file = tempDir.resolve("unchanged.md");
+        Files.writeString(file, "# 未变化的文档");
+
+        DocumentProcessingStateTracker mockTracker = mock(DocumentProcessingStateTracker.class);
+        when(mockTracker.hasMetadataChanged(any())).thenReturn(false);
+        DocumentProcessingService service = new DocumentProcessingService(mockTracker, mock(RagUtils.class));
+        IngestionGeneration generation = new IngestionGeneration();
+        setField(service, "trackState", true);
+        setField(service, "ingestionGeneration", generation);
+        try {
+            service.ingestSingleDocument(file.toString(), mock(DocumentIngestor.class), false);
+        } finally {
+            service.shutdown();
+        }
+
+        verify(mockTracker).markSkipped(any());
+        assertEquals(0, generation.current(), "Skipping every file should not invalidate retrieval caches");
+    }
+
+    @Test
+    void testEncryptedJarIsSkippedAsPasswordProtected() throws Exception {
+        Path jar = tempDir.resolve("secret.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zip.putNextEntry(new ZipEntry("README.md"));
+            zip.write("content".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        // 在中央目录中置上加密标志位
+        byte[] bytes = Files.readAllBytes(jar);
+        for (int i = 0; i + 8 < bytes.length; i++) {
+            if (bytes[i] == 0x50 && bytes[i + 1] == 0x4b && bytes[i + 2] == 0x01 && bytes[i + 3] == 0x02) {
+                bytes[i + 8] |= 1;
+            }
+        }
+        Files.write(jar, bytes);
+
+        DocumentProcessingStateTracker mockTracker = archiveTracker();
+        ingest(mockTracker, jar);
+
+        verify(mockTracker).markSkippedWithoutEmbeddings(any());
+        verify(mockTracker, never()).markFailure(any(), any());
+    }
+
+    @Test
+    void testCorruptArchiveFailsInsteadOfBeingTreatedAsProtected() throws Exception {
+        Path zip = tempDir.resolve("broken.zip");
+        Files.writeString(zip, "not a zip archive");
+
+        DocumentProcessingStateTracker mockTracker = archiveTracker();
+        ingest(mockTracker, zip);
+
+        verify(mockTracker).markFailure(any(), any());
+        verify(mockTracker, never()).markSkippedWithoutEmbeddings(any());
+    }
+
+    private static DocumentProcessingStateTracker archiveTracker() {
+        DocumentProcessingStateTracker mockTracker = mock(DocumentProcessingStateTracker.class);
+        when(mockTracker.hasMetadataChanged(any())).thenReturn(true);
+        return mockTracker;
+    }
+
+    private static void ingest(DocumentProcessingStateTracker tracker, Path file) throws ReflectiveOperationException {
+        DocumentProcessingService service = new DocumentProcessingService(tracker, mock(RagUtils.class));
+        setField(service, "trackState", true);
+        try {
+            service.ingestSingleDocument(file.toString(), mock(DocumentIngestor.class), false);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        java.lang.reflect.Field field = DocumentProcessingService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+package org.example.ai.rag;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DocumentProcessingStateTrackerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private RagUtils mockRagUtils;
+    private DocumentProcessingStateTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        mockRagUtils = mock(RagUtils.class);
+        when(mockRagUtils.getActualDocumentsPath()).thenReturn(tempDir.toString());
+        tracker = new DocumentProcessingStateTracker(mockRagUtils, ".rag-processing-state.json");
+    }
+
+    @AfterEach
+    void tearDown() {
+        tracker.close();
+    }
+
+    @Test
+    void testTouchedFileWithSameContentIsNotReprocessed() throws IOException {
+        Path file = tempDir.resolve("doc.md");
+        Files.writeString(file, "# HashMap\n面试题");
+        DocumentProcessingSnapshot first = DocumentProcessingSnapshot.from(file).withContentHash(ContentHasher.hash(file));
+        tracker.markSuccess(first, List.of("id-1", "id-2"));
+
+        // 仅修改时间变化
+        Files.setLastModifiedTime(file, FileTime.fromMillis(first.lastModifiedTime() + 10_000));
+        DocumentProcessingSnapshot touched = DocumentProcessingSnapshot.from(file);
+        assertTrue(tracker.hasMetadataChanged(touched));
+        DocumentProcessingSnapshot hashed = touched.withContentHash(ContentHasher.hash(file));
+        assertFalse(tracker.shouldProcess(hashed), "Touched file with identical content should be skipped");
+
+        tracker.markUnchanged(hashed);
+        assertFalse(tracker.hasMetadataChanged(DocumentProcessingSnapshot.from(file)));
+        assertEquals(List.of("id-1", "id-2"), tracker.getEmbeddingIds(first.absolutePath()));
+    }
+
+    @Test
+    void testDuplicateDependentsSurviveRestart() throws IOException {
+        Path original = tempDir.resolve("original.md");
+        Path copy = tempDir.resolve("copy.md");
+        Files.writeString(original, "原文");
+        Files.writeString(copy, "转载");
+        String originalPath = original.toAbsolutePath().toString();
+        tracker.markSuccess(DocumentProcessingSnapshot.from(original), List.of("id-1"));
+        tracker.markSuccess(DocumentProcessingSnapshot.from(copy), List.of("id-2"), List.of(originalPath));
+        tracker.close();
+
+        tracker = new DocumentProcessingStateTracker(mockRagUtils, ".rag-processing-state.json");
+        assertEquals(Set.of(copy.toAbsolutePath().toString()), tracker.findDuplicateDependents(List.of(originalPath)));
+        assertTrue(tracker.findDuplicateDependents(List.of(copy.toAbsolutePath().toString())).isEmpty());
+
+        // 依赖文件重新处理且不再有重复分段后,依赖关系被清除
+        tracker.markSuccess(DocumentProcessingSnapshot.from(copy), List.of("id-3"));
+        assertTrue(tracker.findDuplicateDependents(List.of(originalPath)).isEmpty());
+    }
+
+    @Test
+    void testChangedContentKeepsPreviousEmbeddingIdsUntilSuccess() throws IOException {
+        Path file = tempDir.resolve("doc.txt");
+        Files.writeString(file, "version 1");
+        DocumentProcessingSnapshot first = DocumentProcessingSnapshot.from(file).withContentHash(ContentHasher.hash(file));
+        tracker.markSuccess(first, List.of("old-id"));
+
+        Files.writeString(file, "version 2 with more text");
+        DocumentProcessingSnapshot changed = DocumentProcessingSnapshot.from(file).withContentHash(ContentHasher.hash(file));
+        assertTrue(tracker.shouldProcess(changed));
+
+        tracker.markProcessing(changed);
+        assertEquals(List.of("old-id"), tracker.getEmbeddingIds(changed.absolutePath()));
+
+        tracker.markSuccess(changed, List.of("new-id-1", "new-id-2"));
+        assertEquals(List.of("new-id-1", "new-id-2"), tracker.getEmbeddingIds(changed.absolutePath()));
+        assertEquals(2, tracker.snapshotStates().get(changed.absolutePath()).getProcessedSegments());
+    }
+
+    @Test
+    void testFailedFileIsRetried() throws IOException {
+        Path file = tempDir.resolve("broken.txt");
+        Files.writeString(file, "content");
+        DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file);
+        tracker.markFailure(snapshot, "boom");
+
+        assertTrue(tracker.shouldProcess(snapshot), "Failed file should be processed again");
+    }
+
+    @Test
+    void testJournalIsReplayedAfterCrash() throws IOException {
+        Path file = tempDir.resolve("journal.md");
+        Files.writeString(file, "content");
+        DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file);
+        tracker.markProcessing(snapshot);
+        tracker.markSuccess(snapshot, List.of("a", "b", "c"));
+
+        // 模拟崩溃: 不调用close,并在日志末尾留下写了一半的记录
+        Path journalFile = tempDir.resolve(".rag-processing-state.json.journal");
+        assertTrue(Files.exists(journalFile));
+        Files.writeString(journalFile, "{\"filePath\":\"/tmp/x", StandardOpenOption.APPEND);
+
+        DocumentProcessingStateTracker recovered = new DocumentProcessingStateTracker(mockRagUtils, ".rag-processing-state.json");
+        try {
+            DocumentProcessingState state = recovered.snapshotStates().get(snapshot.absolutePath());
+            assertNotNull(state);
+            assertEquals(DocumentProcessingState.ProcessingStatus.SUCCESS, state.getStatus());
+            assertEquals(List.of("a", "b", "c"), state.getEmbeddingIds());
+            assertEquals(1, recovered.snapshotStates().size());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void testStatusOnlyRecordsOmitEmbeddingIdsAndRepeatedSkipIsNoop() throws IOException {
+        Path file = tempDir.resolve("status.md");
+        Files.writeString(file, "content");
+        DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file).withContentHash(ContentHasher.hash(file));
+        tracker.markSuccess(snapshot, List.of("id-1", "id-2"));
+        Path journalFile = tempDir.resolve(".rag-processing-state.json.journal");
+
+        tracker.markSkipped(snapshot);
+        long size = Files.size(journalFile);
+        List<String> lines = Files.readAllLines(journalFile);
+        assertFalse(lines.get(lines.size() - 1).contains("id-1"), "Status-only record should not repeat embedding IDs");
+
+        // 未变化的文件再次扫描不写日志
+        tracker.markSkipped(snapshot);
+        tracker.markSkipped(snapshot);
+        assertEquals(size, Files.size(journalFile));
+
+        tracker.markProcessing(snapshot);
+        tracker.markUnchanged(snapshot);
+        lines = Files.readAllLines(journalFile);
+        assertEquals(1, lines.stream().filter(line -> line.contains("id-1")).count());
+
+        DocumentProcessingStateTracker recovered = new DocumentProcessingStateTracker(mockRagUtils, ".rag-processing-state.json");
+        try {
+            assertEquals(List.of("id-1", "id-2"), recovered.getEmbeddingIds(snapshot.absolutePath()));
+            assertEquals(DocumentProcessingState.ProcessingStatus.PROCESSING,
+                    recovered.snapshotStates().get(snapshot.absolutePath()).getStatus());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void testRemovedFileStaysRemovedAfterReplay() throws IOException {
+        Path file = tempDir.resolve("deleted.md");
+        Files.writeString(file, "content");
+        DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file);
+        tracker.markSuccess(snapshot, List.of("x", "y"));
+
+        assertEquals(List.of("x", "y"), tracker.remove(snapshot.absolutePath()));
+        assertEquals(List.of(), tracker.remove(snapshot.absolutePath()));
+        assertTrue(tracker.snapshotStates().isEmpty());
+
+        DocumentProcessingStateTracker recovered = new DocumentProcessingStateTracker(mockRagUtils, ".rag-processing-state.json");
+        try {
+            assertTrue(recovered.snapshotStates().isEmpty());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void testCloseCompactsJournalIntoSnapshot() throws IOException {
+        Path file = tempDir.resolve("compact.md");
+        Files.writeString(file, "content");
+        tracker.markSuccess(DocumentProcessingSnapshot.from(file), List.of("id"));
+        tracker.close();
+
+        assertTrue(Files.exists(tempDir.resolve(".rag-processing-state.json")));
+        assertEquals(0, Files.size(tempDir.resolve(".rag-processing-state.json.journal")));
+
+        tracker = new DocumentProcessingStateTracker(mockRagUtils, ".rag-processing-state.json");
+        assertEquals(List.of("id"), tracker.getEmbeddingIds(file.toAbsolutePath().toString()));
+    }
+
+    @Test
+    void testCheckpointsAccumulateAcrossRestartAndAreReturnedOnRemove() throws IOException {
+        Path file = tempDir.resolve("huge.txt");
+        Files.writeString(file, "content");
+        DocumentProcessingSnapshot snapshot = DocumentProcessingSnapshot.from(file);
+        String path = snapshot.absolutePath();
+        tracker.markProcessing(snapshot);
+        tracker.saveCheckpoint(new IngestionCheckpoint(path, snapshot.fileSize(), snapshot.lastModifiedTime(), null,
+                "400/200/1.0", "UTF-8", 1000, 900, "pending-1", 10, 2, List.of("a", "b")));
+        tracker.saveCheckpoint(new IngestionCheckpoint(path, snapshot.fileSize(), snapshot.lastModifiedTime(), null,
+                "400/200/1.0", "UTF-8", 2000, 1900, "pending-2", 20, 4, List.of("c", "d")));
+        // 模拟崩溃时写了一半的记录
+        Path checkpointFile;
+        try (var files = Files.list(tempDir)) {
+            checkpointFile = files.filter(f -> f.getFileName().toString().startsWith(".rag-processing-state.json.checkpoint."))
+                    .findFirst()
+                    .orElseThrow();
+        }
+        Files.writeString(checkpointFile, "{\"filePath\":", StandardOpenOption.APPEND);
+        tracker.close();
+
+        tracker = new DocumentProcessingStateTracker(mockRagUtils, ".rag-processing-state.json");
+        IngestionCheckpoint checkpoint = tracker.loadCheckpoint(path);
+        assertNotNull(checkpoint);
+        assertEquals(List.of("a", "b", "c", "d"), checkpoint.embeddingIds());
+        assertEquals(2000, checkpoint.byteOffset());
+        assertEquals(new StreamingTextSplitter.SplitState(1900, "pending-2", 20, 4), checkpoint.splitState());
+        assertTrue(checkpoint.matches(snapshot, "400/200/1.0"));
+        assertFalse(checkpoint.matches(snapshot, "800/200/1.0"));
+
+        // 删除文件时检查点中的向量也需要删除
+        assertEquals(List.of("a", "b", "c", "d"), tracker.remove(path));
+        assertNull(tracker.loadCheckpoint(path));
+        assertFalse(Files.exists(checkpointFile));
+    }
+}
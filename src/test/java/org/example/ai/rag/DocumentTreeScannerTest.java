@@ -0,0 +1,98 @@
+package org.example.ai.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentTreeScannerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testScanCollectsFilesFromAllSubtreesWithAttributes() throws IOException {
+        Files.writeString(tempDir.resolve("root.md"), "root");
+        for (int i = 0; i < 5; i++) {
+            Path dir = Files.createDirectories(tempDir.resolve("dir-" + i).resolve("nested"));
+            Files.writeString(dir.resolve("doc-" + i + ".txt"), "content " + i);
+        }
+        Path touched = tempDir.resolve("dir-0").resolve("nested").resolve("doc-0.txt");
+        Files.setLastModifiedTime(touched, FileTime.fromMillis(1_700_000_000_000L));
+
+        List<DocumentTreeScanner.ScannedFile> files;
+        try (DocumentTreeScanner scanner = new DocumentTreeScanner(3)) {
+            files = scanner.scan(tempDir, file -> true);
+        }
+
+        assertEquals(6, files.size());
+        DocumentTreeScanner.ScannedFile scanned = files.stream()
+                .filter(file -> file.path().equals(touched))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(touched.toAbsolutePath().toString(), scanned.snapshot().absolutePath());
+        assertEquals("content 0".length(), scanned.snapshot().fileSize());
+        assertEquals(1_700_000_000_000L, scanned.snapshot().lastModifiedTime());
+        assertNull(scanned.snapshot().contentHash());
+        assertEquals(DocumentProcessingSnapshot.from(touched), scanned.snapshot(),
+                "Scan record should match a snapshot read directly from the file");
+    }
+
+    @Test
+    void testFilterAndHiddenFlagAreAppliedWithoutExtraLookups() throws IOException {
+        Files.writeString(tempDir.resolve("visible.md"), "a");
+        Files.writeString(tempDir.resolve(".hidden.md"), "b");
+        Path sub = Files.createDirectories(tempDir.resolve("sub"));
+        Files.writeString(sub.resolve("skip.log"), "c");
+        Files.writeString(sub.resolve("keep.txt"), "d");
+
+        List<DocumentTreeScanner.ScannedFile> files;
+        try (DocumentTreeScanner scanner = new DocumentTreeScanner(1)) {
+            files = scanner.scan(tempDir, file -> !file.path().getFileName().toString().endsWith(".log"));
+        }
+
+        assertEquals(List.of(".hidden.md", "keep.txt", "visible.md"), files.stream()
+                .map(file -> file.path().getFileName().toString())
+                .sorted()
+                .toList());
+        assertTrue(files.stream().filter(DocumentTreeScanner.ScannedFile::hidden)
+                .allMatch(file -> file.path().getFileName().toString().startsWith(".")));
+    }
+
+    @Test
+    void testSingleDeepSubtreeIsSplitAndScannedCompletely() throws IOException {
+        // 全部文档在根目录唯一的子目录下,深层再分叉为多个分支
+        Path deep = tempDir.resolve("only");
+        for (int level = 0; level < 20; level++) {
+            deep = Files.createDirectories(deep.resolve("level-" + level));
+            Files.writeString(deep.resolve("doc-" + level + ".md"), "level " + level);
+        }
+        for (int branch = 0; branch < 8; branch++) {
+            Path dir = Files.createDirectories(deep.resolve("branch-" + branch).resolve("leaf"));
+            Files.writeString(dir.resolve("leaf-" + branch + ".md"), "branch " + branch);
+        }
+
+        try (DocumentTreeScanner scanner = new DocumentTreeScanner(4)) {
+            List<DocumentTreeScanner.ScannedFile> files = scanner.scan(tempDir, file -> true);
+            assertEquals(28, files.size());
+            assertEquals(files.stream().map(DocumentTreeScanner.ScannedFile::path).sorted().toList(),
+                    files.stream().map(DocumentTreeScanner.ScannedFile::path).toList());
+            // 同一个扫描器可以重复使用
+            assertEquals(files, scanner.scan(tempDir, file -> true));
+        }
+    }
+
+    @Test
+    void testScanFileReturnsNullForMissingFile() throws IOException {
+        assertNull(DocumentTreeScanner.scanFile(tempDir.resolve("missing.md")));
+        assertNull(DocumentTreeScanner.scanFile(tempDir));
+        Path file = Files.writeString(tempDir.resolve("doc.md"), "x");
+        assertEquals(1, DocumentTreeScanner.scanFile(file).snapshot().fileSize());
+    }
+}
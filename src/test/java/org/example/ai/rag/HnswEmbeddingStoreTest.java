@@ -0,0 +1,197 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.MetadataFilterBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswEmbeddingStoreTest {
+
+    private static final int DIMENSION = 32;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRecallAgainstBruteForce() {
+        Random random = new Random(42);
+        HnswEmbeddingStore hnsw = new HnswEmbeddingStore(16, 200, 64);
+        MappedEmbeddingStore exact = new MappedEmbeddingStore();
+        for (int i = 0; i < 3000; i++) {
+            Embedding embedding = randomEmbedding(random);
+            TextSegment segment = TextSegment.from("segment " + i, Metadata.from("group", String.valueOf(i % 10)));
+            hnsw.addAll(List.of("id-" + i), List.of(embedding), List.of(segment));
+            exact.addAll(List.of("id-" + i), List.of(embedding), List.of(segment));
+        }
+
+        assertTrue(recall(hnsw, exact, new Random(7), 50) >= 0.95);
+    }
+
+    @Test
+    void testDeletedVectorsAreNeverReturned() {
+        Random random = new Random(1);
+        HnswEmbeddingStore store = new HnswEmbeddingStore(8, 100, 32);
+        List<String> ids = new ArrayList<>();
+        List<Embedding> embeddings = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            ids.add("id-" + i);
+            embeddings.add(randomEmbedding(random));
+        }
+        store.addAll(ids, embeddings, null);
+        store.removeAll(ids.subList(0, 250));
+        assertEquals(250, store.size());
+
+        for (int i = 0; i < 250; i++) {
+            List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(embeddings.get(i))
+                    .maxResults(5)
+                    .build()).matches();
+            assertEquals(5, matches.size());
+            matches.forEach(match -> assertTrue(Integer.parseInt(match.embeddingId().substring(3)) >= 250));
+        }
+        // 重新写入同一个ID替换旧向量
+        store.addAll(List.of("id-300"), List.of(embeddings.get(0)), null);
+        assertEquals("id-300", store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(embeddings.get(0))
+                .maxResults(1)
+                .build()).matches().get(0).embeddingId());
+        assertEquals(250, store.size());
+    }
+
+    @Test
+    void testFilteredSearchFallsBackToExactScan() {
+        Random random = new Random(3);
+        HnswEmbeddingStore store = new HnswEmbeddingStore(8, 100, 16);
+        for (int i = 0; i < 1000; i++) {
+            store.add(randomEmbedding(random),
+                    TextSegment.from("segment " + i, Metadata.from("file_name", i == 999 ? "rare.md" : "common.md")));
+        }
+        List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(randomEmbedding(random))
+                .maxResults(3)
+                .filter(MetadataFilterBuilder.metadataKey("file_name").isEqualTo("rare.md"))
+                .build()).matches();
+        assertEquals(1, matches.size());
+        assertEquals("segment 999", matches.get(0).embedded().text());
+    }
+
+    @Test
+    void testConcurrentInserts() throws Exception {
+        HnswEmbeddingStore hnsw = new HnswEmbeddingStore(16, 100, 64);
+        MappedEmbeddingStore exact = new MappedEmbeddingStore();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(thread);
+                    for (int i = 0; i < 500; i++) {
+                        String id = thread + "-" + i;
+                        Embedding embedding = randomEmbedding(random);
+                        hnsw.addAll(List.of(id), List.of(embedding), null);
+                        exact.addAll(List.of(id), List.of(embedding), null);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2000, hnsw.size());
+        assertTrue(recall(hnsw, exact, new Random(11), 50) >= 0.9);
+    }
+
+    @Test
+    void testGraphIsPersistedWithSnapshot() throws Exception {
+        Random random = new Random(5);
+        HnswEmbeddingStore store = new HnswEmbeddingStore(16, 100, 64);
+        MappedEmbeddingStore exact = new MappedEmbeddingStore();
+        for (int i = 0; i < 1500; i++) {
+            Embedding embedding = randomEmbedding(random);
+            TextSegment segment = TextSegment.from("segment " + i);
+            store.addAll(List.of("id-" + i), List.of(embedding), List.of(segment));
+            exact.addAll(List.of("id-" + i), List.of(embedding), List.of(segment));
+        }
+        Path snapshotPath = tempDir.resolve("vectors.bin");
+        store.save(snapshotPath, "model", List.of());
+        assertTrue(Files.exists(tempDir.resolve("vectors.bin.graph")));
+
+        // 恢复的图与原图相同,查询结果完全一致
+        HnswEmbeddingStore restored = new HnswEmbeddingStore(16, 100, 64);
+        restored.load(VectorStoreSnapshot.open(snapshotPath));
+        assertEquals(store.ids(), restored.ids());
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(randomEmbedding(random))
+                .maxResults(10)
+                .build();
+        assertEquals(store.search(request).matches().stream().map(EmbeddingMatch::embeddingId).toList(),
+                restored.search(request).matches().stream().map(EmbeddingMatch::embeddingId).toList());
+        assertNotNull(restored.search(request).matches().get(0).embedded());
+
+        // 已删除的节点不写入快照和图文件
+        restored.removeAll(List.of("id-0", "id-1"));
+        exact.removeAll(List.of("id-0", "id-1"));
+        restored.save(snapshotPath, "model", List.of());
+        HnswEmbeddingStore reloaded = new HnswEmbeddingStore(16, 100, 64);
+        reloaded.load(VectorStoreSnapshot.open(snapshotPath));
+        assertEquals(exact.ids(), reloaded.ids());
+        assertTrue(recall(reloaded, exact, new Random(17), 30) >= 0.9);
+
+        // 没有图文件时重新构建
+        Files.delete(tempDir.resolve("vectors.bin.graph"));
+        HnswEmbeddingStore rebuilt = new HnswEmbeddingStore(16, 100, 64);
+        rebuilt.load(VectorStoreSnapshot.open(snapshotPath));
+        assertEquals(1498, rebuilt.size());
+        assertTrue(recall(rebuilt, exact, new Random(13), 30) >= 0.9);
+    }
+
+    static double recall(EmbeddingStore<TextSegment> approximate, EmbeddingStore<TextSegment> exact,
+                         Random random, int queries) {
+        int hits = 0;
+        int total = 0;
+        for (int q = 0; q < queries; q++) {
+            EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(randomEmbedding(random))
+                    .maxResults(10)
+                    .build();
+            Set<String> expected = new HashSet<>();
+            exact.search(request).matches().forEach(match -> expected.add(match.embeddingId()));
+            for (EmbeddingMatch<TextSegment> match : approximate.search(request).matches()) {
+                if (expected.contains(match.embeddingId())) {
+                    hits++;
+                }
+            }
+            total += expected.size();
+        }
+        return (double) hits / total;
+    }
+
+    static Embedding randomEmbedding(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return Embedding.from(vector);
+    }
+}
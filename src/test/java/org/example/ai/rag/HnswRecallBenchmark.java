@@ -0,0 +1,89 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * HNSW召回率与查询耗时基准,以暴力扫描的结果为准.不属于单元测试,手动运行:
+ * java ... org.example.ai.rag.HnswRecallBenchmark [向量数] [维度] [查询数]
+ */
+public class HnswRecallBenchmark {
+
+    private static final int TOP_K = 10;
+    private static final int[] EF_SEARCH = {TOP_K, 32, 64, 128, 256};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        Random random = new Random(42);
+
+        List<String> ids = new ArrayList<>(count);
+        List<Embedding> embeddings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add("id-" + i);
+            embeddings.add(randomEmbedding(random, dimension));
+        }
+        List<Embedding> queryEmbeddings = new ArrayList<>(queries);
+        for (int i = 0; i < queries; i++) {
+            queryEmbeddings.add(randomEmbedding(random, dimension));
+        }
+
+        MappedEmbeddingStore exact = new MappedEmbeddingStore();
+        exact.addAll(ids, embeddings, null);
+        List<Set<String>> expected = new ArrayList<>(queries);
+        long start = System.nanoTime();
+        for (Embedding query : queryEmbeddings) {
+            Set<String> top = new HashSet<>();
+            exact.search(request(query, TOP_K)).matches().forEach(match -> top.add(match.embeddingId()));
+            expected.add(top);
+        }
+        System.out.printf("暴力扫描: %d 条 x %d 维, 平均 %.3f ms/查询%n",
+                count, dimension, (System.nanoTime() - start) / 1e6 / queries);
+
+        // efSearch取1,查询宽度由maxResults决定(max(efSearch, maxResults)),同一个图即可比较不同的宽度
+        HnswEmbeddingStore hnsw = new HnswEmbeddingStore(16, 200, 1);
+        long buildStart = System.nanoTime();
+        hnsw.addAll(ids, embeddings, null);
+        System.out.printf("构建HNSW: %.1f s%n", (System.nanoTime() - buildStart) / 1e9);
+
+        for (int ef : EF_SEARCH) {
+            // 预热
+            for (Embedding query : queryEmbeddings) {
+                hnsw.search(request(query, ef));
+            }
+            int hits = 0;
+            long searchStart = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                List<EmbeddingMatch<TextSegment>> matches = hnsw.search(request(queryEmbeddings.get(q), ef)).matches();
+                for (EmbeddingMatch<TextSegment> match : matches.subList(0, Math.min(TOP_K, matches.size()))) {
+                    if (expected.get(q).contains(match.embeddingId())) {
+                        hits++;
+                    }
+                }
+            }
+            System.out.printf("efSearch=%-4d recall@%d=%.3f 平均 %.3f ms/查询%n", ef, TOP_K,
+                    (double) hits / (queries * TOP_K), (System.nanoTime() - searchStart) / 1e6 / queries);
+        }
+    }
+
+    private static EmbeddingSearchRequest request(Embedding query, int maxResults) {
+        return EmbeddingSearchRequest.builder().queryEmbedding(query).maxResults(maxResults).build();
+    }
+
+    private static Embedding randomEmbedding(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return Embedding.from(vector);
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class HybridContentRetrieverTest {
+
+    private EmbeddingModel embeddingModel;
+    private LexicalIndex index;
+    private LexicalIndexingEmbeddingStore store;
+
+    @BeforeEach
+    void setUp() {
+        embeddingModel = mock(EmbeddingModel.class);
+        index = new LexicalIndex();
+        index.setComplete(true);
+        store = new LexicalIndexingEmbeddingStore(new MappedEmbeddingStore(), index);
+        store.addAll(List.of("hashmap", "concurrent", "redis"),
+                List.of(Embedding.from(new float[]{1, 0, 0}), Embedding.from(new float[]{0.8f, 0.6f, 0}),
+                        Embedding.from(new float[]{0, 0, 1})),
+                List.of(TextSegment.from("HashMap 扩容时重新分配桶中的节点"),
+                        TextSegment.from("ConcurrentHashMap 使用 CAS 保证并发安全"),
+                        TextSegment.from("配置 rag.vector.store.type 为 redis 时使用 Redis Stack")));
+    }
+
+    @Test
+    void testIdentifierQueryIsAnsweredWithoutEmbedding() {
+        HybridContentRetriever retriever = new HybridContentRetriever(embeddingModel, store, index,
+                5, 0.5, 30, 60, true);
+        List<Content> contents = retriever.retrieve(Query.from("rag.vector.store.type"));
+        assertEquals("redis", contents.get(0).metadata().get(ContentMetadata.EMBEDDING_ID));
+        verifyNoInteractions(embeddingModel);
+
+        // 关闭只用倒排索引时仍然向量化
+        when(embeddingModel.embed(anyString())).thenReturn(Response.from(Embedding.from(new float[]{0, 0, 1})));
+        new HybridContentRetriever(embeddingModel, store, index, 5, 0.5, 30, 60, false)
+                .retrieve(Query.from("rag.vector.store.type"));
+        verify(embeddingModel).embed(anyString());
+    }
+
+    @Test
+    void testIncompleteIndexUsesOnlyVectorSearch() {
+        // 倒排索引只有部分分段时既不能只查倒排索引,也不参与融合,否则会抬高新摄取的分段
+        index.setComplete(false);
+        when(embeddingModel.embed(anyString())).thenReturn(Response.from(Embedding.from(new float[]{1, 0, 0})));
+        List<Content> contents = new HybridContentRetriever(embeddingModel, store, index, 5, 0.6, 30, 60, true)
+                .retrieve(Query.from("rag.vector.store.type"));
+        verify(embeddingModel).embed(anyString());
+        // 只返回向量检索命中的hashmap、concurrent,倒排索引命中的redis不参与融合
+        assertEquals(List.of("hashmap", "concurrent"), contents.stream()
+                .map(c -> c.metadata().get(ContentMetadata.EMBEDDING_ID)).toList());
+    }
+
+    @Test
+    void testVectorAndLexicalResultsAreFusedByReciprocalRank() {
+        // 向量检索: hashmap第一、concurrent第二、redis低于阈值;倒排检索只命中concurrent,融合后concurrent排第一
+        when(embeddingModel.embed(anyString())).thenReturn(Response.from(Embedding.from(new float[]{1, 0, 0})));
+        HybridContentRetriever retriever = new HybridContentRetriever(embeddingModel, store, index,
+                5, 0.6, 30, 60, true);
+        List<Content> contents = retriever.retrieve(Query.from("CAS 如何保证并发安全"));
+        assertEquals(List.of("concurrent", "hashmap"), contents.stream()
+                .map(c -> c.metadata().get(ContentMetadata.EMBEDDING_ID)).toList());
+        assertEquals(1.0 / 62 + 1.0 / 61, (double) contents.get(0).metadata().get(ContentMetadata.SCORE), 1e-9);
+        verify(embeddingModel).embed(anyString());
+    }
+
+    @Test
+    void testDecoratorKeepsIndexInSyncWithStore() {
+        assertEquals(3, index.size());
+        store.removeAll(List.of("redis"));
+        assertEquals(2, index.size());
+        assertTrue(index.search("rag.vector.store.type", 10).isEmpty());
+        store.removeAll();
+        assertEquals(0, index.size());
+    }
+}
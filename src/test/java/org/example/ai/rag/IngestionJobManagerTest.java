@@ -0,0 +1,143 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IngestionJobManagerTest {
+
+    private DocumentProcessingService service;
+    private DocumentIngestor ingestor;
+    private DocumentProcessingStateTracker tracker;
+    private IngestionJobManager manager;
+
+    @BeforeEach
+    void setUp() {
+        service = mock(DocumentProcessingService.class);
+        ingestor = mock(DocumentIngestor.class);
+        tracker = mock(DocumentProcessingStateTracker.class);
+        when(ingestor.embeddingLatency()).thenReturn(new LatencyRecorder(16));
+        when(tracker.snapshotStates()).thenReturn(Map.of());
+        manager = new IngestionJobManager(service, ingestor, tracker, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    private static void await(IngestionJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished(), "Job should finish in time");
+    }
+
+    @Test
+    void testOverlappingReloadIsRejectedAndQueuedJobCanBeCancelled() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(service).ingestAllDocuments(eq(ingestor), eq(true), any());
+
+        IngestionJobManager.Submission first = manager.submitReload(true);
+        assertTrue(first.accepted());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        IngestionJobManager.Submission second = manager.submitReload(true);
+        assertFalse(second.accepted());
+        assertSame(first.job(), second.job());
+
+        // 排在重新加载之后的任务被取消后不会执行
+        IngestionJob document = manager.submitDocument("/docs/a.md");
+        assertTrue(manager.cancel(document.getId()));
+        release.countDown();
+
+        await(first.job());
+        await(document);
+        assertEquals(IngestionJob.JobStatus.SUCCEEDED, first.job().getStatus());
+        assertEquals(IngestionJob.JobStatus.CANCELLED, document.getStatus());
+        verify(service, never()).ingestSingleDocument(anyString(), any(), anyBoolean(), any());
+        assertFalse(manager.cancel(first.job().getId()));
+        assertTrue(manager.submitReload(false).accepted());
+    }
+
+    @Test
+    void testReportAggregatesProgressLatencyAndFailures() throws InterruptedException {
+        doAnswer(invocation -> {
+            IngestionProgress progress = invocation.getArgument(3);
+            progress.onFilesDiscovered(3);
+            progress.onFileCompleted(true, 40);
+            progress.onFileCompleted(false, 0);
+            progress.onFileCancelled();
+            ingestor.embeddingLatency().record(100);
+            ingestor.embeddingLatency().record(300);
+            return null;
+        }).when(service).ingestSingleDocument(eq("/docs/b.md"), eq(ingestor), eq(true), any());
+        DocumentProcessingState failed = DocumentProcessingState.builder()
+                .filePath("/docs/b.md")
+                .status(DocumentProcessingState.ProcessingStatus.FAILED)
+                .lastError("boom")
+                .updatedAt(System.currentTimeMillis() + 1)
+                .build();
+
+        IngestionJob job = manager.submitDocument("/docs/b.md");
+        await(job);
+        failed.setUpdatedAt(job.getStartedAt());
+        when(tracker.snapshotStates()).thenReturn(Map.of(failed.getFilePath(), failed));
+
+        IngestionJobReport report = manager.report(job);
+        assertEquals(3, report.totalFiles());
+        assertEquals(2, report.completedFiles());
+        assertEquals(1, report.failedFiles());
+        assertEquals(1, report.cancelledFiles());
+        assertEquals(40, report.segments());
+        assertEquals(100L, report.embeddingLatencyMillis().get("p50"));
+        assertEquals(300L, report.embeddingLatencyMillis().get("p99"));
+        assertEquals(List.of(new IngestionJobReport.FailedFile("/docs/b.md", "boom")), report.failures());
+    }
+
+    @Test
+    void testRetrievalIsSkippedUntilStartupReloadFinishes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(service).ingestAllDocuments(eq(ingestor), eq(false), any());
+        ContentRetriever delegate = mock(ContentRetriever.class);
+        when(delegate.retrieve(any())).thenReturn(List.of(Content.from("HashMap底层是数组加链表")));
+        RagReadiness readiness = new RagReadiness();
+        ContentRetriever retriever = new ReadinessAwareContentRetriever(delegate, readiness);
+
+        IngestionJob job = manager.submitReload(false).job();
+        readiness.warming(job.getId());
+        CompletableFuture<Void> ready = job.completion().thenAccept(finished -> readiness.markReady("startup"));
+
+        assertEquals(RagReadiness.State.WARMING, readiness.state());
+        assertEquals(List.of(), retriever.retrieve(Query.from("HashMap")));
+        verifyNoInteractions(delegate);
+
+        release.countDown();
+        ready.get(5, TimeUnit.SECONDS);
+        assertTrue(readiness.isReady());
+        assertEquals(job.getId(), readiness.startupJobId());
+        assertEquals(1, retriever.retrieve(Query.from("HashMap")).size());
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.filter.MetadataFilterBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LexicalIndexTest {
+
+    @Test
+    void testTokenizerKeepsIdentifiersAndSplitsCjkIntoBigrams() {
+        List<String> tokens = LexicalTokenizer.tokenize("rag.vector.store.type 配置向量存储 NullPointerException");
+        assertTrue(tokens.containsAll(List.of("rag.vector.store.type", "rag", "vector", "store", "type")));
+        assertTrue(tokens.containsAll(List.of("配置", "置向", "向量", "量存", "存储")));
+        assertTrue(tokens.containsAll(List.of("nullpointerexception", "null", "pointer", "exception")));
+        assertEquals(List.of("锁"), LexicalTokenizer.tokenize("锁"));
+        // 单个拉丁字母不作为词
+        assertFalse(LexicalTokenizer.tokenize("a b c").contains("a"));
+
+        assertTrue(LexicalTokenizer.isIdentifierQuery("NullPointerException"));
+        assertTrue(LexicalTokenizer.isIdentifierQuery("rag.vector.store.type"));
+        assertTrue(LexicalTokenizer.isIdentifierQuery("ERR_CODE_42"));
+        assertFalse(LexicalTokenizer.isIdentifierQuery("how to configure redis"));
+        assertFalse(LexicalTokenizer.isIdentifierQuery("hello"));
+        assertFalse(LexicalTokenizer.isIdentifierQuery("HashMap 是怎么扩容的"));
+    }
+
+    @Test
+    void testBm25RanksExactIdentifierAndRareTermsFirst() {
+        LexicalIndex index = new LexicalIndex();
+        index.add("a", TextSegment.from("HashMap 在容量超过阈值时扩容,扩容后重新分配桶中的节点"));
+        index.add("b", TextSegment.from("ConcurrentHashMap 使用 CAS 和 synchronized 保证并发安全"));
+        index.add("c", TextSegment.from("配置 rag.vector.store.type 为 hnsw 时使用进程内向量索引"));
+        index.add("d", TextSegment.from("Java 集合框架概述: List、Set、Map 的常见实现"));
+
+        List<LexicalIndex.Hit> hits = index.search("ConcurrentHashMap", 10);
+        assertEquals("b", hits.get(0).id());
+        assertEquals("ConcurrentHashMap 使用 CAS 和 synchronized 保证并发安全", hits.get(0).segment().text());
+
+        assertEquals("c", index.search("rag.vector.store.type", 10).get(0).id());
+        assertEquals("a", index.search("扩容", 10).get(0).id());
+        assertTrue(index.search("不存在的词语", 10).isEmpty());
+
+        List<LexicalIndex.Hit> all = index.search("HashMap 扩容 向量", 2);
+        assertEquals(2, all.size());
+        assertTrue(all.get(0).score() >= all.get(1).score());
+    }
+
+    @Test
+    void testRemoveReplaceAndCompaction() {
+        LexicalIndex index = new LexicalIndex();
+        index.add("a", TextSegment.from("ThreadPoolExecutor 的拒绝策略", Metadata.from("file_name", "a.md")));
+        index.add("b", TextSegment.from("ThreadLocal 内存泄漏", Metadata.from("file_name", "b.md")));
+        index.remove(List.of("a"));
+        // 驼峰子词thread仍会命中b,被删除的a不再出现
+        assertTrue(index.search("ThreadPoolExecutor", 10).stream().noneMatch(hit -> hit.id().equals("a")));
+
+        // 重新写入同一ID替换旧文本
+        index.add("b", TextSegment.from("ThreadPoolExecutor 的核心线程数", Metadata.from("file_name", "b.md")));
+        assertTrue(index.search("内存泄漏", 10).isEmpty());
+        assertEquals("b", index.search("ThreadPoolExecutor", 10).get(0).id());
+
+        index.removeAll(MetadataFilterBuilder.metadataKey("file_name").isEqualTo("b.md"));
+        assertEquals(0, index.size());
+
+        // 大量删除后压缩,剩余文档仍可检索
+        for (int i = 0; i < 3000; i++) {
+            index.add("id-" + i, TextSegment.from("segment" + i + " 公共内容"));
+        }
+        index.remove(IntStream.range(0, 2900).mapToObj(i -> "id-" + i).toList());
+        assertEquals(100, index.size());
+        assertEquals("id-2950", index.search("segment2950", 10).get(0).id());
+        assertEquals(100, index.search("公共内容", 1000).size());
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.MetadataFilterBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MappedEmbeddingStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSnapshotRoundTripKeepsVectorsTextAndMetadata() throws IOException {
+        UUID uuid = UUID.randomUUID();
+        MappedEmbeddingStore store = new MappedEmbeddingStore();
+        store.addAll(List.of("a", "b", "c"),
+                List.of(Embedding.from(new float[]{1, 0, 0, 0}), Embedding.from(new float[]{0.8f, 0.6f, 0, 0}),
+                        Embedding.from(new float[]{0, 0, 1, 0})),
+                List.of(TextSegment.from("HashMap 扩容", Metadata.from(Map.of("file_name", "a.md", "index", 3,
+                                "offset", 5_000_000_000L, "weight", 0.5d, "doc_id", uuid))),
+                        TextSegment.from("ConcurrentHashMap", Metadata.from("file_name", "b.md")),
+                        TextSegment.from("JVM 内存模型", Metadata.from("file_name", "c.md"))));
+        Path snapshotPath = tempDir.resolve("vectors.bin");
+        store.save(snapshotPath, "text-embedding-v4", List.of());
+
+        MappedEmbeddingStore restored = new MappedEmbeddingStore();
+        VectorStoreSnapshot snapshot = VectorStoreSnapshot.open(snapshotPath);
+        assertEquals("text-embedding-v4", snapshot.model());
+        assertEquals(4, snapshot.dimension());
+        restored.load(snapshot);
+        assertEquals(Set.of("a", "b", "c"), restored.ids());
+
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(Embedding.from(new float[]{1, 0.1f, 0, 0}))
+                .maxResults(2)
+                .build();
+        List<EmbeddingMatch<TextSegment>> expected = store.search(request).matches();
+        List<EmbeddingMatch<TextSegment>> actual = restored.search(request).matches();
+        assertEquals(List.of("a", "b"), actual.stream().map(EmbeddingMatch::embeddingId).toList());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).score(), actual.get(i).score(), 1e-6);
+            assertArrayEquals(expected.get(i).embedding().vector(), actual.get(i).embedding().vector());
+            assertEquals(expected.get(i).embedded(), actual.get(i).embedded());
+        }
+        Metadata metadata = actual.get(0).embedded().metadata();
+        assertEquals(3, metadata.getInteger("index"));
+        assertEquals(5_000_000_000L, metadata.getLong("offset"));
+        assertEquals(0.5d, metadata.getDouble("weight"));
+        assertEquals(uuid, metadata.getUUID("doc_id"));
+
+        // 元数据过滤在映射的条目上同样生效
+        List<EmbeddingMatch<TextSegment>> filtered = restored.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(Embedding.from(new float[]{1, 0, 0, 0}))
+                .filter(MetadataFilterBuilder.metadataKey("file_name").isEqualTo("c.md"))
+                .build()).matches();
+        assertEquals(List.of("c"), filtered.stream().map(EmbeddingMatch::embeddingId).toList());
+    }
+
+    @Test
+    void testSnapshotIsWrittenOnlyWhenStoreChanged() throws IOException {
+        Path snapshotPath = tempDir.resolve("vectors.bin");
+        MappedEmbeddingStore store = new MappedEmbeddingStore();
+        store.enableSnapshots(snapshotPath, "model", List::of, Duration.ofHours(1));
+        assertFalse(store.saveSnapshot());
+
+        store.add("a", Embedding.from(new float[]{1, 0}));
+        assertTrue(store.saveSnapshot());
+        assertFalse(store.saveSnapshot());
+        assertEquals(1, VectorStoreSnapshot.open(snapshotPath).size());
+
+        store.removeAll(List.of("a"));
+        store.close();
+        assertEquals(0, VectorStoreSnapshot.open(snapshotPath).size());
+    }
+
+    @Test
+    void testBlockScanOverHeapAndMappedEntriesMatchesScalarKernel() throws IOException {
+        Random random = new Random(3);
+        MappedEmbeddingStore store = new MappedEmbeddingStore();
+        MappedEmbeddingStore scalar = new MappedEmbeddingStore(SimilarityKernel.scalar());
+        for (int i = 0; i < 1200; i++) {
+            Embedding embedding = HnswEmbeddingStoreTest.randomEmbedding(random);
+            store.addAll(List.of("id-" + i), List.of(embedding), List.of(TextSegment.from("segment " + i)));
+            scalar.addAll(List.of("id-" + i), List.of(embedding), List.of(TextSegment.from("segment " + i)));
+        }
+        Path snapshotPath = tempDir.resolve("vectors.bin");
+        store.save(snapshotPath, "model", List.of());
+        // 映射区中整块被删除、部分删除,以及替换为堆内条目
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            if (i < 300 || i % 3 == 0) {
+                removed.add("id-" + i);
+            }
+        }
+        store.removeAll(removed);
+        scalar.removeAll(removed);
+        Embedding replacement = HnswEmbeddingStoreTest.randomEmbedding(random);
+        store.addAll(List.of("id-700"), List.of(replacement), List.of(TextSegment.from("replaced")));
+        scalar.addAll(List.of("id-700"), List.of(replacement), List.of(TextSegment.from("replaced")));
+        assertEquals(scalar.ids(), store.ids());
+
+        for (int q = 0; q < 20; q++) {
+            EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(q == 0 ? replacement : HnswEmbeddingStoreTest.randomEmbedding(random))
+                    .maxResults(10)
+                    .build();
+            List<EmbeddingMatch<TextSegment>> expected = scalar.search(request).matches();
+            List<EmbeddingMatch<TextSegment>> actual = store.search(request).matches();
+            assertEquals(expected.stream().map(EmbeddingMatch::embeddingId).toList(),
+                    actual.stream().map(EmbeddingMatch::embeddingId).toList());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).score(), actual.get(i).score(), 1e-5);
+                assertEquals(expected.get(i).embedded(), actual.get(i).embedded());
+            }
+        }
+        assertEquals("replaced", store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(replacement)
+                .maxResults(1)
+                .build()).matches().get(0).embedded().text());
+    }
+
+    @Test
+    void testShippedSnapshotOnlyReprocessesFilesWithMissingVectors() throws IOException {
+        Path docs = Files.createDirectories(tempDir.resolve("docs"));
+        Path complete = Files.writeString(docs.resolve("complete.md"), "完整");
+        Path partial = Files.writeString(docs.resolve("partial.md"), "部分");
+        RagUtils builderUtils = mock(RagUtils.class);
+        when(builderUtils.getActualDocumentsPath()).thenReturn(docs.toString());
+        DocumentProcessingStateTracker builder = new DocumentProcessingStateTracker(builderUtils, ".state.json");
+        MappedEmbeddingStore built = new MappedEmbeddingStore();
+        built.add("complete-1", Embedding.from(new float[]{1, 0}));
+        built.add("partial-1", Embedding.from(new float[]{0, 1}));
+        builder.markSuccess(DocumentProcessingSnapshot.from(complete), List.of("complete-1"));
+        // 向量partial-2在快照写入之后才加入,快照中缺失
+        builder.markSuccess(DocumentProcessingSnapshot.from(partial), List.of("partial-1", "partial-2"));
+        Path snapshotPath = tempDir.resolve("shipped.vectors");
+        built.save(snapshotPath, "model", List.copyOf(builder.snapshotStates().values()));
+        builder.close();
+
+        // 另一个节点: 没有处理状态,采用快照中的状态
+        Path nodeDir = Files.createDirectories(tempDir.resolve("node"));
+        RagUtils nodeUtils = mock(RagUtils.class);
+        when(nodeUtils.getActualDocumentsPath()).thenReturn(nodeDir.toString());
+        DocumentProcessingStateTracker tracker = new DocumentProcessingStateTracker(nodeUtils, ".state.json");
+        MappedEmbeddingStore store = new MappedEmbeddingStore();
+        VectorStoreSnapshot snapshot = VectorStoreSnapshot.open(snapshotPath);
+        store.load(snapshot);
+        snapshot.states().forEach(tracker::adopt);
+
+        Set<String> referenced = tracker.reconcile(store.ids());
+        assertEquals(Set.of("complete-1"), referenced);
+        assertFalse(tracker.shouldProcess(DocumentProcessingSnapshot.from(complete)));
+        assertTrue(tracker.shouldProcess(DocumentProcessingSnapshot.from(partial)));
+        tracker.close();
+    }
+}
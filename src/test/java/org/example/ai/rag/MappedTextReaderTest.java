@@ -0,0 +1,132 @@
+package org.example.ai.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedTextReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static String chineseText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append("第").append(i).append("段：HashMap 的扩容机制与负载因子。\n");
+        }
+        return text.toString();
+    }
+
+    private static String readAll(MappedTextReader reader) throws IOException {
+        StringBuilder out = new StringBuilder();
+        CharBuffer chunk;
+        while ((chunk = reader.next()) != null) {
+            out.append(chunk);
+        }
+        return out.toString();
+    }
+
+    @Test
+    void testGbkFileIsDetectedAndDecodedAcrossMapWindows() throws IOException {
+        String text = chineseText();
+        Path file = tempDir.resolve("gbk.txt");
+        Files.write(file, text.getBytes(Charset.forName("GBK")));
+
+        // 窗口远小于文件,双字节字符会被窗口边界截断
+        try (MappedTextReader reader = new MappedTextReader(file, 4096, 70000)) {
+            assertEquals(CharsetSniffer.GB18030, reader.charset());
+            assertEquals(text, readAll(reader));
+        }
+    }
+
+    @Test
+    void testGbkFileWithLongAsciiHeadSwitchesDecoderMidStream() throws IOException {
+        // 探测样本全是ASCII,按UTF-8开始解码,在第一个非ASCII字节处重新探测为GB18030
+        String text = "// Licensed under the Apache License\n".repeat(3000) + chineseText();
+        Path file = tempDir.resolve("license-head.txt");
+        Files.write(file, text.getBytes(Charset.forName("GBK")));
+
+        try (MappedTextReader reader = new MappedTextReader(file, 4096, 70000)) {
+            assertEquals(StandardCharsets.UTF_8, reader.charset());
+            assertEquals(text, readAll(reader));
+            assertEquals(CharsetSniffer.GB18030, reader.charset());
+        }
+    }
+
+    @Test
+    void testMalformedByteAfterUtf8TextIsReplacedWithoutSwitching() throws IOException {
+        byte[] head = "正文内容\n".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[head.length + 2];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        bytes[head.length] = (byte) 0xFF;
+        bytes[head.length + 1] = 'x';
+        Path file = tempDir.resolve("broken.txt");
+        Files.write(file, bytes);
+
+        try (MappedTextReader reader = MappedTextReader.open(file, 1024)) {
+            assertEquals("正文内容\n\uFFFDx", readAll(reader));
+            assertEquals(StandardCharsets.UTF_8, reader.charset());
+        }
+    }
+
+    @Test
+    void testUtf8BomIsSkipped() throws IOException {
+        String text = chineseText();
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[body.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(body, 0, withBom, 3, body.length);
+        Path file = tempDir.resolve("bom.txt");
+        Files.write(file, withBom);
+
+        try (MappedTextReader reader = new MappedTextReader(file, 4096, 70000)) {
+            assertEquals(StandardCharsets.UTF_8, reader.charset());
+            assertEquals(text, readAll(reader));
+        }
+    }
+
+    @Test
+    void testPlainUtf8IsNotMistakenForGb18030() throws IOException {
+        Path file = tempDir.resolve("utf8.md");
+        Files.writeString(file, "# 标题\n\n正文内容，包含中文和 English。\n", StandardCharsets.UTF_8);
+
+        try (MappedTextReader reader = MappedTextReader.open(file, 1024)) {
+            assertEquals(StandardCharsets.UTF_8, reader.charset());
+            assertEquals("# 标题\n\n正文内容，包含中文和 English。\n", readAll(reader));
+        }
+    }
+
+    @Test
+    void testReopeningAtRecordedPositionContinuesWithoutDuplicatingText() throws IOException {
+        String text = chineseText();
+        Path file = tempDir.resolve("resume.txt");
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+
+        StringBuilder head = new StringBuilder();
+        long position;
+        Charset charset;
+        try (MappedTextReader reader = new MappedTextReader(file, 4096, 70000)) {
+            for (int i = 0; i < 50; i++) {
+                head.append(reader.next());
+            }
+            position = reader.position();
+            charset = reader.charset();
+        }
+        assertEquals(head.toString().getBytes(StandardCharsets.UTF_8).length, position,
+                "Position should be the byte length of the text decoded so far");
+
+        try (MappedTextReader reader = MappedTextReader.open(file, 4096, charset, position)) {
+            assertEquals(text, head + readAll(reader));
+        }
+    }
+}
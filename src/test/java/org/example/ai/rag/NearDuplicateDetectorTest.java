@@ -0,0 +1,102 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class NearDuplicateDetectorTest {
+
+    private static final String BASE = "检索增强生成会先从知识库中找出与问题最相关的文档片段，再把这些片段和问题一起交给大模型生成回答。"
+            + "分段的大小和重叠会影响召回质量，过大的分段包含太多无关内容，过小的分段又会丢失上下文。"
+            + "向量化之前对分段去重可以减少远程调用次数，也能避免检索结果被同一段内容的多个副本占满。"
+            + "The pipeline batches segments from many files into full embedding requests to keep throughput high.";
+
+    private static final String NEAR = BASE.replace("过小的分段又会丢失上下文", "过小的分段则会丢失上下文");
+
+    private static final String OTHER = "Spring Boot 应用启动时会扫描配置类并创建Bean，条件注解决定某个自动配置是否生效，"
+            + "属性绑定把application.yml中的配置映射到带有@ConfigurationProperties注解的类上，日志系统默认使用Logback。"
+            + "开发者可以通过Actuator端点查看应用健康状况、指标和环境信息，也可以自定义端点暴露业务状态。";
+
+    @Test
+    void testNearDuplicateIsReportedWithOriginalSource() {
+        NearDuplicateDetector detector = new NearDuplicateDetector(0.95, 50);
+
+        assertNull(detector.checkAndRegister("a.md", BASE));
+        assertEquals("a.md", detector.checkAndRegister("b.md", NEAR));
+        assertEquals("a.md", detector.checkAndRegister("c.md", "  " + BASE.replace("The pipeline", "The   pipeline\n")),
+                "Whitespace differences should not affect the signature");
+        assertNull(detector.checkAndRegister("d.md", OTHER));
+        assertEquals(2, detector.size(), "Duplicates should not be registered");
+    }
+
+    @Test
+    void testSimilarityOfUnrelatedTextIsLow() {
+        long base = NearDuplicateDetector.simHash(BASE);
+        assertTrue(NearDuplicateDetector.similarity(base, NearDuplicateDetector.simHash(NEAR)) >= 0.95);
+        assertTrue(NearDuplicateDetector.similarity(base, NearDuplicateDetector.simHash(OTHER)) < 0.8);
+    }
+
+    @Test
+    void testReleasedSourceNoLongerSuppresses() {
+        NearDuplicateDetector detector = new NearDuplicateDetector(0.95, 50);
+        detector.checkAndRegister("a.md", BASE);
+
+        detector.release("a.md");
+
+        assertEquals(0, detector.size());
+        assertNull(detector.checkAndRegister("b.md", NEAR));
+    }
+
+    @Test
+    void testShortTextIsNeverSuppressed() {
+        NearDuplicateDetector detector = new NearDuplicateDetector(0.95, 50);
+        assertNull(detector.checkAndRegister("a.md", "参见附录"));
+        assertNull(detector.checkAndRegister("b.md", "参见附录"));
+        assertEquals(0, detector.size());
+    }
+
+    @Test
+    void testIngestorDropsDuplicateSegmentsBeforeEmbedding() throws Exception {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embedAll(anyList())).thenAnswer(invocation -> {
+            List<TextSegment> segments = invocation.getArgument(0);
+            List<Embedding> embeddings = new ArrayList<>();
+            segments.forEach(segment -> embeddings.add(Embedding.from(new float[]{segment.text().length(), 1f})));
+            return Response.from(embeddings);
+        });
+        try (DocumentIngestor ingestor = new DocumentIngestor(new DocumentByParagraphSplitter(250, 0), null,
+                embeddingModel, new InMemoryEmbeddingStore<>(),
+                new DocumentIngestor.IngestionPipelineSettings(10, 8192, 20, 16, 1, 1),
+                new NearDuplicateDetector(0.95, 50))) {
+            IngestionTicket first = ingestor.open("a.md");
+            first.submit(Document.from(BASE, Metadata.from(Document.FILE_NAME, "a.md")));
+            assertEquals(1, first.seal().get(5, TimeUnit.SECONDS).size());
+
+            IngestionTicket second = ingestor.open("b.md");
+            second.submit(Document.from(NEAR + "\n\n" + OTHER, Metadata.from(Document.FILE_NAME, "b.md")));
+            assertEquals(1, second.seal().get(5, TimeUnit.SECONDS).size());
+            assertEquals(1, second.suppressedSegments());
+            assertEquals(List.of("a.md"), second.duplicateSources());
+            assertEquals(1, ingestor.suppressedSegments());
+
+            // 重新摄取a.md时先释放旧签名,不会被自身上一版本判定为重复
+            IngestionTicket again = ingestor.open("a.md");
+            again.submit(Document.from(BASE, Metadata.from(Document.FILE_NAME, "a.md")));
+            assertEquals(1, again.seal().get(5, TimeUnit.SECONDS).size());
+        }
+    }
+}
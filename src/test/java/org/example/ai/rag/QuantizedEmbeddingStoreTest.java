@@ -0,0 +1,132 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.MetadataFilterBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantizedEmbeddingStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRecallAgainstBruteForce() {
+        Random random = new Random(42);
+        QuantizedEmbeddingStore quantized = new QuantizedEmbeddingStore(4);
+        MappedEmbeddingStore exact = new MappedEmbeddingStore();
+        for (int i = 0; i < 3000; i++) {
+            Embedding embedding = HnswEmbeddingStoreTest.randomEmbedding(random);
+            quantized.addAll(List.of("id-" + i), List.of(embedding), null);
+            exact.addAll(List.of("id-" + i), List.of(embedding), null);
+        }
+        // 没有原始向量时用非对称点积重排
+        assertTrue(HnswEmbeddingStoreTest.recall(quantized, exact, new Random(7), 100) >= 0.98);
+    }
+
+    @Test
+    void testTextAndMetadataAreCompressedLosslessly() {
+        String text = "文档：HashMap.md\n类型：md\n内容：" + "HashMap 在容量超过阈值时扩容为原来的两倍,并重新分配桶中的节点。".repeat(10);
+        TextSegment segment = TextSegment.from(text, Metadata.from(Map.of("file_name", "HashMap.md",
+                "index", "3", "segment_offset", 1200L, "weight", 0.5d)));
+        byte[] record = SegmentCodec.compress(segment);
+        assertTrue(record.length < text.length());
+        assertEquals(segment, SegmentCodec.decompress(record));
+
+        // 过短无法压缩的文本原样保存
+        TextSegment tiny = TextSegment.from("a");
+        assertEquals(tiny, SegmentCodec.decompress(SegmentCodec.compress(tiny)));
+
+        QuantizedEmbeddingStore store = new QuantizedEmbeddingStore(4);
+        store.add(Embedding.from(new float[]{1, 0, 0, 0}), segment);
+        store.add(Embedding.from(new float[]{0.9f, 0.1f, 0, 0}), TextSegment.from("ConcurrentHashMap",
+                Metadata.from("file_name", "b.md")));
+        List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(Embedding.from(new float[]{1, 0, 0, 0}))
+                .maxResults(5)
+                .filter(MetadataFilterBuilder.metadataKey("file_name").isEqualTo("b.md"))
+                .build()).matches();
+        assertEquals(1, matches.size());
+        assertEquals("ConcurrentHashMap", matches.get(0).embedded().text());
+    }
+
+    @Test
+    void testRemovedSlotsAreReused() {
+        QuantizedEmbeddingStore store = new QuantizedEmbeddingStore(2);
+        store.addAll(List.of("a", "b"), List.of(Embedding.from(new float[]{1, 0}), Embedding.from(new float[]{0, 1})),
+                List.of(TextSegment.from("a"), TextSegment.from("b")));
+        store.removeAll(List.of("a"));
+        store.addAll(List.of("c"), List.of(Embedding.from(new float[]{1, 0.1f})), List.of(TextSegment.from("c")));
+        assertEquals(2, store.size());
+        List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(Embedding.from(new float[]{1, 0}))
+                .maxResults(5)
+                .build()).matches();
+        assertEquals(List.of("c", "b"), matches.stream().map(EmbeddingMatch::embeddingId).toList());
+        assertEquals("c", matches.get(0).embedded().text());
+
+        store.removeAll(MetadataFilterBuilder.metadataKey("file_name").isEqualTo("none"));
+        assertEquals(2, store.size());
+        store.removeAll();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testSnapshotReleasesHeapAndRerankIsExact() throws Exception {
+        Random random = new Random(9);
+        int dimension = 256;
+        Path snapshotPath = tempDir.resolve("vectors.bin");
+        QuantizedEmbeddingStore store = new QuantizedEmbeddingStore(4);
+        store.enableSnapshots(snapshotPath, "model", List::of, Duration.ofHours(1));
+        MappedEmbeddingStore exact = new MappedEmbeddingStore();
+        List<Embedding> queries = new ArrayList<>();
+        // float[]和String文本保存在堆内时的占用
+        long plainBytes = 0;
+        for (int i = 0; i < 1000; i++) {
+            float[] vector = new float[dimension];
+            for (int d = 0; d < dimension; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+            TextSegment segment = TextSegment.from("分段 " + i + " 的内容".repeat(50), Metadata.from("file_name", i + ".md"));
+            store.addAll(List.of("id-" + i), List.of(Embedding.from(vector)), List.of(segment));
+            exact.addAll(List.of("id-" + i), List.of(Embedding.from(vector)), List.of(segment));
+            plainBytes += 16 + dimension * Float.BYTES + 40 + 2L * segment.text().length();
+            if (i % 50 == 0) {
+                queries.add(Embedding.from(vector));
+            }
+        }
+        long beforeSave = store.heapBytes();
+        assertTrue(store.saveSnapshot());
+        long afterSave = store.heapBytes();
+        // 写入快照后堆内只剩量化码
+        assertTrue(afterSave * 4 <= plainBytes, "heap bytes: " + afterSave + " / " + plainBytes);
+        assertTrue(afterSave < beforeSave);
+        store.close();
+
+        QuantizedEmbeddingStore restored = new QuantizedEmbeddingStore(4);
+        restored.load(VectorStoreSnapshot.open(snapshotPath));
+        for (Embedding query : queries) {
+            EmbeddingSearchRequest request = EmbeddingSearchRequest.builder().queryEmbedding(query).maxResults(10).build();
+            List<EmbeddingMatch<TextSegment>> expected = exact.search(request).matches();
+            List<EmbeddingMatch<TextSegment>> actual = restored.search(request).matches();
+            assertEquals(expected.get(0).embeddingId(), actual.get(0).embeddingId());
+            // 重排使用快照中的原始向量,分数与精确检索一致
+            assertEquals(expected.get(0).score(), actual.get(0).score(), 1e-6);
+            assertEquals(expected.get(0).embedded(), actual.get(0).embedded());
+            assertArrayEquals(expected.get(0).embedding().vector(), actual.get(0).embedding().vector());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QwenTokenizerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private QwenTokenizer tokenizer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // 256个单字节token,加上ab、abc和"中"的合并
+        List<String> lines = new ArrayList<>();
+        for (int b = 0; b < 256; b++) {
+            lines.add(line(new byte[]{(byte) b}, b));
+        }
+        lines.add(line("ab".getBytes(StandardCharsets.UTF_8), 256));
+        lines.add(line("abc".getBytes(StandardCharsets.UTF_8), 257));
+        byte[] zhong = "中".getBytes(StandardCharsets.UTF_8);
+        lines.add(line(new byte[]{zhong[0], zhong[1]}, 258));
+        lines.add(line(zhong, 259));
+        Path vocabulary = tempDir.resolve("qwen.tiktoken");
+        Files.write(vocabulary, lines);
+        tokenizer = QwenTokenizer.load(vocabulary.toString());
+    }
+
+    @Test
+    void testBytePairMergeFollowsRanks() {
+        assertTrue(tokenizer.isExact());
+        assertEquals(1, tokenizer.countTokens("abc"));
+        assertEquals(2, tokenizer.countTokens("abd"));
+        assertEquals(2, tokenizer.countTokens("cab"));
+        // 预分词为"abc"和" abc",后者合并为" "和"abc"
+        assertEquals(3, tokenizer.countTokens("abc abc"));
+        assertEquals(1, tokenizer.countTokens("中"));
+        // 没有合并规则的汉字按UTF-8字节计数
+        assertEquals(3, tokenizer.countTokens("文"));
+        assertEquals(0, tokenizer.countTokens(""));
+        assertEquals(5 + 1, tokenizer.estimateTokenCountInMessage(UserMessage.from("abc")));
+    }
+
+    @Test
+    void testHeuristicFallsBackToEstimator() {
+        QwenTokenizer heuristic = QwenTokenizer.heuristic();
+        assertFalse(heuristic.isExact());
+        assertEquals(TokenEstimator.estimate("HashMap 扩容机制"), heuristic.countTokens("HashMap 扩容机制"));
+    }
+
+    @Test
+    void testParagraphsArePackedUpToTokenTarget() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append("abc abc abc abc 中中 paragraph ").append(i).append("\n\n");
+        }
+        int target = 60;
+        List<TextSegment> segments = new DocumentByParagraphSplitter(target, 0, tokenizer)
+                .split(Document.from(text.toString()));
+
+        assertTrue(segments.size() < 40, "Short paragraphs should be packed together");
+        for (TextSegment segment : segments) {
+            assertTrue(tokenizer.countTokens(segment.text()) <= target, segment.text());
+        }
+    }
+
+    private static String line(byte[] token, int rank) {
+        return Base64.getEncoder().encodeToString(token) + " " + rank;
+    }
+}
@@ -0,0 +1,171 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitedEmbeddingModelTest {
+
+    /**
+     * 前若干次调用返回限流错误的向量模型
+     */
+    private static class ThrottlingEmbeddingModel implements EmbeddingModel {
+        final AtomicInteger calls = new AtomicInteger();
+        final int throttledCalls;
+
+        ThrottlingEmbeddingModel(int throttledCalls) {
+            this.throttledCalls = throttledCalls;
+        }
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            if (calls.incrementAndGet() <= throttledCalls) {
+                throw new RuntimeException("embedding failed",
+                        new RateLimitException("Throttling.RateQuota: Requests rate limit exceeded"));
+            }
+            return Response.from(textSegments.stream()
+                    .map(segment -> Embedding.from(new float[]{segment.text().length(), 1f}))
+                    .toList());
+        }
+    }
+
+    @Test
+    void testThrottledRequestIsRetriedAndHalvesConcurrency() {
+        ThrottlingEmbeddingModel delegate = new ThrottlingEmbeddingModel(2);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16, 2.0);
+        RateLimitedEmbeddingModel model = new RateLimitedEmbeddingModel(delegate, limiter, 0, 0, 3, 1);
+
+        List<Embedding> embeddings = model.embedAll(List.of(TextSegment.from("abc"))).content();
+
+        assertEquals(1, embeddings.size());
+        assertEquals(3, delegate.calls.get());
+        assertEquals(2, model.throttledRequests());
+        assertTrue(limiter.currentLimit() <= 2, "Each 429 should halve the limit");
+        assertEquals(0, limiter.inFlight(), "Permits should be returned after every attempt");
+    }
+
+    @Test
+    void testThrottlingBeyondRetriesIsPropagated() {
+        ThrottlingEmbeddingModel delegate = new ThrottlingEmbeddingModel(10);
+        RateLimitedEmbeddingModel model = new RateLimitedEmbeddingModel(delegate,
+                new AdaptiveConcurrencyLimiter(4, 1, 4, 2.0), 0, 0, 2, 1);
+
+        assertThrows(RuntimeException.class, () -> model.embedAll(List.of(TextSegment.from("abc"))));
+        assertEquals(3, delegate.calls.get());
+    }
+
+    @Test
+    void testOtherErrorsAreNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        EmbeddingModel failing = new EmbeddingModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+                calls.incrementAndGet();
+                throw new IllegalArgumentException("invalid input");
+            }
+        };
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, 2.0);
+        RateLimitedEmbeddingModel model = new RateLimitedEmbeddingModel(failing, limiter, 0, 0, 3, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> model.embedAll(List.of(TextSegment.from("abc"))));
+        assertEquals(1, calls.get());
+        assertEquals(4, limiter.currentLimit());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void testLimitGrowsWhileLatencyIsStableAndShrinksWhenItRises() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 64, 2.0);
+        for (int i = 0; i < 50; i++) {
+            // 并发用满才允许增长
+            int limit = limiter.currentLimit();
+            for (int j = 0; j < limit; j++) {
+                limiter.acquire();
+            }
+            for (int j = 0; j < limit; j++) {
+                limiter.onSuccess(100);
+            }
+        }
+        int grown = limiter.currentLimit();
+        assertTrue(grown > 4, "Stable latency should raise the limit, was " + grown);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.onSuccess(1000);
+        }
+        assertTrue(limiter.currentLimit() < grown, "Rising latency should lower the limit");
+    }
+
+    @Test
+    void testLimitDoesNotGrowWhenUnderused() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 64, 2.0);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.onSuccess(100);
+        }
+        assertEquals(8, limiter.currentLimit());
+    }
+
+    @Test
+    void testAcquireBlocksAtLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.fixed(1);
+        limiter.acquire();
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThrows(Exception.class, () -> waiting.get(100, TimeUnit.MILLISECONDS));
+
+        limiter.onFailure();
+        waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    void testTokenBucketAllowsBurstThenPacesAndCarriesDebt() {
+        AtomicLong now = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(10, now::get);
+
+        assertEquals(0, bucket.reserve(10), "A full second of permits is available after idle");
+        assertWaits(100, bucket.reserve(1));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        // 超过容量的申请立即记账,欠账由申请者和之后的申请者等待偿还
+        assertWaits(2000, bucket.reserve(20));
+        assertWaits(2100, bucket.reserve(1));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, bucket.reserve(10), "Idle time refills at most to capacity");
+        assertTrue(bucket.reserve(1) > 0);
+    }
+
+    private static void assertWaits(long expectedMillis, long waitNanos) {
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(expectedMillis), waitNanos, TimeUnit.MICROSECONDS.toNanos(1));
+    }
+
+    @Test
+    void testThrottleDetection() {
+        assertTrue(RateLimitedEmbeddingModel.isThrottled(new RuntimeException("wrapper",
+                new HttpException(429, "Too Many Requests"))));
+        assertTrue(RateLimitedEmbeddingModel.isThrottled(new RateLimitException("Throttling.AllocationQuota")));
+        assertFalse(RateLimitedEmbeddingModel.isThrottled(new HttpException(500, "Internal Server Error")));
+        assertFalse(RateLimitedEmbeddingModel.isThrottled(new RuntimeException("InvalidParameter")));
+        assertFalse(RateLimitedEmbeddingModel.isThrottled(new IllegalStateException("document 429.pdf is empty")),
+                "Message text alone must not be treated as throttling");
+    }
+}
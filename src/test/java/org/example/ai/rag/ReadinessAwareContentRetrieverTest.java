@@ -0,0 +1,50 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReadinessAwareContentRetrieverTest {
+
+    @Test
+    void testQueriesSkipRetrievalUntilIndexIsReady() {
+        ContentRetriever delegate = mock(ContentRetriever.class);
+        when(delegate.retrieve(any())).thenReturn(List.of(Content.from("HashMap 扩容")));
+        RagReadiness readiness = new RagReadiness();
+        readiness.warming("job-1");
+        ReadinessAwareContentRetriever retriever = new ReadinessAwareContentRetriever(delegate, readiness);
+
+        // 预热期间不检索,也不调用下游(不产生查询向量化)
+        assertTrue(retriever.retrieve(Query.from("HashMap 面试题")).isEmpty());
+        verify(delegate, never()).retrieve(any());
+
+        readiness.markReady("启动摄取任务 job-1 结束");
+        assertEquals(List.of(Content.from("HashMap 扩容")), retriever.retrieve(Query.from("HashMap 面试题")));
+        verify(delegate, times(1)).retrieve(any());
+    }
+
+    @Test
+    void testReadinessIsNotRevokedOnceReady() {
+        ContentRetriever delegate = mock(ContentRetriever.class);
+        when(delegate.retrieve(any())).thenReturn(List.of(Content.from("Redis 分布式锁")));
+        RagReadiness readiness = new RagReadiness();
+        ReadinessAwareContentRetriever retriever = new ReadinessAwareContentRetriever(delegate, readiness);
+
+        readiness.markReady("向量存储中已有上次摄取的文档");
+        long readySince = readiness.readySince();
+        // 之后的重新加载重新登记任务、再次标记就绪,都不影响检索
+        readiness.warming("job-2");
+        readiness.markReady("启动摄取任务 job-2 结束");
+
+        assertEquals(RagReadiness.State.READY, readiness.state());
+        assertEquals(readySince, readiness.readySince());
+        assertEquals(1, retriever.retrieve(Query.from("Redis 锁")).size());
+    }
+}
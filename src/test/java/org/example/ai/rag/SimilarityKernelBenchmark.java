@@ -0,0 +1,110 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 暴力检索的点积耗时(JMH): 单累加器循环与四路展开内核对比,以及完整检索.
+ * 不属于单元测试,在test classpath上手动运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimilarityKernelBenchmark {
+
+    @Param({"5000", "20000"})
+    int count;
+
+    @Param({"1024", "1536"})
+    int dimension;
+
+    private float[] vectors;
+    private float[] query;
+    private float[] out;
+    private SimilarityKernel kernel;
+    private MappedEmbeddingStore store;
+    private EmbeddingSearchRequest request;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        vectors = new float[count * dimension];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = (float) random.nextGaussian();
+        }
+        query = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            query[i] = (float) random.nextGaussian();
+        }
+        out = new float[count];
+        kernel = SimilarityKernel.get();
+
+        store = new MappedEmbeddingStore(kernel);
+        List<String> ids = new ArrayList<>(count);
+        List<Embedding> embeddings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add("id-" + i);
+            float[] vector = new float[dimension];
+            System.arraycopy(vectors, i * dimension, vector, 0, dimension);
+            embeddings.add(Embedding.from(vector));
+        }
+        store.addAll(ids, embeddings, null);
+        request = EmbeddingSearchRequest.builder().queryEmbedding(Embedding.from(query)).maxResults(10).build();
+    }
+
+    /**
+     * 单累加器的朴素循环,作为对照
+     */
+    @Benchmark
+    public float[] plainDots() {
+        for (int i = 0; i < count; i++) {
+            int offset = i * dimension;
+            float sum = 0;
+            for (int j = 0; j < dimension; j++) {
+                sum += query[j] * vectors[offset + j];
+            }
+            out[i] = sum;
+        }
+        return out;
+    }
+
+    @Benchmark
+    public float[] kernelDots() {
+        kernel.dots(query, vectors, 0, count, dimension, out);
+        return out;
+    }
+
+    /**
+     * 完整检索: 点积、最小堆取前10、构建结果
+     */
+    @Benchmark
+    public Object search() {
+        return store.search(request);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SimilarityKernelBenchmark.class.getSimpleName()).build()).run();
+    }
+}
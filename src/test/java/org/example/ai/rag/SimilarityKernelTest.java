@@ -0,0 +1,47 @@
+package org.example.ai.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimilarityKernelTest {
+
+    @Test
+    void testUnrolledKernelMatchesPlainLoopForAllLengths() {
+        // 覆盖展开主循环和各种长度的尾部
+        SimilarityKernel kernel = SimilarityKernel.get();
+        Random random = new Random(1);
+        for (int length = 0; length <= 70; length++) {
+            float[] a = randomVector(random, length + 5);
+            float[] b = randomVector(random, length);
+            double expected = 0;
+            for (int i = 0; i < length; i++) {
+                expected += a[i + 5] * b[i];
+            }
+            assertEquals(expected, kernel.dot(a, 5, b, 0, length), 1e-4);
+        }
+    }
+
+    @Test
+    void testDotsScoresConsecutiveVectors() {
+        Random random = new Random(2);
+        int dimension = 37;
+        float[] query = randomVector(random, dimension);
+        float[] vectors = randomVector(random, dimension * 11);
+        float[] out = new float[10];
+        SimilarityKernel.get().dots(query, vectors, dimension, 10, dimension, out);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(SimilarityKernel.scalar().dot(query, 0, vectors, (i + 1) * dimension, dimension), out[i], 1e-4);
+        }
+    }
+
+    private static float[] randomVector(Random random, int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
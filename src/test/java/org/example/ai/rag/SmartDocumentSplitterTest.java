@@ -0,0 +1,59 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmartDocumentSplitterTest {
+
+    @Test
+    void testViewsCutAtParagraphBoundariesWithOverlap() {
+        SmartDocumentSplitter splitter = new SmartDocumentSplitter(100, 100, 100, 0, Integer.MAX_VALUE, 30);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            builder.append("段落").append(i).append(": ConcurrentHashMap 使用 CAS 和 synchronized。\n\n");
+        }
+        String text = builder.toString();
+        Document document = Document.from(text, Metadata.from(Document.FILE_NAME, "a.md"));
+
+        List<SegmentView> views = new ArrayList<>();
+        splitter.views(document).forEachRemaining(views::add);
+        List<TextSegment> segments = splitter.split(document);
+
+        assertTrue(views.size() > 1);
+        assertEquals(segments.size(), views.size());
+        for (int i = 0; i < views.size(); i++) {
+            SegmentView view = views.get(i);
+            assertTrue(view.length() <= 100);
+            // 视图就是原文的一段
+            assertEquals(text.substring(view.start(), view.start() + view.length()), view.toString());
+            assertEquals(segments.get(i).text(), view.toString());
+            assertEquals(String.valueOf(i), view.metadata().getString("index"));
+            assertEquals("a.md", view.metadata().getString(Document.FILE_NAME));
+        }
+        for (int i = 1; i < views.size(); i++) {
+            SegmentView previous = views.get(i - 1);
+            assertTrue(views.get(i).start() < previous.start() + previous.length(), "Adjacent segments should overlap");
+        }
+    }
+
+    @Test
+    void testViewsAreProducedOnDemand() {
+        SmartDocumentSplitter splitter = new SmartDocumentSplitter(800, 600, 400, 1500, 8000, 100);
+        String text = "Java 虚拟机在类加载时完成验证、准备和解析。\n".repeat(200_000);
+        Iterator<SegmentView> views = splitter.views(Document.from(text));
+
+        SegmentView first = views.next();
+        assertEquals(0, first.start());
+        assertTrue(first.length() <= 400, "Large documents should use the large-document segment size");
+        assertTrue(views.hasNext());
+        assertTrue(views.next().start() > 0);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingTextSplitterTest {
+
+    @Test
+    void testParagraphsAreNotBrokenAcrossReadBuffers() throws IOException, InterruptedException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("第").append(i).append("段：HashMap 的扩容机制与负载因子。\n\n");
+        }
+        List<TextSegment> segments = new ArrayList<>();
+        // 读缓冲区远小于文本长度,段落会跨越缓冲区边界
+        StreamingTextSplitter splitter = new StreamingTextSplitter(120, 0, 1024);
+        long count = splitter.split(new StringReader(text.toString()), Metadata.from("file_name", "big.md"), segments::add);
+
+        assertEquals(segments.size(), count);
+        for (TextSegment segment : segments) {
+            assertTrue(segment.text().length() <= 120);
+            assertTrue(segment.text().endsWith("。"), "Segment should end at a paragraph boundary: " + segment.text());
+            assertEquals("big.md", segment.metadata().getString("file_name"));
+        }
+        String joined = String.join("\n\n", segments.stream().map(TextSegment::text).toList());
+        assertEquals(text.toString().strip(), joined);
+    }
+
+    @Test
+    void testOverlapIsCarriedIntoNextSegment() throws IOException, InterruptedException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("word").append(i).append(' ');
+        }
+        List<TextSegment> segments = new ArrayList<>();
+        StreamingTextSplitter splitter = new StreamingTextSplitter(100, 30, 1024);
+        splitter.split(new StringReader(text.toString()), new Metadata(), segments::add);
+
+        assertTrue(segments.size() > 1);
+        for (int i = 1; i < segments.size(); i++) {
+            String previous = segments.get(i - 1).text();
+            String firstWord = segments.get(i).text().split(" ")[0];
+            assertTrue(previous.contains(firstWord), "Next segment should start inside the previous one's tail");
+            long offset = segments.get(i).metadata().getLong("segment_offset");
+            assertTrue(text.substring((int) offset).strip().startsWith(segments.get(i).text()));
+        }
+    }
+
+    @Test
+    void testResumingFromRecordedStateProducesIdenticalSegments() throws IOException, InterruptedException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append("第").append(i).append("段：ConcurrentHashMap 在扩容时 ").append("分段迁移".repeat(i % 7))
+                    .append(i % 3 == 0 ? "。\n\n" : "，");
+        }
+        StreamingTextSplitter splitter = new StreamingTextSplitter(120, 30, 1024);
+        List<TextSegment> expected = new ArrayList<>();
+        List<StreamingTextSplitter.SplitState> states = new ArrayList<>();
+        splitter.split(chunks(text.toString(), 1024), new Metadata(), expected::add,
+                StreamingTextSplitter.SplitState.START, states::add);
+        assertTrue(states.size() > 3);
+
+        // 从中间某个文本块之后的状态继续,剩余文本从该状态已读取的位置开始
+        StreamingTextSplitter.SplitState state = states.get(states.size() / 2);
+        int consumed = (int) state.charOffset() + state.pending().length();
+        List<TextSegment> resumed = new ArrayList<>();
+        long total = splitter.split(chunks(text.substring(consumed), 700), new Metadata(), resumed::add, state, null);
+
+        assertEquals(expected.size(), total);
+        List<TextSegment> tail = expected.subList((int) state.nextIndex(), expected.size());
+        assertEquals(tail.stream().map(TextSegment::text).toList(), resumed.stream().map(TextSegment::text).toList());
+        assertEquals(tail.stream().map(segment -> segment.metadata().getLong("segment_offset")).toList(),
+                resumed.stream().map(segment -> segment.metadata().getLong("segment_offset")).toList());
+        assertEquals(tail.get(0).metadata().getString("index"), resumed.get(0).metadata().getString("index"));
+    }
+
+    private static StreamingTextSplitter.TextChunkSource chunks(String text, int size) {
+        int[] position = {0};
+        return () -> {
+            if (position[0] >= text.length()) {
+                return null;
+            }
+            int end = Math.min(text.length(), position[0] + size);
+            CharBuffer chunk = CharBuffer.wrap(text, position[0], end);
+            position[0] = end;
+            return chunk;
+        };
+    }
+}